@@ -0,0 +1,35 @@
+package org.cobbzilla.wizard.benchmark;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.cobbzilla.wizard.model.IdentifiableBase;
+
+import java.util.*;
+
+/** A typical small entity: a few scalar fields, a list and a map. */
+@Accessors(chain=true)
+public class BenchEntity extends IdentifiableBase {
+
+    @Getter @Setter private String name;
+    @Getter @Setter private String email;
+    @Getter @Setter private Long quota;
+    @Getter @Setter private boolean active;
+    @Getter @Setter private Date lastLogin;
+    @Getter @Setter private List<String> roles = new ArrayList<>();
+    @Getter @Setter private Map<String, String> settings = new HashMap<>();
+
+    public static BenchEntity create(int i) {
+        final BenchEntity e = new BenchEntity()
+                .setName("user"+i)
+                .setEmail("user"+i+"@example.com")
+                .setQuota(1000L * i)
+                .setActive(i % 2 == 0)
+                .setLastLogin(new Date());
+        e.setUuid(UUID.randomUUID().toString());
+        e.getRoles().addAll(Arrays.asList("reader", "writer", "role"+(i % 5)));
+        for (int j=0; j<5; j++) e.getSettings().put("setting"+j, "value"+i+"."+j);
+        return e;
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.cobbzilla.wizard.benchmark;
+
+import org.cobbzilla.wizard.dao.DAOObjectCache;
+import org.cobbzilla.wizard.dao.ReadOnlySnapshot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.reflect.ReflectionUtil.mirror;
+
+/**
+ * Latency of an AbstractCRUDDAO.cacheLookup hit: the default mirror() copy on every hit, against the shared
+ * ReadOnlySnapshot of cacheReadOnlySnapshots(). Each hit reads every getter of the result, as a caller serializing
+ * it would. Needs nothing running. Run with -prof gc to compare allocation rates:
+ *
+ *     java -jar wizard-benchmarks/target/benchmarks.jar CacheHitBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1) @Measurement(iterations=5, time=1) @Fork(1)
+public class CacheHitBenchmark {
+
+    public static final String KEY = "key";
+
+    @Param({"mirror", "snapshot"}) public String mode;
+
+    // 1 caches a single entity, more caches a list, like a findByField lookup
+    @Param({"1", "50"}) public int size;
+
+    private DAOObjectCache cache;
+    private boolean snapshot;
+
+    @Setup public void setup () {
+        cache = new DAOObjectCache(10_000, TimeUnit.HOURS.toMillis(1));
+        snapshot = mode.equals("snapshot");
+        final Object value;
+        if (size == 1) {
+            value = BenchEntity.create(0);
+        } else {
+            final List<BenchEntity> list = new ArrayList<>(size);
+            for (int i=0; i<size; i++) list.add(BenchEntity.create(i));
+            value = list;
+        }
+        // fill the cache the way cacheLookup does
+        cache.get(KEY, a -> snapshot ? ReadOnlySnapshot.freeze(value) : value, null, thing -> DAOObjectCache.defaultTags("", thing));
+    }
+
+    @Benchmark public void hit (Blackhole bh) {
+        final Object cached = cache.get(KEY, a -> null, null, thing -> DAOObjectCache.defaultTags("", thing));
+        final Object result = snapshot ? cached : cacheCopy(cached);
+        if (result instanceof Collection) {
+            for (Object o : (Collection) result) read((BenchEntity) o, bh);
+        } else {
+            read((BenchEntity) result, bh);
+        }
+    }
+
+    private static void read(BenchEntity e, Blackhole bh) {
+        bh.consume(e.getUuid());
+        bh.consume(e.getName());
+        bh.consume(e.getEmail());
+        bh.consume(e.getQuota());
+        bh.consume(e.isActive());
+        bh.consume(e.getLastLogin());
+        for (String role : e.getRoles()) bh.consume(role);
+        bh.consume(e.getSettings().get("setting1"));
+    }
+
+    // what AbstractCRUDDAO.cacheCopy does on a hit when snapshots are off
+    private static Object cacheCopy(Object thing) {
+        if (thing instanceof Collection) {
+            final List<Object> copy = new ArrayList<>(((Collection) thing).size());
+            for (Object o : (Collection) thing) copy.add(mirror(o));
+            return copy;
+        }
+        return mirror(thing);
+    }
+
+}
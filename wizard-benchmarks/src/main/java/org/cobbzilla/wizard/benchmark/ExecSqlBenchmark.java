@@ -0,0 +1,69 @@
+package org.cobbzilla.wizard.benchmark;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.cobbzilla.util.jdbc.ResultSetBean;
+import org.cobbzilla.wizard.server.config.DatabaseConfiguration;
+import org.cobbzilla.wizard.server.config.PgRestServerConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of hot admin queries through PgRestServerConfiguration.execSql:
+ * <ul>
+ *     <li>connect: a new JDBC connection per call, the default (execSqlFromPool off)</li>
+ *     <li>pool: execSqlFromPool on, with no statement cache</li>
+ *     <li>statements: execSqlFromPool on, with the c3p0 statement cache (maxStatements)</li>
+ * </ul>
+ * Needs a PostgreSQL server: -Djdbc.url (default jdbc:postgresql://127.0.0.1:5432/postgres), -Djdbc.user
+ * (default postgres) and -Djdbc.password.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2) @Measurement(iterations=5, time=2) @Fork(1)
+public class ExecSqlBenchmark {
+
+    public static final String TABLES_SQL = "SELECT tablename FROM pg_tables WHERE schemaname = ?";
+    public static final String COUNT_SQL = "SELECT count(*) FROM pg_class WHERE relkind = ? AND relpages >= ?";
+
+    @Param({"connect", "pool", "statements"}) public String mode;
+
+    private PgRestServerConfiguration configuration;
+    private ComboPooledDataSource dataSource;
+
+    @Setup public void setup () throws Exception {
+        final DatabaseConfiguration database = new DatabaseConfiguration();
+        database.setDriver("org.postgresql.Driver");
+        database.setUrl(System.getProperty("jdbc.url", "jdbc:postgresql://127.0.0.1:5432/postgres"));
+        database.setUser(System.getProperty("jdbc.user", "postgres"));
+        database.setPassword(System.getProperty("jdbc.password", ""));
+        Class.forName(database.getDriver());
+
+        if (!mode.equals("connect")) {
+            // as RdbmsConfigCommon.dataSource sets it up
+            dataSource = new ComboPooledDataSource();
+            dataSource.setDriverClass(database.getDriver());
+            dataSource.setJdbcUrl(database.getUrl());
+            dataSource.setUser(database.getUser());
+            dataSource.setPassword(database.getPassword());
+            dataSource.setInitialPoolSize(2);
+            dataSource.setMinPoolSize(2);
+            dataSource.setMaxPoolSize(4);
+            if (mode.equals("statements")) {
+                dataSource.setMaxStatements(200);
+                dataSource.setMaxStatementsPerConnection(50);
+            }
+            database.setPooledDataSource(dataSource);
+        }
+
+        configuration = new PgRestServerConfiguration();
+        configuration.setDatabase(database);
+    }
+
+    @TearDown public void tearDown () { if (dataSource != null) dataSource.close(); }
+
+    @Benchmark public ResultSetBean tables () { return configuration.execSql(TABLES_SQL, new Object[] {"public"}); }
+
+    @Benchmark public ResultSetBean count () { return configuration.execSql(COUNT_SQL, new Object[] {"r", 0}); }
+
+}
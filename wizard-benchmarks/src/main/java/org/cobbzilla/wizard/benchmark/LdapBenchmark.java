@@ -0,0 +1,122 @@
+package org.cobbzilla.wizard.benchmark;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import org.cobbzilla.wizard.ldap.LdapService;
+import org.cobbzilla.wizard.ldap.LdapServiceBase;
+import org.cobbzilla.wizard.ldap.NativeLdapServiceBase;
+import org.cobbzilla.wizard.model.search.SearchQuery;
+import org.cobbzilla.wizard.server.config.LdapConfiguration;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Throughput of the LDAP calls AbstractLdapDAO makes most, from 4 threads, with the forking LdapServiceBase
+ * (ldapsearch and friends) and the pooled NativeLdapServiceBase:
+ * <ul>
+ *     <li>auth: a search bound as the user, as authenticate does</li>
+ *     <li>findByName: a search by name as the admin, then a read of the entry's DN</li>
+ * </ul>
+ * Both call the LdapService methods and get LDIF text back. AbstractLdapDAO maps the entries of a native service
+ * without LDIF, so native is a little faster in the DAO than here.
+ *
+ * Runs against an in-memory directory server with 100 users. The fork implementation needs the OpenLDAP client
+ * tools (ldapsearch, ldapadd) on the PATH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2) @Measurement(iterations=5, time=2) @Fork(1) @Threads(4)
+public class LdapBenchmark {
+
+    public static final String BASE_DN = "dc=example,dc=com";
+    public static final String ADMIN_DN = "cn=Directory Manager";
+    public static final String ADMIN_PASSWORD = "admin-password";
+    public static final String USER_PASSWORD = "user-password";
+    public static final int USERS = 100;
+
+    @Param({"fork", "native"}) public String impl;
+
+    private InMemoryDirectoryServer server;
+    private LdapConfiguration config;
+    private LdapService ldap;
+
+    @Setup public void setup () throws Exception {
+        final InMemoryDirectoryServerConfig serverConfig = new InMemoryDirectoryServerConfig(BASE_DN);
+        serverConfig.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+        serverConfig.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        server = new InMemoryDirectoryServer(serverConfig);
+        server.startListening();
+
+        config = new LdapConfiguration();
+        config.setJson("{\"server\": \"ldap://127.0.0.1:"+server.getListenPort()+"\", "
+                + "\"domain\": \"example.com\", \"admin_dn\": \""+ADMIN_DN+"\", \"pool_size\": \"8\"}");
+        config.setPassword(ADMIN_PASSWORD);
+
+        switch (impl) {
+            case "fork":   ldap = new ForkingLdapService(config); break;
+            case "native": ldap = new PooledLdapService(config); break;
+            default: die("setup: invalid impl: "+impl);
+        }
+
+        // loaded through the native service, so a missing ldapadd does not stop the setup
+        final StringBuilder ldif = new StringBuilder()
+                .append("dn: ").append(BASE_DN).append("\nobjectClass: top\nobjectClass: domain\ndc: example\n\n")
+                .append("dn: ").append(config.getUser_dn()).append("\nobjectClass: top\nobjectClass: organizationalUnit\nou: ").append(config.getUsers()).append("\n");
+        for (int i=0; i<USERS; i++) {
+            ldif.append("\ndn: ").append(config.userDN(name(i)))
+                    .append("\nobjectClass: inetOrgPerson\nuid: ").append(name(i))
+                    .append("\ncn: ").append(name(i)).append("\nsn: User ").append(i)
+                    .append("\nuserPassword: ").append(USER_PASSWORD).append("\n");
+        }
+        new PooledLdapService(config).ldapadd(ldif.toString());
+    }
+
+    @TearDown public void tearDown () { if (server != null) server.shutDown(true); }
+
+    private static String name(int i) { return "user"+i; }
+
+    private static String randomName() { return name(ThreadLocalRandom.current().nextInt(USERS)); }
+
+    @Benchmark public String auth () {
+        final String dn = config.userDN(randomName());
+        return ldap.ldapsearch(dn, USER_PASSWORD, dn);
+    }
+
+    @Benchmark public String findByName () {
+        final String name = randomName();
+        final SearchQuery query = new SearchQuery()
+                .setBound(LdapService.BOUND_BASE, config.getBase_dn())
+                .setBound(LdapService.BOUND_NAME, name);
+        final String found = ldap.rootsearch(query);
+        if (!found.contains(name)) die("findByName: not found: "+name);
+        return ldap.rootsearch(config.userDN(name));
+    }
+
+    private static String filter(Map<String, String> bounds) {
+        final String name = bounds == null ? null : bounds.get(LdapService.BOUND_NAME);
+        return name == null ? "(objectClass=inetOrgPerson)" : "(&(objectClass=inetOrgPerson)(uid="+name+"))";
+    }
+
+    private static class ForkingLdapService extends LdapServiceBase {
+        private final LdapConfiguration config;
+        ForkingLdapService(LdapConfiguration config) { this.config = config; }
+        @Override public LdapConfiguration getConfiguration() { return config; }
+        @Override protected String ldapFilter(String base, String filter, Map<String, String> bounds) { return filter(bounds); }
+        @Override protected String ldapField(String base, String javaName) { return javaName; }
+    }
+
+    private static class PooledLdapService extends NativeLdapServiceBase {
+        private final LdapConfiguration config;
+        PooledLdapService(LdapConfiguration config) { this.config = config; }
+        @Override public LdapConfiguration getConfiguration() { return config; }
+        @Override protected String ldapFilter(String base, String filter, Map<String, String> bounds) { return filter(bounds); }
+        @Override protected String ldapField(String base, String javaName) { return javaName; }
+    }
+
+}
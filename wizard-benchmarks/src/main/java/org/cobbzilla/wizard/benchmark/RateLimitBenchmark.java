@@ -0,0 +1,83 @@
+package org.cobbzilla.wizard.benchmark;
+
+import org.cobbzilla.wizard.cache.redis.RedisConfiguration;
+import org.cobbzilla.wizard.cache.redis.RedisService;
+import org.cobbzilla.wizard.filters.ApiRateLimit;
+import org.cobbzilla.wizard.filters.LocalRateLimiter;
+import org.cobbzilla.wizard.filters.RateLimitFilter;
+import org.openjdk.jmh.annotations.*;
+import redis.embedded.RedisServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.io.StreamUtil.stream2string;
+import static org.cobbzilla.util.network.PortPicker.pickOrDie;
+import static org.cobbzilla.util.string.StringUtil.getPackagePath;
+
+/**
+ * Per-request cost of the RateLimitFilter check, from 8 threads over 1000 client keys: strict mode runs the limiter
+ * script in redis, local mode calls LocalRateLimiter.check, which syncs with redis in the background. The limits are
+ * high enough that no request is refused.
+ *
+ * Throughput is the most checks per second the mode can do. At 20k requests per second, the filter costs
+ * 20,000 times the average time per second of CPU (local) or of threads waiting on redis (strict).
+ *
+ * Starts an embedded redis-server on a free port, or uses a running one given by -Dredis.port (and -Dredis.host).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime}) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2) @Measurement(iterations=5, time=2) @Fork(1) @Threads(8)
+public class RateLimitBenchmark {
+
+    public static final int KEYS = 1000;
+
+    private static final List<ApiRateLimit> LIMITS = Arrays.asList(
+            new ApiRateLimit(1_000_000_000, "1m", "1m"),
+            new ApiRateLimit(1_000_000_000, "1h", "1h"));
+
+    private RedisServer server;
+    private RedisService redis;
+    private LocalRateLimiter localLimiter;
+    private String scriptSha;
+    private List<String> limitArgs;
+    private final List<List<String>> keys = new ArrayList<>(KEYS);
+
+    @Setup public void setup () throws Exception {
+        final String host = System.getProperty("redis.host", "127.0.0.1");
+        int port = Integer.getInteger("redis.port", -1);
+        if (port == -1) {
+            port = pickOrDie();
+            server = new RedisServer(port);
+            server.start();
+        }
+        final RedisConfiguration config = new RedisConfiguration(host, port, null, "bench");
+        redis = new RedisService(config, config.getPrefix(), null).prefixNamespace(RateLimitFilter.class.getSimpleName());
+
+        // as RateLimitFilter sets them up
+        scriptSha = redis.loadScript(stream2string(getPackagePath(RateLimitFilter.class)+"/api_limiter_redis.lua"));
+        limitArgs = new ArrayList<>();
+        for (ApiRateLimit limit : LIMITS) {
+            limitArgs.add(String.valueOf(limit.getLimit()));
+            limitArgs.add(String.valueOf(limit.getIntervalDuration()));
+            limitArgs.add(String.valueOf(limit.getBlockDuration()));
+        }
+        localLimiter = new LocalRateLimiter(redis, LIMITS, 1, LocalRateLimiter.DEFAULT_SYNC_MILLIS);
+        for (int i=0; i<KEYS; i++) keys.add(Collections.singletonList(redis.prefix("10.0."+(i/256)+"."+(i%256))));
+    }
+
+    @TearDown public void tearDown () {
+        if (server != null) server.stop();
+    }
+
+    private List<String> randomKey() { return keys.get(ThreadLocalRandom.current().nextInt(KEYS)); }
+
+    @Benchmark public Object strict () { return redis.eval(scriptSha, randomKey(), limitArgs); }
+
+    @Benchmark public Long local () { return localLimiter.check(randomKey().get(0)); }
+
+}
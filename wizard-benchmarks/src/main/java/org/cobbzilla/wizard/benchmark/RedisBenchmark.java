@@ -0,0 +1,87 @@
+package org.cobbzilla.wizard.benchmark;
+
+import org.cobbzilla.wizard.cache.redis.RedisConfiguration;
+import org.cobbzilla.wizard.cache.redis.RedisService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import redis.embedded.RedisServer;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.network.PortPicker.pickOrDie;
+import static org.cobbzilla.wizard.cache.redis.RedisService.EX;
+
+/**
+ * RedisService throughput from 8 threads: single commands, MGET against one GET per key, and a pipeline against
+ * one SET per key. With maxConnections=1 every command waits for the one connection, as all commands did before
+ * RedisService was pooled.
+ *
+ * Starts an embedded redis-server on a free port. To use a running server instead, pass -Dredis.port=6379
+ * (and -Dredis.host if it is not local).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput) @OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2) @Measurement(iterations=5, time=2) @Fork(1) @Threads(8)
+public class RedisBenchmark {
+
+    public static final int KEYS = 10_000;
+    public static final int BATCH = 100;
+
+    @Param({"1", "32"}) public int maxConnections;
+
+    private RedisServer server;
+    private RedisService redis;
+
+    @Setup public void setup () throws Exception {
+        final String host = System.getProperty("redis.host", "127.0.0.1");
+        int port = Integer.getInteger("redis.port", -1);
+        if (port == -1) {
+            port = pickOrDie();
+            server = new RedisServer(port);
+            server.start();
+        }
+        final RedisConfiguration config = new RedisConfiguration(host, port, null, "bench:");
+        config.setMaxConnections(maxConnections);
+        config.setMaxIdleConnections(maxConnections);
+        redis = new RedisService(config, config.getPrefix(), null);
+
+        final Map<String, String> values = new HashMap<>();
+        for (int i=0; i<KEYS; i++) {
+            values.put(key(i), "value-"+i);
+            if (values.size() == 1000) { redis.multiSet(values); values.clear(); }
+        }
+    }
+
+    @TearDown public void tearDown () {
+        if (server != null) server.stop();
+    }
+
+    private static String key(int i) { return "key"+i; }
+
+    private static List<String> randomKeys() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final List<String> keys = new ArrayList<>(BATCH);
+        for (int i=0; i<BATCH; i++) keys.add(key(random.nextInt(KEYS)));
+        return keys;
+    }
+
+    @Benchmark public String get () { return redis.get(key(ThreadLocalRandom.current().nextInt(KEYS))); }
+
+    @Benchmark @OperationsPerInvocation(BATCH) public void getEach (Blackhole bh) {
+        for (String key : randomKeys()) bh.consume(redis.get(key));
+    }
+
+    @Benchmark @OperationsPerInvocation(BATCH) public List<String> multiGet () { return redis.multiGet(randomKeys()); }
+
+    @Benchmark @OperationsPerInvocation(BATCH) public void setEach () {
+        for (String key : randomKeys()) redis.set(key, "updated", EX, 3600);
+    }
+
+    @Benchmark @OperationsPerInvocation(BATCH) public void pipelinedSet () {
+        final List<String> keys = randomKeys();
+        redis.pipelined(p -> { for (String key : keys) p.set(key, "updated", EX, 3600); });
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.cobbzilla.wizard.benchmark;
+
+import org.cobbzilla.wizard.dao.shard.hash.Murmur3ShardHasher;
+import org.cobbzilla.wizard.dao.shard.hash.Sha256ShardHasher;
+import org.cobbzilla.wizard.dao.shard.hash.ShardRoutingTable;
+import org.cobbzilla.wizard.model.shard.ShardIO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of routing an id to its DAOs in AbstractShardedDAO: hashing the id to a logical shard with the original
+ * hex-string SHA-256, the Sha256ShardHasher that reads the same bits from the digest, and Murmur3ShardHasher;
+ * then the ShardRoutingTable lookup of the DAOs for the logical shard. Needs nothing running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1) @Measurement(iterations=5, time=1) @Fork(1)
+public class ShardRoutingBenchmark {
+
+    public static final int IDS = 1024;
+
+    @Param({"1024"}) public int logicalShards;
+
+    private final String[] ids = new String[IDS];
+    private int next = 0;
+
+    private final Sha256ShardHasher sha256 = new Sha256ShardHasher();
+    private final Murmur3ShardHasher murmur3 = new Murmur3ShardHasher();
+    private ShardRoutingTable<String> routingTable;
+
+    @Setup public void setup () {
+        for (int i=0; i<IDS; i++) ids[i] = UUID.randomUUID().toString();
+        routingTable = new ShardRoutingTable<>(logicalShards);
+        for (int i=0; i<logicalShards; i++) routingTable.get(ShardIO.read, i, 1, this::load);
+    }
+
+    private List<String> load(int logicalShard) { return Collections.singletonList("dao"+logicalShard); }
+
+    private String nextId() { return ids[next++ & (IDS-1)]; }
+
+    @Benchmark public int legacySha256 () { return Sha256ShardHasher.legacyLogicalShard(nextId(), logicalShards); }
+
+    @Benchmark public int sha256 () { return sha256.logicalShard(nextId(), logicalShards); }
+
+    @Benchmark public int murmur3 () { return murmur3.logicalShard(nextId(), logicalShards); }
+
+    @Benchmark public List<String> routeSha256 () {
+        return routingTable.get(ShardIO.read, sha256.logicalShard(nextId(), logicalShards), 1, this::load);
+    }
+
+    @Benchmark public List<String> routeMurmur3 () {
+        return routingTable.get(ShardIO.read, murmur3.logicalShard(nextId(), logicalShards), 1, this::load);
+    }
+
+}
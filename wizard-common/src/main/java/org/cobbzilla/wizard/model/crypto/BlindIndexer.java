@@ -0,0 +1,113 @@
+package org.cobbzilla.wizard.model.crypto;
+
+import org.cobbzilla.wizard.model.search.BlindIndexType;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+
+/**
+ * Computes blind index tokens for encrypted fields. A token is a keyed HMAC of a normalized value (or of a piece of
+ * it), so a filter on an encrypted column can be matched against stored tokens in SQL, without decrypting any rows.
+ * The tokens show which rows share a value, but not the value itself. N-gram tokens are only kept for trigrams:
+ * there are so few distinct 1- and 2-character strings that their tokens would give way to frequency analysis.
+ */
+public class BlindIndexer {
+
+    public static final String TABLE = "blind_index_token";
+
+    public static final String HMAC_ALGORITHM = "HmacSHA256";
+    public static final int TOKEN_BYTES = 16;
+    public static final int NGRAM_SIZE = 3;
+    public static final int MAX_PREFIX_LENGTH = 32;
+
+    // the index key is derived from the secret, so it differs from the key that encrypts the column values
+    private static final String KEY_CONTEXT = "blind-index";
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> mac = ThreadLocal.withInitial(this::initMac);
+
+    public BlindIndexer(String secret) {
+        if (empty(secret)) die("BlindIndexer: no secret");
+        final Mac keyMac = newMac(new SecretKeySpec(secret.getBytes(UTF_8), HMAC_ALGORITHM));
+        this.key = new SecretKeySpec(keyMac.doFinal(KEY_CONTEXT.getBytes(UTF_8)), HMAC_ALGORITHM);
+    }
+
+    private Mac initMac() { return newMac(key); }
+
+    private static Mac newMac(SecretKeySpec key) {
+        try {
+            final Mac m = Mac.getInstance(HMAC_ALGORITHM);
+            m.init(key);
+            return m;
+        } catch (Exception e) {
+            return die("newMac: "+e, e);
+        }
+    }
+
+    public static String normalize(String value) { return value == null ? "" : value.trim().toLowerCase(Locale.ROOT); }
+
+    public String token(String field, char kind, String value) {
+        final byte[] hash = mac.get().doFinal((kind + ":" + field + ":" + value).getBytes(UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, TOKEN_BYTES));
+    }
+
+    /** @return the tokens to store for a value of the field */
+    public Set<String> indexTokens(BlindIndexType type, String field, Object value) {
+        final String v = normalize(value == null ? null : value.toString());
+        if (type == null || empty(v)) return Collections.emptySet();
+        final Set<String> tokens = new LinkedHashSet<>();
+        switch (type) {
+            case exact:
+                tokens.add(token(field, 'e', v));
+                break;
+            case prefix:
+                for (int i=1; i<=Math.min(v.length(), MAX_PREFIX_LENGTH); i++) tokens.add(token(field, 'p', v.substring(0, i)));
+                break;
+            case ngram:
+                // a value shorter than a trigram gets no tokens, only filters of NGRAM_SIZE or more use the index
+                for (int i=0; i+NGRAM_SIZE<=v.length(); i++) tokens.add(token(field, 'g', v.substring(i, i+NGRAM_SIZE)));
+                break;
+            case none: default:
+                break;
+        }
+        return tokens;
+    }
+
+    /** @return false if the index cannot answer the filter, and rows must be decrypted and scanned instead */
+    public boolean indexable(BlindIndexType type, String filter) {
+        return type != BlindIndexType.ngram || empty(normalize(filter)) || normalize(filter).length() >= NGRAM_SIZE;
+    }
+
+    /** @return the tokens a row must have, all of them, to match the filter. Empty if the filter matches anything */
+    public Set<String> queryTokens(BlindIndexType type, String field, String filter) {
+        final String v = normalize(filter);
+        if (type == null || empty(v)) return Collections.emptySet();
+        if (!indexable(type, v)) return die("queryTokens: filter is shorter than "+NGRAM_SIZE+" characters, cannot use ngram index on "+field);
+        final Set<String> tokens = new LinkedHashSet<>();
+        switch (type) {
+            case exact:
+                tokens.add(token(field, 'e', v));
+                break;
+            case prefix:
+                tokens.add(token(field, 'p', v.substring(0, Math.min(v.length(), MAX_PREFIX_LENGTH))));
+                break;
+            case ngram:
+                for (int i=0; i+NGRAM_SIZE<=v.length(); i++) tokens.add(token(field, 'g', v.substring(i, i+NGRAM_SIZE)));
+                break;
+            case none: default:
+                break;
+        }
+        return tokens;
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.cobbzilla.wizard.model.entityconfig.annotations;
 
 import org.cobbzilla.wizard.model.entityconfig.EntityFieldType;
+import org.cobbzilla.wizard.model.search.BlindIndexType;
 import org.cobbzilla.wizard.model.search.SearchBoundComparison;
 import org.cobbzilla.wizard.model.search.SqlViewFieldSetter;
 import org.jasypt.hibernate4.encryptor.HibernatePBEStringEncryptor;
@@ -24,6 +25,7 @@ public @interface ECSearchable {
     SearchBoundComparison[] operators() default {};
     String entity() default "";
     ECForeignKeySearchDepth fkDepth() default ECForeignKeySearchDepth.inherit;
+    BlindIndexType blindIndex() default BlindIndexType.none;
 
     class DefaultSqlViewFieldSetter implements SqlViewFieldSetter {
         @Override public void set(Object target, String entityProperty, Object value, HibernatePBEStringEncryptor hibernateEncryptor) {
@@ -0,0 +1,24 @@
+package org.cobbzilla.wizard.model.search;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * Which blind index tokens are kept for an encrypted search field, and so which filters can be run in SQL.
+ * <ul>
+ *     <li>none: no tokens, a filter on the field needs the decrypt-and-scan search (the default)</li>
+ *     <li>exact: one token for the whole value. Matches a filter equal to the value</li>
+ *     <li>prefix: a token for each prefix of the value, up to BlindIndexer.MAX_PREFIX_LENGTH characters.
+ *     Matches a filter that the value starts with</li>
+ *     <li>ngram: a token for each substring of BlindIndexer.NGRAM_SIZE characters. Matches a filter that the
+ *     value contains. This can return a few extra rows: every n-gram of the filter appears in the value, but not
+ *     necessarily in the same order. Shorter filters need the decrypt-and-scan search</li>
+ * </ul>
+ * Values and filters are trimmed and lowercased before they are hashed.
+ */
+public enum BlindIndexType {
+
+    none, exact, prefix, ngram;
+
+    @JsonCreator public static BlindIndexType fromString(String val) { return valueOf(val.toLowerCase()); }
+
+}
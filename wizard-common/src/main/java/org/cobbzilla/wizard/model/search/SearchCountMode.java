@@ -0,0 +1,20 @@
+package org.cobbzilla.wizard.model.search;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * How a SQL view search computes SearchResults.totalCount.
+ * <ul>
+ *     <li>exact: a separate select count(*) over the same filters (the default)</li>
+ *     <li>window: count(*) OVER() in the page query itself. Not computed for pages fetched with a cursor</li>
+ *     <li>estimate: the row estimate of the query planner, from EXPLAIN. Cheap but approximate</li>
+ *     <li>none: totalCount is not computed, and is null</li>
+ * </ul>
+ */
+public enum SearchCountMode {
+
+    exact, window, estimate, none;
+
+    @JsonCreator public static SearchCountMode fromString(String val) { return valueOf(val.toLowerCase()); }
+
+}
@@ -51,6 +51,8 @@ public class SearchQuery {
         this.setFilter(other.getFilter());
         this.setSorts(other.getSorts());
         this.setBounds(other.getBounds());
+        this.setCursor(other.getCursor());
+        this.setCountMode(other.getCountMode());
     }
 
     public SearchQuery(Integer pageNumber, Integer pageSize, String sortField, String sortOrder, String filter, NameAndValue[] bounds) {
@@ -141,6 +143,12 @@ public class SearchQuery {
         return this;
     }
 
+    // the nextCursor of the previous page. when set, the page starts after the cursor row and pageNumber is ignored
+    @Getter @Setter private String cursor;
+    public boolean hasCursor() { return !empty(cursor); }
+
+    @Getter @Setter private SearchCountMode countMode;
+
     @Getter @Setter private String[] fields;
     @JsonIgnore public boolean getHasFields () { return !empty(fields); }
 
@@ -165,6 +173,8 @@ public class SearchQuery {
         if (filter != null ? !filter.equals(that.filter) : that.filter != null) return false;
         if (!Arrays.equals(that.sorts, sorts)) return false;
         if (!Arrays.equals(that.fields, fields)) return false;
+        if (cursor != null ? !cursor.equals(that.cursor) : that.cursor != null) return false;
+        if (countMode != that.countMode) return false;
         return true;
     }
 
@@ -175,6 +185,8 @@ public class SearchQuery {
         result = 31 * result + (filter != null ? filter.hashCode() : 0);
         result = 31 * result + (bounds != null ? Arrays.hashCode(bounds) : 0);
         result = 31 * result + (fields != null ? Arrays.hashCode(fields) : 0);
+        result = 31 * result + (cursor != null ? cursor.hashCode() : 0);
+        result = 31 * result + (countMode != null ? countMode.hashCode() : 0);
         return result;
     }
 
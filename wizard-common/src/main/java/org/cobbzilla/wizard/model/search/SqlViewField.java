@@ -22,6 +22,13 @@ public class SqlViewField {
     @Getter @Setter @JsonIgnore private boolean filter;
     @Getter @Setter @JsonIgnore private Class fieldType;
 
+    // blind index of an encrypted field: the field name the tokens are stored under, and the view column with the
+    // uuid of the entity that owns the field
+    @Getter @Setter @JsonIgnore private BlindIndexType blindIndex;
+    @Getter @Setter @JsonIgnore private String blindIndexField;
+    @Getter @Setter @JsonIgnore private String blindIndexUuidColumn;
+    public boolean hasBlindIndex () { return blindIndex != null && blindIndex != BlindIndexType.none; }
+
     public String getFieldTypeClass () { return fieldType == null ? null : fieldType.getName(); }
     public void setFieldTypeClass(String clazz) { fieldType = empty(clazz) ? null : forName(clazz); }
 
@@ -49,6 +56,12 @@ public class SqlViewField {
     public SqlViewField filter () { filter = true; return this; }
     public SqlViewField filter (boolean filter) { this.filter = filter; return this; }
     public SqlViewField fieldType (Class type) { this.fieldType = type; return this; }
+    public SqlViewField blindIndex (BlindIndexType blindIndex, String field, String uuidColumn) {
+        this.blindIndex = blindIndex;
+        this.blindIndexField = field;
+        this.blindIndexUuidColumn = uuidColumn;
+        return this;
+    }
 
     private String entity;
 
@@ -10,6 +10,7 @@ import org.cobbzilla.wizard.cache.redis.RedisConfiguration;
 import org.cobbzilla.wizard.client.ApiClientBase;
 import org.cobbzilla.wizard.client.script.ApiRunner;
 import org.cobbzilla.wizard.client.script.ApiRunnerListenerBase;
+import org.cobbzilla.wizard.model.crypto.BlindIndexer;
 import org.cobbzilla.wizard.server.RestServer;
 import org.cobbzilla.wizard.server.RestServerConfigurationFilter;
 import org.cobbzilla.wizard.server.RestServerHarness;
@@ -50,6 +51,7 @@ public abstract class AbstractResourceIT<C extends PgRestServerConfiguration, S
         implements RestServerLifecycleListener<C>, RestServerConfigurationFilter<C> {
 
     public static final String QUARTZ_SQL_COMMANDS = stream2string("seed/quartz.sql");
+    public static final String BLIND_INDEX_SQL_COMMANDS = stream2string("seed/blind_index_token.sql");
 
     @Getter private final ApiClientBase api = new BasicTestApiClient(this);
 
@@ -172,6 +174,17 @@ public abstract class AbstractResourceIT<C extends PgRestServerConfiguration, S
                     }
                 });
             }
+
+            if (database.isEncryptionEnabled()) {
+                database.addPostDataSourceSetupHandler(() -> {
+                    try {
+                        configuration.execSql("select count(*) from "+BlindIndexer.TABLE);
+                    } catch (Exception e) {
+                        log.debug("Blind index table not found ("+e.getMessage()+"), creating it...");
+                        configuration.execSqlCommands(BLIND_INDEX_SQL_COMMANDS);
+                    }
+                });
+            }
         }
         return configuration;
     }
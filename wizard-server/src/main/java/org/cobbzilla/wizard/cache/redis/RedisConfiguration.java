@@ -1,11 +1,10 @@
 package org.cobbzilla.wizard.cache.redis;
 
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
-@NoArgsConstructor @AllArgsConstructor
+@NoArgsConstructor
 public class RedisConfiguration {
 
     @Getter @Setter private String host = "127.0.0.1";
@@ -14,6 +13,19 @@ public class RedisConfiguration {
     @Setter private String prefix;
     public String getPrefix () { return prefix == null ? "" : prefix; }
 
+    // connection pool settings
+    @Getter @Setter private int maxConnections = 32;
+    @Getter @Setter private int maxIdleConnections = 8;
+    @Getter @Setter private long maxWait = 5000;  // max millis to wait for a pooled connection
+    @Getter @Setter private int timeout = 2000;   // socket/connect timeout in millis
+
     public RedisConfiguration (String key) { this.key = key; }
 
+    public RedisConfiguration (String host, int port, String key, String prefix) {
+        this.host = host;
+        this.port = port;
+        this.key = key;
+        this.prefix = prefix;
+    }
+
 }
@@ -4,9 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.util.daemon.ZillaRuntime.notSupported;
@@ -14,6 +13,7 @@ import static org.cobbzilla.util.json.JsonUtil.fromJsonOrDie;
 import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
 import static org.cobbzilla.util.reflect.ReflectionUtil.getFirstTypeParam;
 import static org.cobbzilla.wizard.cache.redis.RedisService.NX;
+import static org.cobbzilla.wizard.cache.redis.RedisService.PX;
 import static org.cobbzilla.wizard.cache.redis.RedisService.XX;
 
 @AllArgsConstructor
@@ -60,9 +60,38 @@ public class RedisMap<V> implements Map<String, V> {
     }
 
     @Override public void putAll(Map<? extends String, ? extends V> m) {
+        if (empty(m)) return;
+        final Map<String, String> values = new HashMap<>(m.size());
+        final List<String> deletes = new ArrayList<>();
         for (Map.Entry<? extends String, ? extends V> entry : m.entrySet()) {
-            put(entry.getKey(), entry.getValue());
+            if (empty(entry.getValue())) {
+                deletes.add(keyName(entry.getKey()));
+            } else {
+                values.put(keyName(entry.getKey()), toJsonOrDie(entry.getValue()));
+            }
         }
+        if (duration == null) {
+            redis.multiSet(values);
+        } else {
+            redis.multiSet(values, PX, duration);
+        }
+        redis.unlink(deletes);
+    }
+
+    /**
+     * @param keys the keys to look up
+     * @return a Map of key to value, in the same order as the keys. keys that were not found are not in the Map
+     */
+    public Map<String, V> getAll(Collection<String> keys) {
+        final Map<String, V> found = new LinkedHashMap<>();
+        if (empty(keys)) return found;
+        final List<String> keyList = new ArrayList<>(keys);
+        final List<String> values = redis.multiGet(keyList.stream().map(this::keyName).collect(Collectors.toList()));
+        for (int i=0; i<keyList.size(); i++) {
+            final String value = values.get(i);
+            if (!empty(value)) found.put(keyList.get(i), fromJsonOrDie(value, getValueClass()));
+        }
+        return found;
     }
 
 }
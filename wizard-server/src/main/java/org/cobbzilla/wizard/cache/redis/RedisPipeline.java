@@ -0,0 +1,79 @@
+package org.cobbzilla.wizard.cache.redis;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.json.JsonUtil.fromJsonOrDie;
+import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
+import static org.cobbzilla.wizard.cache.redis.RedisService.NX;
+import static org.cobbzilla.wizard.cache.redis.RedisService.XX;
+
+/**
+ * Queues commands on a Jedis Pipeline, applying the key prefix and encryption of the RedisService that created it.
+ * The Suppliers returned here must not be read until RedisService.pipelined has returned.
+ */
+@AllArgsConstructor
+public class RedisPipeline {
+
+    private final RedisService redis;
+    @Getter private final Pipeline pipeline;
+
+    public Supplier<String> get(String key) {
+        final Response<String> response = pipeline.get(redis.prefix(key));
+        return () -> redis.decrypt(response.get());
+    }
+    public Supplier<String> get_plaintext(String key) { return pipeline.get(redis.prefix(key))::get; }
+
+    public <T> Supplier<T> getObject(String key, Class<T> clazz) {
+        final Supplier<String> json = get(key);
+        return () -> {
+            final String value = json.get();
+            return empty(value) ? null : fromJsonOrDie(value, clazz);
+        };
+    }
+
+    public void set(String key, String value) { pipeline.set(redis.prefix(key), redis.encrypt(value)); }
+    public void set(String key, String value, String nxxx, String expx, long time) {
+        pipeline.set(redis.prefix(key), redis.encrypt(value), redis.buildSetParams(nxxx, expx, time));
+    }
+    public void set(String key, String value, String expx, long time) {
+        final String fullKey = redis.prefix(key);
+        final String preparedValue = redis.encrypt(value);
+        pipeline.set(fullKey, preparedValue, redis.buildSetParams(XX, expx, time));
+        pipeline.set(fullKey, preparedValue, redis.buildSetParams(NX, expx, time));
+    }
+    public <T> void setObject(String key, T thing) { set(key, toJsonOrDie(thing)); }
+    public void set_plaintext(String key, String value) { pipeline.set(redis.prefix(key), value); }
+
+    public Supplier<Long> del(String key) { return pipeline.del(redis.prefix(key))::get; }
+    public Supplier<Long> expire(String key, int ttlSeconds) { return pipeline.expire(redis.prefix(key), ttlSeconds)::get; }
+    public Supplier<Long> pexpire(String key, long ttlMillis) { return pipeline.pexpire(redis.prefix(key), ttlMillis)::get; }
+
+    public Supplier<Long> incrBy(String key, long value) { return pipeline.incrBy(redis.prefix(key), value)::get; }
+    public Supplier<Long> decrBy(String key, long value) { return pipeline.decrBy(redis.prefix(key), value)::get; }
+
+    public Supplier<Object> evalsha(String scriptsha, List<String> keys, List<String> args) {
+        return pipeline.evalsha(scriptsha, redis.prefix(keys), args)::get;
+    }
+
+    public void lpush(String key, String value) { pipeline.lpush(redis.prefix(key), redis.encrypt(value)); }
+    public void rpush(String key, String value) { pipeline.rpush(redis.prefix(key), redis.encrypt(value)); }
+
+    public void hset(String key, String field, String value) {
+        pipeline.hset(redis.prefix(key), redis.encrypt(field), redis.encrypt(value));
+    }
+    public Supplier<String> hget(String key, String field) {
+        final Response<String> response = pipeline.hget(redis.prefix(key), redis.encrypt(field));
+        return () -> redis.decrypt(response.get());
+    }
+
+    public void sadd(String key, String value) { pipeline.sadd(redis.prefix(key), redis.encrypt(value)); }
+    public void srem(String key, String value) { pipeline.srem(redis.prefix(key), redis.encrypt(value)); }
+
+}
@@ -7,11 +7,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.params.SetParams;
 
+import java.io.Closeable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.*;
@@ -34,13 +44,27 @@ public class RedisService {
 
     public static final String ALL_KEYS = "*";
 
+    // max keys per SCAN call and per UNLINK command
+    public static final int BATCH_SIZE = 1000;
+
+    public static final long SUBSCRIBE_RETRY_DELAY = 1000;
+
     @Autowired @Getter @Setter private HasRedisConfiguration configuration;
 
     @Getter @Setter private String key;
     protected boolean hasKey () { return !empty(getKey()); }
 
-    private final AtomicReference<Jedis> redis = new AtomicReference<>();
-    private Jedis newJedis() { return new Jedis(configuration.getRedis().getHost(), configuration.getRedis().getPort()); }
+    // shared by this service and every service created with prefixNamespace
+    private AtomicReference<JedisPool> pool = new AtomicReference<>();
+
+    private JedisPool newPool() {
+        final RedisConfiguration config = configuration.getRedis();
+        final JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(config.getMaxConnections());
+        poolConfig.setMaxIdle(config.getMaxIdleConnections());
+        poolConfig.setMaxWaitMillis(config.getMaxWait());
+        return new JedisPool(poolConfig, config.getHost(), config.getPort(), config.getTimeout());
+    }
 
     @Getter @Setter private String prefix = null;
 
@@ -68,6 +92,7 @@ public class RedisService {
             String basePrefix = (this.prefix != null) ? this.prefix : configuration.getRedis().getPrefix();
             basePrefix = empty(basePrefix) ? "" : basePrefix + ".";
             r = new RedisService(configuration, basePrefix + prefix, key);
+            r.pool = pool;
             prefixServiceCache.put(prefix, r);
         }
         return r;
@@ -76,35 +101,40 @@ public class RedisService {
 
     public void reconnect () {
         if (log.isDebugEnabled()) log.debug("marking redis for reconnection...");
-        synchronized (redis) {
-            if (redis.get() != null) {
-                try { redis.get().disconnect(); } catch (Exception e) {
-                    log.warn("error disconnecting from redis before reconnecting: "+e);
+        synchronized (pool) {
+            final JedisPool p = pool.getAndSet(null);
+            if (p != null) {
+                try { p.close(); } catch (Exception e) {
+                    log.warn("error closing redis pool before reconnecting: "+e);
                 }
             }
-            redis.set(null);
         }
     }
 
-    private Jedis getRedis () {
-        synchronized (redis) {
-            if (redis.get() == null) {
-                if (log.isDebugEnabled()) log.debug("connecting to redis...");
-                redis.set(newJedis());
+    private JedisPool getPool () {
+        JedisPool p = pool.get();
+        if (p == null) {
+            synchronized (pool) {
+                p = pool.get();
+                if (p == null) {
+                    if (log.isDebugEnabled()) log.debug("connecting to redis...");
+                    p = newPool();
+                    pool.set(p);
+                }
             }
         }
-        return redis.get();
+        return p;
     }
 
+    // callers must close the connection to return it to the pool
+    private Jedis getRedis () { return getPool().getResource(); }
+
     public <V> RedisMap<V> map (String prefix) { return map(prefix, null); }
     public <V> RedisMap<V> map (String prefix, Long duration) { return new RedisMap<>(prefix, duration, this); }
 
     public boolean exists(String key) { return __exists(prefix(key), 0); }
     public boolean anyExists(Collection<String> keys) {
-        for (final String key : keys) {
-            if (__exists(prefix(key), 0)) return true;
-        }
-        return false;
+        return !empty(keys) && __exists(prefix(keys).toArray(new String[keys.size()]), 0) > 0;
     }
     public boolean allExist(Collection<String> keys) {
         return keys.size() == __exists(prefix(keys).toArray(new String[keys.size()]), 0);
@@ -145,7 +175,68 @@ public class RedisService {
         __set(fullKey, value, buildSetParams(NX, expx, time), 0);
     }
     public void setAll(Collection<String> keys, String value, String expx, long time) {
-        for (String k : keys) set(k, value, expx, time);
+        if (empty(keys)) return;
+        pipelined(p -> { for (String k : keys) p.set(k, value, null, expx, time); });
+    }
+
+    /**
+     * @param keys the keys to get
+     * @return the values for each key, in the same order as the keys; missing keys have a null value
+     */
+    public List<String> multiGet(Collection<String> keys) {
+        if (empty(keys)) return new ArrayList<>();
+        final List<String> values = __mget(prefix(keys).toArray(new String[keys.size()]), 0);
+        final List<String> decrypted = new ArrayList<>(values.size());
+        for (String value : values) decrypted.add(decrypt(value));
+        return decrypted;
+    }
+
+    public void multiSet(Map<String, String> values) {
+        if (empty(values)) return;
+        final String[] keysAndValues = new String[values.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            keysAndValues[i++] = prefix(entry.getKey());
+            keysAndValues[i++] = encrypt(entry.getValue());
+        }
+        __mset(keysAndValues, 0);
+    }
+
+    public void multiSet(Map<String, String> values, String expx, long time) {
+        if (empty(values)) return;
+        pipelined(p -> values.forEach((k, v) -> p.set(k, v, null, expx, time)));
+    }
+
+    /**
+     * Set many keys in one round trip, each with its own TTL
+     * @param values the keys and values to set
+     * @param ttls the TTL for each key, in the units given by expx. keys without a TTL do not expire
+     * @param expx EX (seconds) or PX (milliseconds)
+     */
+    public void multiSet(Map<String, String> values, Map<String, Long> ttls, String expx) {
+        if (empty(values)) return;
+        pipelined(p -> values.forEach((k, v) -> {
+            final Long ttl = ttls == null ? null : ttls.get(k);
+            if (ttl == null) {
+                p.set(k, v);
+            } else {
+                p.set(k, v, null, expx, ttl);
+            }
+        }));
+    }
+
+    /**
+     * Run several commands on one connection, in one round trip. Commands issued on the RedisPipeline use the
+     * same key prefix and encryption as this service. Results are available from the returned Suppliers once
+     * this method returns. Pipelines are not retried, since some of their commands may already have been applied.
+     * @param commands the commands to run
+     */
+    public void pipelined(Consumer<RedisPipeline> commands) {
+        try (Jedis redis = getRedis()) {
+            final Pipeline pipeline = redis.pipelined();
+            commands.accept(new RedisPipeline(this, pipeline));
+            pipeline.sync();
+        }
     }
 
     public Long touch(String key) { return __touch(prefix(key), 0); }
@@ -169,18 +260,31 @@ public class RedisService {
 
     public Long del(String key) { return __del(prefix(key), 0); }
     public Long del_withPrefix(String prefixedKey) { return __del(prefixedKey, 0); }
-    public Long del_matching(String keyMatch) {
-        Long count = 0L;
-        for (final String fullKey : keys(keyMatch)) {
-            count += __del(fullKey, 0);
-        }
-        return count;
-    }
+    public Long del_matching(String keyMatch) { return del_matching_withPrefix(prefix(keyMatch)); }
     public Long del_matching_withPrefix(String keyMatch) {
-        Long count = 0L;
-        for (final String fullKey : keys_withPrefix(keyMatch)) {
-            count += __del(fullKey, 0);
+        final long[] count = {0L};
+        scan_withPrefix(keyMatch, fullKeys -> count[0] += __unlink(fullKeys.toArray(new String[fullKeys.size()]), 0));
+        return count[0];
+    }
+
+    /**
+     * Delete keys without blocking the server: memory is reclaimed in the background, and keys are sent in batches
+     * @param keys the keys to delete
+     * @return the number of keys that were deleted
+     */
+    public Long unlink(Collection<String> keys) { return unlink_withPrefix(prefix(keys)); }
+    public Long unlink_withPrefix(Collection<String> fullKeys) {
+        if (empty(fullKeys)) return 0L;
+        long count = 0L;
+        final List<String> batch = new ArrayList<>(Math.min(fullKeys.size(), BATCH_SIZE));
+        for (String fullKey : fullKeys) {
+            batch.add(fullKey);
+            if (batch.size() == BATCH_SIZE) {
+                count += __unlink(batch.toArray(new String[batch.size()]), 0);
+                batch.clear();
+            }
         }
+        if (!batch.isEmpty()) count += __unlink(batch.toArray(new String[batch.size()]), 0);
         return count;
     }
     public void flush() { del_matching(ALL_KEYS); }
@@ -218,8 +322,29 @@ public class RedisService {
         return value == null ? null : Long.parseLong(value);
     }
 
-    public Collection<String> keys(String key) { return __keys(prefix(key), 0); }
-    public Collection<String> keys_withPrefix(String key) { return __keys(key, 0); }
+    public Collection<String> keys(String key) { return keys_withPrefix(prefix(key)); }
+    public Collection<String> keys_withPrefix(String key) {
+        final Set<String> keys = new HashSet<>();
+        scan_withPrefix(key, keys::addAll);
+        return keys;
+    }
+
+    /**
+     * Iterate over matching keys with SCAN, which unlike KEYS does not block the server.
+     * A key may be passed to the handler more than once, and keys created or deleted during the scan may be missed.
+     * @param keyMatch the key pattern, the prefix is added to it
+     * @param handler called with each batch of full (prefixed) keys
+     */
+    public void scan(String keyMatch, Consumer<List<String>> handler) { scan_withPrefix(prefix(keyMatch), handler); }
+    public void scan_withPrefix(String keyMatch, Consumer<List<String>> handler) {
+        final ScanParams params = new ScanParams().match(keyMatch).count(BATCH_SIZE);
+        String cursor = ScanParams.SCAN_POINTER_START;
+        do {
+            final ScanResult<String> result = __scan(cursor, params, 0);
+            if (!empty(result.getResult())) handler.accept(result.getResult());
+            cursor = result.getCursor();
+        } while (!cursor.equals(ScanParams.SCAN_POINTER_START));
+    }
     public String rename(String key, String newFullKey) { return __rename(prefix(key), newFullKey, 0); }
 
     public static final String LOCK_SUFFIX = "._lock";
@@ -262,6 +387,58 @@ public class RedisService {
         }
     }
 
+    public Long publish(String channel, String message) { return __publish(prefix(channel), encrypt(message), 0); }
+
+    /**
+     * Subscribe to a channel. Messages are delivered to the handler on a daemon thread with its own connection,
+     * outside the pool, and the subscription is renewed if that connection is lost.
+     * @param channel the channel name, the prefix is added to it
+     * @param handler called with each message published to the channel
+     * @return closing it unsubscribes, and stops the thread
+     */
+    public Closeable subscribe(String channel, Consumer<String> handler) {
+        final String fullChannel = prefix(channel);
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        final AtomicReference<Jedis> connection = new AtomicReference<>();
+        final JedisPubSub listener = new JedisPubSub() {
+            @Override public void onMessage(String ch, String message) {
+                try {
+                    handler.accept(decrypt(message));
+                } catch (Exception e) {
+                    log.warn("subscribe("+fullChannel+"): error handling message: "+e, e);
+                }
+            }
+        };
+        daemon(() -> {
+            while (!stopped.get()) {
+                final RedisConfiguration config = configuration.getRedis();
+                try (Jedis redis = new Jedis(config.getHost(), config.getPort(), config.getTimeout())) {
+                    connection.set(redis);
+                    if (!stopped.get()) redis.subscribe(listener, fullChannel);
+                } catch (Exception e) {
+                    if (!stopped.get()) log.warn("subscribe("+fullChannel+"): "+e);
+                } finally {
+                    connection.set(null);
+                }
+                if (!stopped.get()) sleep(SUBSCRIBE_RETRY_DELAY, "resubscribing to "+fullChannel);
+            }
+        });
+        return () -> {
+            if (stopped.getAndSet(true)) return;
+            try {
+                if (listener.isSubscribed()) listener.unsubscribe();
+            } catch (Exception e) {
+                log.debug("subscribe("+fullChannel+"): error unsubscribing: "+e);
+            }
+            final Jedis redis = connection.get();
+            if (redis != null) {
+                try { redis.disconnect(); } catch (Exception e) {
+                    log.debug("subscribe("+fullChannel+"): error disconnecting: "+e);
+                }
+            }
+        };
+    }
+
     public String loadScript(String script) { return __loadScript(script, 0); }
     public Object eval(String scriptsha, List<String> keys, List<String> args) {
         return __eval(scriptsha, prefix(keys), args, 0);
@@ -316,11 +493,13 @@ public class RedisService {
         return decrypted;
     }
 
-    private SetParams buildSetParams(final String nxxx, final String expx, final long time) {
+    SetParams buildSetParams(final String nxxx, final String expx, final long time) {
         SetParams setParams = new SetParams();
-        switch (nxxx) {
-            case NX: setParams.nx(); break;
-            case XX: setParams.xx(); break;
+        if (nxxx != null) {
+            switch (nxxx) {
+                case NX: setParams.nx(); break;
+                case XX: setParams.xx(); break;
+            }
         }
         switch (expx) {
             case EX: setParams.ex((int) time); break;
@@ -329,67 +508,97 @@ public class RedisService {
         return setParams;
     }
 
-    private void resetForRetry(int attempt, String reason) {
-        reconnect();
+    private void resetForRetry(RuntimeException e, int attempt, String reason) {
+        // a broken connection is discarded when it is closed, so only rebuild the pool if retrying did not help,
+        // and only when the connection itself failed: errors from the command or a busy pool say nothing about it
+        if (attempt > 0 && isBrokenConnection(e)) reconnect();
         sleep(attempt * 10, reason);
     }
 
+    private static boolean isBrokenConnection(RuntimeException e) {
+        return e instanceof JedisConnectionException && !(e.getCause() instanceof NoSuchElementException);
+    }
+
     private String __get(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().get(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.get(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__get");
+            resetForRetry(e, attempt, "retrying RedisService.__get");
             return __get(fullKey, attempt + 1);
         }
     }
 
+    private List<String> __mget(final String[] fullKeys, final int attempt) {
+        try {
+            try (Jedis redis = getRedis()) {
+                return redis.mget(fullKeys);
+            }
+        } catch (RuntimeException e) {
+            if (attempt > MAX_RETRIES) throw e;
+            resetForRetry(e, attempt, "retrying RedisService.__mget");
+            return __mget(fullKeys, attempt + 1);
+        }
+    }
+
+    private String __mset(final String[] fullKeysAndPreparedValues, final int attempt) {
+        try {
+            try (Jedis redis = getRedis()) {
+                return redis.mset(fullKeysAndPreparedValues);
+            }
+        } catch (RuntimeException e) {
+            if (attempt > MAX_RETRIES) throw e;
+            resetForRetry(e, attempt, "retrying RedisService.__mset");
+            return __mset(fullKeysAndPreparedValues, attempt + 1);
+        }
+    }
+
     private Long __ttl(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().ttl(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.ttl(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__ttl");
+            resetForRetry(e, attempt, "retrying RedisService.__ttl");
             return __ttl(fullKey, attempt + 1);
         }
     }
 
     private boolean __exists(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().exists(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.exists(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__exists");
+            resetForRetry(e, attempt, "retrying RedisService.__exists");
             return __exists(fullKey, attempt + 1);
         }
     }
 
     private Long __exists(final String[] fullKeys, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().exists(fullKeys);
+            try (Jedis redis = getRedis()) {
+                return redis.exists(fullKeys);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__exists on array of keys");
+            resetForRetry(e, attempt, "retrying RedisService.__exists on array of keys");
             return __exists(fullKeys, attempt + 1);
         }
     }
 
     private String __set(final String fullKey, final String preparedValue, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().set(fullKey, preparedValue);
+            try (Jedis redis = getRedis()) {
+                return redis.set(fullKey, preparedValue);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__set");
+            resetForRetry(e, attempt, "retrying RedisService.__set");
             return __set(fullKey, preparedValue, attempt + 1);
         }
     }
@@ -397,96 +606,96 @@ public class RedisService {
     private String __set(final String fullKey, final String preparedValue, final SetParams setParams,
                          final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().set(fullKey, preparedValue, setParams);
+            try (Jedis redis = getRedis()) {
+                return redis.set(fullKey, preparedValue, setParams);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__set with params");
+            resetForRetry(e, attempt, "retrying RedisService.__set with params");
             return __set(fullKey, preparedValue, setParams, attempt + 1);
         }
     }
 
     private Long __touch(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().touch(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.touch(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__touch");
+            resetForRetry(e, attempt, "retrying RedisService.__touch");
             return __touch(fullKey, attempt + 1);
         }
     }
 
     private Long __expire(final String fullKey, final int ttlSeconds, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().expire(fullKey, ttlSeconds);
+            try (Jedis redis = getRedis()) {
+                return redis.expire(fullKey, ttlSeconds);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__expire");
+            resetForRetry(e, attempt, "retrying RedisService.__expire");
             return __expire(fullKey, ttlSeconds, attempt + 1);
         }
     }
 
     private Long __pexpire(final String fullKey, final long ttlMillis, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().pexpire(fullKey, ttlMillis);
+            try (Jedis redis = getRedis()) {
+                return redis.pexpire(fullKey, ttlMillis);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__pexpire");
+            resetForRetry(e, attempt, "retrying RedisService.__pexpire");
             return __pexpire(fullKey, ttlMillis, attempt + 1);
         }
     }
 
     private Long __lpush(final String fullKey, final String preparedValue, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().lpush(fullKey, preparedValue);
+            try (Jedis redis = getRedis()) {
+                return redis.lpush(fullKey, preparedValue);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__lpush");
+            resetForRetry(e, attempt, "retrying RedisService.__lpush");
             return __lpush(fullKey, preparedValue, attempt + 1);
         }
     }
 
     private String __lpop(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().lpop(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.lpop(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__lpop");
+            resetForRetry(e, attempt, "retrying RedisService.__lpop");
             return __lpop(fullKey, attempt + 1);
         }
     }
 
     private Long __rpush(final String fullKey, final String preparedValue, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().rpush(fullKey, preparedValue);
+            try (Jedis redis = getRedis()) {
+                return redis.rpush(fullKey, preparedValue);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__rpush");
+            resetForRetry(e, attempt, "retrying RedisService.__rpush");
             return __rpush(fullKey, preparedValue, attempt + 1);
         }
     }
 
     private String __rpop(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().rpop(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.rpop(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__rpop");
+            resetForRetry(e, attempt, "retrying RedisService.__rpop");
             return __rpop(fullKey, attempt + 1);
         }
     }
@@ -494,24 +703,24 @@ public class RedisService {
     private String __hget(final String fullKey, final String preparedField, final int attempt) {
         if (empty(preparedField)) return die("__hget(" + fullKey + "/): field was empty");
         try {
-            synchronized (redis) {
-                return getRedis().hget(fullKey, preparedField);
+            try (Jedis redis = getRedis()) {
+                return redis.hget(fullKey, preparedField);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__hget");
+            resetForRetry(e, attempt, "retrying RedisService.__hget");
             return __hget(fullKey, preparedField, attempt + 1);
         }
     }
 
     private Map<String, String> __hgetall(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().hgetAll(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.hgetAll(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__hgetall");
+            resetForRetry(e, attempt, "retrying RedisService.__hgetall");
             return __hgetall(fullKey, attempt + 1);
         }
     }
@@ -519,276 +728,300 @@ public class RedisService {
     private Long __hset(final String fullKey, final String preparedField, final String preparedValue,
                         final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().hset(fullKey, preparedField, preparedValue);
+            try (Jedis redis = getRedis()) {
+                return redis.hset(fullKey, preparedField, preparedValue);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__hset");
+            resetForRetry(e, attempt, "retrying RedisService.__hset");
             return __hset(fullKey, preparedField, preparedValue, attempt + 1);
         }
     }
 
     private Long __hdel(final String fullKey, final String preparedField, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().hdel(fullKey, preparedField);
+            try (Jedis redis = getRedis()) {
+                return redis.hdel(fullKey, preparedField);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__hdel");
+            resetForRetry(e, attempt, "retrying RedisService.__hdel");
             return __hdel(fullKey, preparedField, attempt + 1);
         }
     }
 
     private Set<String> __hkeys(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().hkeys(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.hkeys(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__hkeys");
+            resetForRetry(e, attempt, "retrying RedisService.__hkeys");
             return __hkeys(fullKey, attempt + 1);
         }
     }
 
     private Long __hlen(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().hlen(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.hlen(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__hlen");
+            resetForRetry(e, attempt, "retrying RedisService.__hlen");
             return __hlen(fullKey, attempt + 1);
         }
     }
 
     private Long __del(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().del(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.del(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__del");
+            resetForRetry(e, attempt, "retrying RedisService.__del");
             return __del(fullKey, attempt + 1);
         }
     }
 
+    private Long __unlink(final String[] fullKeys, final int attempt) {
+        try {
+            try (Jedis redis = getRedis()) {
+                return redis.unlink(fullKeys);
+            }
+        } catch (RuntimeException e) {
+            if (attempt > MAX_RETRIES) throw e;
+            resetForRetry(e, attempt, "retrying RedisService.__unlink");
+            return __unlink(fullKeys, attempt + 1);
+        }
+    }
+
     private Long __sadd(final String fullKey, final String[] preparedMembers, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().sadd(fullKey, preparedMembers);
+            try (Jedis redis = getRedis()) {
+                return redis.sadd(fullKey, preparedMembers);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__sadd");
+            resetForRetry(e, attempt, "retrying RedisService.__sadd");
             return __sadd(fullKey, preparedMembers, attempt + 1);
         }
     }
 
     private Long __srem(final String fullKey, final String[] preparedMembers, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().srem(fullKey, preparedMembers);
+            try (Jedis redis = getRedis()) {
+                return redis.srem(fullKey, preparedMembers);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__srem");
+            resetForRetry(e, attempt, "retrying RedisService.__srem");
             return __srem(fullKey, preparedMembers, attempt + 1);
         }
     }
 
     private Set<String> __smembers(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().smembers(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.smembers(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__smembers");
+            resetForRetry(e, attempt, "retrying RedisService.__smembers");
             return __smembers(fullKey, attempt + 1);
         }
     }
 
     private boolean __sismember(final String fullKey, final String preparedValue, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().sismember(fullKey, preparedValue);
+            try (Jedis redis = getRedis()) {
+                return redis.sismember(fullKey, preparedValue);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__sismember");
+            resetForRetry(e, attempt, "retrying RedisService.__sismember");
             return __sismember(fullKey, preparedValue, attempt + 1);
         }
     }
 
     private String __srandmember(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().srandmember(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.srandmember(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__srandmember");
+            resetForRetry(e, attempt, "retrying RedisService.__srandmember");
             return __srandmember(fullKey, attempt + 1);
         }
     }
 
     private List<String> __srandmember(final String fullKey, final int count, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().srandmember(fullKey, count);
+            try (Jedis redis = getRedis()) {
+                return redis.srandmember(fullKey, count);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__srandmember with count");
+            resetForRetry(e, attempt, "retrying RedisService.__srandmember with count");
             return __srandmember(fullKey, count, attempt + 1);
         }
     }
 
     private String __spop(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().spop(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.spop(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__spop");
+            resetForRetry(e, attempt, "retrying RedisService.__spop");
             return __spop(fullKey, attempt + 1);
         }
     }
 
     private Set<String> __spop(final String fullKey, final long count, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().spop(fullKey, count);
+            try (Jedis redis = getRedis()) {
+                return redis.spop(fullKey, count);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__spop with count");
+            resetForRetry(e, attempt, "retrying RedisService.__spop with count");
             return __spop(fullKey, count, attempt + 1);
         }
     }
 
     private Long __scard(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().scard(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.scard(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__scard");
+            resetForRetry(e, attempt, "retrying RedisService.__scard");
             return __scard(fullKey, attempt + 1);
         }
     }
 
     private Set<String> __sunion(final String[] fullKeys, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().sunion(fullKeys);
+            try (Jedis redis = getRedis()) {
+                return redis.sunion(fullKeys);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__sunion");
+            resetForRetry(e, attempt, "retrying RedisService.__sunion");
             return __sunion(fullKeys, attempt + 1);
         }
     }
 
     private Long __sunionstore(final String fullDestKey, final String[] fullKeys, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().sunionstore(fullDestKey, fullKeys);
+            try (Jedis redis = getRedis()) {
+                return redis.sunionstore(fullDestKey, fullKeys);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__sunionstore");
+            resetForRetry(e, attempt, "retrying RedisService.__sunionstore");
             return __sunionstore(fullDestKey, fullKeys, attempt + 1);
         }
     }
 
     private Long __incrBy(final String fullKey, final long value, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().incrBy(fullKey, value);
+            try (Jedis redis = getRedis()) {
+                return redis.incrBy(fullKey, value);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__incrBy");
+            resetForRetry(e, attempt, "retrying RedisService.__incrBy");
             return __incrBy(fullKey, value, attempt + 1);
         }
     }
 
     private Long __decrBy(final String fullKey, final long value, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().decrBy(fullKey, value);
+            try (Jedis redis = getRedis()) {
+                return redis.decrBy(fullKey, value);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__decrBy");
+            resetForRetry(e, attempt, "retrying RedisService.__decrBy");
             return __decrBy(fullKey, value, attempt + 1);
         }
     }
 
     private Long __llen(final String fullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().llen(fullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.llen(fullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__llen");
+            resetForRetry(e, attempt, "retrying RedisService.__llen");
             return __llen(fullKey, attempt + 1);
         }
     }
 
     private List<String> __lrange(final String fullKey, final int start, final int end, final int attempt) {
         try {
-            synchronized (redis) {
-                return decrypt(getRedis().lrange(fullKey, start, end));
+            try (Jedis redis = getRedis()) {
+                return decrypt(redis.lrange(fullKey, start, end));
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__lrange");
+            resetForRetry(e, attempt, "retrying RedisService.__lrange");
             return __lrange(fullKey, start, end, attempt + 1);
         }
     }
 
-    private Collection<String> __keys(final String prefixedKeyPattern, final int attempt) {
+    private ScanResult<String> __scan(final String cursor, final ScanParams params, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().keys(prefixedKeyPattern);
+            try (Jedis redis = getRedis()) {
+                return redis.scan(cursor, params);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__keys");
-            return __keys(prefixedKeyPattern, attempt + 1);
+            resetForRetry(e, attempt, "retrying RedisService.__scan");
+            return __scan(cursor, params, attempt + 1);
         }
     }
 
     private String __rename(final String fullKey, final String newFullKey, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().rename(fullKey, newFullKey);
+            try (Jedis redis = getRedis()) {
+                return redis.rename(fullKey, newFullKey);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__rename");
+            resetForRetry(e, attempt, "retrying RedisService.__rename");
             return __rename(fullKey, newFullKey, attempt + 1);
         }
     }
 
+    private Long __publish(final String fullChannel, final String preparedMessage, final int attempt) {
+        try {
+            try (Jedis redis = getRedis()) {
+                return redis.publish(fullChannel, preparedMessage);
+            }
+        } catch (RuntimeException e) {
+            if (attempt > MAX_RETRIES) throw e;
+            resetForRetry(e, attempt, "retrying RedisService.__publish");
+            return __publish(fullChannel, preparedMessage, attempt + 1);
+        }
+    }
+
     private String __loadScript(final String script, final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().scriptLoad(script);
+            try (Jedis redis = getRedis()) {
+                return redis.scriptLoad(script);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__loadScript");
+            resetForRetry(e, attempt, "retrying RedisService.__loadScript");
             return __loadScript(script, attempt + 1);
         }
     }
@@ -796,12 +1029,12 @@ public class RedisService {
     private Object __eval(final String scriptsha, final List<String> fullKeys, final List<String> args,
                           final int attempt) {
         try {
-            synchronized (redis) {
-                return getRedis().evalsha(scriptsha, fullKeys, args);
+            try (Jedis redis = getRedis()) {
+                return redis.evalsha(scriptsha, fullKeys, args);
             }
         } catch (RuntimeException e) {
             if (attempt > MAX_RETRIES) throw e;
-            resetForRetry(attempt, "retrying RedisService.__eval");
+            resetForRetry(e, attempt, "retrying RedisService.__eval");
             return __eval(scriptsha, fullKeys, args, attempt + 1);
         }
     }
@@ -12,6 +12,9 @@ import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.wizard.api.CrudOperation;
 import org.cobbzilla.wizard.model.AuditLog;
 import org.cobbzilla.wizard.model.Identifiable;
+import org.cobbzilla.wizard.model.crypto.BlindIndexer;
+import org.cobbzilla.wizard.model.entityconfig.annotations.ECSearchable;
+import org.cobbzilla.wizard.model.search.BlindIndexType;
 import org.cobbzilla.wizard.server.config.RestServerConfiguration;
 import org.cobbzilla.wizard.validation.ConstraintViolationBean;
 import org.cobbzilla.wizard.validation.MultiViolationException;
@@ -19,6 +22,7 @@ import org.cobbzilla.wizard.validation.SimpleViolationException;
 import org.cobbzilla.wizard.validation.ValidationResult;
 import org.hibernate.FlushMode;
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
@@ -30,22 +34,22 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Nullable;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
+import java.lang.reflect.Field;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.HOURS;
 import static org.cobbzilla.util.daemon.ZillaRuntime.*;
 import static org.cobbzilla.util.json.JsonUtil.json;
 import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
 import static org.cobbzilla.util.reflect.ReflectionUtil.*;
-import static org.cobbzilla.util.time.TimeUtil.formatDuration;
 import static org.cobbzilla.wizard.model.Identifiable.CTIME;
 import static org.cobbzilla.wizard.model.Identifiable.MTIME;
+import static org.cobbzilla.wizard.model.crypto.EncryptedTypes.isEncryptedField;
+import static org.cobbzilla.wizard.server.config.PgRestServerConfiguration.dbName;
 import static org.hibernate.criterion.Restrictions.*;
 
 @Transactional @Slf4j
@@ -104,7 +108,7 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
     @Override public Object preCreate(@Valid E entity) {
         validateOrException(entity);
         try {
-            return auditingEnabled() ? audit(null, entity, CrudOperation.create) : entity;
+            return auditingEnabled() && !isBulkMode() ? audit(null, entity, CrudOperation.create) : entity;
         } finally {
             flushObjectCache(entity);
         }
@@ -112,45 +116,34 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
 
     protected String subCacheAttribute () { return null; }
 
-    public boolean flushObjectCache() {
-        synchronized (ocache) {
-            if (empty(ocache.get())) {
-                return false;
-            } else {
-                ocache.set(new ConcurrentHashMap<>());
-                return true;
-            }
-        }
-    }
+    public boolean flushObjectCache() { return getObjectCache().invalidateAll(); }
 
     @Override public void flush () { flushObjectCache(); }
 
     public void flushObjectCache(E entity) {
-        synchronized (ocache) {
-            if (empty(ocache.get())) return;
+        if (isBulkMode()) return; // createAll/updateAll invalidate once per call
+        final Set<String> tags = new HashSet<>();
+        addCacheTags(entity, tags);
+        getObjectCache().invalidateTags(tags);
+    }
 
-            final String subCacheAttr = subCacheAttribute();
-            final Object val = (subCacheAttr != null) ? ReflectionUtil.get(entity, subCacheAttr) : null;
+    public void flushObjectCache(Collection<E> entities) {
+        final Set<String> tags = new HashSet<>();
+        for (E entity : entities) addCacheTags(entity, tags);
+        getObjectCache().invalidateTags(tags);
+    }
 
-            if (val != null) {
-                Map<Object, Object> subCache = (Map<Object, Object>) ocache.get().get(val);
-                if (subCache != null && !subCache.isEmpty()) {
-                    subCache = new ConcurrentHashMap<>();
-                    ocache.get().put(val.toString(), subCache);
-                }
-            } else {
-                ocache.set(new ConcurrentHashMap<>());
-            }
+    private void addCacheTags(E entity, Set<String> tags) {
+        if (entity.getUuid() != null) tags.add(DAOObjectCache.uuidTag(entity.getUuid()));
 
-            final Map globalCache = (Map) ocache.get().get(NO_SUB_KEY);
-            if (!empty(globalCache)) {
-                ocache.get().put(NO_SUB_KEY, new ConcurrentHashMap<>());
-            }
-        }
+        final String subCacheAttr = subCacheAttribute();
+        final Object val = (subCacheAttr != null) ? ReflectionUtil.get(entity, subCacheAttr) : null;
+        if (val != null) tags.add(DAOObjectCache.scopeTag(val.toString()));
+        tags.add(DAOObjectCache.scopeTag(NO_SUB_KEY));
     }
 
     @Override public E postCreate(E entity, Object context) {
-        return auditingEnabled() ? commit_audit(entity, context) : entity;
+        return auditingEnabled() && !isBulkMode() ? commit_audit(entity, context) : entity;
     }
 
     @Override public E create(@Valid E entity) { return AbstractCRUDDAO.create(entity, this); }
@@ -178,6 +171,7 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
             }
             throw e;
         }
+        dao.updateBlindIndex(entity);
         return rawMode ? entity : dao.postCreate(entity, ctx);
     }
 
@@ -201,14 +195,14 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
     @Override public Object preUpdate(@Valid E entity) {
         validateOrException(entity);
         try {
-            return auditingEnabled() ? audit(findByUuid(entity.getUuid()), entity, CrudOperation.update) : entity;
+            return auditingEnabled() && !isBulkMode() ? audit(findByUuid(entity.getUuid()), entity, CrudOperation.update) : entity;
         } finally {
             flushObjectCache(entity);
         }
     }
 
     @Override public E postUpdate(E entity, Object context) {
-        return auditingEnabled() ? commit_audit(entity, context) : entity;
+        return auditingEnabled() && !isBulkMode() ? commit_audit(entity, context) : entity;
     }
 
     @Override public E update(@Valid E entity) { return update(entity, this); }
@@ -225,9 +219,142 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
         setFlushMode(dao.getHibernateTemplate());
         entity = dao.getHibernateTemplate().merge(checkNotNull(entity));
         dao.getHibernateTemplate().flush();
+        dao.updateBlindIndex(entity);
         return rawMode ? entity : dao.postUpdate(entity, ctx);
     }
 
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 500;
+
+    // entities written per flush by createAll and updateAll. a multiple of hibernate's jdbc batch size works best
+    protected int getBulkChunkSize() { return DEFAULT_BULK_CHUNK_SIZE; }
+
+    // per DAO: a createAll on one DAO must not turn off auditing of single writes that its hooks make through another
+    private final ThreadLocal<Boolean> bulkMode = new ThreadLocal<>();
+
+    /**
+     * True while createAll or updateAll of this DAO runs on this thread. preCreate/preUpdate and postCreate/postUpdate
+     * are still called for each entity, but audit logs and cache invalidation are done once per chunk and once per call.
+     */
+    protected boolean isBulkMode() {
+        final Boolean bulk = bulkMode.get();
+        return bulk != null && bulk;
+    }
+
+    /**
+     * Creates many entities in one transaction. Entities are validated and saved in chunks of getBulkChunkSize(),
+     * and each chunk is flushed with JDBC batching and then evicted from the session, so memory use does not grow
+     * with the number of entities. The returned entities are detached.
+     */
+    public List<E> createAll(Collection<E> entities) { return bulkWrite(entities, CrudOperation.create); }
+
+    /** Like createAll, for updates. */
+    public List<E> updateAll(Collection<E> entities) { return bulkWrite(entities, CrudOperation.update); }
+
+    private List<E> bulkWrite(Collection<E> entities, CrudOperation operation) {
+        if (empty(entities)) return new ArrayList<>();
+        final Boolean wasBulk = bulkMode.get();
+        bulkMode.set(true);
+        try {
+            setFlushMode();
+            final int chunkSize = Math.max(1, getBulkChunkSize());
+            final List<E> results = new ArrayList<>(entities.size());
+            final List<E> chunk = new ArrayList<>(chunkSize);
+            for (E entity : entities) {
+                chunk.add(checkNotNull(entity));
+                if (chunk.size() == chunkSize) {
+                    results.addAll(bulkWriteChunk(chunk, operation));
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) results.addAll(bulkWriteChunk(chunk, operation));
+            flushObjectCache(results);
+            return results;
+
+        } finally {
+            if (wasBulk == null) bulkMode.remove(); else bulkMode.set(wasBulk);
+        }
+    }
+
+    private List<E> bulkWriteChunk(List<E> chunk, CrudOperation operation) {
+        final boolean rawMode = isRawMode();
+        final boolean create = operation == CrudOperation.create;
+        final boolean audit = auditingEnabled() && !rawMode;
+
+        final Map<String, String> prevStates = new HashMap<>();
+        final List<E> prevs = new ArrayList<>();
+        if (audit && !create) {
+            // not findByUuids, its results are capped at getFinderMaxResults
+            final List<String> uuids = chunk.stream().map(Identifiable::getUuid).collect(Collectors.toList());
+            prevs.addAll(list(criteria().add(in(Identifiable.UUID, uuids))));
+            for (E prev : prevs) prevStates.put(prev.getUuid(), toJsonOrDie(toMap(prev)));
+        }
+
+        final Object[] contexts = new Object[chunk.size()];
+        if (!rawMode) {
+            for (int i=0; i<chunk.size(); i++) {
+                final E entity = chunk.get(i);
+                if (create) {
+                    entity.beforeCreate();
+                    contexts[i] = preCreate(entity);
+                } else {
+                    entity.beforeUpdate();
+                    contexts[i] = preUpdate(entity);
+                }
+            }
+        }
+
+        final HibernateTemplate template = getHibernateTemplate();
+        final List<E> saved = new ArrayList<>(chunk.size());
+        for (E entity : chunk) {
+            if (create) {
+                entity.setUuid((String) template.save(entity));
+                saved.add(entity);
+            } else {
+                saved.add(template.merge(entity));
+            }
+        }
+        try {
+            template.flush();
+        } catch (RuntimeException e) {
+            log.error("bulkWrite("+operation+", "+getEntityClass().getSimpleName()+", "+chunk.size()+" entities): "+e);
+            throw e;
+        }
+        updateBlindIndex(saved, create);
+
+        final List<E> results = new ArrayList<>(saved.size());
+        for (int i=0; i<saved.size(); i++) {
+            final E entity = saved.get(i);
+            results.add(rawMode ? entity : create ? postCreate(entity, contexts[i]) : postUpdate(entity, contexts[i]));
+        }
+
+        if (audit) {
+            final AuditLogDAO<AuditLog> auditLogDAO = getAuditLogDAO();
+            final List<AuditLog> logs = new ArrayList<>(results.size());
+            for (E entity : results) {
+                final AuditLog auditLog = auditLogDAO.newEntity()
+                        .setEntityType(getEntityClass().getName())
+                        .setEntityUuid(entity.getUuid())
+                        .setOperation(operation)
+                        .setPrevState(prevStates.get(entity.getUuid()))
+                        .setNewState(toJsonOrDie(toMap(entity, getAuditFields(), getAuditExcludeFields())));
+                // the audit rows commit or roll back with the entities, so they can be written as succeeded
+                auditLog.setSuccess(true);
+                logs.add(auditLog);
+            }
+            final AuditLogWriter<AuditLog> writer = auditLogDAO.getWriter();
+            if (writer != null) {
+                for (AuditLog auditLog : logs) writer.submitAfterCommit(auditLog, null, null);
+            } else {
+                auditLogDAO.createAll(logs);
+            }
+        }
+
+        // only this chunk: the caller's transaction may have other entities in the session that it still uses
+        for (E entity : saved) template.evict(entity);
+        for (E prev : prevs) template.evict(prev);
+        return results;
+    }
+
     @Override public void delete(String uuid) {
         final E found = get(checkNotNull(uuid));
         setFlushMode();
@@ -235,6 +362,7 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
             final AuditLog auditLog = auditingEnabled() ? audit_delete(found) : null;
             getHibernateTemplate().delete(found);
             getHibernateTemplate().flush();
+            deleteBlindIndex(found.getUuid());
             flushObjectCache(found);
             if (auditLog != null) commit_audit_delete(auditLog);
         }
@@ -251,6 +379,7 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
         }
         getHibernateTemplate().deleteAll(entities);
         getHibernateTemplate().flush();
+        for (E e : entities) deleteBlindIndex(e.getUuid());
         if (logs != null) {
             for (AuditLog log : logs) {
                 commit_audit_delete(log);
@@ -596,12 +725,14 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
         return list(sort(criteria().add(and(expr1, expr2, expr3, expr4, expr5, expr6))), 0, getFinderMaxResults());
     }
 
-    @Getter private final AtomicReference<Map<String, Object>> ocache = new AtomicReference<>(new ConcurrentHashMap<>());
+    // max total weight of the object cache: a single object weighs 1, a collection weighs 1 + its size
+    protected long getObjectCacheMaxWeight() { return 10_000; }
+    protected long getObjectCacheExpiration() { return HOURS.toMillis(1); }
+
+    @Getter(lazy=true) private final DAOObjectCache objectCache = initObjectCache();
+    private DAOObjectCache initObjectCache() { return new DAOObjectCache(getObjectCacheMaxWeight(), getObjectCacheExpiration()); }
 
-    private static final Object NULL_OBJECT = new Object();
-    private static final AtomicInteger cacheHits = new AtomicInteger(0);
-    private static final AtomicInteger cacheMisses = new AtomicInteger(0);
-    private static final AtomicLong cacheMissTime = new AtomicLong(0);
+    public DAOObjectCache.DAOCacheStats getObjectCacheStats() { return getObjectCache().getStats(); }
 
     @Transactional(readOnly=true)
     public <T> T cacheLookup(String cacheKey, Function<Object[], T> lookup, Object... args) {
@@ -610,41 +741,52 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
 
     @Transactional(readOnly=true)
     public <T> T cacheLookup(String cacheKey, String cacheSubKey, Function<Object[], T> lookup, Object... args) {
-        final String subCacheAttr = subCacheAttribute();
-        final Map<String, Object> c;
-        synchronized (ocache) {
-            c = subCacheAttr == null ? ocache.get() : (Map<String, Object>) ocache.get().computeIfAbsent(cacheSubKey, o -> new ConcurrentHashMap<String, Object>());
-        }
-        if (!c.containsKey(cacheKey)) {
-            synchronized (c) {
-                if (!c.containsKey(cacheKey)) {
-                    final long start = now();
-                    final T thing;
-                    try {
-                        thing = lookup.apply(args);
-                    } catch (Exception e) {
-                        return die("cacheLookup: lookup failed: "+e, e);
-                    }
-                    final long end = now();
-                    int misses = cacheMisses.incrementAndGet();
-                    long missTime = cacheMissTime.addAndGet(end - start);
-                    if (misses % 1000 == 0) log.info("DAO-cache: "+misses+" misses took "+cacheMissTime + " to look up, average of "+(missTime/misses)+"ms per lookup");
-
-                    c.put(cacheKey, thing == null ? NULL_OBJECT : thing);
-                }
+        final String scope = subCacheAttribute() == null ? NO_SUB_KEY : cacheSubKey;
+        final String key = scope.equals(NO_SUB_KEY) ? cacheKey : scope + "/" + cacheKey;
+        if (cacheReadOnlySnapshots() && !snapshotsUnsupported.get()) {
+            final AtomicBoolean unfrozen = new AtomicBoolean(false);
+            final T value = getObjectCache().get(key, a -> {
+                final T found = lookup.apply(a);
+                final T frozen = ReadOnlySnapshot.tryFreeze(found);
+                if (frozen != null || found == null) return frozen;
+                unfrozen.set(true);
+                return found;
+            }, args, thing -> cacheDependencyTags(scope, thing));
+            if (!unfrozen.get()) return value;
+
+            // the result has a field that cannot be frozen: go back to mirror() copies for this DAO, and drop the
+            // snapshots cached so far, so no cached value is shared with callers
+            if (snapshotsUnsupported.compareAndSet(false, true)) {
+                log.warn("cacheLookup: cannot cache read-only snapshots of "+getEntityClass().getSimpleName()+", caching copies instead: "+value.getClass().getName());
+                getObjectCache().invalidateAll();
             }
+            return cacheCopy(value);
         }
-        return getOrNull(cacheKey, c);
-    }
-
-    private <T> T getOrNull(String cacheKey, Map<String, Object> c) {
-        int hits = cacheHits.incrementAndGet();
-        if (hits % 1000 == 0) log.info("DAO-cache: "+hits+" cache hits, saved "+formatDuration(hits*(cacheMissTime.get()/cacheMisses.get())));
-        return cacheCopy((T) c.get(cacheKey));
+        final T value = getObjectCache().get(key, lookup, args, thing -> cacheDependencyTags(scope, thing));
+        // a snapshot cached by another thread just before the switch to copies cannot be mirrored as it is
+        return cacheCopy(cacheReadOnlySnapshots() ? ReadOnlySnapshot.thawAll(value) : value);
+    }
+
+    /**
+     * When true, cacheLookup stores each result as a ReadOnlySnapshot, copied once when the cache is filled.
+     * Cache hits then return the shared snapshot without any copy, and callers that try to modify it get an
+     * UnsupportedOperationException. When false (the default), every hit returns a mirror() copy of the cached value.
+     * Snapshots only support access through getters, see ReadOnlySnapshot. If a result cannot be frozen (a field
+     * declared as ArrayList, HashMap, ...), the DAO logs a warning and caches mirror() copies from then on.
+     */
+    protected boolean cacheReadOnlySnapshots() { return false; }
+    private final AtomicBoolean snapshotsUnsupported = new AtomicBoolean(false);
+
+    /**
+     * @param scope the sub-cache key the value was looked up in, or NO_SUB_KEY
+     * @param thing the value returned by the lookup function (may be null)
+     * @return the tags that, when invalidated by a write, should evict this value from the object cache
+     */
+    protected Collection<String> cacheDependencyTags(String scope, Object thing) {
+        return DAOObjectCache.defaultTags(scope, thing);
     }
 
     private <T> T cacheCopy(T thing) {
-        if (thing == NULL_OBJECT) return null;
         if (empty(thing)) return thing;
         try {
             if (thing instanceof Collection) {
@@ -668,6 +810,64 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
         return (thing != null) ? thing : findByUuid(uuid);
     }
 
+    public static final int BLIND_INDEX_INSERT_BATCH = 500;
+
+    @Getter(lazy=true) private final Map<Field, BlindIndexType> blindIndexFields = initBlindIndexFields();
+    private Map<Field, BlindIndexType> initBlindIndexFields() {
+        final Map<Field, BlindIndexType> fields = new LinkedHashMap<>();
+        for (Field f : fieldsWithAnnotation(getEntityClass(), ECSearchable.class)) {
+            final BlindIndexType type = f.getAnnotation(ECSearchable.class).blindIndex();
+            if (type != BlindIndexType.none && isEncryptedField(f)) fields.put(f, type);
+        }
+        return fields;
+    }
+
+    public boolean blindIndexEnabled() { return !getBlindIndexFields().isEmpty() && getBlindIndexer() != null; }
+
+    /**
+     * Replaces the blind index tokens of the entity. Runs in the transaction that writes the entity, so the tokens
+     * always match the stored values. Public so that rows written before a blind index was added can be backfilled.
+     */
+    public void updateBlindIndex(E entity) { updateBlindIndex(Collections.singletonList(entity), false); }
+
+    private void updateBlindIndex(List<E> entities, boolean isNew) {
+        if (!blindIndexEnabled()) return;
+        final String entityType = dbName(getEntityClass());
+        if (!isNew) for (E entity : entities) deleteBlindIndex(entity.getUuid());
+        final List<Object> rows = new ArrayList<>();
+        for (E entity : entities) {
+            for (Map.Entry<Field, BlindIndexType> entry : getBlindIndexFields().entrySet()) {
+                final String field = dbName(entry.getKey().getName());
+                final Object value = ReflectionUtil.get(entity, entry.getKey().getName());
+                for (String token : getBlindIndexer().indexTokens(entry.getValue(), field, value)) {
+                    rows.add(entityType); rows.add(entity.getUuid()); rows.add(field); rows.add(token);
+                }
+            }
+        }
+        final Session session = getHibernateTemplate().getSessionFactory().getCurrentSession();
+        for (int start=0; start<rows.size(); start += 4*BLIND_INDEX_INSERT_BATCH) {
+            final List<Object> batch = rows.subList(start, Math.min(rows.size(), start + 4*BLIND_INDEX_INSERT_BATCH));
+            final SQLQuery insert = session.createSQLQuery("INSERT INTO " + BlindIndexer.TABLE + " (entity_type, entity_uuid, field, token) VALUES "
+                    + String.join(", ", Collections.nCopies(batch.size()/4, "(?, ?, ?, ?)")));
+            // without a query space, hibernate assumes a native update touches every table and evicts the whole L2 cache
+            insert.addSynchronizedQuerySpace(BlindIndexer.TABLE);
+            for (int i=0; i<batch.size(); i++) insert.setParameter(i, batch.get(i));
+            insert.executeUpdate();
+        }
+    }
+
+    // rows removed with bulkDelete keep their tokens, those only point to uuids that are no longer in the view
+    public void deleteBlindIndex(String uuid) { deleteBlindIndex(getHibernateTemplate().getSessionFactory().getCurrentSession(), uuid); }
+
+    public void deleteBlindIndex(Session session, String uuid) {
+        if (!blindIndexEnabled()) return;
+        session.createSQLQuery("DELETE FROM " + BlindIndexer.TABLE + " WHERE entity_type = ? AND entity_uuid = ?")
+                .addSynchronizedQuerySpace(BlindIndexer.TABLE)
+                .setParameter(0, dbName(getEntityClass()))
+                .setParameter(1, uuid)
+                .executeUpdate();
+    }
+
     protected void setFlushMode() { setFlushMode(getHibernateTemplate()); }
     public static void setFlushMode(HibernateTemplate template) { template.getSessionFactory().getCurrentSession().setFlushMode(FlushMode.COMMIT); }
 
@@ -675,10 +875,30 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
 
     private static final String PROP_AUDIT_LOG = "__auditLog";
 
+    private static final String PROP_AUDIT_PREV = "__auditPrev";
+    private static final String PROP_AUDIT_NEW = "__auditNew";
+
+    private AuditLogWriter<AuditLog> auditLogWriter() {
+        final AuditLogDAO<AuditLog> auditLogDAO = getAuditLogDAO();
+        return auditLogDAO.getWriter();
+    }
+
     private Object audit(E prevEntity, E newEntity, CrudOperation operation) {
 
         if (newEntity == null) die("audit("+operation.name()+"): newEntity cannot be null");
 
+        if (auditLogWriter() != null) {
+            // take the states now, the writer turns them into JSON and encrypts them later
+            final Map<String, Object> ctx = new HashMap<>();
+            ctx.put(PROP_AUDIT_LOG, getAuditLogDAO().newEntity()
+                    .setEntityType(getEntityClass().getName())
+                    .setEntityUuid(newEntity.getUuid())
+                    .setOperation(operation));
+            ctx.put(PROP_AUDIT_PREV, prevEntity == null ? null : toMap(prevEntity));
+            ctx.put(PROP_AUDIT_NEW, toMap(newEntity, getAuditFields(), getAuditExcludeFields()));
+            return ctx;
+        }
+
         AuditLog auditLog = getAuditLogDAO().newEntity()
                 .setEntityType(getEntityClass().getName())
                 .setEntityUuid(newEntity.getUuid())
@@ -699,6 +919,11 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
     private E commit_audit(E entity, Object context) {
         final Map<String, Object> ctx = (Map<String, Object>) context;
         final AuditLog auditLog = (AuditLog) ctx.get(PROP_AUDIT_LOG);
+        final AuditLogWriter<AuditLog> writer = auditLogWriter();
+        if (writer != null) {
+            writer.submitAfterCommit(auditLog, (Map<String, Object>) ctx.get(PROP_AUDIT_PREV), (Map<String, Object>) ctx.get(PROP_AUDIT_NEW));
+            return entity;
+        }
         auditLog.setSuccess(true);
         getAuditLogDAO().update(auditLog);
         return entity;
@@ -712,10 +937,15 @@ public abstract class AbstractCRUDDAO<E extends Identifiable>
                 .setPrevState(toJsonOrDie(toMap(found)))
                 .setNewState(null);
 
-        return getAuditLogDAO().create(auditLog);
+        return auditLogWriter() != null ? auditLog : getAuditLogDAO().create(auditLog);
     }
 
     private void commit_audit_delete(AuditLog auditLog) {
+        final AuditLogWriter<AuditLog> writer = auditLogWriter();
+        if (writer != null) {
+            writer.submitAfterCommit(auditLog, null, null);
+            return;
+        }
         auditLog.setSuccess(true);
         getAuditLogDAO().update(auditLog);
     }
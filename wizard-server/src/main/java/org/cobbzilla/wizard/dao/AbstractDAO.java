@@ -12,25 +12,27 @@ import org.cobbzilla.util.collection.NameAndValue;
 import org.cobbzilla.util.string.StringUtil;
 import org.cobbzilla.wizard.model.Identifiable;
 import org.cobbzilla.wizard.model.IdentifiableBase;
+import org.cobbzilla.wizard.model.crypto.BlindIndexer;
 import org.cobbzilla.wizard.model.search.SearchResults;
 import org.cobbzilla.wizard.model.search.SearchQuery;
 import org.cobbzilla.wizard.model.search.SqlViewField;
+import org.cobbzilla.wizard.server.config.DatabaseConfiguration;
 import org.cobbzilla.wizard.server.config.PgRestServerConfiguration;
 import org.hibernate.Criteria;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.annotations.Cache;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.jasypt.hibernate4.encryptor.HibernatePBEStringEncryptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.orm.hibernate4.HibernateTemplate;
 
+import javax.persistence.Cacheable;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.cobbzilla.util.daemon.ZillaRuntime.*;
@@ -106,6 +108,7 @@ public abstract class AbstractDAO<E extends Identifiable> implements DAO<E> {
      */
     @SuppressWarnings("unchecked")
     protected E uniqueResult(DetachedCriteria criteria) throws HibernateException {
+        if (cacheQuery(criteria)) return (E) DAOUtil.uniqueResult(cachedList(criteria));
         return (E) DAOUtil.uniqueResult(getHibernateTemplate().findByCriteria(criteria));
     }
 
@@ -120,9 +123,55 @@ public abstract class AbstractDAO<E extends Identifiable> implements DAO<E> {
      */
     @SuppressWarnings("unchecked")
     protected List<E> list(DetachedCriteria criteria) throws HibernateException {
+        if (cacheQuery(checkNotNull(criteria))) return cachedList(criteria);
         return (List<E>) getHibernateTemplate().findByCriteria(checkNotNull(criteria));
     }
 
+    /**
+     * True when the entity class opts in to the second-level cache, with JPA's @Cacheable or Hibernate's @Cache.
+     * The cache itself is enabled with HibernateConfiguration.secondLevelCache.
+     */
+    @Getter(lazy=true) private final boolean cacheableEntity = initCacheableEntity();
+    private boolean initCacheableEntity() {
+        final Cacheable cacheable = getEntityClass().getAnnotation(Cacheable.class);
+        return (cacheable != null && cacheable.value()) || getEntityClass().isAnnotationPresent(Cache.class);
+    }
+
+    public String entityCacheRegion() { return getEntityClass().getName(); }
+    public String queryCacheRegion() { return "query."+getEntityClass().getName(); }
+
+    /**
+     * Whether the finders (findByUniqueField, findByField, ...) use the query cache. Only cacheable entities use it:
+     * the query cache holds ids, and entities that are not in the second-level cache would be loaded one at a time.
+     */
+    protected boolean cacheQueries() {
+        final DatabaseConfiguration db = configuration == null ? null : configuration.getDatabase();
+        return db != null && db.getHibernate() != null && db.getHibernate().useQueryCache() && isCacheableEntity();
+    }
+
+    private boolean cacheQuery(DetachedCriteria criteria) {
+        return cacheQueries() && getEntityClass().getName().equals(criteria.getEntityOrClassName());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<E> cachedList(DetachedCriteria criteria) {
+        return getHibernateTemplate().execute(session -> (List<E>) criteria.getExecutableCriteria(session)
+                .setCacheable(true)
+                .setCacheRegion(queryCacheRegion())
+                .list());
+    }
+
+    /** Hit/miss stats of this DAO's entity and query cache regions. Empty unless hibernate statistics are on. */
+    public Map<String, HibernateCacheStats> getHibernateCacheStats() {
+        final SessionFactory factory = getHibernateTemplate().getSessionFactory();
+        final Map<String, HibernateCacheStats> stats = new LinkedHashMap<>();
+        for (String region : new String[] {entityCacheRegion(), queryCacheRegion()}) {
+            final HibernateCacheStats regionStats = HibernateCacheStats.region(factory, region);
+            if (regionStats != null) stats.put(region, regionStats);
+        }
+        return stats;
+    }
+
     /**
      * Get the results of a {@link Criteria} query, with a firstResult and maxResults
      *
@@ -268,6 +317,17 @@ public abstract class AbstractDAO<E extends Identifiable> implements DAO<E> {
         return ctx.getViewName();
     }
 
+    // null when the database is not encrypted. The token table is not created here: it comes with the application's
+    // migrations, from the statements in seed/blind_index_token.sql
+    @Getter(lazy=true) private final BlindIndexer blindIndexer = initBlindIndexer();
+    private BlindIndexer initBlindIndexer() {
+        final DatabaseConfiguration db = configuration == null ? null : configuration.getDatabase();
+        if (db == null) return null;
+        final String secret = !empty(db.getBlindIndexKey()) ? db.getBlindIndexKey() : db.getEncryptionKey();
+        if (!db.isEncryptionEnabled() || empty(secret)) return null;
+        return new BlindIndexer(secret);
+    }
+
     @Override public SearchResults<E> search(SearchQuery searchQuery) {
         return search(searchQuery, getEntityClass().getSimpleName());
     }
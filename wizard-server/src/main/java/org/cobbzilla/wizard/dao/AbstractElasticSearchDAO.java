@@ -15,8 +15,15 @@ import org.cobbzilla.util.http.URIUtil;
 import org.cobbzilla.wizard.model.Identifiable;
 import org.cobbzilla.wizard.model.search.SearchResults;
 import org.cobbzilla.wizard.server.config.ElasticSearchConfig;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -28,24 +35,32 @@ import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
 
+import javax.annotation.PreDestroy;
 import java.io.Closeable;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.cobbzilla.util.daemon.DaemonThreadFactory.fixedPool;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
 import static org.cobbzilla.util.json.JsonUtil.*;
 import static org.cobbzilla.util.reflect.ReflectionUtil.getFirstTypeParam;
 import static org.cobbzilla.util.reflect.ReflectionUtil.instantiate;
+import static org.cobbzilla.util.time.TimeUtil.formatDurationFrom;
 import static org.elasticsearch.index.query.QueryBuilders.matchAllQuery;
 
 @Slf4j
@@ -82,16 +97,51 @@ public abstract class AbstractElasticSearchDAO<E extends Identifiable, Q, R exte
 
     protected int getSearchPoolSize() { return 10; }
 
+    // the pool is thread-safe, no need to serialize callers on it
     protected ESClientReference getClient () {
-        synchronized (clientPool) {
-            try {
-                final ESClientReference clientRef = clientPool.borrowObject();
-                log.debug("getClient: borrowing client #"+clientRef.hashCode());
-                return clientRef;
-            } catch (Exception e) {
-                return die("getClient: " + e, e);
+        try {
+            final ESClientReference clientRef = clientPool.borrowObject();
+            log.debug("getClient: borrowing client #"+clientRef.hashCode());
+            return clientRef;
+        } catch (Exception e) {
+            return die("getClient: " + e, e);
+        }
+    }
+
+    // TransportClient is thread-safe: searches share one client, and never hold a lock during a request.
+    // a refresh retires the current client and closes the one retired before it, so requests sent on a client
+    // have a whole refresh interval to finish before it is closed
+    private final Object sharedClientLock = new Object();
+    private Client currentSharedClient;
+    private Client retiredSharedClient;
+    private final AutoRefreshingReference<Client> sharedClient = new AutoRefreshingReference<Client>() {
+        @Override public Client refresh() {
+            final Client client = buildClient();
+            final Client toClose;
+            synchronized (sharedClientLock) {
+                toClose = retiredSharedClient;
+                retiredSharedClient = currentSharedClient;
+                currentSharedClient = client;
+            }
+            if (toClose != null) toClose.close();
+            return client;
+        }
+        @Override public long getTimeout() { return getClientRefreshInterval(); }
+    };
+    protected Client getSharedClient () {
+        if (closed) die("getSharedClient: "+getClass().getSimpleName()+" is closed");
+        return sharedClient.get();
+    }
+
+    // results are mapped and sorted here, so the ES transport threads only hand over the response
+    private volatile ExecutorService searchExecutor;
+    protected ExecutorService getSearchExecutor() {
+        if (searchExecutor == null) {
+            synchronized (sharedClientLock) {
+                if (searchExecutor == null) searchExecutor = fixedPool(getSearchPoolSize(), getClass().getSimpleName()+".search");
             }
         }
+        return searchExecutor;
     }
 
     protected TransportAddress toTransportAddress(String uri) {
@@ -107,18 +157,235 @@ public abstract class AbstractElasticSearchDAO<E extends Identifiable, Q, R exte
     private ExecutorService indexPool = Executors.newFixedThreadPool(getIndexPoolSize());
     protected int getIndexPoolSize() { return 100; }
 
+    /**
+     * When true, index adds documents to a BulkProcessor instead of sending one request per entity. Bulk requests are
+     * sent when getBulkActions documents or getBulkBytes bytes are buffered, or every getBulkFlushInterval millis.
+     * At most getBulkConcurrentRequests bulk requests are in flight: when ES falls behind, index blocks until one
+     * completes. Documents that ES rejects because it is overloaded are retried with exponential backoff.
+     */
+    protected boolean useBulkIndexer() { return false; }
+    protected int getBulkActions() { return 1000; }
+    protected long getBulkBytes() { return 5 * 1024 * 1024; }
+    protected long getBulkFlushInterval() { return 1000; }
+    protected int getBulkConcurrentRequests() { return 2; }
+    protected long getBulkBackoffInitialDelay() { return 100; }
+    protected int getBulkBackoffRetries() { return 6; }
+
+    // rows fetched per round trip when reindexing
+    protected int getReindexFetchSize() { return 1000; }
+    protected long getReindexTimeout() { return TimeUnit.HOURS.toMillis(1); }
+
+    // completed when the bulk request holding the document returns
+    private final Map<ActionRequest, CompletableFuture<Void>> bulkPending = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    // how long close waits for buffered and in-flight bulk requests to finish
+    protected long getBulkCloseTimeout() { return TimeUnit.SECONDS.toMillis(30); }
+
+    // created on first use, close flushes the processor and then closes the client it runs on
+    private volatile BulkProcessor bulkProcessor;
+    private Client bulkClient;
+    private volatile boolean closed = false;
+
+    protected BulkProcessor getBulkProcessor() {
+        if (bulkProcessor == null) {
+            synchronized (bulkPending) {
+                if (closed) die("getBulkProcessor: "+getClass().getSimpleName()+" is closed");
+                if (bulkProcessor == null) {
+                    bulkClient = buildClient();
+                    bulkProcessor = initBulkProcessor(bulkClient);
+                }
+            }
+        }
+        return bulkProcessor;
+    }
+
+    private BulkProcessor initBulkProcessor(Client client) {
+        return newBulkProcessor(client, new BulkProcessor.Listener() {
+            @Override public void beforeBulk(long executionId, BulkRequest request) {}
+
+            @Override public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                final Map<String, String> failed = new HashMap<>();
+                if (response.hasFailures()) {
+                    for (BulkItemResponse item : response.getItems()) {
+                        if (item.isFailed()) failed.put(item.getId(), item.getFailureMessage());
+                    }
+                    log.warn("bulkIndex: "+failed.size()+" of "+request.numberOfActions()+" documents failed: "+response.buildFailureMessage());
+                }
+                for (ActionRequest r : request.requests()) {
+                    final CompletableFuture<Void> future = bulkPending.remove(r);
+                    if (future == null) continue;
+                    final String id = r instanceof UpdateRequest ? ((UpdateRequest) r).id() : null;
+                    if (id != null && failed.containsKey(id)) {
+                        future.completeExceptionally(new IllegalStateException("bulkIndex: "+id+": "+failed.get(id)));
+                    } else {
+                        future.complete(null);
+                    }
+                }
+            }
+
+            @Override public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                log.error("bulkIndex: "+request.numberOfActions()+" documents failed: "+failure, failure);
+                for (ActionRequest r : request.requests()) {
+                    final CompletableFuture<Void> future = bulkPending.remove(r);
+                    if (future != null) future.completeExceptionally(failure);
+                }
+            }
+        });
+    }
+
+    protected BulkProcessor newBulkProcessor(Client client, BulkProcessor.Listener listener) {
+        return BulkProcessor.builder(client, listener)
+                .setBulkActions(getBulkActions())
+                .setBulkSize(new ByteSizeValue(getBulkBytes()))
+                .setFlushInterval(TimeValue.timeValueMillis(getBulkFlushInterval()))
+                .setConcurrentRequests(getBulkConcurrentRequests())
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(getBulkBackoffInitialDelay()), getBulkBackoffRetries()))
+                .build();
+    }
+
     public Future<?> index (E entity) {
         if (!shouldIndex(entity)) {
             log.warn("index: refusing to index: "+getSearchId(entity));
             return null;
         }
+        if (useBulkIndexer()) {
+            final UpdateRequest request = updateRequest(entity);
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            bulkPending.put(request, future);
+            try {
+                getBulkProcessor().add(request);
+            } catch (RuntimeException e) {
+                bulkPending.remove(request);
+                throw e;
+            }
+            return future;
+        }
         return indexPool.submit(new ESIndexJob(entity));
     }
 
-    public boolean delete (String id) {
-        try (ESClientReference client = getClient()) {
-            return client.get().prepareDelete(getIndexName(), getTypeName(), id).get().isFound();
+    /** Sends whatever the bulk indexer has buffered, without waiting for the flush interval. */
+    public void flushBulk () { if (useBulkIndexer()) getBulkProcessor().flush(); }
+
+    /**
+     * Sends the documents the bulk indexer still has buffered and waits up to getBulkCloseTimeout millis for them,
+     * then closes the client it runs on. Documents still pending after that fail their futures. Also stops the
+     * search executor and closes the shared search clients.
+     */
+    @PreDestroy public void close () {
+        final BulkProcessor processor;
+        final Client client;
+        synchronized (bulkPending) {
+            if (closed) return;
+            closed = true;
+            processor = bulkProcessor;
+            client = bulkClient;
+        }
+        if (processor != null) {
+            try {
+                if (!processor.awaitClose(getBulkCloseTimeout(), TimeUnit.MILLISECONDS)) {
+                    log.warn("close: timed out waiting for bulk requests to finish");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("close: interrupted waiting for bulk requests to finish");
+            }
+            client.close();
+        }
+        final List<CompletableFuture<Void>> unsent;
+        synchronized (bulkPending) {
+            unsent = new ArrayList<>(bulkPending.values());
+            bulkPending.clear();
+        }
+        if (!unsent.isEmpty()) {
+            log.error("close: "+unsent.size()+" documents were not indexed");
+            final IllegalStateException e = new IllegalStateException("bulkIndex: "+getClass().getSimpleName()+" closed before the document was sent");
+            for (CompletableFuture<Void> future : unsent) future.completeExceptionally(e);
+        }
+
+        final ExecutorService executor;
+        final List<Client> searchClients = new ArrayList<>();
+        synchronized (sharedClientLock) {
+            executor = searchExecutor;
+            if (currentSharedClient != null) searchClients.add(currentSharedClient);
+            if (retiredSharedClient != null) searchClients.add(retiredSharedClient);
+            currentSharedClient = retiredSharedClient = null;
+        }
+        if (executor != null) executor.shutdown();
+        for (Client c : searchClients) c.close();
+    }
+
+    /**
+     * Indexes every entity the DAO has, reading them through a server-side cursor (getReindexFetchSize rows at a
+     * time, in a read-only session that is cleared as it goes) into a BulkProcessor of its own. Returns the number
+     * of documents sent; documents that failed are logged.
+     */
+    public long reindexAll (AbstractDAO<E> dao) {
+        final long start = now();
+        final AtomicLong failed = new AtomicLong();
+        final Client client = buildClient();
+        final BulkProcessor bulk = newBulkProcessor(client, new BulkProcessor.Listener() {
+            @Override public void beforeBulk(long executionId, BulkRequest request) {}
+            @Override public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                if (!response.hasFailures()) return;
+                for (BulkItemResponse item : response.getItems()) if (item.isFailed()) failed.incrementAndGet();
+                log.warn("reindexAll: "+response.buildFailureMessage());
+            }
+            @Override public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                failed.addAndGet(request.numberOfActions());
+                log.error("reindexAll: "+request.numberOfActions()+" documents failed: "+failure, failure);
+            }
+        });
+        final int fetchSize = getReindexFetchSize();
+        long rows = 0;
+        long sent = 0;
+        final Session session = dao.readOnlySession();
+        try {
+            // postgres only uses a cursor for the fetch size inside a transaction
+            final Transaction tx = session.beginTransaction();
+            try {
+                final ScrollableResults results = session.createCriteria(getEntityType())
+                        .setFetchSize(fetchSize)
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY);
+                try {
+                    while (results.next()) {
+                        final E entity = (E) results.get(0);
+                        if (shouldIndex(entity)) {
+                            bulk.add(updateRequest(entity));
+                            sent++;
+                        }
+                        if (++rows % fetchSize == 0) session.clear();
+                    }
+                } finally {
+                    results.close();
+                }
+            } finally {
+                tx.rollback();
+            }
+            if (!bulk.awaitClose(getReindexTimeout(), TimeUnit.MILLISECONDS)) {
+                log.warn("reindexAll: timed out waiting for bulk requests to finish");
+            }
+        } catch (Exception e) {
+            return die("reindexAll: " + e, e);
+        } finally {
+            session.close();
+            client.close();
         }
+        log.info("reindexAll: sent "+sent+" of "+rows+" "+getEntityType().getSimpleName()+" ("+failed.get()+" failed) in "+formatDurationFrom(start));
+        return sent;
+    }
+
+    protected UpdateRequest updateRequest (E entity) {
+        final String json = toJson(entity);
+        final String searchId = getSearchId(entity);
+        final IndexRequest indexRequest = new IndexRequest(getIndexName(), getTypeName(), searchId).source(json);
+        return new UpdateRequest(getIndexName(), getTypeName(), searchId)
+                .doc(json)
+                .upsert(indexRequest);
+    }
+
+    public boolean delete (String id) {
+        return getSharedClient().prepareDelete(getIndexName(), getTypeName(), id).get().isFound();
     }
     public boolean delete (E entity) { return delete(getSearchId(entity)); }
 
@@ -132,63 +399,77 @@ public abstract class AbstractElasticSearchDAO<E extends Identifiable, Q, R exte
     protected abstract R toSearchResult(E entity);
     protected abstract Comparator<? super R> getComparator(Q searchQuery);
 
-    public SearchResults<R> search(Q searchQuery) {
+    public SearchResults<R> search(Q searchQuery) { return await(searchAsync(searchQuery)); }
 
-        // empty query returns nothing
-        if (isEmptyQuery(searchQuery)) return new SearchResults<>();
+    /**
+     * Sends the search with the async client API. The future completes on the search executor, after the hits have
+     * been mapped with toSearchResult and sorted.
+     */
+    public CompletableFuture<SearchResults<R>> searchAsync(Q searchQuery) {
 
-        final SearchResults<R> results = new SearchResults<>();
-        final SearchResponse response;
+        // empty query returns nothing
+        if (isEmptyQuery(searchQuery)) return CompletableFuture.completedFuture(new SearchResults<>());
+
+        final SearchRequestBuilder requestBuilder = prepareSearch(getSharedClient())
+                .setQuery(getQuery(searchQuery))
+                .setPostFilter(getPostFilter(searchQuery))
+                .setFrom(0).setSize(getMaxResults());
+
+        return execute(requestBuilder).thenApplyAsync(response -> {
+            final SearchResults<R> results = new SearchResults<>();
+            final SearchHits hits = response.getHits();
+            for (SearchHit hit : hits) {
+                final E entity = fromJsonOrDie(hit.getSourceAsString(), getEntityType());
+                results.addResult(toSearchResult(entity));
+            }
+            Collections.sort(results.getResults(), getComparator(searchQuery));
+            return results;
+        }, getSearchExecutor());
+    }
 
-        @Cleanup final ESClientReference client = getClient();
-        synchronized (client.get()) {
-            final SearchRequestBuilder requestBuilder = prepareSearch(client.get())
-                    .setQuery(getQuery(searchQuery))
-                    .setPostFilter(getPostFilter(searchQuery))
-                    .setFrom(0).setSize(getMaxResults());
+    public SearchResponse debugSearch(DebugSearchQuery query) { return await(debugSearchAsync(query)); }
 
-            log.info("search: sending to ES:\n"+requestBuilder.toString()+"\n---END JSON\n");
-            response = requestBuilder.execute().actionGet();
+    public CompletableFuture<SearchResponse> debugSearchAsync(DebugSearchQuery query) {
+        final Client client = getSharedClient();
+        final SearchRequestBuilder requestBuilder;
+        if (query.hasSearchPreparer()) {
+            final SearchPreparer preparer = instantiate(query.getSearchPreparer());
+            requestBuilder = preparer.prepare(client);
+        } else {
+            requestBuilder = prepareSearch(client);
         }
-        final SearchHits hits = response.getHits();
-
-        for (SearchHit hit : hits) {
-            final E entity = fromJsonOrDie(hit.getSourceAsString(), getEntityType());
-            results.addResult(toSearchResult(entity));
+        if (query.hasSource()) {
+            requestBuilder.setSource(query.getSource());
+        } else {
+            requestBuilder
+                    .setQuery(query.getQuery())
+                    .setPostFilter(query.getFilter())
+                    .setFrom(query.getFrom()).setSize(query.getMaxResults());
         }
-
-        Collections.sort(results.getResults(), getComparator(searchQuery));
-        return results;
+        return execute(requestBuilder);
     }
 
-    public SearchResponse debugSearch(DebugSearchQuery query) {
-//        final List<R> results = new ArrayList<>();
-        final SearchResponse response;
-        @Cleanup final ESClientReference client = getClient();
-        synchronized (client.get()) {
-            final SearchRequestBuilder requestBuilder;
-            if (query.hasSearchPreparer()) {
-                final SearchPreparer preparer = instantiate(query.getSearchPreparer());
-                requestBuilder = preparer.prepare(client.get());
-            } else {
-                requestBuilder = prepareSearch(client.get());
-            }
-            if (query.hasSource()) {
-                requestBuilder.setSource(query.getSource());
-            } else {
-                requestBuilder
-                        .setQuery(query.getQuery())
-                        .setPostFilter(query.getFilter())
-                        .setFrom(query.getFrom()).setSize(query.getMaxResults());
-            }
+    protected CompletableFuture<SearchResponse> execute(SearchRequestBuilder requestBuilder) {
+        if (log.isDebugEnabled()) log.debug("search: sending to ES:\n"+requestBuilder.toString()+"\n---END JSON\n");
+        final CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+        requestBuilder.execute(new ActionListener<SearchResponse>() {
+            @Override public void onResponse(SearchResponse response) { future.complete(response); }
+            @Override public void onFailure(Throwable e) { future.completeExceptionally(e); }
+        });
+        return future;
+    }
 
-            log.info("search: sending to ES:\n"+requestBuilder.toString()+"\n---END JSON\n");
-            response = requestBuilder.execute().actionGet();
+    // the synchronous API throws what the request threw, as it did before searches were async
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            return die("search: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return die("search: interrupted");
         }
-//        for (SearchHit hit : response) {
-//
-//        }
-        return response;
     }
 
     @AllArgsConstructor
@@ -197,70 +478,61 @@ public abstract class AbstractElasticSearchDAO<E extends Identifiable, Q, R exte
 
         @Override public void run() {
             @Cleanup final ESClientReference client = getClient();
-            synchronized (client.get()) {
-                try {
-                    final String json = toJson(entity);
-
-                    final String searchId = getSearchId(entity);
-                    final IndexRequest indexRequest = new IndexRequest(getIndexName(), getTypeName(), searchId).source(json);
-                    final UpdateRequest updateRequest = new UpdateRequest(getIndexName(), getTypeName(), searchId)
-                            .doc(json)
-                            .upsert(indexRequest);
-                    final UpdateResponse response = client.get().update(updateRequest).get();
-
-                    if (response.getShardInfo().getSuccessful() == 0 && response.getShardInfo().getFailed() > 0) {
-                        log.warn("Error indexing: " + toJsonOrErr(response));
-                    }
+            try {
+                final UpdateResponse response = client.get().update(updateRequest(entity)).get();
 
-                } catch (Exception e) {
-                    final String msg = "index: " + e;
-                    log.error(msg, e);
-                    die(msg, e);
+                if (response.getShardInfo().getSuccessful() == 0 && response.getShardInfo().getFailed() > 0) {
+                    log.warn("Error indexing: " + toJsonOrErr(response));
                 }
+
+            } catch (Exception e) {
+                final String msg = "index: " + e;
+                log.error(msg, e);
+                die(msg, e);
             }
         }
     }
 
     private static final AtomicBoolean checkedIndex = new AtomicBoolean(false);
 
-    private class ESClientReference extends AutoRefreshingReference<Client> implements Closeable {
-
-        @Override public Client refresh() {
-            final ElasticSearchConfig config = getConfiguration();
-            final Settings settings = Settings.settingsBuilder().put("cluster.name", config.getCluster()).build();
-
-            TransportClient c = TransportClient.builder().settings(settings).build();
-            for (String uri : config.getServers()) c = c.addTransportAddress(toTransportAddress(uri));
-
-            if (!checkedIndex.get()) {
-                synchronized (checkedIndex) {
-                    if (!checkedIndex.get()) {
-                        checkedIndex.set(true);
-                        try {
-                            final IndicesAdminClient indices = c.admin().indices();
-                            if (!indices.exists(new IndicesExistsRequest(getIndexName())).actionGet().isExists()) {
-                                indices.create(new CreateIndexRequest(getIndexName()).mapping(getTypeName(), getTypeMappingJson())).actionGet();
-                            }
-                        } catch (Exception e) {
-                            die("initClient: error setting up mappings: " + e, e);
+    protected Client buildClient() {
+        final ElasticSearchConfig config = getConfiguration();
+        final Settings settings = Settings.settingsBuilder().put("cluster.name", config.getCluster()).build();
+
+        TransportClient c = TransportClient.builder().settings(settings).build();
+        for (String uri : config.getServers()) c = c.addTransportAddress(toTransportAddress(uri));
+
+        if (!checkedIndex.get()) {
+            synchronized (checkedIndex) {
+                if (!checkedIndex.get()) {
+                    checkedIndex.set(true);
+                    try {
+                        final IndicesAdminClient indices = c.admin().indices();
+                        if (!indices.exists(new IndicesExistsRequest(getIndexName())).actionGet().isExists()) {
+                            indices.create(new CreateIndexRequest(getIndexName()).mapping(getTypeName(), getTypeMappingJson())).actionGet();
                         }
+                    } catch (Exception e) {
+                        die("initClient: error setting up mappings: " + e, e);
                     }
                 }
             }
-
-            return c;
         }
 
+        return c;
+    }
+
+    private class ESClientReference extends AutoRefreshingReference<Client> implements Closeable {
+
+        @Override public Client refresh() { return buildClient(); }
+
         @Override public long getTimeout() { return getClientRefreshInterval(); }
 
         @Override public void close() {
-            synchronized (clientPool) {
-                try {
-                    clientPool.returnObject(this);
-                    log.debug("close: returning client #"+this.hashCode());
-                } catch (Exception e) {
-                    die("close: error returning client to pool: " + e, e);
-                }
+            try {
+                clientPool.returnObject(this);
+                log.debug("close: returning client #"+this.hashCode());
+            } catch (Exception e) {
+                die("close: error returning client to pool: " + e, e);
             }
         }
     }
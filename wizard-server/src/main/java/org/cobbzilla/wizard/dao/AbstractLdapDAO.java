@@ -1,11 +1,14 @@
 package org.cobbzilla.wizard.dao;
 
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.Transformer;
 import org.cobbzilla.util.collection.NameAndValue;
 import org.cobbzilla.wizard.ldap.LdapService;
+import org.cobbzilla.wizard.ldap.NativeLdapServiceBase;
 import org.cobbzilla.wizard.model.search.SearchResults;
 import org.cobbzilla.wizard.model.search.SearchQuery;
 import org.cobbzilla.wizard.model.ldap.LdapEntity;
@@ -62,8 +65,7 @@ public abstract class AbstractLdapDAO<E extends LdapEntity> implements DAO<E> {
 
     @Override public SearchResults<E> search(SearchQuery searchQuery, String entityAlias) {
         mapBounds(searchQuery);
-        final String ldif = ldap().rootsearch(searchQuery);
-        final List<E> matches = multiFromLdif(ldif);
+        final List<E> matches = rootsearch(searchQuery);
         final SearchResults results = new SearchResults().setTotalCount(matches.size());
         for (int i = searchQuery.getPageOffset(); i<matches.size() && i< searchQuery.getPageEndOffset(); i++) {
             results.addResult(matches.get(i));
@@ -117,10 +119,9 @@ public abstract class AbstractLdapDAO<E extends LdapEntity> implements DAO<E> {
     private String attrFilter(String field, String filter) { return "(" + field + "=*" + filter + "*)"; }
 
     @Override public List<E> findAll() {
-        final String ldif = ldap().rootsearch(new SearchQuery()
+        return rootsearch(new SearchQuery()
                 .setBound(LdapService.BOUND_NAME, "*")
                 .setBound(LdapService.BOUND_BASE, parentDN()));
-        return multiFromLdif(ldif);
     }
 
     public List<E> findByField(String field, Object value) {
@@ -130,8 +131,17 @@ public abstract class AbstractLdapDAO<E extends LdapEntity> implements DAO<E> {
         if (!field.equals(LdapService.BOUND_NAME)) {
             page.setBound(LdapService.BOUND_NAME, "*");
         }
-        final String ldif = ldap().rootsearch(page);
-        return multiFromLdif(ldif);
+        return rootsearch(page);
+    }
+
+    // a NativeLdapServiceBase returns entries, which are mapped directly instead of being written to LDIF and parsed
+    private NativeLdapServiceBase nativeLdap() {
+        return ldap() instanceof NativeLdapServiceBase ? (NativeLdapServiceBase) ldap() : null;
+    }
+
+    protected List<E> rootsearch(SearchQuery page) {
+        final NativeLdapServiceBase nativeLdap = nativeLdap();
+        return nativeLdap != null ? fromEntries(nativeLdap.rootsearchEntries(page)) : multiFromLdif(ldap().rootsearch(page));
     }
 
     @Override public E findByUniqueField(String field, Object value) {
@@ -182,6 +192,34 @@ public abstract class AbstractLdapDAO<E extends LdapEntity> implements DAO<E> {
         return (E) entity.validate();
     }
 
+    public E fromEntry(Entry ldapEntry) {
+        final String dn = ldapEntry.getDN();
+        if (empty(dn) || !dn.endsWith(parentDN()) || !getTemplateObject().isValidDn(dn)) {
+            log.debug("Ignoring DN (" + dn + "), not an instance of " + entitySimpleName() + " (expected suffix " + parentDN() + ")");
+            return null;
+        }
+        final E entity = (E) instantiate(entityClass());
+        entity.setLdapContext(config()).setDn(dn);
+        for (Attribute attr : ldapEntry.getAttributes()) {
+            for (String value : attr.getValues()) entity.attrFromLdif(attr.getName(), value);
+        }
+        if (!entity.hasAttribute(OBJECT_CLASS)) {
+            for (String oc : entity.getObjectClasses()) {
+                entity.append(OBJECT_CLASS, oc);
+            }
+        }
+        return (E) entity.validate();
+    }
+
+    private List<E> fromEntries(List<? extends Entry> entries) {
+        final List<E> results = new ArrayList<>();
+        for (Entry ldapEntry : entries) {
+            final E entity = fromEntry(ldapEntry);
+            if (entity != null) results.add(entity);
+        }
+        return results;
+    }
+
     private List<E> multiFromLdif(String ldif) {
         final String[] ldifs = ldif.split("\ndn: ");
         final List<E> results = new ArrayList<>();
@@ -198,7 +236,13 @@ public abstract class AbstractLdapDAO<E extends LdapEntity> implements DAO<E> {
         return found == null ? null : findByDn(found.getDn());
     }
 
-    public E findByDn(String dn) { return fromLdif(ldap().rootsearch(dn)); }
+    public E findByDn(String dn) {
+        final NativeLdapServiceBase nativeLdap = nativeLdap();
+        if (nativeLdap == null) return fromLdif(ldap().rootsearch(dn));
+        final List<E> found = fromEntries(nativeLdap.rootsearchEntries(dn));
+        if (found.size() > 1) die("findByDn: multiple results found: " + dn);
+        return found.isEmpty() ? null : found.get(0);
+    }
 
     @Override public E findByUuid(String dn) { return findByDn(dn); }
 
@@ -1,6 +1,9 @@
 package org.cobbzilla.wizard.dao;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.json.JsonUtil;
@@ -8,10 +11,16 @@ import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.cobbzilla.wizard.model.Identifiable;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static java.util.UUID.randomUUID;
 import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
 import static org.cobbzilla.util.reflect.ReflectionUtil.getFirstTypeParam;
+import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
 import static org.cobbzilla.wizard.cache.redis.RedisService.*;
 import static org.cobbzilla.wizard.resources.ResourceUtil.forbiddenEx;
 
@@ -22,6 +31,60 @@ public abstract class AbstractSessionDAO<T extends Identifiable> {
     @Getter(lazy=true) private final RedisService sessionRedis = initSessionRedis();
     private RedisService initSessionRedis() { return redis.prefixNamespace(getClass().getSimpleName()); }
 
+    /**
+     * When true, sessions read by find are also kept in a small in-process cache, keyed by a hash of the session id,
+     * for getLocalCacheExpiration millis. update, invalidate and invalidateAllSessions drop the entry on every node,
+     * by publishing the hash on a redis channel.
+     */
+    public boolean useLocalCache() { return false; }
+    protected long getLocalCacheMaxSize() { return 10_000; }
+    protected long getLocalCacheExpiration() { return TimeUnit.SECONDS.toMillis(10); }
+
+    // the local cache holds JSON, and find returns a new object each time. return true to cache and return the
+    // same object for every request with the session instead, only safe when callers do not change it
+    protected boolean shareCachedSessions() { return false; }
+
+    // when above zero, touch writes a session at most once per this many millis: a touch within that window is
+    // skipped when the session JSON is the same as the last touch wrote, a touch that changes it is always written.
+    // keep it well below getSessionTimeout, or an active session can expire between writes
+    protected long getTouchInterval() { return 0; }
+
+    public String getInvalidationChannel() { return "invalidate"; }
+
+    @Getter(lazy=true, value=AccessLevel.PRIVATE) private final Cache<String, Object> localCache = initLocalCache();
+    private Cache<String, Object> initLocalCache() {
+        final Cache<String, Object> cache = CacheBuilder.newBuilder()
+                .maximumSize(getLocalCacheMaxSize())
+                .expireAfterWrite(getLocalCacheExpiration(), MILLISECONDS)
+                .build();
+        getSessionRedis().subscribe(getInvalidationChannel(), key -> {
+            invalidations.incrementAndGet();
+            cache.invalidate(key);
+        });
+        return cache;
+    }
+
+    // bumped on every invalidation, so a find that raced with one does not cache what it read
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // hash of the session id -> what the last touch wrote, and when. Only a write puts an entry, so a session is
+    // written again once the interval is over, however often it is touched
+    @AllArgsConstructor
+    private static class LastTouch {
+        final String jsonHash;
+        final long written;
+    }
+
+    @Getter(lazy=true, value=AccessLevel.PRIVATE) private final Cache<String, LastTouch> recentTouches = initRecentTouches();
+    private Cache<String, LastTouch> initRecentTouches() {
+        return CacheBuilder.newBuilder()
+                .maximumSize(getLocalCacheMaxSize())
+                .expireAfterWrite(Math.max(1, Math.max(getTouchInterval(), getLocalCacheExpiration())), MILLISECONDS)
+                .build();
+    }
+
+    private String cacheKey(String uuid) { return sha256_hex(uuid); }
+
     // what are we storing?
     @Getter(lazy=true, value=AccessLevel.PROTECTED) private final Class<T> entityClass = getFirstTypeParam(getClass(), Identifiable.class);
 
@@ -37,10 +100,20 @@ public abstract class AbstractSessionDAO<T extends Identifiable> {
 
     public T find(String uuid) {
         if (empty(uuid)) return null;
+        final String key = useLocalCache() ? cacheKey(uuid) : null;
+        if (key != null) {
+            final Object cached = getLocalCache().getIfPresent(key);
+            if (cached != null) return shareCachedSessions() ? (T) cached : fromJson((String) cached);
+        }
         try {
+            final long invalidationsBefore = invalidations.get();
             final String found = getSessionRedis().get(uuid);
             if (found == null) return null;
-            return fromJson(found);
+            final T thing = fromJson(found);
+            if (key != null && invalidations.get() == invalidationsBefore) {
+                getLocalCache().put(key, shareCachedSessions() ? thing : found);
+            }
+            return thing;
 
         } catch (Exception e) {
             log.error("Error reading from redis: " + e, e);
@@ -48,7 +121,25 @@ public abstract class AbstractSessionDAO<T extends Identifiable> {
         }
     }
 
-    public void touch(String uuid, T thing) { rawSet(uuid, thing, true); }
+    public void touch(String uuid, T thing) {
+        final String json = toJson(thing);
+        if (getTouchInterval() <= 0 && !useLocalCache()) {
+            rawSet(uuid, json, thing, true);
+            return;
+        }
+        final String key = cacheKey(uuid);
+        final String jsonHash = sha256_hex(json);
+        final long now = now();
+        final LastTouch last = getRecentTouches().getIfPresent(key);
+        final boolean unchanged = last != null && last.jsonHash.equals(jsonHash);
+        if (unchanged && now - last.written < getTouchInterval()) return;
+
+        rawSet(uuid, json, thing, true);
+        getRecentTouches().put(key, new LastTouch(jsonHash, now));
+
+        // when only the expiration moved, what other nodes have cached is still the session
+        if (!unchanged) flushLocalCache(uuid);
+    }
 
     public void invalidateAllSessions(String uuid) {
         String sessionId;
@@ -64,8 +155,10 @@ public abstract class AbstractSessionDAO<T extends Identifiable> {
         getSessionRedis().lpush(thing.getUuid(), uuid);
     }
 
-    private void rawSet(String uuid, T thing, boolean shouldExist) {
-        getSessionRedis().set(uuid, toJson(thing), shouldExist ? XX : NX, EX, getSessionTimeout(thing));
+    private void rawSet(String uuid, T thing, boolean shouldExist) { rawSet(uuid, toJson(thing), thing, shouldExist); }
+
+    private void rawSet(String uuid, String json, T thing, boolean shouldExist) {
+        getSessionRedis().set(uuid, json, shouldExist ? XX : NX, EX, getSessionTimeout(thing));
     }
 
     protected long getSessionTimeout(T thing) { return getSessionTimeout(); }
@@ -76,9 +169,30 @@ public abstract class AbstractSessionDAO<T extends Identifiable> {
     protected String toJson(T thing) { return JsonUtil.toJsonOrDie(thing); }
     protected T fromJson(String json) { return JsonUtil.fromJsonOrDie(json, getEntityClass()); }
 
-    public void update(String uuid, T thing) { set(uuid, thing, true); }
+    public void update(String uuid, T thing) {
+        set(uuid, thing, true);
+        forgetTouch(uuid);
+        flushLocalCache(uuid);
+    }
 
-    public void invalidate(String uuid) { getSessionRedis().del(uuid); }
+    public void invalidate(String uuid) {
+        getSessionRedis().del(uuid);
+        forgetTouch(uuid);
+        flushLocalCache(uuid);
+    }
+
+    // the session no longer holds what the last touch wrote, so the next touch must write
+    private void forgetTouch(String uuid) {
+        if (getTouchInterval() > 0 || useLocalCache()) getRecentTouches().invalidate(cacheKey(uuid));
+    }
+
+    private void flushLocalCache(String uuid) {
+        if (!useLocalCache()) return;
+        final String key = cacheKey(uuid);
+        invalidations.incrementAndGet();
+        getLocalCache().invalidate(key);
+        getSessionRedis().publish(getInvalidationChannel(), key);
+    }
 
     public boolean isValid (String uuid) { return find(uuid) != null; }
 
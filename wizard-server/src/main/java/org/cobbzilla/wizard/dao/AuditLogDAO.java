@@ -1,8 +1,11 @@
 package org.cobbzilla.wizard.dao;
 
+import lombok.Getter;
 import org.cobbzilla.wizard.model.AuditLog;
 
+import javax.annotation.PostConstruct;
 import javax.validation.Valid;
+import java.io.File;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 
@@ -10,6 +13,27 @@ public abstract class AuditLogDAO<E extends AuditLog> extends AbstractCRUDDAO<E>
 
     public abstract String getEncryptionKey ();
 
+    // override to return true to write audit logs in batches on a background thread, see AuditLogWriter
+    public boolean asyncWrites () { return false; }
+    public int asyncQueueSize () { return AuditLogWriter.DEFAULT_QUEUE_SIZE; }
+    public int asyncBatchSize () { return AuditLogWriter.DEFAULT_BATCH_SIZE; }
+    public int asyncThreads () { return AuditLogWriter.DEFAULT_THREADS; }
+
+    // with async writes, a write-ahead log for records not yet inserted. null means records queued at a crash are lost
+    public File asyncWalFile () { return null; }
+
+    // with a WAL file, false lets callers go on before their records are fsync'd to it. faster, but a record can be
+    // lost if the JVM dies in between
+    public boolean asyncWalSync () { return true; }
+
+    @Getter(lazy=true) private final AuditLogWriter<E> writer = initWriter();
+    private AuditLogWriter<E> initWriter() {
+        return asyncWrites() ? new AuditLogWriter<>(this, asyncQueueSize(), asyncBatchSize(), asyncThreads(), asyncWalFile(), asyncWalSync()) : null;
+    }
+
+    // start the writer with the application, so records left in the WAL by the last run are written right away
+    @PostConstruct public void startWriter() { getWriter(); }
+
     @Override public Object preCreate(@Valid E entity) {
         entity = prepare(entity);
         return super.preCreate(entity);
@@ -0,0 +1,592 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.api.CrudOperation;
+import org.cobbzilla.wizard.model.AuditLog;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.cobbzilla.util.daemon.DaemonThreadFactory.fixedPool;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.io.FileUtil.abs;
+import static org.cobbzilla.util.json.JsonUtil.json;
+import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
+import static org.cobbzilla.util.system.Sleep.sleep;
+
+/**
+ * Writes audit logs off the request thread. Records wait in a bounded queue (callers block when it is full), and a
+ * single writer thread takes them in batches: the JSON states are built and the records encrypted on a pool of
+ * worker threads, then the batch is inserted in one transaction of its own, with JDBC batching.
+ * <p>
+ * A batch that cannot be inserted is retried, with a growing delay, until it is. If inserting its records one at a time
+ * shows that only some of them fail, those are logged and dropped, so one bad record cannot hold up the rest.
+ * <p>
+ * Without a WAL file, records still in the queue are lost if the JVM dies. With a WAL file, records go to a WAL thread
+ * first: it encrypts a group of them on the worker threads, appends the group to the file with a single fsync, and
+ * then queues them for the writer thread. submit waits for the fsync of its record's group, so concurrent callers
+ * share one fsync instead of taking turns; with walSync off it returns right away, and records that were not in
+ * the WAL yet are lost if the JVM dies. The WAL is written in segments of
+ * WAL_SEGMENT_RECORDS records, named after the WAL file with a sequence number appended; a segment is deleted once
+ * every record in it has been inserted. Segments left by the last run are read back a batch at a time, and their
+ * records are inserted before any new ones.
+ */
+@Slf4j
+public class AuditLogWriter<A extends AuditLog> {
+
+    public static final int DEFAULT_QUEUE_SIZE = 10_000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int DEFAULT_THREADS = 4;
+    public static final int MAX_TRIES = 3;
+    public static final long POLL_MILLIS = 250;
+    public static final long MAX_RETRY_MILLIS = 30_000;
+    public static final int FLUSH_EVERY = 50;
+    public static final int WAL_SEGMENT_RECORDS = 10_000;
+
+    private final AuditLogDAO<A> dao;
+    private final BlockingQueue<Entry<A>> queue;
+    private final int batchSize;
+    private final int threads;
+    private final ExecutorService encryptPool;
+    private final Thread writerThread;
+    private volatile boolean running = true;
+
+    // records waiting to be written to the WAL, by the WAL thread
+    private final BlockingQueue<WalAppend<A>> walQueue;
+    private final boolean walSync;
+    private final Thread walThread;
+
+    // records to write before any more are taken from the queue: WAL records from the last run, and failed batches.
+    // only used by the writer thread, once it has started
+    private final List<Entry<A>> backlog = new ArrayList<>();
+
+    private final File walFile;
+    private final Object walLock = new Object();
+    private FileChannel wal;
+    private long walSegment;         // the segment new records are appended to
+    private int walSegmentRecords;   // records appended to it since it was created or emptied
+    private final Map<Long, Long> walPending = new HashMap<>(); // segment -> records not yet inserted
+    private final Set<Long> walOpen = new HashSet<>();          // segments still being appended to, or read back
+
+    // segments left by the last run, read back by the writer thread
+    private final Deque<Long> replaySegments = new ArrayDeque<>();
+    private long replaySegment;
+    private BufferedReader replayReader;
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @AllArgsConstructor
+    private static class Entry<A extends AuditLog> {
+        final A auditLog;
+        final Map<String, Object> prevState;
+        final Map<String, Object> newState;
+        final boolean prepared;
+        final boolean replayed; // read back from the WAL, may have been inserted before the JVM died
+        final long walSegment;  // the WAL segment that holds the record. -1 is the WAL file itself, from before segments
+
+        Entry(A auditLog, Map<String, Object> prevState, Map<String, Object> newState, boolean prepared) {
+            this(auditLog, prevState, newState, prepared, false, -1);
+        }
+    }
+
+    @AllArgsConstructor
+    private static class WalAppend<A extends AuditLog> {
+        final Entry<A> entry;
+        final CompletableFuture<Void> done; // completed once the group with the record is fsync'd
+    }
+
+    // one line of the WAL file: the fields of an encrypted AuditLog. ctime is kept too, the record hash depends on it
+    @NoArgsConstructor
+    public static class WalRecord {
+        @Getter @Setter private String uuid;
+        @Getter @Setter private long ctime;
+        @Getter @Setter private String entityType;
+        @Getter @Setter private String entityUuid;
+        @Getter @Setter private CrudOperation operation;
+        @Getter @Setter private String prevState;
+        @Getter @Setter private String newState;
+        @Getter @Setter private String keyHash;
+        @Getter @Setter private String recordHash;
+
+        public WalRecord(AuditLog a) {
+            this.uuid = a.getUuid();
+            this.ctime = a.getCtime();
+            this.entityType = a.getEntityType();
+            this.entityUuid = a.getEntityUuid();
+            this.operation = a.getOperation();
+            this.prevState = a.getPrevState();
+            this.newState = a.getNewState();
+            this.keyHash = a.getKeyHash();
+            this.recordHash = a.getRecordHash();
+        }
+
+        public <A extends AuditLog> A toAuditLog(A a) {
+            a.setUuid(uuid);
+            a.setCtime(ctime);
+            a.setMtime(ctime);
+            a.setEntityType(entityType);
+            a.setEntityUuid(entityUuid);
+            a.setOperation(operation);
+            a.setPrevState(prevState);
+            a.setNewState(newState);
+            a.setKeyHash(keyHash);
+            a.setRecordHash(recordHash);
+            a.setSuccess(true);
+            return a;
+        }
+    }
+
+    public AuditLogWriter(AuditLogDAO<A> dao, int queueSize, int batchSize, int threads, File walFile) {
+        this(dao, queueSize, batchSize, threads, walFile, true);
+    }
+
+    public AuditLogWriter(AuditLogDAO<A> dao, int queueSize, int batchSize, int threads, File walFile, boolean walSync) {
+        this.dao = dao;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.batchSize = Math.max(1, batchSize);
+        this.threads = Math.max(1, threads);
+        this.walFile = walFile;
+        this.walSync = walSync;
+        if (walFile != null) openWal();
+        this.encryptPool = fixedPool(this.threads, "AuditLogWriter.encrypt");
+        final String name = dao.getEntityClass().getSimpleName();
+        if (walFile != null) {
+            this.walQueue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+            this.walThread = new Thread(this::runWal, "AuditLogWriter.wal."+name);
+            walThread.setDaemon(true);
+            walThread.start();
+        } else {
+            this.walQueue = null;
+            this.walThread = null;
+        }
+        this.writerThread = new Thread(this::run, "AuditLogWriter."+name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Queues a successful audit record. The states are serialized to JSON later, so the maps must not be changed
+     * after this call. A null map leaves the state already set on the record as it is.
+     */
+    public void submit(A auditLog, Map<String, Object> prevState, Map<String, Object> newState) {
+        if (!running) die("submit: AuditLogWriter is closed");
+        if (auditLog.getUuid() == null) auditLog.beforeCreate();
+        auditLog.setSuccess(true);
+        final Entry<A> entry = new Entry<>(auditLog, prevState, newState, false);
+        if (walFile == null) {
+            enqueue(queue, entry);
+            return;
+        }
+        final WalAppend<A> append = new WalAppend<>(entry, new CompletableFuture<>());
+        enqueue(walQueue, append);
+        if (!walSync) return;
+        try {
+            append.done.get();
+        } catch (InterruptedException e) {
+            die("submit: interrupted waiting for WAL: "+e, e);
+        } catch (ExecutionException e) {
+            die("submit: error writing WAL: "+e.getCause(), e.getCause());
+        }
+    }
+
+    private <T> void enqueue(BlockingQueue<T> q, T item) {
+        if (q.offer(item)) return;
+        log.warn("enqueue: queue full ("+q.size()+" records), waiting");
+        try {
+            q.put(item);
+        } catch (InterruptedException e) {
+            die("enqueue: interrupted waiting for queue: "+e, e);
+        }
+    }
+
+    /**
+     * Like submit, but only once the current transaction commits; records of a rolled-back change are dropped.
+     * With a WAL file, the record reaches the WAL only after the commit: if the JVM dies between the two, the change
+     * is committed and its audit record is lost. Writing the WAL before the commit would close that gap, but leave
+     * records of changes whose commit then failed.
+     */
+    public void submitAfterCommit(A auditLog, Map<String, Object> prevState, Map<String, Object> newState) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            submit(auditLog, prevState, newState);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override public void afterCommit() { submit(auditLog, prevState, newState); }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", queue.size());
+        stats.put("written", written.get());
+        stats.put("failed", failed.get());
+        if (walFile != null) synchronized (walLock) {
+            stats.put("walPending", walPending.values().stream().mapToLong(Long::longValue).sum());
+            stats.put("walSegments", walPending.size());
+        }
+        return stats;
+    }
+
+    /** Stops taking records, and waits for the queued ones to be written. */
+    public void close() {
+        if (!running) return;
+        running = false;
+        try {
+            if (walThread != null) walThread.join(10_000);
+            writerThread.join(10_000);
+        } catch (InterruptedException e) {
+            log.warn("close: interrupted waiting for writer: "+e);
+        }
+        encryptPool.shutdownNow();
+        final int unwritten = queue.size() + backlog.size() + (walQueue == null ? 0 : walQueue.size());
+        if (unwritten > 0) log.error("close: "+unwritten+" audit records were not written"+(walFile != null ? ", they remain in "+abs(walFile) : ""));
+        synchronized (walLock) {
+            if (wal != null) {
+                try { wal.close(); } catch (IOException e) { log.warn("close: error closing WAL: "+e); }
+            }
+            if (replayReader != null) {
+                try { replayReader.close(); } catch (IOException e) { log.warn("close: error closing WAL segment: "+e); }
+            }
+        }
+    }
+
+    private void run() {
+        final List<Entry<A>> batch = new ArrayList<>(batchSize);
+        long retryDelay = POLL_MILLIS;
+        // the WAL thread may still be queueing records after close
+        while (running || !queue.isEmpty() || !backlog.isEmpty() || (walThread != null && walThread.isAlive())) {
+            try {
+                if (backlog.isEmpty() && walFile != null) readReplay(backlog, batchSize);
+                if (!backlog.isEmpty()) {
+                    final List<Entry<A>> next = backlog.subList(0, Math.min(backlog.size(), batchSize));
+                    batch.addAll(next);
+                    next.clear();
+                } else {
+                    final Entry<A> first = queue.poll(POLL_MILLIS, MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+                }
+                queue.drainTo(batch, batchSize - batch.size());
+                write(batch);
+                retryDelay = POLL_MILLIS;
+
+            } catch (InterruptedException e) {
+                backlog.addAll(0, batch);
+                if (!running) break;
+
+            } catch (Exception e) {
+                log.error("run: error writing "+batch.size()+" audit records, will retry in "+retryDelay+"ms: "+e, e);
+                backlog.addAll(0, batch);
+                if (!running) break;
+                sleep(retryDelay);
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_MILLIS);
+
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void runWal() {
+        final List<WalAppend<A>> group = new ArrayList<>(batchSize);
+        while (running || !walQueue.isEmpty()) {
+            try {
+                final WalAppend<A> first = walQueue.poll(POLL_MILLIS, MILLISECONDS);
+                if (first == null) continue;
+                group.add(first);
+                walQueue.drainTo(group, batchSize - 1);
+                appendWal(group);
+
+            } catch (Exception e) {
+                log.error("runWal: error writing "+group.size()+" audit records to WAL"+(walSync ? "" : ", dropping them")+": "+e, e);
+                if (!walSync) failed.addAndGet(group.size());
+                for (WalAppend<A> a : group) a.done.completeExceptionally(e);
+
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void write(List<Entry<A>> batch) throws Exception {
+        final List<A> logs = prepare(batch);
+        // if the batch has to be retried, its records must not be encrypted a second time
+        for (int i=0; i<batch.size(); i++) {
+            if (!batch.get(i).prepared) batch.set(i, new Entry<>(logs.get(i), null, null, true));
+        }
+        skipAlreadyWritten(batch, logs);
+        int dropped = 0;
+        for (int tries=1; ; tries++) {
+            try {
+                insert(logs);
+                break;
+            } catch (RuntimeException e) {
+                if (tries >= MAX_TRIES) {
+                    dropped = insertEach(logs, e);
+                    break;
+                }
+                log.warn("write: error inserting audit records (try "+tries+"/"+MAX_TRIES+"): "+e);
+                sleep(POLL_MILLIS * tries);
+            }
+        }
+        written.addAndGet(logs.size() - dropped);
+        if (walFile != null) walCommitted(batch);
+    }
+
+    // a crash between the insert and the removal from the WAL leaves records that were already written: skip those
+    private void skipAlreadyWritten(List<Entry<A>> batch, List<A> logs) {
+        final List<String> uuids = new ArrayList<>();
+        for (int i=0; i<batch.size(); i++) if (batch.get(i).replayed) uuids.add(logs.get(i).getUuid());
+        if (uuids.isEmpty()) return;
+
+        final Set<String> existing = new HashSet<>();
+        final Session session = dao.getHibernateTemplate().getSessionFactory().openSession();
+        try {
+            existing.addAll((List<String>) session.createCriteria(dao.getEntityClass())
+                    .add(Restrictions.in("uuid", uuids))
+                    .setProjection(Projections.property("uuid"))
+                    .list());
+        } finally {
+            session.close();
+        }
+        if (existing.isEmpty()) return;
+        logs.removeIf(a -> existing.contains(a.getUuid()));
+        log.info("skipAlreadyWritten: "+existing.size()+" audit records from "+abs(walFile)+" were already written");
+    }
+
+    // the whole batch keeps failing: find out whether a few records are to blame, or the database is
+    private int insertEach(List<A> logs, RuntimeException batchError) {
+        final List<A> rejected = new ArrayList<>();
+        int inserted = 0;
+        for (A a : logs) {
+            try {
+                insert(Collections.singletonList(a));
+                inserted++;
+            } catch (RuntimeException e) {
+                log.warn("insertEach: "+a.getUuid()+": "+e);
+                rejected.add(a);
+            }
+        }
+        if (inserted == 0) throw batchError; // nothing goes in, retry the batch later
+        for (A a : rejected) log.error("insertEach: dropping audit record that cannot be inserted: "+json(new WalRecord(a)));
+        failed.addAndGet(rejected.size());
+        return rejected.size();
+    }
+
+    private List<A> prepare(List<Entry<A>> batch) throws Exception {
+        final Object[] prepared = new Object[batch.size()];
+        final int slices = Math.max(1, Math.min(threads, batch.size()));
+        final int sliceSize = (batch.size() + slices - 1) / slices;
+        final List<Future<?>> futures = new ArrayList<>(slices);
+        for (int s=0; s<batch.size(); s += sliceSize) {
+            final int from = s;
+            final int to = Math.min(batch.size(), s + sliceSize);
+            futures.add(encryptPool.submit(() -> {
+                for (int i=from; i<to; i++) {
+                    final Entry<A> e = batch.get(i);
+                    prepared[i] = e.prepared ? e.auditLog : prepare(e.auditLog, e.prevState, e.newState);
+                }
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        final List<A> logs = new ArrayList<>(prepared.length);
+        for (Object o : prepared) logs.add((A) o);
+        return logs;
+    }
+
+    private A prepare(A auditLog, Map<String, Object> prevState, Map<String, Object> newState) {
+        if (prevState != null) auditLog.setPrevState(toJsonOrDie(prevState));
+        if (newState != null) auditLog.setNewState(toJsonOrDie(newState));
+        return dao.prepare(auditLog);
+    }
+
+    // a session of its own: the writer thread has no transaction, and must not join the caller's
+    private void insert(List<A> logs) {
+        final Session session = dao.getHibernateTemplate().getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            for (int i=0; i<logs.size(); i++) {
+                session.save(logs.get(i));
+                if ((i+1) % FLUSH_EVERY == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            tx.commit();
+
+        } catch (RuntimeException e) {
+            if (tx != null) {
+                try { tx.rollback(); } catch (Exception re) { log.warn("insert: error rolling back: "+re); }
+            }
+            throw e;
+
+        } finally {
+            session.close();
+        }
+    }
+
+    private File segmentFile(long segment) { return segment < 0 ? walFile : new File(abs(walFile)+"."+segment); }
+
+    // segments left from the last run are queued for replay; a WAL file from before segments were used is replayed first
+    private void openWal() {
+        try {
+            final String prefix = walFile.getName() + ".";
+            final File dir = walFile.getAbsoluteFile().getParentFile();
+            final String[] names = dir.list();
+            final List<Long> segments = new ArrayList<>();
+            if (names != null) {
+                for (String name : names) {
+                    if (name.startsWith(prefix) && name.substring(prefix.length()).matches("\\d+")) {
+                        segments.add(Long.parseLong(name.substring(prefix.length())));
+                    }
+                }
+            }
+            Collections.sort(segments);
+            if (walFile.exists()) segments.add(0, -1L);
+            replaySegments.addAll(segments);
+            walOpen.addAll(segments);
+
+            walSegment = segments.isEmpty() ? 0 : Math.max(0, segments.get(segments.size()-1) + 1);
+            wal = FileChannel.open(segmentFile(walSegment).toPath(), CREATE_NEW, WRITE);
+            walOpen.add(walSegment);
+            if (!segments.isEmpty()) log.info("openWal: "+segments.size()+" WAL segments from the last run will be written first");
+
+        } catch (Exception e) {
+            die("openWal("+abs(walFile)+"): "+e, e);
+        }
+    }
+
+    // reads records from the segments of the last run, up to max, without loading a whole segment into memory
+    private void readReplay(List<Entry<A>> into, int max) throws IOException {
+        while (into.size() < max && (replayReader != null || !replaySegments.isEmpty())) {
+            if (replayReader == null) {
+                replaySegment = replaySegments.removeFirst();
+                replayReader = Files.newBufferedReader(segmentFile(replaySegment).toPath(), UTF_8);
+            }
+            final String line = replayReader.readLine();
+            if (line == null) {
+                replayReader.close();
+                replayReader = null;
+                synchronized (walLock) {
+                    walOpen.remove(replaySegment);
+                    deleteIfCommitted(replaySegment);
+                }
+                continue;
+            }
+            if (empty(line.trim())) continue;
+            final WalRecord record;
+            try {
+                record = json(line, WalRecord.class);
+            } catch (Exception e) {
+                // most likely the last line, cut short when the JVM died
+                log.error("readReplay: skipping unreadable line in "+abs(segmentFile(replaySegment))+": "+e);
+                continue;
+            }
+            into.add(new Entry<>(record.toAuditLog(dao.newEntity()), null, null, true, true, replaySegment));
+            synchronized (walLock) { walPending.merge(replaySegment, 1L, Long::sum); }
+        }
+    }
+
+    // encrypts the group, appends it to the WAL with one fsync, and queues the records for the writer thread.
+    // the WAL only ever holds encrypted records
+    private void appendWal(List<WalAppend<A>> group) throws Exception {
+        final List<Entry<A>> entries = new ArrayList<>(group.size());
+        for (WalAppend<A> a : group) entries.add(a.entry);
+        final List<A> logs = prepare(entries);
+        final List<byte[]> lines = new ArrayList<>(logs.size());
+        for (A a : logs) lines.add((json(new WalRecord(a)) + "\n").getBytes(UTF_8));
+
+        final long[] segments = new long[logs.size()];
+        synchronized (walLock) {
+            wal.position(wal.size());
+            for (int i=0; i<lines.size(); i++) {
+                final ByteBuffer buf = ByteBuffer.wrap(lines.get(i));
+                while (buf.hasRemaining()) wal.write(buf);
+                segments[i] = walSegment;
+                walPending.merge(walSegment, 1L, Long::sum);
+                if (++walSegmentRecords >= WAL_SEGMENT_RECORDS) {
+                    wal.force(false);
+                    rotateWal();
+                }
+            }
+            wal.force(false);
+        }
+        for (WalAppend<A> a : group) a.done.complete(null);
+        for (int i=0; i<logs.size(); i++) enqueue(queue, new Entry<>(logs.get(i), null, null, true, false, segments[i]));
+    }
+
+    // called with walLock held
+    private void rotateWal() throws IOException {
+        final long previous = walSegment;
+        wal.close();
+        walSegment++;
+        walSegmentRecords = 0;
+        wal = FileChannel.open(segmentFile(walSegment).toPath(), CREATE_NEW, WRITE);
+        walOpen.add(walSegment);
+        walOpen.remove(previous);
+        deleteIfCommitted(previous);
+    }
+
+    // called with walLock held
+    private void deleteIfCommitted(long segment) {
+        if (walOpen.contains(segment)) return;
+        final Long pending = walPending.get(segment);
+        if (pending != null && pending > 0) return;
+        walPending.remove(segment);
+        final File file = segmentFile(segment);
+        if (file.exists() && !file.delete()) log.warn("deleteIfCommitted: error deleting WAL segment "+abs(file));
+    }
+
+    private void walCommitted(List<Entry<A>> batch) {
+        synchronized (walLock) {
+            final Set<Long> segments = new HashSet<>();
+            for (Entry<A> e : batch) {
+                walPending.merge(e.walSegment, -1L, Long::sum);
+                segments.add(e.walSegment);
+            }
+            for (Long segment : segments) deleteIfCommitted(segment);
+
+            // the current segment is emptied whenever all of its records are in, so an idle WAL stays small
+            final Long pending = walPending.get(walSegment);
+            if (walSegmentRecords > 0 && (pending == null || pending == 0)) {
+                try {
+                    wal.truncate(0);
+                    wal.force(false);
+                    walSegmentRecords = 0;
+                } catch (IOException e) {
+                    log.warn("walCommitted: error truncating WAL: "+e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package org.cobbzilla.wizard.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.cobbzilla.wizard.model.Identifiable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * A bounded object cache for DAO lookups. Entries are evicted when the total weight exceeds maxWeight
+ * (a single object weighs 1, a collection weighs 1 + its size), or when they are older than the expiration.
+ * Each entry records a set of dependency tags when it is looked up, and writes only invalidate the entries
+ * that carry one of the affected tags.
+ */
+public class DAOObjectCache {
+
+    public static final String TAG_UUID = "uuid:";
+    public static final String TAG_SCOPE = "scope:";
+
+    private static final Object NULL_OBJECT = new Object();
+
+    private final Cache<String, CachedValue> cache;
+    // tag -> (key -> the value indexed under that key), so removing an old value never unindexes its replacement
+    private final Map<String, Map<String, CachedValue>> keysByTag = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong(0);
+    private final AtomicLong loadTime = new AtomicLong(0);
+
+    public DAOObjectCache(long maxWeight, long expiration) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((String key, CachedValue value) -> value.getWeight())
+                .expireAfterWrite(expiration, MILLISECONDS)
+                .removalListener(this::unindex)
+                .recordStats()
+                .build();
+    }
+
+    public static String uuidTag(String uuid) { return TAG_UUID + uuid; }
+    public static String scopeTag(String scope) { return TAG_SCOPE + scope; }
+
+    public <T> T get(String key, Function<Object[], T> lookup, Object[] args, Function<Object, Collection<String>> tagger) {
+        final long startGeneration = generation.get();
+        final boolean[] loaded = {false};
+        final CachedValue cached;
+        try {
+            cached = cache.get(key, () -> {
+                loaded[0] = true;
+                final long start = now();
+                final Object thing = lookup.apply(args);
+                loadTime.addAndGet(now() - start);
+                final CachedValue value = new CachedValue(thing == null ? NULL_OBJECT : thing, tagger.apply(thing));
+                index(key, value);
+                return value;
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            return die("get: lookup failed: "+e.getCause(), e);
+        }
+        // a write happened while we were loading: the value may already be stale, do not keep it around
+        if (loaded[0] && generation.get() != startGeneration) cache.invalidate(key);
+
+        return cached.getValue() == NULL_OBJECT ? null : (T) cached.getValue();
+    }
+
+    private void index(String key, CachedValue value) {
+        for (String tag : value.getTags()) {
+            keysByTag.computeIfAbsent(tag, t -> new ConcurrentHashMap<>()).put(key, value);
+        }
+    }
+
+    private void unindex(RemovalNotification<String, CachedValue> removal) {
+        final CachedValue value = removal.getValue();
+        if (value == null) return;
+        for (String tag : value.getTags()) {
+            keysByTag.computeIfPresent(tag, (t, keys) -> {
+                keys.remove(removal.getKey(), value);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    public void invalidateTags(Collection<String> tags) {
+        generation.incrementAndGet();
+        for (String tag : tags) {
+            final Map<String, CachedValue> keys = keysByTag.remove(tag);
+            if (!empty(keys)) cache.invalidateAll(keys.keySet());
+        }
+    }
+
+    public boolean invalidateAll() {
+        generation.incrementAndGet();
+        final boolean hadEntries = cache.size() > 0;
+        cache.invalidateAll();
+        keysByTag.clear();
+        return hadEntries;
+    }
+
+    public long size() { return cache.size(); }
+
+    public DAOCacheStats getStats() {
+        final CacheStats stats = cache.stats();
+        return new DAOCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(), cache.size(),
+                                 stats.missCount() == 0 ? 0 : loadTime.get() / stats.missCount());
+    }
+
+    @AllArgsConstructor
+    private static class CachedValue {
+        @Getter private final Object value;
+        @Getter private final Collection<String> tags;
+
+        public int getWeight() { return value instanceof Collection ? 1 + ((Collection) value).size() : 1; }
+    }
+
+    @AllArgsConstructor
+    public static class DAOCacheStats {
+        @Getter private final long hits;
+        @Getter private final long misses;
+        @Getter private final long evictions;
+        @Getter private final long size;
+        @Getter private final long averageLoadTime;
+
+        public double getHitRate() { return hits + misses == 0 ? 0.0d : ((double) hits) / (hits + misses); }
+
+        @Override public String toString() {
+            return "DAOCacheStats{hits="+hits+", misses="+misses+", evictions="+evictions+", size="+size+", averageLoadTime="+averageLoadTime+"ms}";
+        }
+    }
+
+    /**
+     * Default dependency tags for a looked-up value: the uuid of every Identifiable it contains, so updates and deletes
+     * of those entities invalidate it. Null results and collections can change when any entity in the scope is
+     * created or updated, so they also depend on the scope tag.
+     */
+    public static Collection<String> defaultTags(String scope, Object thing) {
+        final Set<String> tags = new HashSet<>();
+        if (thing == null || thing instanceof Collection || !(thing instanceof Identifiable)) {
+            tags.add(scopeTag(scope));
+        }
+        if (thing instanceof Identifiable) {
+            tags.add(uuidTag(((Identifiable) thing).getUuid()));
+        } else if (thing instanceof Collection) {
+            for (Object o : (Collection) thing) {
+                if (o instanceof Identifiable) tags.add(uuidTag(((Identifiable) o).getUuid()));
+            }
+        }
+        return tags;
+    }
+
+}
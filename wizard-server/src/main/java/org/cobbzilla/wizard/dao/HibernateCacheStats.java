@@ -0,0 +1,51 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Hit/miss counts of a Hibernate second-level cache region, in the same shape as DAOObjectCache.DAOCacheStats.
+ * Counts are only kept when HibernateConfiguration.statistics is on.
+ */
+@AllArgsConstructor
+public class HibernateCacheStats {
+
+    @Getter private final String region;
+    @Getter private final long hits;
+    @Getter private final long misses;
+    @Getter private final long puts;
+    @Getter private final long size;
+
+    public double getHitRate() { return hits + misses == 0 ? 0.0d : ((double) hits) / (hits + misses); }
+
+    public static HibernateCacheStats region(SessionFactory factory, String region) {
+        final Statistics statistics = factory.getStatistics();
+        if (!statistics.isStatisticsEnabled()) return null;
+        final SecondLevelCacheStatistics stats = statistics.getSecondLevelCacheStatistics(region);
+        if (stats == null) return null;
+        return new HibernateCacheStats(region, stats.getHitCount(), stats.getMissCount(), stats.getPutCount(),
+                                       stats.getElementCountInMemory());
+    }
+
+    /** Stats of every second-level cache region, by region name. */
+    public static Map<String, HibernateCacheStats> allRegions(SessionFactory factory) {
+        final Map<String, HibernateCacheStats> all = new TreeMap<>();
+        if (!factory.getStatistics().isStatisticsEnabled()) return all;
+        for (String region : factory.getStatistics().getSecondLevelCacheRegionNames()) {
+            final HibernateCacheStats stats = region(factory, region);
+            if (stats != null) all.put(region, stats);
+        }
+        return all;
+    }
+
+    @Override public String toString() {
+        return "HibernateCacheStats{region="+region+", hits="+hits+", misses="+misses+", puts="+puts+", size="+size+"}";
+    }
+
+}
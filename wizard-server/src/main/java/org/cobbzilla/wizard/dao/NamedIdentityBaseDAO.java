@@ -4,7 +4,7 @@ import org.cobbzilla.util.collection.ArrayUtil;
 import org.cobbzilla.util.string.StringUtil;
 import org.cobbzilla.wizard.model.NamedIdentityBase;
 
-import java.util.*;
+import java.util.List;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.sorted;
 import static org.cobbzilla.util.daemon.ZillaRuntime.toList;
@@ -28,31 +28,10 @@ public class NamedIdentityBaseDAO<E extends NamedIdentityBase> extends AbstractC
                 o -> findByNames(names));
     }
 
-    protected List<E> findByNames(Object names) { // names can be array or Collection, sortedList ensures we get a List back
-        final List<E> found = findByFieldIn("name", toList(names));
-        if (names.getClass().isArray()) names = Arrays.asList(names);
-        synchronized (cachedNames) { cachedNames.addAll((Collection) names); }
-        return found;
+    protected List<E> findByNames(Object names) { // names can be array or Collection
+        return findByFieldIn("name", toList(names));
     }
 
     protected String getNameCacheKeySeparator() { return "\n"; }
-    private final Set<String> cachedNames = new HashSet<>();
-
-    @Override public void flushObjectCache(E entity) {
-        super.flushObjectCache(entity);
-        if (cachedNames.contains(entity.getName())) {
-            synchronized (cachedNames) {
-                flushObjectCache(); // have to flush everything to be safe. something deleted or otherwise getting flushed was included elsewhere in the cache
-                cachedNames.clear();
-            }
-        }
-    }
-
-    @Override public boolean flushObjectCache() {
-        synchronized (cachedNames) {
-            cachedNames.clear();
-            return super.flushObjectCache();
-        }
-    }
 
 }
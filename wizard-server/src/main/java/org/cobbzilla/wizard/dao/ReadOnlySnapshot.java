@@ -0,0 +1,263 @@
+package org.cobbzilla.wizard.dao;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.reflect.ReflectionUtil.mirror;
+
+/**
+ * Marker interface for the read-only views returned by AbstractCRUDDAO.cacheLookup when
+ * cacheReadOnlySnapshots() is enabled. A snapshot is copied once when the cache is filled and then shared by every
+ * caller, so only methods that read can be called on it: getters (getX, isX, hasX), toString, equals, hashCode,
+ * compareTo and thaw. Any other method throws UnsupportedOperationException, since it could change what every other
+ * caller sees. Getters run on the shared copy, so a getter that fills in a field lazily must be thread-safe.
+ * Nested values are frozen along with it: beans become snapshots themselves, and collections and maps become
+ * unmodifiable. Arrays cannot be made read-only, so getters return a copy of them. Call thaw() to get a private,
+ * mutable copy.
+ *
+ * <p>Only access through methods is supported: a snapshot is a proxy whose own fields are empty, so code that reads
+ * fields directly (or through reflection on the entity class) sees nulls. A bean with a field declared as a
+ * concrete collection or map class (ArrayList, HashMap, ...) cannot be frozen, since the unmodifiable view does not
+ * fit in the field; tryFreeze returns null for it.</p>
+ */
+public interface ReadOnlySnapshot {
+
+    @JsonIgnore Object thaw();
+
+    static <T> T freeze(T thing) {
+        try {
+            return (T) Freezer.freeze(thing, new IdentityHashMap<>());
+        } catch (Freezer.CannotFreezeException e) {
+            return die(e.getMessage());
+        }
+    }
+
+    /** Like freeze, but returns null instead of throwing when something in thing cannot be frozen. */
+    static <T> T tryFreeze(T thing) {
+        try {
+            return (T) Freezer.freeze(thing, new IdentityHashMap<>());
+        } catch (Freezer.CannotFreezeException e) {
+            return null;
+        }
+    }
+
+    /** Returns thing with any snapshots in it thawed: mutable copies of snapshots, collections and maps. */
+    static <T> T thawAll(T thing) { return (T) Freezer.thaw(thing, new IdentityHashMap<>()); }
+
+    // final JDK classes (String, UUID, Locale, java.time, ...) are value types and cannot be proxied anyway
+    static boolean isImmutable(Object thing) {
+        final Class<?> clazz = thing.getClass();
+        return thing instanceof Number || thing instanceof Boolean || thing instanceof Enum
+                || (Modifier.isFinal(clazz.getModifiers()) && clazz.getName().startsWith("java."));
+    }
+
+    class Freezer {
+
+        // the copies made by the thaw() call in progress on this thread, so shared and cyclic references stay that way
+        static final ThreadLocal<Map<Object, Object>> THAWING = new ThreadLocal<>();
+
+        static class CannotFreezeException extends RuntimeException {
+            CannotFreezeException(String message) { super(message, null, false, false); }
+        }
+
+        static Object freeze(Object thing, Map<Object, Object> frozen) {
+            if (thing == null || thing instanceof ReadOnlySnapshot || isImmutable(thing)) return thing;
+            final Object done = frozen.get(thing);
+            if (done != null) return done;
+
+            if (thing instanceof List) {
+                final List<Object> list = new ArrayList<>(((List) thing).size());
+                final Object rval = Collections.unmodifiableList(list);
+                frozen.put(thing, rval);
+                for (Object o : (List) thing) list.add(freeze(o, frozen));
+                return rval;
+            }
+            if (thing instanceof Set) {
+                final Set<Object> set = new LinkedHashSet<>();
+                final Object rval = Collections.unmodifiableSet(set);
+                frozen.put(thing, rval);
+                for (Object o : (Set) thing) set.add(freeze(o, frozen));
+                return rval;
+            }
+            if (thing instanceof Collection) {
+                final List<Object> list = new ArrayList<>(((Collection) thing).size());
+                final Object rval = Collections.unmodifiableCollection(list);
+                frozen.put(thing, rval);
+                for (Object o : (Collection) thing) list.add(freeze(o, frozen));
+                return rval;
+            }
+            if (thing instanceof Map) {
+                final Map<Object, Object> map = new LinkedHashMap<>();
+                final Object rval = Collections.unmodifiableMap(map);
+                frozen.put(thing, rval);
+                for (Map.Entry e : ((Map<?, ?>) thing).entrySet()) map.put(e.getKey(), freeze(e.getValue(), frozen));
+                return rval;
+            }
+            if (thing.getClass().isArray()) {
+                final int length = Array.getLength(thing);
+                final Object array = Array.newInstance(thing.getClass().getComponentType(), length);
+                frozen.put(thing, array);
+                for (int i=0; i<length; i++) Array.set(array, i, freeze(Array.get(thing, i), frozen));
+                return array;
+            }
+
+            final Class<?> clazz = thing.getClass();
+            if (Modifier.isFinal(clazz.getModifiers())) throw new CannotFreezeException("freeze: cannot create read-only snapshot of final class: "+clazz.getName());
+
+            final Object target = thing instanceof Date ? ((Date) thing).clone() : mirror(thing);
+            final Enhancer enhancer = new Enhancer();
+            enhancer.setSuperclass(clazz);
+            enhancer.setInterfaces(new Class[]{ReadOnlySnapshot.class});
+            enhancer.setUseFactory(false); // otherwise getCallbacks() would be visible to JSON serialization
+            enhancer.setCallback(new ReadOnlySnapshotInterceptor(target));
+            final Object proxy = enhancer.create();
+            frozen.put(thing, proxy);
+
+            // freeze what the copy refers to, once, so getters can return field values as they are
+            if (!(target instanceof Date)) {
+                forEachField(target, f -> {
+                    final Object value = f.get(target);
+                    final Object frozenValue = freeze(value, frozen);
+                    if (frozenValue == value) return;
+                    if (!f.getType().isInstance(frozenValue)) {
+                        throw new CannotFreezeException("freeze: cannot make "+clazz.getSimpleName()+"."+f.getName()+" read-only, its type is "+f.getType().getName());
+                    }
+                    f.set(target, frozenValue);
+                });
+            }
+            return proxy;
+        }
+
+        static Object thaw(Object thing, Map<Object, Object> thawed) {
+            if (thing == null || isImmutable(thing)) return thing;
+            final Object done = thawed.get(thing);
+            if (done != null) return done;
+
+            if (thing instanceof ReadOnlySnapshot) return ((ReadOnlySnapshot) thing).thaw();
+            if (thing instanceof List) {
+                final List<Object> list = new ArrayList<>(((List) thing).size());
+                thawed.put(thing, list);
+                for (Object o : (List) thing) list.add(thaw(o, thawed));
+                return list;
+            }
+            if (thing instanceof Set) {
+                final Set<Object> set = new LinkedHashSet<>();
+                thawed.put(thing, set);
+                for (Object o : (Set) thing) set.add(thaw(o, thawed));
+                return set;
+            }
+            if (thing instanceof Collection) {
+                final List<Object> list = new ArrayList<>(((Collection) thing).size());
+                thawed.put(thing, list);
+                for (Object o : (Collection) thing) list.add(thaw(o, thawed));
+                return list;
+            }
+            if (thing instanceof Map) {
+                final Map<Object, Object> map = new LinkedHashMap<>();
+                thawed.put(thing, map);
+                for (Map.Entry e : ((Map<?, ?>) thing).entrySet()) map.put(e.getKey(), thaw(e.getValue(), thawed));
+                return map;
+            }
+            if (thing.getClass().isArray()) {
+                final int length = Array.getLength(thing);
+                final Object array = Array.newInstance(thing.getClass().getComponentType(), length);
+                thawed.put(thing, array);
+                for (int i=0; i<length; i++) Array.set(array, i, thaw(Array.get(thing, i), thawed));
+                return array;
+            }
+            return thing;
+        }
+
+        private interface FieldVisitor { void visit(Field f) throws Exception; }
+
+        private static void forEachField(Object target, FieldVisitor visitor) {
+            for (Class<?> c = target.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers()) || f.getType().isPrimitive()) continue;
+                    try {
+                        f.setAccessible(true);
+                        visitor.visit(f);
+                    } catch (CannotFreezeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        die("forEachField: "+c.getSimpleName()+"."+f.getName()+": "+e, e);
+                    }
+                }
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    class ReadOnlySnapshotInterceptor implements MethodInterceptor {
+
+        // besides getters, the methods that only read. anything else might change the shared copy
+        private static final Set<String> READERS = new HashSet<>(Arrays.asList(
+                "toString", "equals", "hashCode", "compareTo", "excludeUpdateFields", "serialize"));
+
+        static boolean isReader(Object target, Method method) {
+            final String name = method.getName();
+            if (target instanceof Date) return !name.startsWith("set");
+            return method.getDeclaringClass() == Object.class || READERS.contains(name)
+                    || isGetter(name, "get") || isGetter(name, "is") || isGetter(name, "has");
+        }
+
+        private static boolean isGetter(String name, String prefix) {
+            return name.length() > prefix.length() && name.startsWith(prefix) && !Character.isLowerCase(name.charAt(prefix.length()));
+        }
+
+        private final Object target;
+
+        @Override public Object intercept(Object proxy, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
+            final String name = method.getName();
+            if (name.equals("thaw") && args.length == 0) {
+                final Map<Object, Object> outer = Freezer.THAWING.get();
+                if (outer != null) return copy(proxy, outer);
+                final Map<Object, Object> thawed = new IdentityHashMap<>();
+                Freezer.THAWING.set(thawed);
+                try {
+                    return copy(proxy, thawed);
+                } finally {
+                    Freezer.THAWING.remove();
+                }
+            }
+
+            if (!isReader(target, method)) {
+                throw new UnsupportedOperationException(name+": "+target.getClass().getSimpleName()+" is a read-only cached snapshot, call thaw() to get a mutable copy");
+            }
+
+            final Object rval = methodProxy.invoke(target, args);
+            if (rval == target) return proxy; // never hand out the shared copy itself
+            return rval != null && rval.getClass().isArray() && Array.getLength(rval) > 0 ? copyArray(rval) : rval;
+        }
+
+        private static Object copyArray(Object array) {
+            final int length = Array.getLength(array);
+            final Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+            System.arraycopy(array, 0, copy, 0, length);
+            return copy;
+        }
+
+        private Object copy(Object proxy, Map<Object, Object> thawed) {
+            if (target instanceof Date) return ((Date) target).clone();
+            final Object copy = mirror(target);
+            thawed.put(proxy, copy);
+            Freezer.forEachField(copy, f -> {
+                final Object value = f.get(copy);
+                final Object thawedValue = Freezer.thaw(value, thawed);
+                if (thawedValue != value && f.getType().isInstance(thawedValue)) f.set(copy, thawedValue);
+            });
+            return copy;
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import static org.cobbzilla.util.handlebars.HandlebarsUtil.registerUtilityHelper
 import static org.cobbzilla.util.io.StreamUtil.stream2string;
 import static org.cobbzilla.util.reflect.ReflectionUtil.*;
 import static org.cobbzilla.util.string.StringUtil.getPackagePath;
+import static org.cobbzilla.wizard.model.Identifiable.UUID;
 import static org.cobbzilla.wizard.server.config.PgRestServerConfiguration.dbName;
 import static org.cobbzilla.wizard.model.crypto.EncryptedTypes.isEncryptedField;
 import static org.cobbzilla.wizard.model.entityconfig.annotations.ECForeignKeySearchDepth.*;
@@ -113,7 +114,7 @@ public class SearchViewContext {
                     log.warn("initFields: error building SearchField for "+entityClass.getSimpleName()+"."+f.getName()+": "+e);
                 }
 
-                fields.putIfAbsent(viewFieldName, new SqlViewField(viewFieldName)
+                final SqlViewField viewField = new SqlViewField(viewFieldName)
                         .setType(entityClass)
                         .fieldType(f.getType())
                         .encrypted(isEncryptedField(f))
@@ -121,7 +122,12 @@ public class SearchViewContext {
                         .property(property)
                         .entity(entity)
                         .setter(set)
-                        .setBounds(bounds));
+                        .setBounds(bounds);
+                if (search.blindIndex() != BlindIndexType.none && viewField.isEncrypted()) {
+                    // a joined entity's uuid is in the view column of the foreign key that joined it
+                    viewField.blindIndex(search.blindIndex(), fieldName, empty(prefix) ? UUID : prefix);
+                }
+                fields.putIfAbsent(viewFieldName, viewField);
 
                 if (fk != null) {
                     if (!fk.cascade()) continue;
@@ -1,31 +1,38 @@
 package org.cobbzilla.wizard.dao;
 
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.collection.NameAndValue;
 import org.cobbzilla.util.jdbc.ResultSetBean;
 import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.util.string.StringUtil;
 import org.cobbzilla.wizard.model.Identifiable;
-import org.cobbzilla.wizard.model.search.SearchResults;
-import org.cobbzilla.wizard.model.search.SearchQuery;
-import org.cobbzilla.wizard.model.search.SearchSort;
-import org.cobbzilla.wizard.model.search.SqlViewField;
-import org.cobbzilla.wizard.model.search.SqlViewSearchResult;
+import org.cobbzilla.wizard.model.search.*;
 import org.cobbzilla.wizard.server.config.PgRestServerConfiguration;
+import org.cobbzilla.wizard.util.SqlRow;
+import org.cobbzilla.wizard.util.SqlRowIterator;
 import org.jasypt.exceptions.EncryptionOperationNotPossibleException;
 import org.jasypt.hibernate4.encryptor.HibernatePBEStringEncryptor;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static java.lang.Integer.min;
 import static org.cobbzilla.util.daemon.Await.awaitAll;
 import static org.cobbzilla.util.daemon.DaemonThreadFactory.fixedPool;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+import static org.cobbzilla.util.json.JsonUtil.json;
 import static org.cobbzilla.util.reflect.ReflectionUtil.instantiate;
+import static org.cobbzilla.wizard.model.Identifiable.UUID;
 import static org.cobbzilla.wizard.model.search.SortOrder.ASC;
 import static org.cobbzilla.wizard.resources.ResourceUtil.invalidEx;
 
@@ -33,6 +40,10 @@ import static org.cobbzilla.wizard.resources.ResourceUtil.invalidEx;
 public class SqlViewSearchHelper {
 
     public static final long SEARCH_TIMEOUT =  TimeUnit.SECONDS.toMillis(20);
+    public static final int ENCRYPTED_SEARCH_THREADS = 16;
+
+    public static final String WINDOW_COUNT_COLUMN = "search_window_count__";
+    private static final Pattern PLAN_ROWS = Pattern.compile("rows=(\\d+)");
 
     public static <E extends Identifiable, R extends SqlViewSearchResult>
     SearchResults<E> search(SqlViewSearchableDAO<E> dao,
@@ -46,7 +57,17 @@ public class SqlViewSearchHelper {
                                                     + " where (").append(dao.fixedFilters()).append(") ");
 
         final List<Object> params = new ArrayList<>();
-        final boolean searchByEncryptedField = dao.encryptedSearchEnabled() && searchQuery.getHasFilter() && Arrays.stream(fields).anyMatch(a -> a.isFilter() && a.isEncrypted());
+        // encrypted fields whose blind index can answer the filter are filtered in SQL, only the others need every
+        // row decrypted and scanned
+        final boolean searchByEncryptedField = dao.encryptedSearchEnabled() && searchQuery.getHasFilter()
+                && Arrays.stream(fields).anyMatch(a -> a.isFilter() && a.isEncrypted() && !dao.canUseBlindIndex(a, searchQuery.getFilter()));
+
+        // only an exact token matches the same rows as the filter: prefix tokens stop at MAX_PREFIX_LENGTH, and a row
+        // can have every trigram of the filter without having the filter in it. Rows found by those are candidates,
+        // they are decrypted and checked against the filter before paging
+        final boolean recheckBlindIndex = !searchByEncryptedField && searchQuery.getHasFilter()
+                && Arrays.stream(fields).anyMatch(a -> a.isFilter() && a.isEncrypted()
+                        && dao.canUseBlindIndex(a, searchQuery.getFilter()) && a.getBlindIndex() != BlindIndexType.exact);
 
         if (searchQuery.getHasFilter() && !searchByEncryptedField) {
             final String filter = dao.buildFilter(searchQuery, params);
@@ -60,24 +81,49 @@ public class SqlViewSearchHelper {
             }
         }
 
+        // the count query does not include the keyset predicate
+        final String fromAndWhereClauses = sql.toString();
+        final Object[] countArgs = params.toArray();
+
         final StringBuilder sort = new StringBuilder();
         final List<String> sortedFields = new ArrayList<>();
+        final List<KeysetColumn> keysetColumns = new ArrayList<>();
         if (searchQuery.hasSorts()) {
             for (SearchSort s : searchQuery.getSorts()) {
                 final String sortField = dao.getSortField(s.getSortField());
                 sortedFields.add(sortField);
+                keysetColumns.add(new KeysetColumn(sortField, s.hasFunc() ? s.getFunc() : null, s.getSortOrder()));
                 if (sort.length() > 0) sort.append(", ");
+                // the postgres defaults, spelled out because keysetPredicate depends on them: nulls sort as the largest value
                 sort.append(s.hasFunc() ? s.getFunc()+"(" : "")
                         .append(sortField)
                         .append(s.hasFunc() ? ")" : "")
-                        .append(" ").append(s.getSortOrder().name());
+                        .append(" ").append(s.getSortOrder().name())
+                        .append(s.getSortOrder() == ASC ? " NULLS LAST" : " NULLS FIRST");
             }
         } else {
             final String defaultSort = dao.getDefaultSort();
             sort.append(defaultSort);
             sortedFields.add(defaultSort.split("\\s+")[0]);
+            for (String part : defaultSort.split(",")) {
+                final String[] tokens = part.trim().split("\\s+");
+                keysetColumns.add(new KeysetColumn(tokens[0], null, tokens.length > 1 ? SortOrder.fromString(tokens[1]) : ASC));
+            }
+        }
+        // uuid breaks ties, so every row has a unique position for the cursor
+        if (keysetColumns.stream().noneMatch(c -> c.column.equalsIgnoreCase(UUID))) {
+            sort.append(", ").append(UUID).append(" ").append(ASC.name());
+            keysetColumns.add(new KeysetColumn(UUID, null, ASC));
         }
 
+        final boolean keyset = !searchByEncryptedField && !recheckBlindIndex && searchQuery.hasCursor();
+        if (keyset) {
+            final Object[] cursorValues = decodeCursor(searchQuery.getCursor(), keysetColumns.size());
+            sql.append(" AND (").append(keysetPredicate(keysetColumns, cursorValues, params)).append(") ");
+        }
+        final SearchCountMode countMode = searchQuery.getCountMode() == null ? SearchCountMode.exact : searchQuery.getCountMode();
+        final boolean windowCount = !searchByEncryptedField && !recheckBlindIndex && !keyset && countMode == SearchCountMode.window;
+
         final String offset;
         final String limit;
         final String sortClause;
@@ -85,17 +131,25 @@ public class SqlViewSearchHelper {
             offset =  "";
             limit = "";
             sortClause = "";
+        } else if (recheckBlindIndex) {
+            // sorted in SQL, paged after the check
+            offset =  "";
+            limit = "";
+            sortClause = " ORDER BY "  + sort;
         } else {
-            offset = " OFFSET " + searchQuery.getPageOffset();
+            offset = keyset ? "" : " OFFSET " + searchQuery.getPageOffset();
             limit = " LIMIT " + searchQuery.getPageSize();
             sortClause = " ORDER BY "  + sort;
         }
 
-        final String query = "select " + dao.getSelectClause(searchQuery) + " " + sql.toString() + sortClause + limit + offset;
+        final String query = "select " + dao.getSelectClause(searchQuery)
+                + (windowCount ? ", count(*) OVER() AS " + WINDOW_COUNT_COLUMN : "")
+                + " " + sql.toString() + sortClause + limit + offset;
         log.debug("search: SQL = "+query+" with params: "+StringUtil.toString(params));
 
         Integer totalCount = null;
         final ArrayList<E> thingsList = new ArrayList<>();
+        ExecutorService exec = null;
 
         try {
             final Object[] args = params.toArray();
@@ -103,38 +157,66 @@ public class SqlViewSearchHelper {
                 log.warn("search: query contained ';' returning empty results");
                 return new SearchResults<>();
             }
-            final ResultSetBean rs = configuration.execSql(query, args);
-            final List<Future<?>> results = new ArrayList<>(rs.rowCount());
-            final ExecutorService exec = searchByEncryptedField ? fixedPool(Math.min(16, rs.rowCount()), "SqlViewSearchHelper.exec") : null;
-
-            for (Map<String, Object> row : rs.getRows()) {
-                if (searchByEncryptedField) {
-                    // we'll sort them later and there might be many rows, populate in parallel
-                    results.add(exec.submit(() -> {
-                        try {
-                            final E thing = (E) populate(instantiate(resultClass), row, fields, hibernateEncryptor);
-                            synchronized (thingsList) {
-                                thingsList.add(thing);
+            final List<Future<?>> results = new ArrayList<>();
+            if (searchByEncryptedField) exec = fixedPool(ENCRYPTED_SEARCH_THREADS, "SqlViewSearchHelper.exec");
+
+            if (recheckBlindIndex) {
+                try (SqlRowIterator<Map<String, Object>> rows = configuration.iterateSql(query, args, SqlRow::toMap)) {
+                    return matchingPage(rows, row -> (E) populate(instantiate(resultClass), row, fields, hibernateEncryptor),
+                                        fields, searchQuery);
+                }
+
+            } else if (searchByEncryptedField) {
+                // every row of the view is a candidate: stream them rather than holding the whole ResultSet too.
+                // we'll sort them later and there might be many rows, populate in parallel
+                try (SqlRowIterator<Map<String, Object>> rows = configuration.iterateSql(query, args, SqlRow::toMap)) {
+                    while (rows.hasNext()) {
+                        final Map<String, Object> row = rows.next();
+                        results.add(exec.submit(() -> {
+                            try {
+                                final E thing = (E) populate(instantiate(resultClass), row, fields, hibernateEncryptor);
+                                synchronized (thingsList) {
+                                    thingsList.add(thing);
+                                }
+                            } catch (Exception e) {
+                                die("search: "+e, e);
                             }
-                        } catch (Exception e) {
-                            die("search: "+e, e);
-                        }
-                    }));
-                } else {
-                    // no encrypted fields, SQL has an offset + limit + sort, just populate all rows
+                        }));
+                    }
+                }
+            } else {
+                // no encrypted fields, SQL has an offset + limit + sort, just populate all rows
+                final ResultSetBean rs = configuration.execSql(query, args);
+                for (Map<String, Object> row : rs.getRows()) {
                     final E thing = (E) populate(instantiate(resultClass), row, fields, hibernateEncryptor);
                     thingsList.add(thing);
                 }
-            }
-
-            if (!searchByEncryptedField) {
-                final String fromAndWhereClauses = sql.toString();
-                if (fromAndWhereClauses.contains(";")) {
-                    log.warn("search: query contained ';' returning empty results");
-                    return new SearchResults<>();
+                final SearchResults<E> searchResults = new SearchResults<>(thingsList);
+                switch (countMode) {
+                    case exact:
+                        totalCount = configuration.execSql("select count(*) "+fromAndWhereClauses, countArgs).countOrZero();
+                        break;
+                    case window:
+                        if (keyset) break; // the window would only count the rows after the cursor
+                        if (rs.rowCount() > 0) {
+                            totalCount = ((Number) rs.getRows().get(0).get(WINDOW_COUNT_COLUMN)).intValue();
+                        } else if (searchQuery.getPageOffset() == 0) {
+                            totalCount = 0;
+                        } else {
+                            // past the last page the window has no rows to report on
+                            totalCount = configuration.execSql("select count(*) "+fromAndWhereClauses, countArgs).countOrZero();
+                        }
+                        break;
+                    case estimate:
+                        totalCount = estimateCount(configuration, fromAndWhereClauses, countArgs);
+                        searchResults.setTotalCountEstimated(totalCount != null);
+                        break;
+                    case none: default:
+                        break;
                 }
-                totalCount = configuration.execSql("select count(*) "+fromAndWhereClauses, args).countOrZero();
-                return new SearchResults<>(thingsList, totalCount);
+                searchResults.setTotalCount(totalCount);
+                searchResults.setNextCursor(nextCursor(rs, keysetColumns, searchQuery));
+                return searchResults;
             }
 
             // wait for encrypted rows to populate
@@ -159,13 +241,7 @@ public class SqlViewSearchHelper {
                 matched.addAll(thingsList);
             }
 
-            matched.forEach(a -> {
-                for (Map.Entry<String, Identifiable> relatedEntry : ((R) a).related().entrySet()) {
-                    if (relatedEntry.getValue().getUuid() == null) {
-                        ((R) a).getRelated().remove(relatedEntry.getKey());
-                    }
-                }
-            });
+            matched.forEach(SqlViewSearchHelper::removeEmptyRelated);
 
             // manually sort and apply offset + limit
             for (int i=0; i<sortedFields.size(); i++) {
@@ -195,6 +271,170 @@ public class SqlViewSearchHelper {
 
         } catch (Exception e) {
             return die("search: "+e, e);
+
+        } finally {
+            // also stops any rows still being decrypted if awaitAll timed out
+            if (exec != null) exec.shutdownNow();
+        }
+    }
+
+    // rows arrive in sort order: keep those that match the filter, and return the requested page of them
+    static <E> SearchResults<E> matchingPage(Iterator<Map<String, Object>> rows,
+                                             Function<Map<String, Object>, E> populate,
+                                             SqlViewField[] fields,
+                                             SearchQuery searchQuery) {
+        final List<E> page = new ArrayList<>();
+        final int offset = searchQuery.getPageOffset();
+        int totalCount = 0;
+        while (rows.hasNext()) {
+            final E thing = populate.apply(rows.next());
+            if (!(thing instanceof SqlViewSearchResult) || !((SqlViewSearchResult) thing).matches(fields, searchQuery.getFilter())) continue;
+            if (totalCount >= offset && page.size() < searchQuery.getPageSize()) {
+                removeEmptyRelated(thing);
+                page.add(thing);
+            }
+            totalCount++;
+        }
+        return new SearchResults<>(page, totalCount);
+    }
+
+    private static void removeEmptyRelated(Object thing) {
+        final SqlViewSearchResult result = (SqlViewSearchResult) thing;
+        for (Map.Entry<String, Identifiable> relatedEntry : result.related().entrySet()) {
+            if (relatedEntry.getValue().getUuid() == null) {
+                result.getRelated().remove(relatedEntry.getKey());
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    static class KeysetColumn {
+        private final String column;
+        private final String func;
+        private final SortOrder order;
+        public String expr() { return func == null ? column : func+"("+column+")"; }
+        public String param() { return func == null ? "?" : func+"(?)"; }
+        public boolean nullable() { return !column.equalsIgnoreCase(UUID); }
+
+        public String equalTo(Object value, List<Object> params) {
+            if (value == null) return expr()+" IS NULL";
+            params.add(value);
+            return expr()+" = "+param();
+        }
+
+        // null is the largest value: in descending order every non-null value comes after it
+        public String after(Object value, List<Object> params) {
+            if (value == null) return expr()+" IS NOT NULL";
+            params.add(value);
+            if (order != ASC) return expr()+" < "+param();
+            return nullable() ? "("+expr()+" > "+param()+" OR "+expr()+" IS NULL)" : expr()+" > "+param();
+        }
+    }
+
+    // (c1 after v1) OR (c1 = v1 AND c2 after v2) OR ... where nulls sort as the largest value, as in postgres:
+    // ascending rows with a null come last, descending ones first
+    static String keysetPredicate(List<KeysetColumn> columns, Object[] values, List<Object> params) {
+        final StringBuilder b = new StringBuilder();
+        for (int i=0; i<columns.size(); i++) {
+            final KeysetColumn c = columns.get(i);
+            if (values[i] == null && c.order == ASC) continue; // nothing sorts after a null in ascending order
+            if (b.length() > 0) b.append(" OR ");
+            b.append("(");
+            for (int j=0; j<i; j++) b.append(columns.get(j).equalTo(values[j], params)).append(" AND ");
+            b.append(c.after(values[i], params)).append(")");
+        }
+        return b.length() == 0 ? "false" : b.toString();
+    }
+
+    // cursor values that JSON cannot carry exactly are written as {"type": "value as string"}
+    public static final String CURSOR_TIMESTAMP = "ts";
+    public static final String CURSOR_DATE = "date";
+    public static final String CURSOR_DECIMAL = "dec";
+    public static final String CURSOR_DOUBLE = "dbl";
+
+    static Object[] decodeCursor(String cursor, int columnCount) {
+        Object[] values = null;
+        try {
+            values = json(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8), Object[].class);
+            if (values != null) {
+                for (int i=0; i<values.length; i++) {
+                    // a null is a null sort value; anything else must be a value the cursor can carry
+                    if (values[i] != null && (values[i] = fromCursorValue(values[i])) == null) die("invalid value #"+i);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("decodeCursor: "+e);
+            values = null;
+        }
+        if (values == null || values.length != columnCount) {
+            throw invalidEx("err.cursor.invalid", "Search cursor is invalid or does not match the sort");
+        }
+        return values;
+    }
+
+    static String encodeCursor(Object[] values) {
+        final Object[] cursorValues = new Object[values.length];
+        for (int i=0; i<values.length; i++) {
+            if (values[i] == null) continue;
+            cursorValues[i] = toCursorValue(values[i]);
+            if (cursorValues[i] == null) return die("encodeCursor: cannot use value #"+i+" in a cursor: "+values[i]+" ("+values[i].getClass().getName()+")");
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json(cursorValues).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String nextCursor(ResultSetBean rs, List<KeysetColumn> columns, SearchQuery searchQuery) {
+        if (searchQuery.isInfinitePage() || rs.rowCount() == 0 || rs.rowCount() < searchQuery.getPageSize()) return null;
+        final Map<String, Object> last = rs.getRows().get(rs.rowCount()-1);
+        final Object[] values = new Object[columns.size()];
+        for (int i=0; i<values.length; i++) {
+            final String column = columns.get(i).column;
+            if (!last.containsKey(column)) {
+                // a null here would be taken for a null sort value, and page from the wrong place
+                log.warn("nextCursor: sort column "+column+" is not in the results, not returning a cursor");
+                return null;
+            }
+            values[i] = last.get(column);
+        }
+        return encodeCursor(values);
+    }
+
+    // execSql binds each value by its class, so the cursor must bring back the same type that was read
+    private static Object toCursorValue(Object value) {
+        if (value instanceof String || value instanceof Long || value instanceof Integer || value instanceof Boolean) return value;
+        if (value instanceof Short || value instanceof Byte) return ((Number) value).intValue();
+        if (value instanceof Timestamp) return Collections.singletonMap(CURSOR_TIMESTAMP, value.toString()); // keeps the nanos
+        if (value instanceof java.sql.Date) return Collections.singletonMap(CURSOR_DATE, value.toString());
+        if (value instanceof BigDecimal) return Collections.singletonMap(CURSOR_DECIMAL, ((BigDecimal) value).toPlainString());
+        if (value instanceof Double || value instanceof Float) {
+            return Collections.singletonMap(CURSOR_DOUBLE, Double.toString(((Number) value).doubleValue()));
+        }
+        return null;
+    }
+
+    private static Object fromCursorValue(Object value) {
+        if (value instanceof String || value instanceof Long || value instanceof Integer || value instanceof Boolean) return value;
+        if (!(value instanceof Map) || ((Map) value).size() != 1) return null;
+        final Map.Entry<?, ?> typed = ((Map<?, ?>) value).entrySet().iterator().next();
+        if (!(typed.getValue() instanceof String)) return null;
+        final String v = (String) typed.getValue();
+        switch (String.valueOf(typed.getKey())) {
+            case CURSOR_TIMESTAMP: return Timestamp.valueOf(v);
+            case CURSOR_DATE:      return java.sql.Date.valueOf(v);
+            case CURSOR_DECIMAL:   return new BigDecimal(v);
+            case CURSOR_DOUBLE:    return Double.valueOf(v);
+            default:               return null;
+        }
+    }
+
+    private static Integer estimateCount(PgRestServerConfiguration configuration, String fromAndWhereClauses, Object[] args) {
+        try {
+            final ResultSetBean plan = configuration.execSql("explain select 1 "+fromAndWhereClauses, args);
+            if (plan.rowCount() == 0) return null;
+            final Matcher m = PLAN_ROWS.matcher(String.valueOf(plan.getRows().get(0).values().iterator().next()));
+            return m.find() ? (int) Math.min(Long.parseLong(m.group(1)), Integer.MAX_VALUE) : null;
+        } catch (Exception e) {
+            log.warn("estimateCount: "+e);
+            return null;
         }
     }
 
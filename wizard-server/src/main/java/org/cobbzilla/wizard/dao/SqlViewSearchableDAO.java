@@ -9,6 +9,7 @@ import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.wizard.model.Identifiable;
 import org.cobbzilla.wizard.model.RelatedEntities;
 import org.cobbzilla.wizard.model.SqlDefaultSearchField;
+import org.cobbzilla.wizard.model.crypto.BlindIndexer;
 import org.cobbzilla.wizard.model.entityconfig.annotations.ECSearchable;
 import org.cobbzilla.wizard.model.search.SearchField;
 import org.cobbzilla.wizard.model.search.SearchQuery;
@@ -19,14 +20,17 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static java.util.Collections.nCopies;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.reflect.ReflectionUtil.fieldsWithAnnotation;
 import static org.cobbzilla.util.string.StringUtil.camelCaseToSnakeCase;
 import static org.cobbzilla.util.string.StringUtil.sqlFilter;
 import static org.cobbzilla.wizard.model.Identifiable.CTIME;
 import static org.cobbzilla.wizard.model.Identifiable.UUID;
+import static org.cobbzilla.wizard.server.config.PgRestServerConfiguration.dbName;
 
 public interface SqlViewSearchableDAO<T extends Identifiable> extends DAO<T> {
 
@@ -48,19 +52,44 @@ public interface SqlViewSearchableDAO<T extends Identifiable> extends DAO<T> {
     default String buildFilter(SearchQuery searchQuery, List<Object> params) {
         final String filter = sqlFilter(searchQuery.getFilter());
         final SqlViewField[] fields = getSearchFields();
-        int filterCount = 0;
         final StringBuilder b = new StringBuilder();
         for (SqlViewField f : fields) {
-            if (f.isFilter()) {
-                filterCount++;
+            if (!f.isFilter()) continue;
+            if (f.isEncrypted() && canUseBlindIndex(f, searchQuery.getFilter())) {
+                final String clause = buildBlindIndexFilter(f, searchQuery.getFilter(), params);
+                if (clause == null) continue;
+                if (b.length() > 0) b.append(" OR ");
+                b.append(clause);
+            } else {
                 if (b.length() > 0) b.append(" OR ");
                 b.append(f.getName()).append(" ilike ?");
+                params.add(filter);
             }
         }
-        for (int i=0; i<filterCount; i++) params.add(filter);
         return b.toString();
     }
 
+    default BlindIndexer getBlindIndexer() { return null; }
+
+    default boolean hasBlindIndex(SqlViewField f) { return f.hasBlindIndex() && getBlindIndexer() != null; }
+
+    default boolean canUseBlindIndex(SqlViewField f, String filter) {
+        return hasBlindIndex(f) && getBlindIndexer().indexable(f.getBlindIndex(), filter);
+    }
+
+    // rows whose blind index has every token of the filter
+    default String buildBlindIndexFilter(SqlViewField f, String filter, List<Object> params) {
+        final Set<String> tokens = getBlindIndexer().queryTokens(f.getBlindIndex(), f.getBlindIndexField(), filter);
+        if (tokens.isEmpty()) return null;
+        params.add(dbName(f.getType()));
+        params.add(f.getBlindIndexField());
+        params.addAll(tokens);
+        params.add(tokens.size());
+        return f.getBlindIndexUuidColumn() + " IN (SELECT entity_uuid FROM " + BlindIndexer.TABLE
+                + " WHERE entity_type = ? AND field = ? AND token IN (" + String.join(", ", nCopies(tokens.size(), "?")) + ")"
+                + " GROUP BY entity_uuid HAVING count(DISTINCT token) = ?)";
+    }
+
     default String buildBound(String bound, String value, List<Object> params, String locale) {
         for (Field f : fieldsWithAnnotation(getEntityClass(), ECSearchable.class)) {
             if (!f.getName().equalsIgnoreCase(bound)) continue;
@@ -3,15 +3,20 @@ package org.cobbzilla.wizard.dao.shard;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.collection.SingletonList;
-import org.cobbzilla.util.collection.mappy.MappyList;
 import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.wizard.cache.redis.HasRedisConfiguration;
 import org.cobbzilla.wizard.cache.redis.RedisService;
 import org.cobbzilla.wizard.dao.DAO;
+import org.cobbzilla.wizard.dao.DAOObjectCache;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableFindByUnique2FieldFinder;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableFindByUnique3FieldFinder;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableIdentityFinder;
 import org.cobbzilla.wizard.dao.shard.cache.ShardCacheableUniqueFieldFinder;
+import org.cobbzilla.wizard.dao.shard.exec.BoundedShardQueryExecutor;
+import org.cobbzilla.wizard.dao.shard.exec.ReplicaSelector;
+import org.cobbzilla.wizard.dao.shard.exec.ShardQueryExecutor;
+import org.cobbzilla.wizard.dao.shard.hash.ShardHasher;
+import org.cobbzilla.wizard.dao.shard.hash.ShardRoutingTable;
 import org.cobbzilla.wizard.dao.shard.task.*;
 import org.cobbzilla.wizard.model.search.SearchQuery;
 import org.cobbzilla.wizard.model.search.SearchResults;
@@ -31,15 +36,17 @@ import javax.validation.Valid;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import static org.cobbzilla.util.daemon.Await.awaitAndCollect;
 import static org.cobbzilla.util.daemon.Await.awaitFirst;
 import static org.cobbzilla.util.daemon.ZillaRuntime.*;
 import static org.cobbzilla.util.reflect.ReflectionUtil.*;
-import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
 import static org.cobbzilla.wizard.model.Identifiable.UUID;
 import static org.cobbzilla.wizard.resources.ResourceUtil.timeoutEx;
+import static org.cobbzilla.wizard.resources.ResourceUtil.unavailableEx;
 import static org.cobbzilla.wizard.util.SpringUtil.autowire;
 
 @Transactional @Slf4j
@@ -59,6 +66,28 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Getter(lazy=true) private final RedisService shardCache = initShardCache();
     private RedisService initShardCache() { return redisService.prefixNamespace("shard-cache-"+getEntityClass().getName()); }
 
+    /**
+     * When true, entities found by the cacheable finders are also kept in a small in-process cache in front of the
+     * redis shard cache. Entries expire after getNearCacheExpiration millis, and are dropped on every node when
+     * flushShardCache publishes the uuid on the invalidation channel.
+     */
+    public boolean useNearCache() { return false; }
+    protected long getNearCacheMaxSize() { return 10_000; }
+    protected long getNearCacheExpiration() { return TimeUnit.SECONDS.toMillis(10); }
+
+    @Getter(lazy=true) private final DAOObjectCache nearCache = initNearCache();
+    private DAOObjectCache initNearCache() {
+        final DAOObjectCache cache = new DAOObjectCache(getNearCacheMaxSize(), getNearCacheExpiration());
+        getShardCache().subscribe(getNearCacheChannel(), uuid -> cache.invalidateTags(getNearCacheTags(uuid)));
+        return cache;
+    }
+
+    public String getNearCacheChannel() { return getShardConfiguration().getName()+":invalidate"; }
+
+    private List<String> getNearCacheTags(String uuid) {
+        return Arrays.asList(DAOObjectCache.uuidTag(uuid), DAOObjectCache.scopeTag(NULL_CACHE));
+    }
+
     @Getter private final Class<E> entityClass;
     @Getter private final Class<D> singleShardDaoClass;
     @Getter private final String hashOn;
@@ -77,9 +106,18 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     public static final int DEFAULT_MAX_QUERY_THREADS = 100;
     protected int getMaxQueryThreads () { return DEFAULT_MAX_QUERY_THREADS; }
+    protected int getMaxQueuedQueries () { return getMaxQueryThreads() * 10; }
+
+    /**
+     * Runs the per-shard tasks of queryShardsUnique, queryShardsList and search. By default this is a bounded pool of
+     * getMaxQueryThreads() threads. Subclasses can return a VirtualThreadShardQueryExecutor or their own implementation.
+     */
+    @Getter(lazy=true) private final ShardQueryExecutor queryExecutor = initQueryExecutor();
+    protected ShardQueryExecutor initQueryExecutor() {
+        return new BoundedShardQueryExecutor(getClass().getSimpleName()+"-query", getMaxQueryThreads(), getMaxQueuedQueries());
+    }
 
-    private final BlockingQueue<Runnable> queryWorkerQueue = new LinkedBlockingQueue<>();
-    private final ThreadPoolExecutor queryWorkerPool = new ThreadPoolExecutor(getMaxQueryThreads()/2, getMaxQueryThreads(), 10, TimeUnit.MINUTES, queryWorkerQueue);
+    public ShardQueryExecutor.ShardQueryStats getQueryStats() { return getQueryExecutor().getStats(); }
 
     protected ApplicationContext getApplicationContext(DatabaseConfiguration database) {
 
@@ -149,11 +187,14 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
 
     protected List<D> getAllDAOs(E entity) { return getAllDAOs((Serializable) getIdToHash(entity)); }
 
+    @Getter(lazy=true) private final ShardRoutingTable<D> routingTable = new ShardRoutingTable<>(getShardConfiguration().getLogicalShards());
+
     protected List<D> getDAOs(Serializable id, ShardIO shardIO) {
-        List<ShardMap> shardMaps = getShardDAO().getShardList(getShardConfiguration().getName(), getLogicalShard(id), shardIO);
-        if (shardMaps.isEmpty()) shardMaps = new SingletonList<>(getDefaultShardMap());
-        final List<D> found = toDAOs(shardMaps);
-        return found;
+        return getRoutingTable().get(shardIO, getLogicalShard(id), getShardDAO().getVersion(), logicalShard -> {
+            List<ShardMap> shardMaps = getShardDAO().getShardList(getShardConfiguration().getName(), logicalShard, shardIO);
+            if (shardMaps.isEmpty()) shardMaps = new SingletonList<>(getDefaultShardMap());
+            return toDAOs(shardMaps);
+        });
     }
 
     protected List<D> getDAOs(ShardIO shardIO) {
@@ -173,16 +214,14 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
         return getDAOs(value.toString(), shardIO);
     }
 
+    /**
+     * By default the hasher named by the hashType of the shard set configuration, which is sha256 unless set.
+     * Never change this for a shard set that already has data without migrating it: see ShardHashMain.
+     */
+    protected ShardHasher getShardHasher() { return getShardConfiguration().getHashType().getHasher(); }
+
     protected int getLogicalShard(Serializable id) {
-        final String hash = sha256_hex(id.toString()).substring(0, 7);
-        Long val;
-        try {
-            val = Long.valueOf(hash, 16);
-        } catch (NumberFormatException e) {
-            log.warn("getLogicalShard: invalid hex value: "+hash+" (returning 0): "+e);
-            return 0;
-        }
-        return (int) (Math.abs(val) % getShardConfiguration().getLogicalShards());
+        return getShardHasher().logicalShard(id.toString(), getShardConfiguration().getLogicalShards());
     }
 
     protected List<D> toDAOs(Collection<ShardMap> shardMaps) {
@@ -243,7 +282,122 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     }
 
     public D getDAO(Serializable id) { return getDAO(id, ShardIO.read); }
-    protected D getDAO(Serializable id, ShardIO shardIO) { return pickRandom(getDAOs(id, shardIO)); }
+    protected D getDAO(Serializable id, ShardIO shardIO) {
+        final List<D> daos = getDAOs(id, shardIO);
+        return shardIO == ShardIO.read ? getReplicaSelector().pick(daos) : pickRandom(daos);
+    }
+
+    @Getter(lazy=true) private final ReplicaSelector replicaSelector = new ReplicaSelector();
+
+    /**
+     * When true, readFrom sends a read to a second replica if the first has not answered within getHedgeDelay,
+     * and returns whichever answers first. This only matters when shards overlap, so a key has several read replicas.
+     */
+    public boolean useHedgedReads() { return false; }
+    protected long getMinHedgeDelay() { return 5; }
+    protected double getHedgePercentile() { return 95; }
+    protected long getHedgeDelay(D dao) {
+        return Math.max(getMinHedgeDelay(), getReplicaSelector().percentile(dao.getShard(), getHedgePercentile()));
+    }
+
+    private final AtomicLong hedgedReads = new AtomicLong(0);
+    private final AtomicLong hedgesFired = new AtomicLong(0);
+    private final AtomicLong hedgeWins = new AtomicLong(0);
+
+    public Map<String, Object> getHedgeStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedgedReads", hedgedReads.get());
+        stats.put("hedgesFired", hedgesFired.get());
+        stats.put("hedgeWins", hedgeWins.get());
+        stats.put("replicas", getReplicaSelector().getStats());
+        return stats;
+    }
+
+    /**
+     * Runs a read against a replica that holds the given id. The replica is chosen by recent latency, and with
+     * useHedgedReads the read may be hedged to a second replica.
+     */
+    public <T> T readFrom(Serializable id, Function<D, T> reader) {
+        final List<D> daos = getDAOs(id, ShardIO.read);
+        if (!useHedgedReads() || daos.size() < 2) return timedRead(getReplicaSelector().pick(daos), reader);
+        return hedgedRead(getReplicaSelector().rank(daos), reader);
+    }
+
+    private <T> T timedRead(D dao, Function<D, T> reader) { return timedRead(dao, reader, null); }
+
+    private <T> T timedRead(D dao, Function<D, T> reader, Future<T> hedgeWinner) {
+        final long start = now();
+        final T result;
+        try {
+            result = reader.apply(dao);
+        } catch (RuntimeException e) {
+            // only successful reads are latencies. A hedged read that fails after the other replica won was cancelled
+            if (hedgeWinner == null || !hedgeWinner.isDone()) getReplicaSelector().recordFailure(dao.getShard());
+            throw e;
+        }
+        getReplicaSelector().record(dao.getShard(), now() - start);
+        return result;
+    }
+
+    protected <T> T hedgedRead(List<D> ranked, Function<D, T> reader) {
+        hedgedReads.incrementAndGet();
+        final D primary = ranked.get(0);
+        final D secondary = ranked.get(1);
+        final CompletableFuture<T> winner = new CompletableFuture<>();
+        final CompletableFuture<Void> primaryDone = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger(0);
+        final List<Future<T>> futures = new ArrayList<>(2);
+        final long timeout = getShardQueryTimeout("hedgedRead");
+        final long start = now();
+        try {
+            futures.add(getQueryExecutor().submit(primary.getShard(), () -> {
+                try {
+                    return hedgedTask(primary, reader, winner, failures, false);
+                } finally {
+                    primaryDone.complete(null);
+                }
+            }));
+            try {
+                primaryDone.get(getHedgeDelay(primary), TimeUnit.MILLISECONDS);
+                if (winner.isDone()) return winner.get();
+                // the primary failed: the second replica is a retry, not a hedge
+            } catch (TimeoutException e) {
+                hedgesFired.incrementAndGet();
+            }
+            futures.add(getQueryExecutor().submit(secondary.getShard(), () -> hedgedTask(secondary, reader, winner, failures, true)));
+            return winner.get(Math.max(1, timeout - (now() - start)), TimeUnit.MILLISECONDS);
+
+        } catch (TimeoutException e) {
+            log.warn("hedgedRead: timed out");
+            getQueryExecutor().recordTimeout("hedgedRead");
+            throw timeoutEx();
+
+        } catch (ExecutionException e) {
+            // both replicas failed: throw what the reader threw, as timedRead does
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            return die("hedgedRead: "+cause, cause);
+
+        } catch (InterruptedException e) {
+            return die("hedgedRead: interrupted: "+e, e);
+
+        } finally {
+            // cancel the loser
+            for (Future<T> f : futures) f.cancel(true);
+        }
+    }
+
+    private <T> T hedgedTask(D dao, Function<D, T> reader, CompletableFuture<T> winner, AtomicInteger failures, boolean hedge) {
+        try {
+            final T result = timedRead(dao, reader, winner);
+            if (winner.complete(result) && hedge) hedgeWins.incrementAndGet();
+            return result;
+        } catch (RuntimeException | Error e) {
+            if (failures.incrementAndGet() == 2) winner.completeExceptionally(e);
+            throw e;
+        }
+    }
 
     protected D getDAO(E entity) { return getDAO(entity, ShardIO.read); }
     protected D getDAO(E entity, ShardIO shardIO) {
@@ -260,14 +414,8 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
         if (shards.isEmpty()) {
             shards = new SingletonList<>(getDefaultShardMap());
         } else {
-            final MappyList<ShardRange, ShardMap> nonOverlapping = new MappyList<>();
-            for (ShardMap shard : shards) {
-                nonOverlapping.put(shard.getRange(), shard);
-            }
-            shards = new ArrayList<>();
-            for (ShardRange range : nonOverlapping.keySet()) {
-                shards.add(pickRandom(nonOverlapping.getAll(range)));
-            }
+            // each range is read from one database, and no database is read twice, see ShardReadCover
+            shards = ShardReadCover.pick(shards);
         }
         return toDAOs(shards);
     }
@@ -328,7 +476,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     @Override public List<E> findByField(String field, Object value) {
         if (hashOn.equals(field)) {
-            return getDAO((String) value).findByField(field, value);
+            return readFrom((String) value, dao -> dao.findByField(field, value));
         }
 
         // have to search all shards for it
@@ -344,7 +492,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     @Override public List<E> findByFieldEqualAndFieldLike(String eqField, Object eqValue, String likeField, String likeValue) {
         if (hashOn.equals(eqField)) {
-            return getDAO((String) eqValue).findByFieldEqualAndFieldLike(eqField, eqValue, likeField, likeValue);
+            return readFrom((String) eqValue, dao -> dao.findByFieldEqualAndFieldLike(eqField, eqValue, likeField, likeValue));
         }
 
         // have to search all shards for it
@@ -375,7 +523,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     public List<E> findByFields(String f1, Object v1, String f2, Object v2) {
         if (hashOn.equals(f1)) {
-            return getDAO((String) v1).findByFields(f1, v1, f2, v2);
+            return readFrom((String) v1, dao -> dao.findByFields(f1, v1, f2, v2));
         }
 
         // have to search all shards for it
@@ -385,7 +533,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     @Transactional(readOnly=true)
     public List<E> findByFields(String f1, Object v1, String f2, Object v2, String f3, Object v3) {
         if (hashOn.equals(f1)) {
-            return getDAO((String) v1).findByFields(f1, v1, f2, v2, f3, v3);
+            return readFrom((String) v1, dao -> dao.findByFields(f1, v1, f2, v2, f3, v3));
         }
 
         // have to search all shards for it
@@ -397,7 +545,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
             // Start iterator tasks on all DAOs
             final List<Future<E>> futures = new ArrayList<>();
             for (D dao : getNonOverlappingDAOs()) {
-                futures.add(queryWorkerPool.submit(factory.newTask(dao)));
+                futures.add(getQueryExecutor().submit(dao.getShard(), factory.newTask(dao)));
             }
 
             // Wait for all iterators to finish (or for enough to finish that the rest get cancelled)
@@ -405,6 +553,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
                 return awaitFirst(futures, getShardQueryTimeout(ctx));
             } catch (TimeoutException e) {
                 log.warn("queryShardsUnique: timed out");
+                getQueryExecutor().recordTimeout(ctx);
                 throw timeoutEx();
             }
 
@@ -418,7 +567,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
             // Start iterator tasks on all DAOs
             final List<Future<List>> futures = new ArrayList<>();
             for (D dao : getNonOverlappingDAOs()) {
-                futures.add(queryWorkerPool.submit(factory.newTask(dao)));
+                futures.add(getQueryExecutor().submit(dao.getShard(), factory.newTask(dao)));
             }
 
             // Wait for all iterators to finish (or for enough to finish that the rest get cancelled)
@@ -426,6 +575,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
                 return awaitAndCollect(futures, MAX_QUERY_RESULTS, getShardQueryTimeout(ctx));
             } catch (TimeoutException e) {
                 log.warn("queryShardsList: timed out");
+                getQueryExecutor().recordTimeout(ctx);
                 throw timeoutEx();
             }
 
@@ -445,7 +595,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
                 // Start iterator tasks on all DAOs
                 final List<Future<List>> futures = new ArrayList<>();
                 for (D dao : getNonOverlappingDAOs()) {
-                    futures.add(queryWorkerPool.submit(factory.newTask(dao)));
+                    futures.add(getQueryExecutor().submit(dao.getShard(), factory.newTask(dao)));
                 }
 
                 // Wait for all iterators to finish (or for enough to finish that the rest get cancelled)
@@ -455,6 +605,7 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
                     results = search.sort(unsorted);
                 } catch (TimeoutException e) {
                     log.warn("search: timed out");
+                    getQueryExecutor().recordTimeout("search");
                     throw timeoutEx();
                 }
                 return results;
@@ -465,6 +616,58 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
         }
     }
 
+    public static final int DEFAULT_MERGE_BUFFER_SIZE = 100;
+    protected int getMergeBufferSize () { return DEFAULT_MERGE_BUFFER_SIZE; }
+
+    /**
+     * Streams the results of a sorted search across shards. Each shard runs the query with LIMIT
+     * search.maxResultsPerShard, and the sorted shard results are merged as they are read. The hsql must include an
+     * ORDER BY that sorts rows the same way as search.comparator. Close the iterator if you stop reading before the
+     * end, so the remaining shard queries are cancelled.
+     */
+    public <R> ShardMergeIterator<R> searchSorted(ShardSearch search) {
+        if (search.getComparator() == null) die("searchSorted: comparator is required");
+        final long timeout = search.hasTimeout() ? search.getTimeout() : getShardSearchTimeout();
+        final long deadline = now() + timeout;
+        final List<D> daos = search.hasHash() ? new SingletonList<>(getDAO(search.getHash())) : getNonOverlappingDAOs();
+        final Set tasks = new ConcurrentSkipListSet<>();
+        final List<ShardCursorTask> cursors = new ArrayList<>();
+        for (D dao : daos) {
+            final ShardCursorTask cursor = new ShardCursorTask(dao, tasks, search, search.getMaxResultsPerShard(), getMergeBufferSize(), deadline);
+            cursors.add(cursor);
+        }
+        try {
+            // cursor tasks block on their buffer until the iterator reads it, so they must not run on this thread
+            for (ShardCursorTask cursor : cursors) {
+                cursor.setFuture(getQueryExecutor().submitAsync(cursor.getDao().getShard(), cursor));
+            }
+        } catch (RejectedExecutionException e) {
+            log.warn("searchSorted: "+e);
+            for (ShardCursorTask cursor : cursors) {
+                cursor.cancel();
+                if (cursor.getFuture() != null) cursor.getFuture().cancel(true);
+            }
+            throw unavailableEx();
+        }
+        return new ShardMergeIterator<>(cursors, search.getComparator(), search.getMaxResults(), getQueryExecutor());
+    }
+
+    /**
+     * Returns one page of a sorted search across shards. No shard reads more than offset+pageSize rows, and the
+     * shard queries are cancelled once the page is filled.
+     */
+    public <R> List<R> searchPage(ShardSearch search, int offset, int pageSize) {
+        final int limit = (int) Math.min((long) offset + pageSize, Integer.MAX_VALUE);
+        final ShardSearch pageSearch = search.copy();
+        pageSearch.setMaxResultsPerShard(Math.min(search.getMaxResultsPerShard(), limit));
+        final List<R> page = new ArrayList<>();
+        try (ShardMergeIterator<R> iter = searchSorted(pageSearch)) {
+            for (int i=0; i<offset && iter.hasNext(); i++) iter.next();
+            while (page.size() < pageSize && iter.hasNext()) page.add(iter.next());
+        }
+        return page;
+    }
+
     @Transactional(readOnly=true)
     @Override public boolean exists(String uuid) { return get(uuid) != null; }
 
@@ -544,6 +747,10 @@ public abstract class AbstractShardedDAO<E extends Shardable, D extends SingleSh
     public void flushShardCache(String uuid) {
         flushCacheRefs(getCacheRefsKey(uuid));
         flushCacheRefs(getCacheRefsKey(NULL_CACHE));
+        if (useNearCache()) {
+            getNearCache().invalidateTags(getNearCacheTags(uuid));
+            getShardCache().publish(getNearCacheChannel(), uuid);
+        }
     }
 
     public void flushCacheRefs(String cacheRefsKey) {
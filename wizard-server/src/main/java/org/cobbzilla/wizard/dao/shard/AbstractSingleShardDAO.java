@@ -11,9 +11,7 @@ import org.cobbzilla.wizard.model.shard.ShardMap;
 import org.cobbzilla.wizard.model.shard.Shardable;
 import org.cobbzilla.wizard.server.config.HasDatabaseConfiguration;
 import org.cobbzilla.wizard.server.config.RestServerConfiguration;
-import org.hibernate.Query;
-import org.hibernate.SessionFactory;
-import org.hibernate.StatelessSession;
+import org.hibernate.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.support.AbstractApplicationContext;
 
@@ -22,6 +20,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Predicate;
 
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 
@@ -61,22 +60,7 @@ public abstract class AbstractSingleShardDAO<E extends Shardable>
                 query = session.createQuery(hsql);
             }
             query.setMaxResults(maxResults);
-            int i = isSql ? 1 : 0;
-            for (Object arg : args) {
-                if (arg == null) {
-                    die("query: null values not supported");
-                } else if (arg instanceof String) {
-                    query.setString(i++, arg.toString());
-                } else if (arg instanceof BigDecimal) {
-                    query.setBigDecimal(i++, (BigDecimal) arg);
-                } else if (arg instanceof BigInteger) {
-                    query.setBigInteger(i++, (BigInteger) arg);
-                } else if (arg instanceof Double) {
-                    query.setDouble(i++, (Double) arg);
-                } else {
-                    die("query: unsupported argument type: " + arg);
-                }
-            }
+            bindArgs(query, args, isSql ? 1 : 0);
             return query.list();
 
         } finally {
@@ -85,6 +69,53 @@ public abstract class AbstractSingleShardDAO<E extends Shardable>
         }
     }
 
+    public int getScrollFetchSize () { return 100; }
+
+    @Override public void scroll(int maxResults, String hsql, List<Object> args, Predicate<Object> consumer) {
+        if (hsql.startsWith(SQL_QUERY)) {
+            // ObjectSQLQuery cannot scroll, read the (limited) list instead
+            SingleShardDAO.super.scroll(maxResults, hsql, args, consumer);
+            return;
+        }
+        final SessionFactory factory = getHibernateTemplate().getSessionFactory();
+        StatelessSession session = null;
+        ScrollableResults results = null;
+        try {
+            session = factory.openStatelessSession();
+            final Query query = session.createQuery(hsql);
+            query.setMaxResults(maxResults);
+            query.setFetchSize(getScrollFetchSize());
+            bindArgs(query, args, 0);
+            results = query.scroll(ScrollMode.FORWARD_ONLY);
+            while (results.next()) {
+                // same row shape as query: the object itself, or all columns of a multi-column projection
+                final Object[] row = results.get();
+                if (!consumer.test(row.length == 1 ? row[0] : row)) break;
+            }
+        } finally {
+            if (results != null) results.close();
+            if (session != null) session.close();
+        }
+    }
+
+    private void bindArgs(Query query, List<Object> args, int i) {
+        for (Object arg : args) {
+            if (arg == null) {
+                die("query: null values not supported");
+            } else if (arg instanceof String) {
+                query.setString(i++, arg.toString());
+            } else if (arg instanceof BigDecimal) {
+                query.setBigDecimal(i++, (BigDecimal) arg);
+            } else if (arg instanceof BigInteger) {
+                query.setBigInteger(i++, (BigInteger) arg);
+            } else if (arg instanceof Double) {
+                query.setDouble(i++, (Double) arg);
+            } else {
+                die("query: unsupported argument type: " + arg);
+            }
+        }
+    }
+
     @Override public void initialize(ShardMap map) { setShard(map); }
 
     @Override public void cleanup() {
@@ -21,12 +21,13 @@ import static org.cobbzilla.util.daemon.ZillaRuntime.now;
 @Slf4j
 public abstract class ShardMapDAO<E extends ShardMap> extends AbstractCRUDDAO<E> {
 
-    private static final long CACHE_TIMEOUT = TimeUnit.MINUTES.toMillis(60);
+    public static final long CACHE_TIMEOUT = TimeUnit.MINUTES.toMillis(60);
 
     private final AtomicReference<List<E>> flatCache = new AtomicReference<>();
     private final AtomicReference<MappyList<String, E>> readCache = new AtomicReference<>();
     private final AtomicReference<MappyList<String, E>> writeCache = new AtomicReference<>();
     private final AtomicLong lastRefresh = new AtomicLong(0);
+    private final AtomicLong version = new AtomicLong(0);
     private final AtomicReference<Thread> refresher = new AtomicReference<>();
 
     @Override public List<E> findAll() { return refreshCache(); }
@@ -66,6 +67,7 @@ public abstract class ShardMapDAO<E extends ShardMap> extends AbstractCRUDDAO<E>
                         flatCache.set(newFlatCache);
 
                         lastRefresh.set(now());
+                        version.incrementAndGet();
 
                     } finally {
                         refresher.set(null);
@@ -80,6 +82,12 @@ public abstract class ShardMapDAO<E extends ShardMap> extends AbstractCRUDDAO<E>
         return all;
     }
 
+    /** @return a number that changes every time the shard maps are reloaded */
+    public long getVersion() {
+        refreshCache();
+        return version.get();
+    }
+
     @Override public E postCreate(E entity, Object context) {
         refreshCache(true);
         return super.postCreate(entity, context);
@@ -0,0 +1,99 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.dao.shard.exec.ShardQueryExecutor;
+import org.cobbzilla.wizard.dao.shard.task.ShardCursorTask;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.wizard.resources.ResourceUtil.timeoutEx;
+
+/**
+ * A k-way merge of the sorted results of a ShardSearch across shards. Each shard streams its rows through a
+ * ShardCursorTask, and a heap holds the current head row of every shard, so only about one buffer of rows per
+ * shard is in memory at a time. Closing the iterator (or reading it to the end) cancels the shard tasks that
+ * are still running.
+ */
+@Slf4j
+public class ShardMergeIterator<R> implements Iterator<R>, Closeable {
+
+    @AllArgsConstructor
+    private static class Head {
+        private final Object row;
+        private final ShardCursorTask cursor;
+    }
+
+    private final List<ShardCursorTask> cursors;
+    private final PriorityQueue<Head> heap;
+    private final ShardQueryExecutor executor;
+    private int remaining;
+    private boolean started = false;
+    private boolean closed = false;
+
+    public ShardMergeIterator(List<ShardCursorTask> cursors, Comparator comparator, int maxResults, ShardQueryExecutor executor) {
+        this.cursors = cursors;
+        this.heap = new PriorityQueue<>(Math.max(1, cursors.size()), (h1, h2) -> comparator.compare(h1.row, h2.row));
+        this.remaining = maxResults;
+        this.executor = executor;
+    }
+
+    private void start() {
+        started = true;
+        for (ShardCursorTask cursor : cursors) advance(cursor);
+    }
+
+    private void advance(ShardCursorTask cursor) {
+        try {
+            final Object row = cursor.next();
+            if (row != ShardCursorTask.END) {
+                heap.add(new Head(row, cursor));
+            } else if (cursor.getFuture() != null) {
+                // the task sends END in a finally block, rethrow anything it failed with
+                cursor.getFuture().get(1, TimeUnit.SECONDS);
+            }
+        } catch (TimeoutException e) {
+            log.warn("advance: timed out");
+            close();
+            if (executor != null) executor.recordTimeout("searchSorted");
+            throw timeoutEx();
+        } catch (ExecutionException e) {
+            close();
+            die("advance: shard search failed: "+e.getCause(), e);
+        } catch (InterruptedException e) {
+            close();
+            die("advance: interrupted: "+e, e);
+        }
+    }
+
+    @Override public boolean hasNext() {
+        if (closed) return false;
+        if (!started) start();
+        if (remaining <= 0 || heap.isEmpty()) {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    @Override public R next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        final Head head = heap.poll();
+        remaining--;
+        if (remaining > 0) advance(head.cursor);
+        return (R) head.row;
+    }
+
+    @Override public void close() {
+        if (closed) return;
+        closed = true;
+        heap.clear();
+        for (ShardCursorTask cursor : cursors) cursor.cancel();
+    }
+
+}
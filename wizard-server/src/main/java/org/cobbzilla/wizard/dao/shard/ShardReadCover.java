@@ -0,0 +1,123 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+import org.cobbzilla.wizard.model.shard.ShardRange;
+
+import java.util.*;
+
+/**
+ * Picks the shard maps a query over all shards reads from: every range is read from exactly one database, and no
+ * database is read twice. Querying a database returns all of its rows, whatever range it was picked for, so a
+ * database can only be picked when every other range it has a copy of is read from it as well.
+ *
+ * <p>A range inside a wider range (the target of a ShardRebalancer until the source is retired) is read from the
+ * database picked for the wider range, so a database that only has the inner range is never picked.</p>
+ *
+ * <p>When there is more than one way to pick, one is chosen at random, to spread reads over the replicas.</p>
+ */
+@Slf4j
+public class ShardReadCover {
+
+    public static List<ShardMap> pick(Collection<ShardMap> readShards) { return pick(readShards, new Random()); }
+
+    public static List<ShardMap> pick(Collection<ShardMap> readShards, Random random) {
+
+        final Map<ShardRange, List<ShardMap>> byRange = new LinkedHashMap<>();
+        for (ShardMap shard : readShards) byRange.computeIfAbsent(shard.getRange(), r -> new ArrayList<>()).add(shard);
+
+        final List<ShardRange> outer = new ArrayList<>();
+        for (ShardRange range : byRange.keySet()) {
+            if (!isInsideOtherRange(range, byRange.keySet())) outer.add(range);
+        }
+        Collections.sort(outer);
+
+        // for each database: the outer ranges it has, and the outer ranges it has any rows of
+        final Map<String, Set<ShardRange>> full = new LinkedHashMap<>();
+        final Map<String, Set<ShardRange>> touched = new HashMap<>();
+        final Map<String, ShardMap> mapForUrl = new HashMap<>();
+        for (Map.Entry<ShardRange, List<ShardMap>> entry : byRange.entrySet()) {
+            final ShardRange range = entry.getKey();
+            final boolean isOuter = outer.contains(range);
+            for (ShardMap shard : entry.getValue()) {
+                final String url = shard.getUrl();
+                if (isOuter) {
+                    full.computeIfAbsent(url, u -> new HashSet<>()).add(range);
+                    mapForUrl.putIfAbsent(url, shard);
+                }
+                for (ShardRange o : outer) {
+                    if (overlaps(o, range)) touched.computeIfAbsent(url, u -> new HashSet<>()).add(o);
+                }
+            }
+        }
+        final List<String> eligible = new ArrayList<>();
+        for (Map.Entry<String, Set<ShardRange>> entry : full.entrySet()) {
+            if (entry.getValue().containsAll(touched.get(entry.getKey()))) eligible.add(entry.getKey());
+        }
+
+        final List<String> picked = new ArrayList<>();
+        if (cover(outer, full, eligible, new HashSet<>(), picked, random)) {
+            final List<ShardMap> shards = new ArrayList<>(picked.size());
+            for (String url : picked) shards.add(mapForUrl.get(url));
+            return shards;
+        }
+
+        // no database layout lets every range be read exactly once: read each range from one replica anyway
+        log.warn("pick: no replica choice reads each range once, results of a query over all shards may repeat rows: "+readShards);
+        final List<ShardMap> shards = new ArrayList<>();
+        final Set<String> urls = new HashSet<>();
+        for (ShardRange range : outer) {
+            final List<ShardMap> replicas = byRange.get(range);
+            if (replicas.stream().anyMatch(m -> urls.contains(m.getUrl()))) continue;
+            final ShardMap shard = replicas.get(random.nextInt(replicas.size()));
+            urls.add(shard.getUrl());
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    // exact cover of the outer ranges by the range sets of the eligible databases. there are only a few
+    // databases, so backtracking is cheap
+    private static boolean cover(List<ShardRange> outer,
+                                 Map<String, Set<ShardRange>> full,
+                                 List<String> eligible,
+                                 Set<ShardRange> covered,
+                                 List<String> picked,
+                                 Random random) {
+        ShardRange next = null;
+        for (ShardRange range : outer) {
+            if (!covered.contains(range)) { next = range; break; }
+        }
+        if (next == null) return true;
+
+        final List<String> candidates = new ArrayList<>();
+        for (String url : eligible) {
+            final Set<ShardRange> ranges = full.get(url);
+            if (ranges.contains(next) && Collections.disjoint(ranges, covered)) candidates.add(url);
+        }
+        Collections.shuffle(candidates, random);
+        for (String url : candidates) {
+            final Set<ShardRange> ranges = full.get(url);
+            covered.addAll(ranges);
+            picked.add(url);
+            if (cover(outer, full, eligible, covered, picked, random)) return true;
+            picked.remove(picked.size()-1);
+            covered.removeAll(ranges);
+        }
+        return false;
+    }
+
+    private static boolean overlaps(ShardRange r1, ShardRange r2) {
+        return r1.getLogicalStart() < r2.getLogicalEnd() && r2.getLogicalStart() < r1.getLogicalEnd();
+    }
+
+    private static boolean isInsideOtherRange(ShardRange range, Collection<ShardRange> ranges) {
+        for (ShardRange other : ranges) {
+            if (!other.equals(range)
+                    && other.getLogicalStart() <= range.getLogicalStart()
+                    && other.getLogicalEnd() >= range.getLogicalEnd()) return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,11 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+public enum ShardRebalancePhase {
+
+    init, dual_write, copy, verify, flip, read_flipped, retire, retired, purge, done, failed;
+
+    @JsonCreator public static ShardRebalancePhase fromString (String val) { return valueOf(val.toLowerCase()); }
+
+}
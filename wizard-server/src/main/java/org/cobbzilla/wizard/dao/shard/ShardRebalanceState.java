@@ -0,0 +1,62 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+/**
+ * The progress of a ShardRebalancer, saved to a file after every step so an interrupted move can be resumed.
+ */
+@NoArgsConstructor @Accessors(chain=true)
+public class ShardRebalanceState {
+
+    @Getter @Setter private String shardSet;
+    @Getter @Setter private String sourceShard;
+    @Getter @Setter private String targetShard;
+    @Getter @Setter private String targetUrl;
+    @Getter @Setter private int logicalStart;
+    @Getter @Setter private int logicalEnd;
+
+    @Getter @Setter private ShardRebalancePhase phase = ShardRebalancePhase.init;
+    @Getter @Setter private long phaseStarted;
+    @Getter @Setter private String error;
+
+    // copy progress
+    @Getter @Setter private String lastUuid;
+    @Getter @Setter private Long sourceTotal;
+    @Getter @Setter private long scanned;
+    @Getter @Setter private long copied;
+    @Getter @Setter private long unchanged;
+    @Getter @Setter private long conflicts;
+
+    // rows deleted from the source after retire
+    @Getter @Setter private long purged;
+
+    // verification
+    @Getter @Setter private int verifyAttempts;
+    @Getter @Setter private long verifyStarted;
+    @Getter @Setter private long sourceCount;
+    @Getter @Setter private long targetCount;
+    @Getter @Setter private long sourceChecksum;
+    @Getter @Setter private long targetChecksum;
+
+    public boolean isVerified() { return sourceCount == targetCount && sourceChecksum == targetChecksum; }
+
+    /** @return the percent of source rows scanned in the current copy pass, or -1 if the total is not known */
+    @JsonIgnore public double getCopyPercent() {
+        return sourceTotal == null || sourceTotal == 0 ? -1 : Math.min(100.0d, 100.0d * scanned / sourceTotal);
+    }
+
+    @Override public String toString() {
+        return "ShardRebalanceState{" + shardSet + "/" + logicalStart + "-" + logicalEnd + " -> " + targetUrl
+                + ", phase=" + phase
+                + (phase == ShardRebalancePhase.copy ? ", scanned=" + scanned + (sourceTotal == null ? "" : "/" + sourceTotal)
+                                                       + ", copied=" + copied + ", unchanged=" + unchanged + ", conflicts=" + conflicts : "")
+                + (phase == ShardRebalancePhase.purge ? ", scanned=" + scanned + ", purged=" + purged : "")
+                + (verifyAttempts > 0 ? ", verify: rows=" + sourceCount + "/" + targetCount + " attempts=" + verifyAttempts : "")
+                + (error == null ? "" : ", error=" + error) + "}";
+    }
+
+}
@@ -0,0 +1,420 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.collection.SingletonList;
+import org.cobbzilla.wizard.dao.AbstractCRUDDAO;
+import org.cobbzilla.wizard.dao.shard.hash.Murmur3ShardHasher;
+import org.cobbzilla.wizard.model.IdentifiableBase;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+import org.cobbzilla.wizard.model.shard.ShardRange;
+import org.cobbzilla.wizard.model.shard.Shardable;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.cobbzilla.util.io.FileUtil.toFileOrDie;
+import static org.cobbzilla.util.io.FileUtil.toStringOrDie;
+import static org.cobbzilla.util.json.JsonUtil.json;
+import static org.cobbzilla.util.reflect.ReflectionUtil.instantiate;
+import static org.cobbzilla.util.system.Sleep.sleep;
+import static org.cobbzilla.util.time.TimeUtil.formatDurationFrom;
+
+/**
+ * Moves a range of logical shards from one physical shard to another database, while the application keeps running.
+ *
+ * <ol>
+ *     <li>dual_write: a write-only ShardMap is added for the range on the target, so every write goes to both databases</li>
+ *     <li>copy: rows of the range are copied from the source in batches of batchSize, at most maxRowsPerSecond</li>
+ *     <li>verify: row counts and checksums of the range are compared; on a mismatch the copy runs again</li>
+ *     <li>flip: the target ShardMap is opened for reads</li>
+ *     <li>retire: the range is removed from the source ShardMap (split in two if the range was in the middle)</li>
+ *     <li>purge: rows of the range are deleted from the source database, in batches of batchSize</li>
+ * </ol>
+ *
+ * Other servers only see ShardMap changes when their ShardMapDAO reloads, so after dual_write, flip and retire the
+ * rebalancer waits propagationDelay before going on. Until the purge is done, a search across all shards can still
+ * find old copies of moved rows in the source database. The state is saved to stateFile after every batch: construct
+ * a new rebalancer with the same file to resume. The target database must already have the schema
+ * (see FlywayShardMigrationListener).
+ */
+@Slf4j @Accessors(chain=true)
+public class ShardRebalancer<E extends Shardable, D extends SingleShardDAO<E>> implements Runnable {
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final long DEFAULT_MAX_VERIFY_DURATION = TimeUnit.HOURS.toMillis(6);
+    public static final long DEFAULT_PROPAGATION_DELAY = ShardMapDAO.CACHE_TIMEOUT + TimeUnit.MINUTES.toMillis(1);
+
+    private final AbstractShardedDAO<E, D> shardedDAO;
+    private final ShardMapDAO<ShardMap> shardMapDAO;
+    private final File stateFile;
+    @Getter private final ShardRebalanceState state;
+
+    @Getter @Setter private int batchSize = DEFAULT_BATCH_SIZE;
+    @Getter @Setter private int maxRowsPerSecond = 0; // zero means no limit
+    @Getter @Setter private long propagationDelay = DEFAULT_PROPAGATION_DELAY;
+    // with steady write traffic a verify pass can miss by a few rows many times, so keep trying for this long
+    @Getter @Setter private long maxVerifyDuration = DEFAULT_MAX_VERIFY_DURATION;
+
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    /** resume the move recorded in stateFile */
+    public ShardRebalancer(AbstractShardedDAO<E, D> shardedDAO, File stateFile) {
+        this.shardedDAO = shardedDAO;
+        this.shardMapDAO = shardedDAO.getShardDAO();
+        this.stateFile = stateFile;
+        if (!stateFile.exists()) die("ShardRebalancer: state file not found: "+stateFile.getAbsolutePath());
+        this.state = json(toStringOrDie(stateFile), ShardRebalanceState.class);
+    }
+
+    /** start moving logical shards logicalStart (inclusive) to logicalEnd (exclusive) from sourceShard to the database at targetUrl */
+    public ShardRebalancer(AbstractShardedDAO<E, D> shardedDAO, File stateFile,
+                           ShardMap sourceShard, String targetUrl, int logicalStart, int logicalEnd) {
+        this.shardedDAO = shardedDAO;
+        this.shardMapDAO = shardedDAO.getShardDAO();
+        this.stateFile = stateFile;
+        if (stateFile.exists()) die("ShardRebalancer: state file already exists, resume it or remove it: "+stateFile.getAbsolutePath());
+        if (logicalStart >= logicalEnd) die("ShardRebalancer: empty range: "+logicalStart+"-"+logicalEnd);
+        final ShardRange range = sourceShard.getRange();
+        if (logicalStart < range.getLogicalStart() || logicalEnd > range.getLogicalEnd()) {
+            die("ShardRebalancer: range "+logicalStart+"-"+logicalEnd+" is not within source shard "+sourceShard);
+        }
+        if (sourceShard.getUrl().equals(targetUrl)) die("ShardRebalancer: source and target are the same database: "+targetUrl);
+        this.state = new ShardRebalanceState()
+                .setShardSet(sourceShard.getShardSet())
+                .setSourceShard(sourceShard.getUuid())
+                .setTargetUrl(targetUrl)
+                .setLogicalStart(logicalStart)
+                .setLogicalEnd(logicalEnd)
+                .setPhaseStarted(now());
+        save();
+    }
+
+    public void stop() { stopped.set(true); }
+
+    public boolean isDone() { return state.getPhase() == ShardRebalancePhase.done; }
+
+    @Override public void run() {
+        try {
+            while (!stopped.get()) {
+                switch (state.getPhase()) {
+                    case init:         enableDualWrite(); break;
+                    case dual_write:   awaitPropagation(ShardRebalancePhase.copy); break;
+                    case copy:         copy(); break;
+                    case verify:       verify(); break;
+                    case flip:         flip(); break;
+                    case read_flipped: awaitPropagation(ShardRebalancePhase.retire); break;
+                    case retire:       retire(); break;
+                    case retired:      awaitPropagation(ShardRebalancePhase.purge); break;
+                    case purge:        purge(); break;
+                    case done:         log.info("run: completed: "+state); return;
+                    case failed:       die("run: failed: "+state); return;
+                    default: die("run: invalid phase: "+state.getPhase());
+                }
+            }
+            log.info("run: stopped: "+state);
+
+        } catch (RuntimeException e) {
+            state.setError(e.toString());
+            save();
+            log.error("run: "+state+": "+e, e);
+            throw e;
+        }
+    }
+
+    private void save() { toFileOrDie(stateFile, json(state)); }
+
+    private void advance(ShardRebalancePhase phase) {
+        log.info("advance: "+state.getPhase()+" -> "+phase);
+        state.setPhase(phase).setPhaseStarted(now()).setError(null);
+        save();
+    }
+
+    private void awaitPropagation(ShardRebalancePhase next) {
+        final long readyAt = state.getPhaseStarted() + propagationDelay;
+        while (!stopped.get() && now() < readyAt) sleep(Math.min(TimeUnit.SECONDS.toMillis(10), readyAt - now()));
+        if (!stopped.get()) advance(next);
+    }
+
+    private ShardMap findShardMap(String uuid) {
+        final ShardMap map = shardMapDAO.findByUuid(uuid);
+        if (map == null) die("findShardMap: not found: "+uuid);
+        return map;
+    }
+
+    private ShardMap findShardMap(String url, int start, int end) {
+        for (ShardMap map : shardMapDAO.findAllShards(state.getShardSet())) {
+            if (map.getUrl().equals(url) && map.getRange().getLogicalStart() == start && map.getRange().getLogicalEnd() == end) return map;
+        }
+        return null;
+    }
+
+    private D toDAO(ShardMap map) { return shardedDAO.toDAOs(new SingletonList<>(map)).get(0); }
+
+    private void enableDualWrite() {
+        // a previous run may have created the target map and crashed before saving the state
+        ShardMap target = findShardMap(state.getTargetUrl(), state.getLogicalStart(), state.getLogicalEnd());
+        if (target == null) {
+            target = instantiate(shardMapDAO.getEntityClass());
+            target.setShardSet(state.getShardSet())
+                    .setUrl(state.getTargetUrl())
+                    .setRange(new ShardRange(state.getLogicalStart(), state.getLogicalEnd()))
+                    .setAllowWrite(true)
+                    .setAllowRead(false);
+            target = shardMapDAO.create(target);
+            log.info("enableDualWrite: created "+target);
+        }
+        state.setTargetShard(target.getUuid());
+        advance(ShardRebalancePhase.dual_write);
+    }
+
+    private boolean inRange(E row) {
+        final Object id = shardedDAO.getIdToHash(row);
+        if (id == null) return false;
+        final int logicalShard = shardedDAO.getLogicalShard(id.toString());
+        return logicalShard >= state.getLogicalStart() && logicalShard < state.getLogicalEnd();
+    }
+
+    private List<E> nextBatch(D dao, String lastUuid) {
+        final String entity = shardedDAO.getEntityClass().getSimpleName();
+        return dao.query(batchSize, "FROM "+entity+" x WHERE x.uuid > ? ORDER BY x.uuid", lastUuid == null ? "" : lastUuid);
+    }
+
+    // bypass the DAO caches, they may hold a copy from before the last write
+    private E findRaw(D dao, String uuid) {
+        final String entity = shardedDAO.getEntityClass().getSimpleName();
+        final List<E> found = dao.query(1, "FROM "+entity+" x WHERE x.uuid = ?", uuid);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    private void throttle(int rows, long start) {
+        if (maxRowsPerSecond <= 0) return;
+        final long minDuration = TimeUnit.SECONDS.toMillis(rows) / maxRowsPerSecond;
+        final long elapsed = now() - start;
+        if (elapsed < minDuration) sleep(minDuration - elapsed);
+    }
+
+    private void copy() {
+        final D source = toDAO(findShardMap(state.getSourceShard()));
+        final D target = toDAO(findShardMap(state.getTargetShard()));
+        if (state.getSourceTotal() == null) {
+            final String entity = shardedDAO.getEntityClass().getSimpleName();
+            final List counts = source.query(1, "SELECT count(*) FROM "+entity);
+            state.setSourceTotal(counts.isEmpty() ? 0L : ((Number) counts.get(0)).longValue());
+        }
+        while (!stopped.get()) {
+            final long start = now();
+            final List<E> batch = nextBatch(source, state.getLastUuid());
+            if (batch.isEmpty()) {
+                advance(ShardRebalancePhase.verify);
+                return;
+            }
+            for (E row : batch) {
+                state.setScanned(state.getScanned() + 1);
+                if (inRange(row)) copyRow(row, source, target);
+            }
+            state.setLastUuid(batch.get(batch.size()-1).getUuid());
+            save();
+            log.info("copy: "+(state.getCopyPercent() < 0 ? "" : String.format("%.1f%% ", state.getCopyPercent()))+state);
+            throttle(batch.size(), start);
+        }
+    }
+
+    private void copyRow(E batchRow, D source, D target) {
+        // the batch may be minutes old by now: write what the source has at this moment, so a newer row that a
+        // dual-write already put on the target is not overwritten with older data
+        final E row = findRaw(source, batchRow.getUuid());
+        if (row == null) return; // deleted since the batch was read; the dual-write deleted it from the target too
+        final E existing = findRaw(target, row.getUuid());
+        if (existing != null && (json(existing).equals(json(row)) || isNewer(existing, row))) {
+            state.setUnchanged(state.getUnchanged() + 1);
+            return;
+        }
+        // raw mode: keep the uuid and timestamps of the source row, and skip the DAO create/update hooks
+        AbstractCRUDDAO.getRawMode().set(true);
+        try {
+            if (existing == null) {
+                target.create(row);
+            } else {
+                target.update(row);
+            }
+            state.setCopied(state.getCopied() + 1);
+
+        } catch (RuntimeException e) {
+            // most likely a dual-write inserted the row after we looked; verify will catch anything else
+            log.warn("copyRow("+row.getUuid()+"): "+e);
+            state.setConflicts(state.getConflicts() + 1);
+            return;
+
+        } finally {
+            AbstractCRUDDAO.getRawMode().remove();
+        }
+
+        // the row may have been deleted from both databases while we were copying it
+        if (existing == null && findRaw(source, row.getUuid()) == null) target.delete(row.getUuid());
+    }
+
+    private boolean isNewer(E a, E b) {
+        return a instanceof IdentifiableBase && b instanceof IdentifiableBase
+                && ((IdentifiableBase) a).getMtime() > ((IdentifiableBase) b).getMtime();
+    }
+
+    private long[] checksum(D dao) {
+        long count = 0, checksum = 0;
+        String lastUuid = null;
+        while (!stopped.get()) {
+            final long start = now();
+            final List<E> batch = nextBatch(dao, lastUuid);
+            if (batch.isEmpty()) break;
+            for (E row : batch) {
+                if (!inRange(row)) continue;
+                count++;
+                // a sum is independent of row order, so both sides can be scanned separately
+                checksum += Murmur3ShardHasher.hash(json(row).getBytes(StandardCharsets.UTF_8), 0);
+            }
+            lastUuid = batch.get(batch.size()-1).getUuid();
+            throttle(batch.size(), start);
+        }
+        return new long[] {count, checksum};
+    }
+
+    private void verify() {
+        if (state.getVerifyStarted() == 0) state.setVerifyStarted(now());
+        final long[] source = checksum(toDAO(findShardMap(state.getSourceShard())));
+        final long[] target = checksum(toDAO(findShardMap(state.getTargetShard())));
+        if (stopped.get()) return;
+        state.setVerifyAttempts(state.getVerifyAttempts() + 1)
+                .setSourceCount(source[0]).setSourceChecksum(source[1])
+                .setTargetCount(target[0]).setTargetChecksum(target[1]);
+        if (state.isVerified()) {
+            log.info("verify: OK: "+state);
+            advance(ShardRebalancePhase.flip);
+
+        } else if (now() - state.getVerifyStarted() > maxVerifyDuration) {
+            state.setError("verification failed after "+state.getVerifyAttempts()+" attempts in "+formatDurationFrom(state.getVerifyStarted()));
+            advance(ShardRebalancePhase.failed);
+
+        } else {
+            // rows written while we scanned can differ for a moment; copy again and re-check
+            log.warn("verify: mismatch, copying again: "+state);
+            state.setLastUuid(null).setScanned(0);
+            advance(ShardRebalancePhase.copy);
+        }
+    }
+
+    private void flip() {
+        final ShardMap target = findShardMap(state.getTargetShard());
+        if (!target.isAllowRead()) {
+            target.setAllowRead(true);
+            shardMapDAO.update(target);
+        }
+        advance(ShardRebalancePhase.read_flipped);
+    }
+
+    private void retire() {
+        final ShardMap source = findShardMap(state.getSourceShard());
+        final int start = state.getLogicalStart();
+        final int end = state.getLogicalEnd();
+        final int sourceStart = source.getRange().getLogicalStart();
+        final int sourceEnd = source.getRange().getLogicalEnd();
+
+        if ((!source.isAllowRead() && !source.isAllowWrite()) || sourceEnd <= start || sourceStart >= end) {
+            log.info("retire: already retired: "+source);
+
+        } else if (sourceStart == start && sourceEnd == end) {
+            source.setAllowRead(false).setAllowWrite(false);
+            shardMapDAO.update(source);
+
+        } else if (sourceStart == start) {
+            source.setRange(new ShardRange(end, sourceEnd));
+            shardMapDAO.update(source);
+
+        } else if (sourceEnd == end) {
+            source.setRange(new ShardRange(sourceStart, start));
+            shardMapDAO.update(source);
+
+        } else {
+            // the range was in the middle: keep the part after it in a new map, so coverage never has a gap
+            if (findShardMap(source.getUrl(), end, sourceEnd) == null) {
+                final ShardMap tail = instantiate(shardMapDAO.getEntityClass());
+                tail.setShardSet(source.getShardSet())
+                        .setUrl(source.getUrl())
+                        .setRange(new ShardRange(end, sourceEnd))
+                        .setAllowRead(source.isAllowRead())
+                        .setAllowWrite(source.isAllowWrite());
+                shardMapDAO.create(tail);
+            }
+            source.setRange(new ShardRange(sourceStart, start));
+            shardMapDAO.update(source);
+        }
+        state.setLastUuid(null).setScanned(0);
+        advance(ShardRebalancePhase.retired);
+    }
+
+    private void purge() {
+        final ShardMap sourceMap = findShardMap(state.getSourceShard());
+        // never delete rows that another map on the same database still serves
+        for (ShardMap map : shardMapDAO.findAllShards(state.getShardSet())) {
+            if (!map.getUrl().equals(sourceMap.getUrl()) || (!map.isAllowRead() && !map.isAllowWrite())) continue;
+            final ShardRange range = map.getRange();
+            if (range.getLogicalStart() < state.getLogicalEnd() && range.getLogicalEnd() > state.getLogicalStart()) {
+                die("purge: "+map+" on the source database still maps part of the range, not purging");
+            }
+        }
+        final D source = toDAO(sourceMap);
+        while (!stopped.get()) {
+            final long start = now();
+            final List<E> batch = nextBatch(source, state.getLastUuid());
+            if (batch.isEmpty()) {
+                advance(ShardRebalancePhase.done);
+                return;
+            }
+            final List<E> moved = new ArrayList<>();
+            for (E row : batch) if (inRange(row)) moved.add(row);
+            state.setScanned(state.getScanned() + batch.size());
+            if (!moved.isEmpty()) {
+                deleteMoved(source, moved);
+                state.setPurged(state.getPurged() + moved.size());
+            }
+            state.setLastUuid(batch.get(batch.size()-1).getUuid());
+            save();
+            log.info("purge: "+state);
+            throttle(batch.size(), start);
+        }
+    }
+
+    // not source.delete: the rows still exist on the target, this is not a delete to audit.
+    // a session of its own, the rebalancer runs outside any transaction
+    private void deleteMoved(D source, List<E> moved) {
+        final Session session = source.getHibernateTemplate().getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            for (E row : moved) {
+                session.delete(row);
+                if (source instanceof AbstractCRUDDAO) ((AbstractCRUDDAO<E>) source).deleteBlindIndex(session, row.getUuid());
+            }
+            tx.commit();
+
+        } catch (RuntimeException e) {
+            if (tx != null) {
+                try { tx.rollback(); } catch (Exception re) { log.warn("deleteMoved: error rolling back: "+re); }
+            }
+            throw e;
+
+        } finally {
+            session.close();
+        }
+    }
+
+}
@@ -39,6 +39,17 @@ public class ShardSearch {
     @Getter @Setter private Long timeout;
     public boolean hasTimeout() { return timeout != null && timeout > 0; }
 
+    /** @return a copy that can be changed without changing this search; the collector is shared, not copied */
+    public ShardSearch copy () {
+        final ShardSearch copy = new ShardSearch(hsql, args, hash);
+        copy.collector = collector;
+        copy.comparator = comparator;
+        copy.maxResults = maxResults;
+        copy.maxResultsPerShard = maxResultsPerShard;
+        copy.timeout = timeout;
+        return copy;
+    }
+
     public <R> List<R> sort(List<R> results) {
         if (comparator != null) Collections.sort(results, getComparator());
         return results;
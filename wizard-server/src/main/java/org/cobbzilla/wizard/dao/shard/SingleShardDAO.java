@@ -7,6 +7,7 @@ import org.hibernate.Session;
 import org.springframework.orm.hibernate4.HibernateTemplate;
 
 import java.util.List;
+import java.util.function.Predicate;
 
 public interface SingleShardDAO<E extends Shardable> extends DAO<E> {
 
@@ -25,6 +26,16 @@ public interface SingleShardDAO<E extends Shardable> extends DAO<E> {
     List query(int maxResults, String hsql, Object... args);
     List query(int maxResults, String hsql, List<Object> args);
 
+    /**
+     * Streams the results of a query to a consumer, one row at a time, without reading them all into memory.
+     * Rows are passed the way query returns them: a single object, or an Object[] for multi-column projections.
+     * The default reads the (limited) list with query; AbstractSingleShardDAO scrolls a cursor instead.
+     * @param consumer called for each row; return false to stop reading
+     */
+    default void scroll(int maxResults, String hsql, List<Object> args, Predicate<Object> consumer) {
+        for (Object row : query(maxResults, hsql, args)) if (!consumer.test(row)) return;
+    }
+
     HibernateTemplate getHibernateTemplate();
     Session readOnlySession();
 
@@ -18,15 +18,15 @@ public class ShardCacheableFindByUnique3FieldFinder<E extends Shardable, D exten
         final String f3 = args[4].toString();
         final Object v3 = args[5];
 
-        D dao = null;
+        String hash = null;
         if (shardedDAO.getHashOn().equals(f1)) {
-            dao = shardedDAO.getDAO((String) v1);
+            hash = (String) v1;
         } else if (shardedDAO.getHashOn().equals(f2)) {
-            dao = shardedDAO.getDAO((String) v2);
+            hash = (String) v2;
         } else if (shardedDAO.getHashOn().equals(f3)) {
-            dao = shardedDAO.getDAO((String) v3);
+            hash = (String) v3;
         }
-        if (dao != null) return dao.findByUniqueFields(f1, v1, f2, v2, f3, v3);
+        if (hash != null) return shardedDAO.readFrom(hash, dao -> dao.findByUniqueFields(f1, v1, f2, v2, f3, v3));
 
         // have to search all shards for it
         return shardedDAO.queryShardsUnique((ShardTaskFactory<E, D, E>) new ShardFindFirstBy3FieldsTask.Factory(f1, v1, f2, v2, f3, v3), "findByUniqueFields");
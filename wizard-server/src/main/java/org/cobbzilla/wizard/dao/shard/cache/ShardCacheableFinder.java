@@ -5,13 +5,17 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.experimental.Accessors;
 import org.cobbzilla.util.json.JsonUtil;
+import org.cobbzilla.wizard.cache.redis.RedisService;
+import org.cobbzilla.wizard.dao.DAOObjectCache;
 import org.cobbzilla.wizard.dao.shard.AbstractShardedDAO;
 import org.cobbzilla.wizard.dao.shard.SingleShardDAO;
 import org.cobbzilla.wizard.model.shard.Shardable;
 
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static org.cobbzilla.util.json.JsonUtil.toJsonOrDie;
+import static org.cobbzilla.util.reflect.ReflectionUtil.mirror;
 import static org.cobbzilla.wizard.cache.redis.RedisService.EX;
 import static org.cobbzilla.wizard.dao.shard.AbstractShardedDAO.NULL_CACHE;
 
@@ -27,22 +31,39 @@ public abstract class ShardCacheableFinder<E extends Shardable, D extends Single
     public E get(String cacheKey, Object... args) {
         if (!useCache) return (E) find(args);
         final String shardSetName = shardedDAO.getShardConfiguration().getName();
-        cacheKey = shardSetName +":" + cacheKey;
+        final String fullCacheKey = shardSetName +":" + cacheKey;
+        if (shardedDAO.useNearCache()) {
+            final E entity = shardedDAO.getNearCache().get(fullCacheKey, a -> getFromShardCache(fullCacheKey, a), args,
+                                                            thing -> DAOObjectCache.defaultTags(NULL_CACHE, thing));
+            return entity == null ? null : mirror(entity); // callers may modify what they get back
+        }
+        return getFromShardCache(fullCacheKey, args);
+    }
+
+    protected E getFromShardCache(String cacheKey, Object... args) {
+        final RedisService cache = shardedDAO.getShardCache();
         E entity = null;
-        final String json = shardedDAO.getShardCache().get(cacheKey);
+
+        // get the value and refresh its TTL in a single round trip
+        final Supplier<String>[] found = new Supplier[1];
+        cache.pipelined(p -> {
+            found[0] = p.get(cacheKey);
+            p.expire(cacheKey, (int) getCacheTimeoutSeconds());
+        });
+        final String json = found[0].get();
+
         if (json == null) {
             entity = (E) find(args);
             if (entity == null) {
-                shardedDAO.getShardCache().set(cacheKey, NULL_CACHE, EX, getCacheTimeoutSeconds());
+                cache.set(cacheKey, NULL_CACHE, EX, getCacheTimeoutSeconds());
                 final String cacheRefsKey = shardedDAO.getCacheRefsKey(NULL_CACHE);
-                shardedDAO.getShardCache().lpush(cacheRefsKey, cacheKey);
+                cache.lpush(cacheRefsKey, cacheKey);
             } else {
-                shardedDAO.getShardCache().set(cacheKey, toJsonOrDie(entity), EX, getCacheTimeoutSeconds());
-                shardedDAO.getShardCache().lpush(shardedDAO.getCacheRefsKey(entity.getUuid()), cacheKey);
+                cache.set(cacheKey, toJsonOrDie(entity), EX, getCacheTimeoutSeconds());
+                cache.lpush(shardedDAO.getCacheRefsKey(entity.getUuid()), cacheKey);
             }
         } else if (!json.equals(NULL_CACHE)) {
             entity = JsonUtil.fromJsonOrDie(json, shardedDAO.getEntityClass());
-            shardedDAO.getShardCache().set(cacheKey, json, EX, getCacheTimeoutSeconds());
         }
         return entity;
     }
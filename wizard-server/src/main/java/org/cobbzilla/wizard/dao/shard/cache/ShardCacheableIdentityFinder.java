@@ -10,6 +10,6 @@ public class ShardCacheableIdentityFinder<E extends Shardable, D extends SingleS
 
     @Override public E find(Object... args) {
         final String id = args[0].toString();
-        return shardedDAO.getDAO(id).get(id);
+        return shardedDAO.readFrom(id, dao -> dao.get(id));
     }
 }
@@ -16,7 +16,7 @@ public class ShardCacheableUniqueFieldFinder<E extends Shardable, D extends Sing
         final String field = args[0].toString();
         final String value = (String) args[1];
 
-        if (shardedDAO.getHashOn().equals(field)) return shardedDAO.getDAO(value).get(value);
+        if (shardedDAO.getHashOn().equals(field)) return shardedDAO.readFrom(value, dao -> dao.get(value));
 
         // have to search all shards for it
         return shardedDAO.queryShardsUnique((ShardTaskFactory<E, D, E>) new ShardFindFirstByFieldTask.Factory(field, value), "findByUniqueField");
@@ -0,0 +1,56 @@
+package org.cobbzilla.wizard.dao.shard.exec;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed-size thread pool with a bounded queue. When the queue is full the task is counted as rejected and
+ * then runs on the submitting thread, which slows down callers instead of queueing without limit. Tasks sent
+ * with submitAsync are rejected with RejectedExecutionException instead.
+ */
+@Slf4j
+public class BoundedShardQueryExecutor extends ShardQueryExecutorBase {
+
+    public static final long IDLE_TIMEOUT_MINUTES = 10;
+
+    @Getter private final ThreadPoolExecutor executor;
+    private final BlockingQueue<Runnable> queue;
+
+    // set while submitAsync is submitting, so the rejection handler knows not to run the task inline
+    private static final ThreadLocal<Boolean> NO_CALLER_RUNS = new ThreadLocal<>();
+
+    public BoundedShardQueryExecutor(String name, int maxThreads, int maxQueued) {
+        final AtomicInteger counter = new AtomicInteger(0);
+        queue = new ArrayBlockingQueue<>(maxQueued);
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES, queue,
+                r -> {
+                    final Thread t = new Thread(r, name+"-"+counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (r, pool) -> {
+                    final long count = rejected.incrementAndGet();
+                    if (NO_CALLER_RUNS.get() != null) throw new RejectedExecutionException(name+": queue full ("+maxQueued+")");
+                    if (count % 100 == 1) log.warn(name+": queue full ("+maxQueued+"), running shard task on caller thread ("+count+" so far)");
+                    if (!pool.isShutdown()) r.run();
+                });
+        // with core == max, threads would never exit; let idle threads go so a quiet DAO holds no threads
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override protected int getQueueDepth() { return queue.size(); }
+
+    @Override public <T> Future<T> submitAsync(ShardMap shard, Callable<T> task) {
+        NO_CALLER_RUNS.set(Boolean.TRUE);
+        try {
+            return submit(shard, task);
+        } finally {
+            NO_CALLER_RUNS.remove();
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.cobbzilla.wizard.dao.shard.exec;
+
+import org.cobbzilla.wizard.dao.shard.SingleShardDAO;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+import org.cobbzilla.wizard.util.LatencyHistogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+/**
+ * Chooses among the replicas that can serve a read, based on an exponentially weighted moving average (EWMA) of
+ * their recent read latency. A replica with no recorded reads counts as fastest, so new replicas get tried.
+ * Failed reads are not latencies: a replica that fails fast would look fastest. Instead a failure counts as
+ * FAILURE_PENALTY millis of extra latency for the next FAILURE_COOLDOWN millis, then the replica gets tried again.
+ */
+public class ReplicaSelector {
+
+    public static final double DEFAULT_ALPHA = 0.2;
+    public static final long FAILURE_PENALTY = TimeUnit.SECONDS.toMillis(10);
+    public static final long FAILURE_COOLDOWN = TimeUnit.SECONDS.toMillis(10);
+
+    private final double alpha;
+    private final Map<String, AtomicLong> ewma = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> lastFailure = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+
+    public ReplicaSelector() { this(DEFAULT_ALPHA); }
+    public ReplicaSelector(double alpha) { this.alpha = alpha; }
+
+    private String shardName(ShardMap shard) { return shard == null ? "default" : shard.getShardSet()+"/"+shard.getDbName(); }
+
+    public void record(ShardMap shard, long millis) {
+        final String name = shardName(shard);
+        latency.computeIfAbsent(name, k -> new LatencyHistogram()).record(millis);
+        final AtomicLong bits = ewma.computeIfAbsent(name, k -> new AtomicLong(Double.doubleToLongBits(-1)));
+        while (true) {
+            final long current = bits.get();
+            final double avg = Double.longBitsToDouble(current);
+            final double next = avg < 0 ? millis : avg + alpha * (millis - avg);
+            if (bits.compareAndSet(current, Double.doubleToLongBits(next))) return;
+        }
+    }
+
+    public void recordFailure(ShardMap shard) {
+        final String name = shardName(shard);
+        lastFailure.computeIfAbsent(name, k -> new AtomicLong()).set(now());
+        failures.computeIfAbsent(name, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /** @return the average read latency of the shard in millis, or 0 if no reads have been recorded */
+    public double getAverage(ShardMap shard) {
+        final AtomicLong bits = ewma.get(shardName(shard));
+        return bits == null ? 0 : Math.max(0, Double.longBitsToDouble(bits.get()));
+    }
+
+    private double score(ShardMap shard) {
+        final AtomicLong failed = lastFailure.get(shardName(shard));
+        final boolean penalized = failed != null && now() - failed.get() < FAILURE_COOLDOWN;
+        return getAverage(shard) + (penalized ? FAILURE_PENALTY : 0);
+    }
+
+    public long percentile(ShardMap shard, double percentile) {
+        final LatencyHistogram histogram = latency.get(shardName(shard));
+        return histogram == null ? 0 : histogram.percentile(percentile);
+    }
+
+    /** @return the daos, fastest first. Replicas with the same average are shuffled so the load is spread. */
+    public <D extends SingleShardDAO> List<D> rank(List<D> daos) {
+        final List<D> ranked = new ArrayList<>(daos);
+        Collections.shuffle(ranked, ThreadLocalRandom.current());
+        ranked.sort(Comparator.comparingDouble(d -> score(d.getShard())));
+        return ranked;
+    }
+
+    /**
+     * Picks the faster of two random replicas. Unlike always taking the fastest, this does not send every read to
+     * one replica, and slow replicas still get an occasional read, so their average recovers when they do.
+     */
+    public <D extends SingleShardDAO> D pick(List<D> daos) {
+        if (daos.size() == 1) return daos.get(0);
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int i = random.nextInt(daos.size());
+        int j = random.nextInt(daos.size() - 1);
+        if (j >= i) j++;
+        final D d1 = daos.get(i);
+        final D d2 = daos.get(j);
+        return score(d1.getShard()) <= score(d2.getShard()) ? d1 : d2;
+    }
+
+    public Map<String, Map<String, Long>> getStats() {
+        final Map<String, Map<String, Long>> stats = new TreeMap<>();
+        latency.forEach((k, v) -> {
+            final Map<String, Long> map = v.toMap();
+            final AtomicLong bits = ewma.get(k);
+            map.put("ewma", bits == null ? 0 : (long) Math.max(0, Double.longBitsToDouble(bits.get())));
+            map.put("failures", 0L);
+            stats.put(k, map);
+        });
+        // a replica that only ever failed has no latencies
+        failures.forEach((k, v) -> stats.computeIfAbsent(k, x -> new TreeMap<>()).put("failures", v.get()));
+        return stats;
+    }
+
+}
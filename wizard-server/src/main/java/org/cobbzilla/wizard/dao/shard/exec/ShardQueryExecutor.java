@@ -0,0 +1,37 @@
+package org.cobbzilla.wizard.dao.shard.exec;
+
+import org.cobbzilla.wizard.model.shard.ShardMap;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the per-shard tasks of a fan-out query for AbstractShardedDAO, and keeps metrics about them.
+ */
+public interface ShardQueryExecutor {
+
+    <T> Future<T> submit(ShardMap shard, Callable<T> task);
+
+    /**
+     * For tasks that must never run on the submitting thread, such as cursor tasks that hand rows to the caller
+     * through a bounded buffer. When the executor has no room, this throws RejectedExecutionException instead.
+     */
+    default <T> Future<T> submitAsync(ShardMap shard, Callable<T> task) { return submit(shard, task); }
+
+    /** called by AbstractShardedDAO when a fan-out query times out waiting for its shard tasks */
+    void recordTimeout(String ctx);
+
+    ShardQueryStats getStats();
+
+    void shutdown();
+
+    interface ShardQueryStats {
+        int getQueueDepth();
+        long getActiveTasks();
+        long getRejectedTasks();
+        Map<String, Long> getTimeouts();
+        Map<String, Map<String, Long>> getShardLatency();
+    }
+
+}
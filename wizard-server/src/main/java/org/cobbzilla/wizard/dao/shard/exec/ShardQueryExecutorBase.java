@@ -0,0 +1,71 @@
+package org.cobbzilla.wizard.dao.shard.exec;
+
+import lombok.Getter;
+import org.cobbzilla.wizard.model.shard.ShardMap;
+import org.cobbzilla.wizard.util.LatencyHistogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+
+public abstract class ShardQueryExecutorBase implements ShardQueryExecutor {
+
+    protected final AtomicLong active = new AtomicLong(0);
+    protected final AtomicLong rejected = new AtomicLong(0);
+    private final Map<String, AtomicLong> timeouts = new ConcurrentHashMap<>();
+    @Getter private final Map<String, LatencyHistogram> latency = new ConcurrentHashMap<>();
+
+    protected abstract ExecutorService getExecutor();
+
+    protected abstract int getQueueDepth();
+
+    public LatencyHistogram getLatency(ShardMap shard) {
+        return latency.computeIfAbsent(shardName(shard), k -> new LatencyHistogram());
+    }
+
+    protected String shardName(ShardMap shard) { return shard == null ? "default" : shard.getShardSet()+"/"+shard.getDbName(); }
+
+    @Override public <T> Future<T> submit(ShardMap shard, Callable<T> task) {
+        final LatencyHistogram histogram = getLatency(shard);
+        return getExecutor().submit(() -> {
+            final long start = now();
+            active.incrementAndGet();
+            try {
+                return task.call();
+            } finally {
+                active.decrementAndGet();
+                histogram.record(now() - start);
+            }
+        });
+    }
+
+    @Override public void recordTimeout(String ctx) {
+        timeouts.computeIfAbsent(ctx, k -> new AtomicLong(0)).incrementAndGet();
+    }
+
+    @Override public ShardQueryStats getStats() {
+        final Map<String, Long> timeoutCounts = new TreeMap<>();
+        timeouts.forEach((k, v) -> timeoutCounts.put(k, v.get()));
+        final Map<String, Map<String, Long>> latencies = new TreeMap<>();
+        latency.forEach((k, v) -> latencies.put(k, v.toMap()));
+        final int queueDepth = getQueueDepth();
+        final long activeTasks = active.get();
+        final long rejectedTasks = rejected.get();
+        return new ShardQueryStats() {
+            @Override public int getQueueDepth() { return queueDepth; }
+            @Override public long getActiveTasks() { return activeTasks; }
+            @Override public long getRejectedTasks() { return rejectedTasks; }
+            @Override public Map<String, Long> getTimeouts() { return timeoutCounts; }
+            @Override public Map<String, Map<String, Long>> getShardLatency() { return latencies; }
+        };
+    }
+
+    @Override public void shutdown() { getExecutor().shutdownNow(); }
+
+}
@@ -0,0 +1,40 @@
+package org.cobbzilla.wizard.dao.shard.exec;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs each shard task on its own virtual thread, so a task blocked on JDBC does not hold a platform thread.
+ * Virtual threads require Java 21 or later. This module is compiled for Java 11, so the executor is looked up
+ * reflectively; on older runtimes it falls back to an unbounded cached pool of platform threads.
+ */
+@Slf4j
+public class VirtualThreadShardQueryExecutor extends ShardQueryExecutorBase {
+
+    @Getter private final ExecutorService executor = initExecutor();
+
+    private ExecutorService initExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            log.warn("initExecutor: virtual threads not available ("+e+"), using a cached thread pool");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // tasks never wait in a queue: each one starts on its own thread right away
+    @Override protected int getQueueDepth() { return 0; }
+
+    public static boolean isSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.cobbzilla.wizard.dao.shard.hash;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MurmurHash3 (x86, 32-bit) of the UTF-8 bytes of the id. Much cheaper than SHA-256 and spreads keys just as evenly,
+ * but it is not cryptographic: do not use it if clients can choose ids to overload a single shard.
+ */
+public class Murmur3ShardHasher implements ShardHasher {
+
+    public static final int DEFAULT_SEED = 0;
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private final int seed;
+
+    public Murmur3ShardHasher() { this(DEFAULT_SEED); }
+    public Murmur3ShardHasher(int seed) { this.seed = seed; }
+
+    @Override public int logicalShard(String id, int logicalShards) {
+        return Math.floorMod(hash(id.getBytes(StandardCharsets.UTF_8), seed), logicalShards);
+    }
+
+    public static int hash(byte[] data, int seed) {
+        int h = seed;
+        final int len = data.length;
+        final int blocks = len >>> 2;
+        for (int i=0; i<blocks; i++) {
+            final int j = i << 2;
+            int k = (data[j] & 0xff) | ((data[j+1] & 0xff) << 8) | ((data[j+2] & 0xff) << 16) | ((data[j+3] & 0xff) << 24);
+            k *= C1;
+            k = Integer.rotateLeft(k, 15);
+            k *= C2;
+            h ^= k;
+            h = Integer.rotateLeft(h, 13);
+            h = h * 5 + 0xe6546b64;
+        }
+
+        final int tail = blocks << 2;
+        int k = 0;
+        switch (len & 3) {
+            case 3: k ^= (data[tail+2] & 0xff) << 16;
+            case 2: k ^= (data[tail+1] & 0xff) << 8;
+            case 1: k ^= (data[tail] & 0xff);
+                k *= C1;
+                k = Integer.rotateLeft(k, 15);
+                k *= C2;
+                h ^= k;
+        }
+
+        h ^= len;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
@@ -0,0 +1,36 @@
+package org.cobbzilla.wizard.dao.shard.hash;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.security.ShaUtil.sha256_hex;
+
+/**
+ * The original scheme: the first 7 hex digits of the SHA-256 of the id, modulo the number of logical shards.
+ * This reads the same 28 bits straight from the digest, without building a hex string and parsing it.
+ */
+public class Sha256ShardHasher implements ShardHasher {
+
+    private static final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            return die("digest: "+e, e);
+        }
+    });
+
+    @Override public int logicalShard(String id, int logicalShards) {
+        final byte[] d = digest.get().digest(id.getBytes(StandardCharsets.UTF_8));
+        final long val = ((d[0] & 0xffL) << 20) | ((d[1] & 0xffL) << 12) | ((d[2] & 0xffL) << 4) | ((d[3] & 0xffL) >>> 4);
+        return (int) (val % logicalShards);
+    }
+
+    /** the original implementation, kept so ShardHashMain can verify that logicalShard gives the same answers */
+    public static int legacyLogicalShard(String id, int logicalShards) {
+        final long val = Long.valueOf(sha256_hex(id).substring(0, 7), 16);
+        return (int) (Math.abs(val) % logicalShards);
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.cobbzilla.wizard.dao.shard.hash;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@AllArgsConstructor
+public enum ShardHashType {
+
+    sha256 (new Sha256ShardHasher()),
+    murmur3 (new Murmur3ShardHasher());
+
+    @Getter private final ShardHasher hasher;
+
+    @JsonCreator public static ShardHashType fromString (String val) { return valueOf(val.toLowerCase()); }
+
+}
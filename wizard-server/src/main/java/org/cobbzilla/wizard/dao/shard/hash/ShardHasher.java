@@ -0,0 +1,12 @@
+package org.cobbzilla.wizard.dao.shard.hash;
+
+/**
+ * Maps an id to a logical shard. Changing the hasher of a shard set that already has data moves almost every key
+ * to a different logical shard, so the data must be migrated first (see ShardHashMain for an impact report).
+ */
+public interface ShardHasher {
+
+    /** @return a logical shard between 0 (inclusive) and logicalShards (exclusive) */
+    int logicalShard(String id, int logicalShards);
+
+}
@@ -0,0 +1,59 @@
+package org.cobbzilla.wizard.dao.shard.hash;
+
+import org.cobbzilla.wizard.model.shard.ShardIO;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Caches the DAOs for each logical shard, so routing a key does not scan every ShardMap of the shard set.
+ * Entries are filled on first use, and the whole table is dropped when the ShardMapDAO version changes.
+ */
+public class ShardRoutingTable<D> {
+
+    private static class Tables<D> {
+        private final long version;
+        private final AtomicReferenceArray<List<D>> read;
+        private final AtomicReferenceArray<List<D>> write;
+        private Tables(long version, int size) {
+            this.version = version;
+            this.read = new AtomicReferenceArray<>(size);
+            this.write = new AtomicReferenceArray<>(size);
+        }
+    }
+
+    private final int logicalShards;
+    private volatile Tables<D> tables;
+
+    public ShardRoutingTable(int logicalShards) {
+        this.logicalShards = logicalShards;
+        this.tables = new Tables<>(-1, logicalShards);
+    }
+
+    public List<D> get(ShardIO shardIO, int logicalShard, long version, IntFunction<List<D>> loader) {
+        Tables<D> t = tables;
+        if (t.version != version) {
+            t = new Tables<>(version, logicalShards);
+            tables = t;
+        }
+        final AtomicReferenceArray<List<D>> table;
+        switch (shardIO) {
+            case read: table = t.read; break;
+            case write: table = t.write; break;
+            default: return die("get: invalid shardIO: "+shardIO);
+        }
+        List<D> daos = table.get(logicalShard);
+        if (daos == null) {
+            daos = Collections.unmodifiableList(loader.apply(logicalShard));
+            table.set(logicalShard, daos);
+        }
+        return daos;
+    }
+
+    public void clear() { tables = new Tables<>(-1, logicalShards); }
+
+}
@@ -0,0 +1,97 @@
+package org.cobbzilla.wizard.dao.shard.task;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.dao.shard.ShardSearch;
+import org.cobbzilla.wizard.dao.shard.SingleShardDAO;
+import org.cobbzilla.wizard.model.shard.Shardable;
+
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.cobbzilla.util.time.TimeUtil.formatDurationFrom;
+
+/**
+ * Scrolls through the sorted results of a search on one shard, handing rows to a ShardMergeIterator through a
+ * small bounded buffer. The query must have an ORDER BY that matches the comparator of the search.
+ */
+@Slf4j
+public class ShardCursorTask<E extends Shardable, D extends SingleShardDAO<E>> extends ShardTask<E, D, Integer> {
+
+    public static final Object END = new Object();
+
+    private static final long OFFER_INTERVAL = 100;
+
+    private final ShardSearch search;
+    private final int limit;
+    private final long deadline;
+    private final BlockingQueue<Object> buffer;
+    @Getter @Setter private Future<?> future;
+
+    public ShardCursorTask(D dao, Set tasks, ShardSearch search, int limit, int bufferSize, long deadline) {
+        super(dao, tasks, null, true);
+        this.search = search;
+        this.limit = limit;
+        this.deadline = deadline;
+        this.buffer = new LinkedBlockingQueue<>(bufferSize);
+    }
+
+    public D getDao() { return dao; }
+
+    /**
+     * @return the next row from this shard, or END when the shard has no more rows
+     * @throws TimeoutException if no row arrived before the deadline
+     */
+    public Object next() throws InterruptedException, TimeoutException {
+        final long wait = deadline - now();
+        final Object row = wait > 0 ? buffer.poll(wait, TimeUnit.MILLISECONDS) : buffer.poll();
+        if (row == null) throw new TimeoutException("next: timed out waiting for "+dao.getShard().getDbName());
+        return row;
+    }
+
+    @Override public void cancel() {
+        super.cancel();
+        // let a producer that is blocked on a full buffer notice the cancellation right away
+        buffer.clear();
+    }
+
+    @Override public Integer execTask() {
+        final String prefix = "execTask(" + dao.getShard().getDbName() + "): ";
+        final long start = now();
+        final AtomicInteger count = new AtomicInteger(0);
+        try {
+            dao.scroll(limit, search.getHsql(), search.getArgs(), row -> {
+                if (row == null) return true;
+                if (!offer(row)) return false;
+                count.incrementAndGet();
+                return true;
+            });
+        } finally {
+            // also sent when the query failed: the merge then checks the future and finds the error
+            offer(END);
+        }
+        log.info(prefix+"sent "+count.get()+" results in "+formatDurationFrom(start)+(cancelled.get() ? " (cancelled)" : ""));
+        return count.get();
+    }
+
+    private boolean offer(Object row) {
+        try {
+            while (!cancelled.get()) {
+                if (buffer.offer(row, OFFER_INTERVAL, TimeUnit.MILLISECONDS)) return true;
+                if (now() > deadline) die("offer: timed out waiting for the merge to read from "+dao.getShard().getDbName());
+            }
+            return false;
+        } catch (InterruptedException e) {
+            return die("offer: interrupted: "+e, e);
+        }
+    }
+
+}
@@ -2,6 +2,7 @@ package org.cobbzilla.wizard.dao.sql;
 
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Converter;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
@@ -131,9 +132,9 @@ public class ObjectSQLQuery<E extends Identifiable> implements Query, Closeable
             resultSet = statement.executeQuery();
 
             final List<E> results = new ArrayList<>();
-            final ResultSetMetaData metaData = resultSet.getMetaData();
+            final ColumnMapping[] columns = columnMappings(resultSet.getMetaData());
             while (resultSet.next()) {
-                results.add(rowToObject(resultSet, metaData));
+                results.add(rowToObject(resultSet, columns));
             }
             return results;
 
@@ -151,22 +152,42 @@ public class ObjectSQLQuery<E extends Identifiable> implements Query, Closeable
         }
     }
 
-    private E rowToObject(ResultSet resultSet, ResultSetMetaData metaData) throws Exception {
+    // column name -> field name conversions are the same for every query on an entity class
+    private static final Map<String, String> fieldNames = new ConcurrentHashMap<>();
+
+    @AllArgsConstructor
+    private static class ColumnMapping {
+        private final String columnName;
+        private final String fieldName;
+        private final SQLFieldTransformer transformer;
+    }
+
+    // resolved once per query, rather than for every column of every row
+    private ColumnMapping[] columnMappings(ResultSetMetaData metaData) throws SQLException {
+        final Map<String, SQLFieldTransformer> transformers = getTransformers();
+        final ColumnMapping[] columns = new ColumnMapping[metaData.getColumnCount()];
+        for (int i=0; i<columns.length; i++) {
+            final String columnName = metaData.getColumnName(i+1);
+            final SQLFieldTransformer transformer = transformers.get(columnName);
+            final String fieldName = transformer != null ? columnName : fieldNames.computeIfAbsent(columnName, FIELD_NAME_CONVERTER::convert);
+            columns[i] = new ColumnMapping(columnName, fieldName, transformer);
+        }
+        return columns;
+    }
+
+    private E rowToObject(ResultSet resultSet, ColumnMapping[] columns) throws Exception {
         final E object = instantiate(entityClass);
 
-        for (int i=1; i<=metaData.getColumnCount(); i++) {
-            final Object columnVal = resultSet.getObject(i);
+        for (int i=0; i<columns.length; i++) {
+            final Object columnVal = resultSet.getObject(i+1);
             if (columnVal == null) continue;
 
-            final String columnName = metaData.getColumnName(i);
-            final SQLFieldTransformer transformer = getTransformers().get(columnName);
-
-            if (transformer != null) {
-                final Object value = transformer.sqlToObject(object, columnVal);
-                if (value != null) ReflectionUtil.set(object, columnName, value);
+            final ColumnMapping column = columns[i];
+            if (column.transformer != null) {
+                final Object value = column.transformer.sqlToObject(object, columnVal);
+                if (value != null) ReflectionUtil.set(object, column.columnName, value);
             } else {
-                final String fieldName = FIELD_NAME_CONVERTER.convert(columnName);
-                ReflectionUtil.set(object, fieldName, columnVal);
+                ReflectionUtil.set(object, column.fieldName, columnVal);
             }
         }
         return object;
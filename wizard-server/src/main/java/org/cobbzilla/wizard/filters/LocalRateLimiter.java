@@ -0,0 +1,217 @@
+package org.cobbzilla.wizard.filters;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.cache.redis.RedisService;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.cobbzilla.util.daemon.ZillaRuntime.*;
+import static org.cobbzilla.util.io.StreamUtil.stream2string;
+import static org.cobbzilla.util.string.StringUtil.getPackagePath;
+import static org.cobbzilla.util.system.Sleep.sleep;
+
+/**
+ * The in-memory side of RateLimitMode.local. Each key has a counter per ApiRateLimit, like the Redis limiter script,
+ * updated with atomic operations only. A request is refused when the key is blocked, when this node has used its
+ * share of the limit in the current interval, or when the last known total across nodes plus this node's unsynced
+ * count reaches the limit. A background thread adds the unsynced counts to the same Redis keys the script uses,
+ * and reads back the totals. It does this with a script of its own, so that a counter is never incremented without
+ * getting its expiry: a counter left with no expiry would block its key for good.
+ */
+@Slf4j
+public class LocalRateLimiter {
+
+    public static final long DEFAULT_SYNC_MILLIS = 250;
+    public static final int MAX_KEYS = 100_000;
+    public static final int SYNC_BATCH = 500; // counters per script call, so one call does not hold up redis for long
+
+    public static final String SYNC_SCRIPT = "local_limiter_sync_redis.lua";
+
+    private static class Window {
+        final AtomicLong start = new AtomicLong();
+        final AtomicLong used = new AtomicLong();     // requests on this node in the current interval
+        final AtomicLong pending = new AtomicLong();  // requests not yet added to the redis counter
+        volatile long total;                           // the redis counter at the last sync, all nodes
+        volatile long blockedUntil;
+
+        void roll(long now, long interval) {
+            final long s = start.get();
+            if (now - s >= interval && start.compareAndSet(s, now)) {
+                used.set(0);
+                total = 0;
+            }
+        }
+    }
+
+    private final RedisService redis;
+    private final int count;
+    private final long[] limits;
+    private final long[] shares;
+    private final long[] intervals;
+    private final long[] blocks;
+    private final String[] suffixes;
+    private final Cache<String, Window[]> windows;
+    private final AtomicLong syncErrors = new AtomicLong();
+    private String syncScriptSha; // only used by the sync thread
+
+    public LocalRateLimiter(RedisService redis, List<ApiRateLimit> rateLimits, int nodes, long syncMillis) {
+        this.redis = redis;
+        this.count = rateLimits.size();
+        this.limits = new long[count];
+        this.shares = new long[count];
+        this.intervals = new long[count];
+        this.blocks = new long[count];
+        this.suffixes = new String[count];
+        long maxDuration = 0;
+        for (int i=0; i<count; i++) {
+            final ApiRateLimit limit = rateLimits.get(i);
+            limits[i] = limit.getLimit();
+            shares[i] = Math.max(1, (limit.getLimit() + Math.max(1, nodes) - 1) / Math.max(1, nodes));
+            intervals[i] = limit.getIntervalDuration();
+            blocks[i] = limit.getBlockDuration();
+            // same key suffix as api_limiter_redis.lua, so strict and local checks share counters
+            suffixes[i] = ":" + limit.getLimit() + ":" + intervals[i] + ":" + blocks[i];
+            maxDuration = Math.max(maxDuration, Math.max(intervals[i], blocks[i]));
+        }
+        this.windows = CacheBuilder.newBuilder()
+                .maximumSize(MAX_KEYS)
+                .expireAfterAccess(maxDuration + 2*syncMillis, MILLISECONDS)
+                .build();
+        daemon(() -> {
+            while (true) {
+                sleep(syncMillis);
+                try {
+                    sync();
+                } catch (Exception e) {
+                    syncErrors.incrementAndGet();
+                    log.warn("sync: "+e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts a request for the key. Returns null if it is allowed, otherwise the index of the last limit it exceeded,
+     * the same result the Redis limiter script returns.
+     */
+    public Long check(String key) {
+        final long now = now();
+        final Window[] ws = windows(key);
+        Long exceeded = null;
+        for (int i=0; i<count; i++) {
+            final Window w = ws[i];
+            if (now < w.blockedUntil) {
+                exceeded = (long) i;
+                continue;
+            }
+            w.roll(now, intervals[i]);
+            final long used = w.used.incrementAndGet();
+            final long pending = w.pending.incrementAndGet();
+            if (used >= shares[i] || w.total + pending >= limits[i]) {
+                w.blockedUntil = now + blocks[i];
+                exceeded = (long) i;
+            }
+        }
+        return exceeded;
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("keys", windows.size());
+        stats.put("syncErrors", syncErrors.get());
+        return stats;
+    }
+
+    private Window[] windows(String key) {
+        try {
+            return windows.get(key, () -> {
+                final Window[] ws = new Window[count];
+                for (int i=0; i<count; i++) ws[i] = new Window();
+                return ws;
+            });
+        } catch (ExecutionException e) {
+            return die("windows: "+e, e);
+        }
+    }
+
+    private void sync() {
+        final long now = now();
+        final List<String> keys = new ArrayList<>();
+        final List<Window> synced = new ArrayList<>();
+        final List<Integer> limitIndexes = new ArrayList<>();
+        final List<Long> added = new ArrayList<>();
+        for (Map.Entry<String, Window[]> entry : windows.asMap().entrySet()) {
+            for (int i=0; i<count; i++) {
+                final Window w = entry.getValue()[i];
+                final long pending = w.pending.getAndSet(0);
+                if (pending == 0 && now - w.start.get() >= intervals[i]) continue; // idle
+                keys.add(entry.getKey() + suffixes[i]);
+                synced.add(w);
+                limitIndexes.add(i);
+                added.add(pending);
+            }
+        }
+        if (keys.isEmpty()) return;
+
+        final List<Supplier<Object>> results = new ArrayList<>();
+        try {
+            final String sha = syncScriptSha();
+            redis.pipelined(pipeline -> {
+                for (int from=0; from<keys.size(); from += SYNC_BATCH) {
+                    final int to = Math.min(keys.size(), from + SYNC_BATCH);
+                    final List<String> args = new ArrayList<>(4 * (to - from));
+                    for (int k=from; k<to; k++) {
+                        final int i = limitIndexes.get(k);
+                        args.add(String.valueOf(added.get(k)));
+                        args.add(String.valueOf(limits[i]));
+                        args.add(String.valueOf(intervals[i]));
+                        args.add(String.valueOf(blocks[i]));
+                    }
+                    results.add(pipeline.evalsha(sha, keys.subList(from, to), args));
+                }
+            });
+        } catch (RuntimeException e) {
+            // put the counts back, to be sent with the next sync
+            for (int k=0; k<keys.size(); k++) synced.get(k).pending.addAndGet(added.get(k));
+            throw e;
+        }
+
+        // each script call either ran in full or not at all
+        RuntimeException error = null;
+        for (int b=0; b<results.size(); b++) {
+            final int from = b * SYNC_BATCH;
+            try {
+                final List<Long> totals = (List<Long>) results.get(b).get();
+                for (int k=from; k<from+totals.size(); k++) {
+                    final int i = limitIndexes.get(k);
+                    final long total = totals.get(k - from);
+                    final Window w = synced.get(k);
+                    w.total = total;
+                    if (added.get(k) > 0 && total >= limits[i]) w.blockedUntil = Math.max(w.blockedUntil, now + blocks[i]);
+                }
+            } catch (RuntimeException e) {
+                for (int k=from; k<Math.min(keys.size(), from + SYNC_BATCH); k++) synced.get(k).pending.addAndGet(added.get(k));
+                if (e instanceof JedisDataException && String.valueOf(e.getMessage()).startsWith("NOSCRIPT")) {
+                    syncScriptSha = null; // redis restarted or flushed its scripts, load it again
+                }
+                error = e;
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    private String syncScriptSha() {
+        if (syncScriptSha == null) {
+            syncScriptSha = redis.loadScript(stream2string(getPackagePath(LocalRateLimiter.class)+"/"+SYNC_SCRIPT));
+        }
+        return syncScriptSha;
+    }
+
+}
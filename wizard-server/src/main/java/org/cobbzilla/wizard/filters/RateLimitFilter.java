@@ -102,13 +102,25 @@ public abstract class RateLimitFilter implements ContainerRequestFilter {
         }).flatMap(Arrays::stream).collect(Collectors.toList());
     }
 
+    @Getter(lazy=true) private final LocalRateLimiter localLimiter = initLocalLimiter();
+    private LocalRateLimiter initLocalLimiter() {
+        if (configuration.getRateLimitMode() != RateLimitMode.local || empty(getLimits())) return null;
+        return new LocalRateLimiter(getCache(), getLimits(), configuration.getRateLimitNodes(), configuration.getRateLimitSyncMillis());
+    }
+
+    // in local mode, requests for which this returns true are still checked in redis, e.g. login attempts
+    protected boolean requireStrictCheck(ContainerRequestContext request) { return false; }
+
     @Override public void filter(@Context ContainerRequestContext request) {
 
         if (getLimitsAsStrings() == null) return; // noop
 
         final List<String> keys = getKeys(request);
         if (keys == null || keys.isEmpty()) return; // noop
-        final Long i = (Long) getCache().eval(getScriptSha(), keys, getLimitsAsStrings());
+        final LocalRateLimiter localLimiter = getLocalLimiter();
+        final Long i = localLimiter != null && !requireStrictCheck(request)
+                ? localLimiter.check(keys.get(0))
+                : (Long) getCache().eval(getScriptSha(), keys, getLimitsAsStrings());
         if (i != null) {
             final List<ApiRateLimit> limits = getLimits();
             if (i < 0 || i >= limits.size()) {
@@ -0,0 +1,20 @@
+package org.cobbzilla.wizard.filters;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * How RateLimitFilter checks requests against the ApiRateLimits.
+ * <ul>
+ *     <li>strict: every request runs the limiter script in Redis, so limits are exact across all nodes (the default)</li>
+ *     <li>local: each node checks requests against counters in memory, allowing up to its share of each limit
+ *     (limit / rateLimitNodes), and adds its counts to the same Redis counters in the background. Limits can be
+ *     exceeded by up to one sync interval's worth of requests, in exchange for no Redis round trip per request</li>
+ * </ul>
+ */
+public enum RateLimitMode {
+
+    strict, local;
+
+    @JsonCreator public static RateLimitMode fromString(String val) { return valueOf(val.toLowerCase()); }
+
+}
@@ -0,0 +1,228 @@
+package org.cobbzilla.wizard.ldap;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.*;
+import com.unboundid.ldap.sdk.controls.ServerSideSortRequestControl;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.unboundid.ldap.sdk.controls.SortKey;
+import com.unboundid.ldap.sdk.extensions.PasswordModifyExtendedRequest;
+import com.unboundid.ldif.LDIFChangeRecord;
+import com.unboundid.ldif.LDIFReader;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.collection.NameAndValue;
+import org.cobbzilla.util.system.CommandResult;
+import org.cobbzilla.wizard.model.ldap.LdapBindException;
+import org.cobbzilla.wizard.model.search.SearchQuery;
+import org.cobbzilla.wizard.model.search.SortOrder;
+import org.cobbzilla.wizard.server.config.LdapConfiguration;
+
+import javax.net.ssl.SSLContext;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
+
+/**
+ * An LdapService that talks to the directory over a pool of persistent connections (UnboundID LDAP SDK), instead of
+ * running ldapsearch/ldapadd/ldapmodify/ldapdelete for each operation. Pooled connections are bound as the admin DN;
+ * searches as another user bind a pooled connection as that user, and bind it back as the admin when it is returned.
+ * Searches use the simple paged results control, getPage_size entries per page.
+ *
+ * Searches still return LDIF, to keep the LdapService interface. AbstractLdapDAO uses rootsearchEntries instead when
+ * its service extends this class, and maps the entries' attributes without going through LDIF text.
+ */
+@Slf4j
+public abstract class NativeLdapServiceBase extends LdapServiceBase {
+
+    // multiFromLdif skips a leading comment, the same way it skips the header that ldapsearch writes
+    public static final String LDIF_HEADER = "# " + NativeLdapServiceBase.class.getSimpleName() + "\n";
+
+    public static final int DEFAULT_PORT = 389;
+    public static final int DEFAULT_SSL_PORT = 636;
+
+    protected int getInitialConnections() { return 2; }
+    protected long getMaxConnectionAge() { return TimeUnit.MINUTES.toMillis(30); }
+
+    @Getter(lazy=true, value=AccessLevel.PROTECTED) private final LDAPConnectionPool pool = initPool();
+    private LDAPConnectionPool initPool() {
+        final LdapConfiguration config = getConfiguration();
+        try {
+            final boolean ssl = config.getTransport().equals("ssl") || "ldaps".equalsIgnoreCase(config.getScheme());
+            final boolean startTls = config.getTransport().equals("tls");
+            final int port = config.getPort() > 0 ? config.getPort() : ssl ? DEFAULT_SSL_PORT : DEFAULT_PORT;
+            final ServerSet servers = ssl
+                    ? new SingleServerSet(config.getHost(), port, SSLContext.getDefault().getSocketFactory())
+                    : new SingleServerSet(config.getHost(), port);
+            final PostConnectProcessor postConnect = startTls ? new StartTLSPostConnectProcessor(SSLContext.getDefault()) : null;
+
+            final LDAPConnectionPool pool = new LDAPConnectionPool(servers, new SimpleBindRequest(adminDN(), config.getPassword()),
+                                                                   getInitialConnections(), config.getPool_size(), postConnect);
+            pool.setConnectionPoolName(getClass().getSimpleName());
+            pool.setMaxConnectionAgeMillis(getMaxConnectionAge());
+            pool.setRetryFailedOperationsDueToInvalidConnections(true);
+            return pool;
+
+        } catch (Exception e) {
+            return die("initPool: " + e, e);
+        }
+    }
+
+    public List<SearchResultEntry> rootsearchEntries(String dn) { return rootsearchEntries(dnQuery(dn)); }
+
+    public List<SearchResultEntry> rootsearchEntries(SearchQuery page) {
+        LDAPConnection conn = null;
+        LDAPException failure = null;
+        try {
+            conn = getPool().getConnection();
+            return search(conn, page);
+        } catch (LDAPException e) {
+            failure = e;
+            return die("rootsearch: " + e, e);
+        } finally {
+            if (conn != null) {
+                if (failure != null) getPool().releaseConnectionAfterException(conn, failure);
+                else getPool().releaseConnection(conn);
+            }
+        }
+    }
+
+    public List<SearchResultEntry> searchEntries(String userDn, String password, SearchQuery page) {
+        LDAPConnection conn = null;
+        try {
+            conn = getPool().getConnection();
+            try {
+                conn.bind(userDn, password);
+            } catch (LDAPException e) {
+                if (e.getResultCode() == ResultCode.INVALID_CREDENTIALS || e.getResultCode() == ResultCode.NO_SUCH_OBJECT) {
+                    throw new LdapBindException(userDn);
+                }
+                throw e;
+            }
+            return search(conn, page);
+
+        } catch (LDAPException e) {
+            return die("ldapsearch: " + e, e);
+        } finally {
+            // binds the connection back as the admin, or closes it if that fails
+            if (conn != null) getPool().releaseAndReAuthenticateConnection(conn);
+        }
+    }
+
+    @Override public String ldapsearch(String userDn, String password, SearchQuery page) {
+        return toLdif(searchEntries(userDn, password, page));
+    }
+
+    @Override public String rootsearch(SearchQuery page) { return toLdif(rootsearchEntries(page)); }
+
+    private SearchQuery dnQuery(String dn) { return new SearchQuery().setBound(BOUND_DN, dn); }
+
+    private List<SearchResultEntry> search(LDAPConnection conn, SearchQuery page) throws LDAPException {
+        final Map<String, String> bounds = NameAndValue.toMap(page.getBounds());
+        final String dn = bounds == null ? null : bounds.remove(BOUND_DN);
+        final String base = bounds == null ? null : bounds.remove(BOUND_BASE);
+        final String filter = page.getFilter();
+
+        if (!empty(dn)) {
+            if (!empty(bounds)) die("ldapsearch: if bound '"+BOUND_DN+"' is set, no other bounds may be set");
+            try {
+                final SearchResultEntry entry = conn.searchForEntry(new SearchRequest(dn, SearchScope.BASE, Filter.createPresenceFilter("objectClass")));
+                return entry == null ? Collections.<SearchResultEntry>emptyList() : Collections.singletonList(entry);
+            } catch (LDAPSearchException e) {
+                if (e.getResultCode() == ResultCode.NO_SUCH_OBJECT) return Collections.emptyList();
+                throw e;
+            }
+        }
+
+        final String searchBase = base != null ? base : getConfiguration().getBase_dn();
+        final String searchFilter = !empty(filter) || !empty(bounds) ? ldapFilter(base, filter, bounds) : "(objectClass=*)";
+        final SearchRequest request = new SearchRequest(searchBase, SearchScope.SUB, searchFilter);
+        Control sortControl = null;
+        if (page.hasSorts()) {
+            if (page.getSorts().length > 1) log.warn("ldapsearch: only one sort order is supported");
+            final SortOrder sortOrder = page.getSorts()[0].getSortOrder();
+            // critical: a server that cannot sort must fail the search, not return the entries in another order
+            sortControl = new ServerSideSortRequestControl(true, new SortKey(page.getSorts()[0].getSortField(), sortOrder == SortOrder.DESC));
+        }
+
+        final List<SearchResultEntry> entries = new ArrayList<>();
+        final int pageSize = getConfiguration().getPage_size();
+        ASN1OctetString cookie = null;
+        do {
+            final SimplePagedResultsControl paged = new SimplePagedResultsControl(pageSize, cookie);
+            request.setControls(sortControl == null ? new Control[] {paged} : new Control[] {sortControl, paged});
+            final SearchResult result = conn.search(request);
+            entries.addAll(result.getSearchEntries());
+
+            final SimplePagedResultsControl response = SimplePagedResultsControl.get(result);
+            cookie = response != null && response.moreResultsToReturn() ? response.getCookie() : null;
+        } while (cookie != null);
+        return entries;
+    }
+
+    private String toLdif(List<SearchResultEntry> entries) {
+        final StringBuilder b = new StringBuilder(LDIF_HEADER);
+        for (SearchResultEntry entry : entries) b.append("\n").append(entry.toLDIFString());
+        return b.toString();
+    }
+
+    @Override public CommandResult ldapadd(String ldif) { return applyLdif(ldif, true); }
+
+    @Override public CommandResult ldapmodify(String ldif) { return applyLdif(ldif, false); }
+
+    private CommandResult applyLdif(String ldif, boolean defaultAdd) {
+        final StringBuilder out = new StringBuilder();
+        try (LDIFReader reader = new LDIFReader(new BufferedReader(new StringReader(ldif)))) {
+            LDIFChangeRecord change;
+            while ((change = reader.readChangeRecord(defaultAdd)) != null) {
+                final LDAPResult result = change.processChange(getPool());
+                out.append(change.getChangeType()).append(" \"").append(change.getDN()).append("\": ")
+                        .append(result.getResultCode()).append("\n");
+            }
+        } catch (Exception e) {
+            return die("applyLdif: " + e, e);
+        }
+        return okResult(out.toString());
+    }
+
+    @Override public CommandResult ldapdelete(String dn) {
+        try {
+            return okResult(getPool().delete(dn).getResultCode().toString());
+        } catch (LDAPException e) {
+            return die("ldapdelete: " + e, e);
+        }
+    }
+
+    @Override public void changePassword(String accountName, String oldPassword, String newPassword) {
+        passwordModify(new PasswordModifyExtendedRequest(accountDN(accountName), oldPassword, newPassword));
+    }
+
+    @Override public void adminChangePassword(String accountName, String newPassword) {
+        passwordModify(new PasswordModifyExtendedRequest(accountDN(accountName), null, newPassword));
+    }
+
+    private void passwordModify(PasswordModifyExtendedRequest request) {
+        try {
+            final ExtendedResult result = getPool().processExtendedOperation(request);
+            if (result.getResultCode() != ResultCode.SUCCESS) die("passwordModify: " + result);
+        } catch (LDAPException e) {
+            die("passwordModify: " + e, e);
+        }
+    }
+
+    // operations die when they fail, so anything that returns is ok
+    private static CommandResult okResult(String stdout) {
+        final CommandResult result = new CommandResult();
+        result.setExitStatus(0);
+        result.setStdout(stdout);
+        return result;
+    }
+
+}
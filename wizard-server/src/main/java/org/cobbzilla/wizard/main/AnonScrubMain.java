@@ -19,7 +19,13 @@ public class AnonScrubMain<OPT extends AnonScrubOptions> extends BaseMain<OPT> {
             out(json(tables));
 
         } else {
-            final AnonScrubber scrubber = new AnonScrubber().setTables(tables);
+            final AnonScrubber scrubber = new AnonScrubber()
+                    .setTables(tables)
+                    .setParallelTables(options.getParallelTables())
+                    .setWorkers(options.getWorkers())
+                    .setChunkSize(options.getChunkSize())
+                    .setBatchSize(options.getBatchSize())
+                    .setCheckpointFile(options.getCheckpoint());
             scrubber.anonymize(options.getDatabaseReadConfiguration(),
                     options.getDatabaseWriteConfiguration(),
                     options.isIgnoreUnknown());
@@ -3,6 +3,7 @@ package org.cobbzilla.wizard.main;
 import lombok.Getter;
 import lombok.Setter;
 import org.cobbzilla.util.string.StringUtil;
+import org.cobbzilla.wizard.model.anon.AnonScrubber;
 import org.cobbzilla.wizard.model.anon.AnonTable;
 import org.cobbzilla.wizard.model.anonymize.AnonymizeConfig;
 import org.kohsuke.args4j.Option;
@@ -93,4 +94,34 @@ public abstract class AnonScrubOptions extends DbMainOptions {
     @Option(name=OPT_NO_XFORM, aliases=LONGOPT_NO_XFORM, usage=USAGE_NO_XFORM)
     @Getter @Setter private boolean noTransform = false;
 
+    public static final String USAGE_PARALLEL_TABLES = "Scrub up to this many tables at the same time. Default is "+AnonScrubber.DEFAULT_PARALLEL_TABLES;
+    public static final String OPT_PARALLEL_TABLES = "-P";
+    public static final String LONGOPT_PARALLEL_TABLES= "--parallel-tables";
+    @Option(name=OPT_PARALLEL_TABLES, aliases=LONGOPT_PARALLEL_TABLES, usage=USAGE_PARALLEL_TABLES)
+    @Getter @Setter private int parallelTables = AnonScrubber.DEFAULT_PARALLEL_TABLES;
+
+    public static final String USAGE_WORKERS = "Number of threads that transform rows, shared by all tables. Default is the number of CPUs";
+    public static final String OPT_WORKERS = "-W";
+    public static final String LONGOPT_WORKERS= "--workers";
+    @Option(name=OPT_WORKERS, aliases=LONGOPT_WORKERS, usage=USAGE_WORKERS)
+    @Getter @Setter private int workers = Runtime.getRuntime().availableProcessors();
+
+    public static final String USAGE_CHUNK_SIZE = "Rows read, scrubbed and committed at a time. Default is "+AnonScrubber.DEFAULT_CHUNK_SIZE;
+    public static final String OPT_CHUNK_SIZE = "-k";
+    public static final String LONGOPT_CHUNK_SIZE= "--chunk-size";
+    @Option(name=OPT_CHUNK_SIZE, aliases=LONGOPT_CHUNK_SIZE, usage=USAGE_CHUNK_SIZE)
+    @Getter @Setter private int chunkSize = AnonScrubber.DEFAULT_CHUNK_SIZE;
+
+    public static final String USAGE_BATCH_SIZE = "Rows per JDBC update batch. Default is "+AnonScrubber.DEFAULT_BATCH_SIZE;
+    public static final String OPT_BATCH_SIZE = "-b";
+    public static final String LONGOPT_BATCH_SIZE= "--batch-size";
+    @Option(name=OPT_BATCH_SIZE, aliases=LONGOPT_BATCH_SIZE, usage=USAGE_BATCH_SIZE)
+    @Getter @Setter private int batchSize = AnonScrubber.DEFAULT_BATCH_SIZE;
+
+    public static final String USAGE_CHECKPOINT = "Checkpoint file. Progress is saved here after every chunk, and an interrupted run started again with the same file resumes where it stopped";
+    public static final String OPT_CHECKPOINT = "-K";
+    public static final String LONGOPT_CHECKPOINT= "--checkpoint";
+    @Option(name=OPT_CHECKPOINT, aliases=LONGOPT_CHECKPOINT, usage=USAGE_CHECKPOINT)
+    @Getter @Setter private File checkpoint = null;
+
 }
@@ -2,16 +2,22 @@ package org.cobbzilla.wizard.main;
 
 import lombok.Cleanup;
 import org.cobbzilla.util.main.BaseMain;
+import org.cobbzilla.wizard.util.PgCopy;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.util.Map;
 
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.io.FileUtil.abs;
 
 public class CsvDumpMain<OPT extends CsvDumpOptions> extends BaseMain<OPT> {
 
     private static final String SUBST_TABLES = "@@TABLES@@";
 
+    // same delimiter as the server-side dump, so both write the same files
+    public static final char CSV_DELIMITER = ';';
+
     // adapted from: https://stackoverflow.com/a/37210706/1251543
     public static final String CSV_DUMP_FUNCTION
             = "CREATE OR REPLACE FUNCTION db_to_csv(path TEXT) RETURNS void AS $$\n" +
@@ -37,7 +43,24 @@ public class CsvDumpMain<OPT extends CsvDumpOptions> extends BaseMain<OPT> {
 
     @Override protected void run() throws Exception {
         final OPT options = getOptions();
+        if (options.isServerSide()) {
+            if (options.isImportData()) die("run: "+CsvDumpOptions.OPT_IMPORT+" cannot be used with "+CsvDumpOptions.OPT_SERVER_SIDE);
+            serverSideDump(options);
+            return;
+        }
+
+        final PgCopy copy = new PgCopy(options.getDatabase())
+                .setThreads(options.getThreads())
+                .setGzip(!options.isNoGzip())
+                .setDelimiter(CSV_DELIMITER)
+                .setDisableTriggers(options.isDisableTriggers());
+        final Map<String, Long> counts = options.isImportData()
+                ? copy.importTables(options.getOutputDir(), options.getTableList())
+                : copy.exportTables(options.getOutputDir(), options.getTableList());
+        for (Map.Entry<String, Long> count : counts.entrySet()) out(count.getKey()+"\t"+count.getValue());
+    }
 
+    protected void serverSideDump(OPT options) throws Exception {
         final String tableClause = options.hasTables() ? " AND t.table_name IN (" + options.getTableValues() + ")" : "";
         final String funcSql = CSV_DUMP_FUNCTION.replace(SUBST_TABLES, tableClause);
         @Cleanup final Connection c = options.getDatabaseConfiguration().getDatabase().getConnection();
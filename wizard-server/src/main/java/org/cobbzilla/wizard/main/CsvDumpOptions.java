@@ -3,6 +3,7 @@ package org.cobbzilla.wizard.main;
 import lombok.Getter;
 import lombok.Setter;
 import org.cobbzilla.util.string.StringUtil;
+import org.cobbzilla.wizard.util.PgCopy;
 import org.kohsuke.args4j.Option;
 
 import java.io.File;
@@ -17,12 +18,42 @@ public abstract class CsvDumpOptions extends DbMainOptions {
     @Option(name=OPT_OUTPUT_DIR, aliases=LONGOPT_OUTPUT_DIR, usage=USAGE_OUTPUT_DIR)
     @Getter @Setter private File outputDir = new File(System.getProperty("user.dir"));
 
-    public static final String USAGE_TABLES = "Output directory. Default is current directory";
-    public static final String OPT_TABLES = "-o";
-    public static final String LONGOPT_TABLES= "--output-dir";
+    public static final String USAGE_TABLES = "Comma-separated list of tables. Default is all tables";
+    public static final String OPT_TABLES = "-t";
+    public static final String LONGOPT_TABLES= "--tables";
     @Option(name=OPT_TABLES, aliases=LONGOPT_TABLES, usage=USAGE_TABLES)
     @Getter @Setter private String tables;
 
+    public static final String USAGE_SERVER_SIDE = "Have the database server write the files, with COPY to a server path. The output dir must be on the database host. Default is to stream the data here with COPY TO STDOUT";
+    public static final String OPT_SERVER_SIDE = "-S";
+    public static final String LONGOPT_SERVER_SIDE= "--server-side";
+    @Option(name=OPT_SERVER_SIDE, aliases=LONGOPT_SERVER_SIDE, usage=USAGE_SERVER_SIDE)
+    @Getter @Setter private boolean serverSide = false;
+
+    public static final String USAGE_IMPORT = "Load tables from the CSV files in the output dir, instead of dumping them";
+    public static final String OPT_IMPORT = "-i";
+    public static final String LONGOPT_IMPORT= "--import";
+    @Option(name=OPT_IMPORT, aliases=LONGOPT_IMPORT, usage=USAGE_IMPORT)
+    @Getter @Setter private boolean importData = false;
+
+    public static final String USAGE_THREADS = "How many tables to copy at once. Default is "+PgCopy.DEFAULT_THREADS;
+    public static final String OPT_THREADS = "-j";
+    public static final String LONGOPT_THREADS= "--threads";
+    @Option(name=OPT_THREADS, aliases=LONGOPT_THREADS, usage=USAGE_THREADS)
+    @Getter @Setter private int threads = PgCopy.DEFAULT_THREADS;
+
+    public static final String USAGE_NO_GZIP = "Write (or read) plain .csv files. Default is gzipped .csv.gz files";
+    public static final String OPT_NO_GZIP = "-Z";
+    public static final String LONGOPT_NO_GZIP= "--no-gzip";
+    @Option(name=OPT_NO_GZIP, aliases=LONGOPT_NO_GZIP, usage=USAGE_NO_GZIP)
+    @Getter @Setter private boolean noGzip = false;
+
+    public static final String USAGE_DISABLE_TRIGGERS = "When importing, disable triggers and foreign key checks, so tables can load in parallel. Requires a superuser";
+    public static final String OPT_DISABLE_TRIGGERS = "-T";
+    public static final String LONGOPT_DISABLE_TRIGGERS= "--disable-triggers";
+    @Option(name=OPT_DISABLE_TRIGGERS, aliases=LONGOPT_DISABLE_TRIGGERS, usage=USAGE_DISABLE_TRIGGERS)
+    @Getter @Setter private boolean disableTriggers = false;
+
     public boolean hasTables () { return !empty(tables); }
 
     public String getTableValues() {
@@ -34,4 +65,6 @@ public abstract class CsvDumpOptions extends DbMainOptions {
         return b.toString();
     }
 
+    public String[] getTableList() { return hasTables() ? StringUtil.split(tables, ", ").toArray(new String[0]) : null; }
+
 }
@@ -0,0 +1,60 @@
+package org.cobbzilla.wizard.main;
+
+import org.cobbzilla.util.main.BaseMain;
+import org.cobbzilla.wizard.dao.shard.hash.Sha256ShardHasher;
+import org.cobbzilla.wizard.dao.shard.hash.ShardHasher;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reports how ids would move if a shard set switched from one ShardHasher to another, and optionally verifies that
+ * the sha256 hasher still routes ids exactly like the original implementation.
+ */
+public class ShardHashMain extends BaseMain<ShardHashOptions> {
+
+    public static void main (String[] args) { main(ShardHashMain.class, args); }
+
+    @Override protected void run() throws Exception {
+        final ShardHashOptions options = getOptions();
+        final ShardHasher from = options.getFrom().getHasher();
+        final ShardHasher to = options.getTo().getHasher();
+        final int logicalShards = options.getLogicalShards();
+        final int physicalShards = Math.max(1, options.getPhysicalShards());
+        final int rangeSize = (int) Math.ceil((double) logicalShards / physicalShards);
+
+        long total = 0, movedLogical = 0, movedPhysical = 0, mismatches = 0;
+        try (BufferedReader reader = new BufferedReader(options.getInfile() == null
+                ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                : new InputStreamReader(new FileInputStream(options.getInfile()), StandardCharsets.UTF_8))) {
+            String id;
+            while ((id = reader.readLine()) != null) {
+                id = id.trim();
+                if (id.isEmpty()) continue;
+                total++;
+                final int oldShard = from.logicalShard(id, logicalShards);
+                final int newShard = to.logicalShard(id, logicalShards);
+                if (oldShard != newShard) {
+                    movedLogical++;
+                    if (options.isVerbose()) out(id+"\t"+oldShard+"\t"+newShard);
+                }
+                if (oldShard / rangeSize != newShard / rangeSize) movedPhysical++;
+                if (options.isVerify()) {
+                    final int legacy = Sha256ShardHasher.legacyLogicalShard(id, logicalShards);
+                    if (legacy != new Sha256ShardHasher().logicalShard(id, logicalShards)) {
+                        mismatches++;
+                        err("MISMATCH: "+id+" legacy="+legacy);
+                    }
+                }
+            }
+        }
+
+        out("keys: "+total);
+        out("moved logical shard ("+options.getFrom()+" -> "+options.getTo()+"): "+movedLogical+" ("+pct(movedLogical, total)+")");
+        out("moved physical shard ("+physicalShards+" shards): "+movedPhysical+" ("+pct(movedPhysical, total)+")");
+        if (options.isVerify()) out("sha256 verification: "+(mismatches == 0 ? "OK" : mismatches+" MISMATCHES"));
+    }
+
+    private String pct(long n, long total) { return total == 0 ? "0%" : String.format("%.2f%%", 100.0d * n / total); }
+
+}
@@ -0,0 +1,57 @@
+package org.cobbzilla.wizard.main;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.cobbzilla.util.main.BaseMainOptions;
+import org.cobbzilla.wizard.dao.shard.hash.ShardHashType;
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
+
+import static org.cobbzilla.wizard.server.config.ShardSetConfiguration.DEFAULT_LOGICAL_SHARDS;
+
+public class ShardHashOptions extends BaseMainOptions {
+
+    public static final String USAGE_FROM = "Current hash type. Default is sha256";
+    public static final String OPT_FROM = "-f";
+    public static final String LONGOPT_FROM= "--from";
+    @Option(name=OPT_FROM, aliases=LONGOPT_FROM, usage=USAGE_FROM)
+    @Getter @Setter private ShardHashType from = ShardHashType.sha256;
+
+    public static final String USAGE_TO = "New hash type. Default is murmur3";
+    public static final String OPT_TO = "-t";
+    public static final String LONGOPT_TO= "--to";
+    @Option(name=OPT_TO, aliases=LONGOPT_TO, usage=USAGE_TO)
+    @Getter @Setter private ShardHashType to = ShardHashType.murmur3;
+
+    public static final String USAGE_LOGICAL_SHARDS = "Number of logical shards. Default is "+DEFAULT_LOGICAL_SHARDS;
+    public static final String OPT_LOGICAL_SHARDS = "-n";
+    public static final String LONGOPT_LOGICAL_SHARDS= "--logical-shards";
+    @Option(name=OPT_LOGICAL_SHARDS, aliases=LONGOPT_LOGICAL_SHARDS, usage=USAGE_LOGICAL_SHARDS)
+    @Getter @Setter private int logicalShards = DEFAULT_LOGICAL_SHARDS;
+
+    public static final String USAGE_PHYSICAL_SHARDS = "Number of physical shards, each holding an equal range of logical shards. Used to report how many keys would change database. Default is 1";
+    public static final String OPT_PHYSICAL_SHARDS = "-s";
+    public static final String LONGOPT_PHYSICAL_SHARDS= "--physical-shards";
+    @Option(name=OPT_PHYSICAL_SHARDS, aliases=LONGOPT_PHYSICAL_SHARDS, usage=USAGE_PHYSICAL_SHARDS)
+    @Getter @Setter private int physicalShards = 1;
+
+    public static final String USAGE_INFILE = "File with one id per line. Default is stdin";
+    public static final String OPT_INFILE = "-i";
+    public static final String LONGOPT_INFILE= "--infile";
+    @Option(name=OPT_INFILE, aliases=LONGOPT_INFILE, usage=USAGE_INFILE)
+    @Getter @Setter private File infile;
+
+    public static final String USAGE_VERBOSE = "Print every key that moves, with its old and new logical shard";
+    public static final String OPT_VERBOSE = "-v";
+    public static final String LONGOPT_VERBOSE= "--verbose";
+    @Option(name=OPT_VERBOSE, aliases=LONGOPT_VERBOSE, usage=USAGE_VERBOSE)
+    @Getter @Setter private boolean verbose = false;
+
+    public static final String USAGE_VERIFY = "Also check that the sha256 hasher routes every key exactly like the original sha256 hex implementation";
+    public static final String OPT_VERIFY = "-V";
+    public static final String LONGOPT_VERIFY= "--verify";
+    @Option(name=OPT_VERIFY, aliases=LONGOPT_VERIFY, usage=USAGE_VERIFY)
+    @Getter @Setter private boolean verify = false;
+
+}
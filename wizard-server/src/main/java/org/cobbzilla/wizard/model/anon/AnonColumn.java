@@ -44,11 +44,30 @@ public class AnonColumn {
                          HibernatePBEStringEncryptor decryptor,
                          HibernatePBEStringEncryptor encryptor,
                          int index, Object val) throws Exception {
-        String value = (val == null) ? null : val.toString();
+        setParam(ps, index, transform(decryptor, encryptor, val));
+    }
+
+    public static void setParam(PreparedStatement ps, int index, Object value) throws Exception {
         if (value == null) {
             ps.setNull(index, Types.VARCHAR);
-            return;
+        } else if (value instanceof Long) {
+            ps.setLong(index, (Long) value);
+        } else if (value instanceof Integer) {
+            ps.setInt(index, (Integer) value);
+        } else {
+            ps.setString(index, value.toString());
         }
+    }
+
+    /**
+     * @return the scrubbed value of the column, ready to bind: null, a Long or Integer when the original value was
+     * one, otherwise a String. Does not touch the database, so rows can be transformed on any thread.
+     */
+    public Object transform(HibernatePBEStringEncryptor decryptor,
+                            HibernatePBEStringEncryptor encryptor,
+                            Object val) throws Exception {
+        String value = (val == null) ? null : val.toString();
+        if (value == null) return null;
 
         if (encrypted) {
             try {
@@ -82,13 +101,13 @@ public class AnonColumn {
         if (encrypted && value != null) value = encryptor.encrypt(value);
 
         if (value == null) {
-            ps.setNull(index, Types.VARCHAR);
+            return null;
         } else if (val instanceof Long){
-            ps.setLong(index, Long.parseLong(value));
+            return Long.parseLong(value);
         } else if (val instanceof Integer){
-            ps.setInt(index, Integer.parseInt(value));
+            return Integer.parseInt(value);
         } else {
-            ps.setString(index, value);
+            return value;
         }
     }
 
@@ -10,24 +10,49 @@ import org.cobbzilla.util.jdbc.ResultSetBean;
 import org.cobbzilla.wizard.server.config.HasDatabaseConfiguration;
 import org.jasypt.hibernate4.encryptor.HibernatePBEStringEncryptor;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
-import static org.cobbzilla.util.daemon.ZillaRuntime.die;
-import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
-import static org.cobbzilla.util.jdbc.ResultSetBean.row2map;
-import static org.cobbzilla.wizard.model.Identifiable.UUID;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.cobbzilla.util.daemon.DaemonThreadFactory.fixedPool;
+import static org.cobbzilla.util.daemon.ZillaRuntime.*;
+import static org.cobbzilla.util.io.FileUtil.abs;
+import static org.cobbzilla.util.io.FileUtil.toFileOrDie;
+import static org.cobbzilla.util.io.FileUtil.toStringOrDie;
+import static org.cobbzilla.util.json.JsonUtil.json;
+import static org.cobbzilla.util.time.TimeUtil.formatDurationFrom;
 import static org.cobbzilla.wizard.model.ModelCryptUtil.getCryptor;
 
+/**
+ * Scrubs tables in place. Tables are scrubbed in parallel, up to parallelTables at a time, each on its own
+ * connection. A table is read in chunks of chunkSize rows in id order, the rows of a chunk are transformed on a
+ * shared pool of worker threads, and written back with one batched UPDATE statement. Each chunk is committed
+ * on its own, and when a checkpointFile is set, the id of its last row is saved there, so a later run with the
+ * same file resumes where this one stopped.
+ */
 @Accessors(chain=true) @Slf4j
 public class AnonScrubber {
 
+    public static final int DEFAULT_PARALLEL_TABLES = 4;
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    public static final int MAX_FETCH_SIZE = 1000;
+
     @Getter @Setter private List<AnonTable> tables;
+    @Getter @Setter private int parallelTables = DEFAULT_PARALLEL_TABLES;
+    @Getter @Setter private int chunkSize = DEFAULT_CHUNK_SIZE;
+    @Getter @Setter private int batchSize = DEFAULT_BATCH_SIZE;
+    @Getter @Setter private int workers = Runtime.getRuntime().availableProcessors();
+    @Getter @Setter private File checkpointFile;
+
+    @Getter private final Map<String, AnonTableProgress> progress = new ConcurrentHashMap<>();
 
     public void anonymize(HasDatabaseConfiguration readConfig,
                           HasDatabaseConfiguration writeConfig,
@@ -36,73 +61,207 @@ public class AnonScrubber {
         final HibernatePBEStringEncryptor decryptor = getCryptor(readConfig);
         final HibernatePBEStringEncryptor encryptor = getCryptor(writeConfig);
 
+        loadCheckpoint();
+        final ExecutorService tablePool = fixedPool(Math.max(1, parallelTables), "AnonScrubber.tables");
+        final ExecutorService workerPool = fixedPool(Math.max(1, workers), "AnonScrubber.workers");
+        final AtomicReference<Exception> failure = new AtomicReference<>();
         try {
-            @Cleanup final Connection connection = readConfig.getDatabase().getConnection();
+            final List<Future<?>> futures = new ArrayList<>();
             for (AnonTable table : tables) {
-                log.info("anonymize: "+table);
-                if (table.isTruncate()) {
-                    @Cleanup final PreparedStatement s = connection.prepareStatement(table.sqlUpdate());
-                    s.execute();
-
-                } else {
-                    if (ignoreUnknown) {
-                        // In order to know which columns to ignore, we need to know all columns that currently exist
-
-                        // Find all columns in the DB
-                        final String tableName = table.getTable();
-                        @Cleanup final PreparedStatement s = connection.prepareStatement("select * from "+ tableName);
-                        s.setMaxRows(1);
+                futures.add(tablePool.submit(() -> {
+                    if (failure.get() != null) return;
+                    try {
+                        scrubTable(table, readConfig, decryptor, encryptor, ignoreUnknown, workerPool, failure);
+                    } catch (Exception e) {
+                        log.error("anonymize: error scrubbing "+table+": "+e);
+                        failure.compareAndSet(null, e);
+                    }
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+
+        } catch (Exception e) {
+            die("anonymize: error scrubbing: "+e, e);
+
+        } finally {
+            tablePool.shutdownNow();
+            workerPool.shutdownNow();
+        }
+        if (failure.get() != null) die("anonymize: error scrubbing: "+failure.get(), failure.get());
+    }
+
+    private void scrubTable(AnonTable table,
+                            HasDatabaseConfiguration config,
+                            HibernatePBEStringEncryptor decryptor,
+                            HibernatePBEStringEncryptor encryptor,
+                            boolean ignoreUnknown,
+                            ExecutorService workerPool,
+                            AtomicReference<Exception> failure) throws Exception {
+
+        final AnonTableProgress p = progress.computeIfAbsent(table.getTable(), AnonTableProgress::new);
+        if (p.isDone()) {
+            log.info("scrubTable: "+table+" already done ("+p.getRows()+" rows), skipping");
+            return;
+        }
+        log.info("anonymize: "+table+(p.getLastId() != null ? " resuming after "+p.getLastId() : ""));
+
+        @Cleanup final Connection connection = config.getDatabase().getConnection();
+        if (table.isTruncate()) {
+            @Cleanup final PreparedStatement s = connection.prepareStatement(table.sqlUpdate());
+            s.execute();
+            record(p, null, 0, true);
+            return;
+        }
+        if (ignoreUnknown && !retainKnownColumns(connection, table)) return;
+        if (empty(table.getColumns())) {
+            log.warn("scrubTable: no columns to scrub in table " + table.getTable());
+            return;
+        }
+
+        // with autocommit off, the driver reads each chunk through a cursor
+        connection.setAutoCommit(false);
+        final AnonColumn[] columns = table.getColumns();
+        @Cleanup final PreparedStatement selectFirst = connection.prepareStatement(table.sqlSelectChunk(false));
+        @Cleanup final PreparedStatement selectNext = connection.prepareStatement(table.sqlSelectChunk(true));
+        @Cleanup final PreparedStatement update = connection.prepareStatement(table.sqlUpdate());
+        selectFirst.setFetchSize(Math.min(chunkSize, MAX_FETCH_SIZE));
+        selectNext.setFetchSize(Math.min(chunkSize, MAX_FETCH_SIZE));
+
+        final long start = now();
+        long rowsThisRun = 0;
+        Object lastId = p.getLastId();
+        while (failure.get() == null) {
+            final PreparedStatement select = lastId == null ? selectFirst : selectNext;
+            int param = 1;
+            if (lastId != null) select.setObject(param++, lastId);
+            select.setInt(param, chunkSize);
+
+            final List<Object[]> rows = new ArrayList<>(chunkSize);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    final Object[] row = new Object[columns.length + 1];
+                    for (int i=0; i<row.length; i++) row[i] = rs.getObject(i+1);
+                    rows.add(row);
+                }
+            }
+            if (rows.isEmpty()) break;
+
+            int pending = 0;
+            for (Object[] values : transform(table, rows, decryptor, encryptor, workerPool)) {
+                for (int i=0; i<columns.length; i++) AnonColumn.setParam(update, i+1, values[i]);
+                update.setObject(columns.length + 1, values[columns.length]);
+                update.addBatch();
+                if (++pending == batchSize) {
+                    checkBatch(table, update.executeBatch());
+                    pending = 0;
+                }
+            }
+            if (pending > 0) checkBatch(table, update.executeBatch());
+            connection.commit();
+
+            lastId = rows.get(rows.size()-1)[0];
+            rowsThisRun += rows.size();
+            record(p, lastId, rows.size(), false);
+            final long secs = Math.max(1, (now() - start) / 1000);
+            log.info("scrubTable: "+table+": "+p.getRows()+" rows scrubbed ("+(rowsThisRun/secs)+" rows/sec, "+formatDurationFrom(start)+")");
+
+            if (rows.size() < chunkSize) break;
+        }
+        if (failure.get() == null) record(p, lastId, 0, true);
+    }
+
+    // rows hold the id followed by the column values; the results hold the scrubbed column values followed by the id
+    private Object[][] transform(AnonTable table,
+                                 List<Object[]> rows,
+                                 HibernatePBEStringEncryptor decryptor,
+                                 HibernatePBEStringEncryptor encryptor,
+                                 ExecutorService workerPool) throws Exception {
+        final AnonColumn[] columns = table.getColumns();
+        final Object[][] scrubbed = new Object[rows.size()][];
+        final int slices = Math.max(1, Math.min(workers, rows.size()));
+        final int sliceSize = (rows.size() + slices - 1) / slices;
+        final List<Future<?>> futures = new ArrayList<>(slices);
+        for (int s=0; s<rows.size(); s += sliceSize) {
+            final int from = s;
+            final int to = Math.min(rows.size(), s + sliceSize);
+            futures.add(workerPool.submit(() -> {
+                for (int r=from; r<to; r++) {
+                    final Object[] row = rows.get(r);
+                    final Object[] values = new Object[columns.length + 1];
+                    for (int i=0; i<columns.length; i++) {
+                        final AnonColumn col = columns[i];
                         try {
-                            @Cleanup final ResultSet rs = s.executeQuery();
-                            final Set<String> dbColumns = new CaseInsensitiveStringSet(ResultSetBean.getColumns(rs.getMetaData()));
-                            if (empty(dbColumns)) die("no columns in table " + tableName);
-
-                            // Only keep columns that exist in the DB
-                            final Set<String> requestedColumns = new CaseInsensitiveStringSet(table.getColumnNames());
-                            requestedColumns.retainAll(dbColumns);
-                            table.retainColumns(requestedColumns);
-                            if (table.getColumns().length == 0) {
-                                log.warn("no valid columns to work with for table " + tableName);
-                                continue;
-                            }
+                            values[i] = col.transform(decryptor, encryptor, row[i+1]);
                         } catch (Exception e) {
-                            if (e.getMessage().contains("does not exist")) {
-                                log.warn("table does not exist, skipping: "+ tableName + ": "+e);
-                            } else {
-                                log.warn("error ascertaining columns from table " + tableName + ": " + e);
-                            }
-                            continue;
-                        }
-                    }
-                    @Cleanup final PreparedStatement s = connection.prepareStatement(table.sqlSelect());
-                    @Cleanup final ResultSet rs = s.executeQuery();
-                    final ResultSetMetaData rsMetaData = rs.getMetaData();
-                    final int numColumns = rsMetaData.getColumnCount();
-                    final AnonColumn[] columns = table.getColumns();
-                    while (rs.next()) {
-                        final Map<String, Object> row = row2map(rs, rsMetaData, numColumns);
-                        @Cleanup final PreparedStatement update = connection.prepareStatement(table.sqlUpdate());
-                        for (int i=0; i <columns.length; i++) {
-                            final AnonColumn col = columns[i];
-                            final Object value = row.get(col.getName());
-                            try {
-                                col.setParam(update, decryptor, encryptor, i + 1, value == null ? null : value);
-                            } catch (Exception e) {
-                                final String errColumn = table + "." + col;
-                                die("anonymize: error handling table.column: " + errColumn, e);
-                            }
-                        }
-                        update.setString(columns.length + 1, row.get(UUID).toString());
-                        if (update.executeUpdate() != 1) {
-                            die("anonymize: error updating");
+                            final String errColumn = table + "." + col;
+                            die("anonymize: error handling table.column: " + errColumn, e);
                         }
                     }
+                    values[columns.length] = row[0];
+                    scrubbed[r] = values;
                 }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        return scrubbed;
+    }
+
+    private void checkBatch(AnonTable table, int[] counts) {
+        for (int count : counts) {
+            if (count != 1 && count != Statement.SUCCESS_NO_INFO) die("anonymize: error updating "+table);
+        }
+    }
+
+    // In order to know which columns to ignore, we need to know all columns that currently exist
+    private boolean retainKnownColumns(Connection connection, AnonTable table) {
+        // Find all columns in the DB
+        final String tableName = table.getTable();
+        try {
+            @Cleanup final PreparedStatement s = connection.prepareStatement("select * from "+ tableName);
+            s.setMaxRows(1);
+            @Cleanup final ResultSet rs = s.executeQuery();
+            final Set<String> dbColumns = new CaseInsensitiveStringSet(ResultSetBean.getColumns(rs.getMetaData()));
+            if (empty(dbColumns)) die("no columns in table " + tableName);
+
+            // Only keep columns that exist in the DB
+            final Set<String> requestedColumns = new CaseInsensitiveStringSet(table.getColumnNames());
+            requestedColumns.retainAll(dbColumns);
+            table.retainColumns(requestedColumns);
+            if (table.getColumns().length == 0) {
+                log.warn("no valid columns to work with for table " + tableName);
+                return false;
             }
+            return true;
 
         } catch (Exception e) {
-            die("anonymize: error scrubbing: "+e, e);
+            if (String.valueOf(e.getMessage()).contains("does not exist")) {
+                log.warn("table does not exist, skipping: "+ tableName + ": "+e);
+            } else {
+                log.warn("error ascertaining columns from table " + tableName + ": " + e);
+            }
+            return false;
+        }
+    }
+
+    private void loadCheckpoint() {
+        if (checkpointFile == null || !checkpointFile.exists()) return;
+        for (AnonTableProgress p : json(toStringOrDie(checkpointFile), AnonTableProgress[].class)) {
+            progress.put(p.getTable(), p);
         }
+        log.info("loadCheckpoint: loaded progress of "+progress.size()+" tables from "+abs(checkpointFile));
+    }
+
+    private synchronized void record(AnonTableProgress p, Object lastId, int rows, boolean done) {
+        if (lastId != null) p.setLastId(lastId);
+        p.setRows(p.getRows() + rows).setDone(done).setMtime(now());
+        if (checkpointFile == null) return;
+        final List<AnonTableProgress> all = new ArrayList<>(progress.values());
+        all.sort(Comparator.comparing(AnonTableProgress::getTable));
+        // write then rename, so an interrupted write never leaves a truncated checkpoint
+        final File temp = new File(abs(checkpointFile) + ".tmp");
+        toFileOrDie(temp, json(all));
+        if (!temp.renameTo(checkpointFile)) die("record: error renaming "+abs(temp)+" -> "+abs(checkpointFile));
     }
 
 }
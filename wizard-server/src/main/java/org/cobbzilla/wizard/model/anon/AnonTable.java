@@ -43,6 +43,16 @@ public class AnonTable {
         return "SELECT "+ getId()+", " + b.toString() + " FROM " + table;
     }
 
+    /**
+     * @param after if true, the query has a parameter for the id to start after
+     * @return a query for the next chunk of rows in id order. The last parameter is the chunk size
+     */
+    public String sqlSelectChunk(boolean after) {
+        final String select = sqlSelect();
+        if (select == null) return null;
+        return select + (after ? " WHERE " + getId() + " > ?" : "") + " ORDER BY " + getId() + " LIMIT ?";
+    }
+
     public String sqlUpdate() {
         if (isTruncate()) {
             return "TRUNCATE TABLE "+table;
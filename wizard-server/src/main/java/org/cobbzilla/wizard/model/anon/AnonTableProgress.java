@@ -0,0 +1,24 @@
+package org.cobbzilla.wizard.model.anon;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * How far AnonScrubber has got with a table. Saved to the checkpoint file after every committed chunk, so an
+ * interrupted run can resume after the last row that was written.
+ */
+@NoArgsConstructor @Accessors(chain=true) @ToString
+public class AnonTableProgress {
+
+    @Getter @Setter private String table;
+    @Getter @Setter private Object lastId;
+    @Getter @Setter private long rows;
+    @Getter @Setter private boolean done;
+    @Getter @Setter private long mtime;
+
+    public AnonTableProgress(String table) { this.table = table; }
+
+}
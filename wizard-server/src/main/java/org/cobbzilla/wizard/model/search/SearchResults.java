@@ -48,6 +48,9 @@ public class SearchResults<E> implements Scrubbable {
     @Getter @Setter private List<E> results = new ArrayList<>();
     @Getter @Setter private Integer totalCount;
     @ECField(type=EntityFieldType.http_url) @Getter @Setter private String nextPage;
+    // pass as SearchQuery.cursor to fetch the page after this one, null if there is no next page
+    @Getter @Setter private String nextCursor;
+    @Getter @Setter private Boolean totalCountEstimated;
     @Getter @Setter private String error;
 
     public String getResultType() { return empty(results) ? null : results.get(0).getClass().getName(); }
@@ -76,6 +79,7 @@ public class SearchResults<E> implements Scrubbable {
     }
 
     public boolean hasNextPage(SearchQuery searchQuery) {
+        if (totalCount == null) return nextCursor != null;
         return getTotalCount() > searchQuery.getPageNumber() * searchQuery.getPageSize();
     }
 
@@ -6,6 +6,7 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.cobbzilla.util.collection.SingletonSet;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -32,6 +33,9 @@ public class DatabaseConfiguration {
     @JsonIgnore @Getter @Setter protected String encryptionKey;
     @Getter @Setter protected int encryptorPoolSize = 5;
 
+    // key for the blind index of encrypted search fields. When not set, the index key is derived from encryptionKey
+    @JsonIgnore @Getter @Setter protected String blindIndexKey;
+
     @Getter @Setter protected HibernateConfiguration hibernate;
 
     @Getter @Setter protected boolean migrationEnabled = true;
@@ -45,7 +49,16 @@ public class DatabaseConfiguration {
 
     @JsonIgnore public String getDatabaseName() { return getUrl().substring(getUrl().lastIndexOf('/')+1); }
 
+    // the pool is only used for the url it was created for, copies of this configuration may point elsewhere
+    @JsonIgnore private DataSource pooledDataSource;
+    @JsonIgnore private String pooledUrl;
+    public void setPooledDataSource(DataSource dataSource) {
+        this.pooledDataSource = dataSource;
+        this.pooledUrl = dataSource == null ? null : url;
+    }
+
     @JsonIgnore public Connection getConnection() throws SQLException {
+        if (pooledDataSource != null && url != null && url.equals(pooledUrl)) return pooledDataSource.getConnection();
         return DriverManager.getConnection(url, user, password);
     }
 
@@ -35,4 +35,17 @@ public class DatabaseConnectionPoolConfiguration {
     @Getter @Setter private Integer retryDelay;
     public boolean hasRetryDelay() { return retryDelay != null; }
 
+    // c3p0 PreparedStatement cache, so statements that run often are parsed and planned once per connection.
+    // Hibernate always uses the pool; execSql only does when execSqlFromPool is on
+    @Getter @Setter private Integer maxStatements;
+    public boolean hasMaxStatements() { return maxStatements != null; }
+
+    @Getter @Setter private Integer maxStatementsPerConnection;
+    public boolean hasMaxStatementsPerConnection() { return maxStatementsPerConnection != null; }
+
+    // when true, PgRestServerConfiguration.execSql borrows connections from the pool instead of opening new ones.
+    // off by default: an execSql call made while the caller holds a pooled connection in a transaction needs a second
+    // one, and tools that keep a connection for a long time (AnonScrubber, PgCopy, Flyway) could exhaust the pool
+    @Getter @Setter private boolean execSqlFromPool = false;
+
 }
@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.util.reflect.ReflectionUtil.copy;
 
 @NoArgsConstructor
@@ -19,6 +20,36 @@ public class HibernateConfiguration {
     @Getter @Setter private String validationMode;
     @Getter @Setter private boolean applyValidatorToDDL = true;
 
+    public static final int DEFAULT_JDBC_BATCH_SIZE = 50;
+
+    // statements sent to the database per JDBC batch when the session flushes. 0 disables batching
+    @Getter @Setter private int jdbcBatchSize = DEFAULT_JDBC_BATCH_SIZE;
+    public boolean hasJdbcBatchSize() { return jdbcBatchSize > 0; }
+
+    // group inserts and updates by entity type, so more of them fit in each batch
+    @Getter @Setter private boolean orderInserts = true;
+    @Getter @Setter private boolean orderUpdates = true;
+
+    public static final String DEFAULT_REGION_FACTORY = "org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory";
+    public static final String DEFAULT_CACHE_CONCURRENCY = "read-write";
+
+    // second-level cache, in the JVM heap. only entities marked @Cacheable (or @Cache) are cached, each in a region named after its class
+    @Getter @Setter private boolean secondLevelCache = false;
+    @Getter @Setter private String regionFactory = DEFAULT_REGION_FACTORY;
+    @Getter @Setter private String cacheConcurrency = DEFAULT_CACHE_CONCURRENCY;
+
+    // ehcache.xml on the classpath, for region sizes and expiry. the ehcache defaults are used when not set
+    @Getter @Setter private String cacheConfig;
+    public boolean hasCacheConfig() { return !empty(cacheConfig); }
+
+    // cache the results of the findBy* finders of cacheable entities
+    @Getter @Setter private boolean queryCache = false;
+    public boolean useQueryCache() { return secondLevelCache && queryCache; }
+
+    // keep hit/miss counts per cache region. defaults to on when the second-level cache is on
+    @Getter @Setter private Boolean statistics;
+    public boolean statistics() { return statistics != null ? statistics : secondLevelCache; }
+
     public HibernateConfiguration(HibernateConfiguration other) { copy(this, other); }
 
 }
@@ -67,6 +67,10 @@ public class LdapConfiguration implements LdapContext {
     public boolean isSecure() { return ArrayUtils.indexOf(SECURE_TRANSPORTS, getTransport()) >= 0; }
 
     public String getVersion() { return val("version", "3"); }
+
+    // used by NativeLdapServiceBase
+    public int getPool_size() { return Integer.parseInt(val("pool_size", "10")); }
+    public int getPage_size() { return Integer.parseInt(val("page_size", "500")); }
     public String getDomain () { return val("domain", hostname()); }
     public String getLdap_domain() { return val("ldap_domain", domainify(getDomain())); }
     public String getRealm() { return val("realm", getDomain()); }
@@ -21,6 +21,10 @@ import org.cobbzilla.wizard.dao.DAO;
 import org.cobbzilla.wizard.model.Identifiable;
 import org.cobbzilla.wizard.model.entityconfig.EntityFieldReference;
 import org.cobbzilla.wizard.model.entityconfig.EntityReferences;
+import org.cobbzilla.wizard.util.PgCopy;
+import org.cobbzilla.wizard.util.SqlRow;
+import org.cobbzilla.wizard.util.SqlRowIterator;
+import org.cobbzilla.wizard.util.SqlStatementInfo;
 import org.springframework.context.annotation.Bean;
 
 import javax.annotation.Nullable;
@@ -29,8 +33,11 @@ import java.io.File;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static java.util.Comparator.comparing;
 import static org.cobbzilla.util.collection.ArrayUtil.EMPTY_OBJECT_ARRAY;
@@ -44,6 +51,7 @@ import static org.cobbzilla.util.string.StringUtil.camelCaseToSnakeCase;
 import static org.cobbzilla.util.string.StringUtil.checkSafeShellArg;
 import static org.cobbzilla.util.system.CommandShell.exec;
 import static org.cobbzilla.util.system.CommandShell.execScript;
+import static org.cobbzilla.util.time.TimeUtil.formatDurationFrom;
 import static org.cobbzilla.wizard.model.entityconfig.EntityReferences.getDependencyRefs;
 import static org.cobbzilla.wizard.model.entityconfig.EntityReferences.getDependentEntities;
 
@@ -76,6 +84,11 @@ public class PgRestServerConfiguration extends RestServerConfiguration implement
     @Override @Bean public DatabaseConfiguration getDatabase() { return database; }
     @Override public void setDatabase(DatabaseConfiguration config) { this.database = config; }
 
+    /**
+     * Runs a statement on a connection of its own. That is a new JDBC connection, unless execSqlFromPool is set in
+     * the pool configuration: then it is borrowed from the pool, and statements prepared on it are cached per
+     * connection (maxStatements). The pool is not used by default, see DatabaseConnectionPoolConfiguration.
+     */
     public ResultSetBean execSql(String sql) { return execSql(sql, EMPTY_OBJECT_ARRAY); }
     public ResultSetBean execSql(String sql, Object[] args) {
         try {
@@ -97,50 +110,20 @@ public class PgRestServerConfiguration extends RestServerConfiguration implement
     @Getter @Setter private Boolean execSqlStrictStrings = null;
 
     public ResultSetBean execSql(Connection conn, String sql, Object[] args) {
+        final long start = now();
         try {
             @Cleanup PreparedStatement ps = conn.prepareStatement(sql);
-            if (args != null) {
-                int i = 1;
-                for (Object o : args) {
-                    if (o == null) {
-                        die("null arguments not supported. null value at parameter index=" + i + ", sql=" + sql);
-                    }
-                    if (o instanceof String) {
-                        if (execSqlStrictStrings == null || execSqlStrictStrings == false) {
-                            if (o.toString().equalsIgnoreCase(Boolean.TRUE.toString())) {
-                                ps.setBoolean(i++, true);
-                            } else if (o.toString().equalsIgnoreCase(Boolean.FALSE.toString())) {
-                                ps.setBoolean(i++, false);
-                            } else {
-                                ps.setString(i++, (String) o);
-                            }
-                        } else {
-                            ps.setString(i++, (String) o);
-                        }
-                    } else if (o instanceof Long) {
-                        ps.setLong(i++, (Long) o);
-                    } else if (o instanceof Integer) {
-                        ps.setInt(i++, (Integer) o);
-                    } else if (o instanceof Boolean) {
-                        ps.setBoolean(i++, (Boolean) o);
-                    } else if (o instanceof Object[]) {
-                        final Array arrayParam = conn.createArrayOf("varchar", (Object[]) o);
-                        ps.setArray(i++, arrayParam);
-                    } else {
-                        die("unsupported argument type: " + o.getClass().getName());
-                    }
-                }
-            }
+            SqlStatementInfo.bind(conn, ps, sql, args, strictStrings());
 
-            final boolean isQuery = sql.toLowerCase().trim().startsWith("select");
-            if (isQuery) {
+            if (SqlStatementInfo.isQuery(sql)) {
                 @Cleanup ResultSet rs = ps.executeQuery();
-                log.info("execSql (query): "+sql);
-                return new ResultSetBean(rs);
+                final ResultSetBean bean = new ResultSetBean(rs);
+                if (log.isDebugEnabled()) log.debug("execSql (query, "+bean.rowCount()+" rows in "+formatDurationFrom(start)+"): "+sql);
+                return bean;
             }
 
             ps.executeUpdate();
-            log.info("execSql (update): "+sql);
+            if (log.isDebugEnabled()) log.debug("execSql (update in "+formatDurationFrom(start)+"): "+sql);
             return ResultSetBean.EMPTY;
 
         } catch (SQLException e) {
@@ -151,6 +134,59 @@ public class PgRestServerConfiguration extends RestServerConfiguration implement
         }
     }
 
+    private boolean strictStrings() { return execSqlStrictStrings != null && execSqlStrictStrings; }
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    // rows fetched per round trip by iterateSql and streamSql
+    @Getter @Setter private int execSqlFetchSize = DEFAULT_FETCH_SIZE;
+
+    /**
+     * Runs a query and returns its rows as they are fetched, execSqlFetchSize rows at a time, so memory use does not
+     * grow with the size of the result. The mapper is called with the same SqlRow for every row.
+     * The iterator holds a connection until it is read to the end or closed.
+     */
+    public <T> SqlRowIterator<T> iterateSql(String sql, Object[] args, Function<SqlRow, T> mapper) {
+        final long start = now();
+        Connection conn = null;
+        Boolean autoCommit = null;
+        try {
+            conn = getDatabase().getConnection();
+            autoCommit = conn.getAutoCommit();
+            // the postgres driver only reads through a cursor, and honors the fetch size, inside a transaction
+            conn.setAutoCommit(false);
+            final PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(execSqlFetchSize);
+            SqlStatementInfo.bind(conn, ps, sql, args, strictStrings());
+            final ResultSet rs = ps.executeQuery();
+            if (log.isDebugEnabled()) log.debug("iterateSql (first fetch in "+formatDurationFrom(start)+"): "+sql);
+            return new SqlRowIterator<>(conn, autoCommit, ps, rs, mapper, sql, start);
+
+        } catch (Exception e) {
+            if (conn != null) {
+                try {
+                    if (autoCommit != null) { conn.rollback(); conn.setAutoCommit(autoCommit); }
+                    conn.close();
+                } catch (Exception ce) {
+                    log.warn("iterateSql: error closing connection: "+ce);
+                }
+            }
+            if (e instanceof SQLException) throw new UncheckedSqlException((SQLException) e);
+            if (e instanceof UncheckedSqlException) throw (UncheckedSqlException) e;
+            return die("iterateSql: "+e, e);
+        }
+    }
+
+    public SqlRowIterator<SqlRow> iterateSql(String sql, Object[] args) { return iterateSql(sql, args, Function.identity()); }
+
+    /** Like iterateSql, as a Stream. Close the stream (try-with-resources) when it may not be read to the end. */
+    public <T> Stream<T> streamSql(String sql, Object[] args, Function<SqlRow, T> mapper) {
+        final SqlRowIterator<T> iter = iterateSql(sql, args, mapper);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, Spliterator.ORDERED), false).onClose(iter::close);
+    }
+
+    public Stream<SqlRow> streamSql(String sql, Object[] args) { return streamSql(sql, args, Function.identity()); }
+
     public int rowCount(String table) throws SQLException {
         return execSql("select count(*) from " + table).count();
     }
@@ -338,6 +374,15 @@ public class PgRestServerConfiguration extends RestServerConfiguration implement
         }, MAX_DUMP_TRIES);
     }
 
+    // for table-level exports and imports, COPY through the driver is much faster than pg_dump --inserts
+    @Getter @Setter private int copyThreads = PgCopy.DEFAULT_THREADS;
+
+    public PgCopy pgCopy() { return new PgCopy(getDatabase()).setThreads(copyThreads); }
+
+    public Map<String, Long> copyExport(File dir, String... tables) { return pgCopy().exportTables(dir, tables); }
+
+    public Map<String, Long> copyImport(File dir, String... tables) { return pgCopy().importTables(dir, tables); }
+
     @Getter(lazy=true) private final List<Class<? extends Identifiable>> entityClasses = new EntityReferences()
             .setPackages(getDatabase().getHibernate().getEntityPackages())
             .dependencyOrder();
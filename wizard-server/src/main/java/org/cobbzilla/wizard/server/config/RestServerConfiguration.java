@@ -14,6 +14,8 @@ import org.cobbzilla.wizard.analytics.AnalyticsHandler;
 import org.cobbzilla.wizard.dao.CacheFlushable;
 import org.cobbzilla.wizard.dao.DAO;
 import org.cobbzilla.wizard.filters.ApiRateLimit;
+import org.cobbzilla.wizard.filters.LocalRateLimiter;
+import org.cobbzilla.wizard.filters.RateLimitMode;
 import org.cobbzilla.wizard.log.LogRelayAppenderConfig;
 import org.cobbzilla.wizard.model.Identifiable;
 import org.cobbzilla.wizard.model.IdentifiableBase;
@@ -119,6 +121,12 @@ public class RestServerConfiguration {
     @Getter @Setter private ApiRateLimit[] rateLimits;
     public boolean hasRateLimits () { return !empty(rateLimits); }
 
+    @Getter @Setter private RateLimitMode rateLimitMode = RateLimitMode.strict;
+
+    // with rateLimitMode local: how many nodes share each limit, and how often each node adds its counts to redis
+    @Getter @Setter private int rateLimitNodes = 1;
+    @Getter @Setter private long rateLimitSyncMillis = LocalRateLimiter.DEFAULT_SYNC_MILLIS;
+
     @Getter @Setter private AnalyticsConfiguration analytics;
 
     @JsonIgnore @Getter(lazy=true) private final AnalyticsHandler analyticsHandler = initAnalyticsHandler();
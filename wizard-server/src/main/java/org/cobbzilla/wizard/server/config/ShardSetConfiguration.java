@@ -2,6 +2,7 @@ package org.cobbzilla.wizard.server.config;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.cobbzilla.wizard.dao.shard.hash.ShardHashType;
 
 import static org.cobbzilla.util.system.Bytes.KB;
 
@@ -15,4 +16,7 @@ public class ShardSetConfiguration {
 
     @Getter @Setter private int logicalShards = DEFAULT_LOGICAL_SHARDS;
 
+    // how ids map to logical shards. changing this for existing data requires a migration, see ShardHashMain
+    @Getter @Setter private ShardHashType hashType = ShardHashType.sha256;
+
 }
@@ -54,6 +54,9 @@ public class RdbmsConfigCommon {
             if (pool.hasIdleTest()) cpds.setIdleConnectionTestPeriod(pool.getIdleTest());
             if (pool.hasRetryAttempts()) cpds.setAcquireRetryAttempts(pool.getRetryAttempts());
             if (pool.hasRetryDelay()) cpds.setAcquireRetryDelay(pool.getRetryDelay());
+            if (pool.hasMaxStatements()) cpds.setMaxStatements(pool.getMaxStatements());
+            if (pool.hasMaxStatementsPerConnection()) cpds.setMaxStatementsPerConnection(pool.getMaxStatementsPerConnection());
+            if (pool.isExecSqlFromPool()) dbConfiguration.setPooledDataSource(cpds);
             ((RestServerConfiguration) configuration).getServer().addLifecycleListener(new DbPoolShutdownListener());
         }
 
@@ -90,6 +93,25 @@ public class RdbmsConfigCommon {
         properties.put("hibernate.hbm2ddl.auto", hibernateConfiguration.getHbm2ddlAuto());
         properties.put("hibernate.validator.apply_to_ddl", hibernateConfiguration.isApplyValidatorToDDL());
         properties.put("javax.persistence.verification.mode", hibernateConfiguration.getValidationMode());
+        if (hibernateConfiguration.hasJdbcBatchSize()) {
+            properties.put("hibernate.jdbc.batch_size", String.valueOf(hibernateConfiguration.getJdbcBatchSize()));
+            properties.put("hibernate.jdbc.batch_versioned_data", "true");
+        }
+        properties.put("hibernate.order_inserts", String.valueOf(hibernateConfiguration.isOrderInserts()));
+        properties.put("hibernate.order_updates", String.valueOf(hibernateConfiguration.isOrderUpdates()));
+        if (hibernateConfiguration.isSecondLevelCache()) {
+            properties.put("hibernate.cache.use_second_level_cache", "true");
+            properties.put("hibernate.cache.region.factory_class", hibernateConfiguration.getRegionFactory());
+            properties.put("hibernate.cache.default_cache_concurrency_strategy", hibernateConfiguration.getCacheConcurrency());
+            properties.put("javax.persistence.sharedCache.mode", "ENABLE_SELECTIVE");
+            properties.put("hibernate.cache.use_query_cache", String.valueOf(hibernateConfiguration.isQueryCache()));
+            if (hibernateConfiguration.hasCacheConfig()) {
+                properties.put("net.sf.ehcache.configurationResourceName", hibernateConfiguration.getCacheConfig());
+            }
+        } else {
+            properties.put("hibernate.cache.use_second_level_cache", "false");
+        }
+        properties.put("hibernate.generate_statistics", String.valueOf(hibernateConfiguration.statistics()));
         return properties;
     }
 
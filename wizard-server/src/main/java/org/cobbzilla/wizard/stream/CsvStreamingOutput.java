@@ -3,35 +3,63 @@ package org.cobbzilla.wizard.stream;
 import com.github.jknack.handlebars.Handlebars;
 import com.opencsv.CSVWriter;
 import lombok.Cleanup;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.cobbzilla.util.handlebars.HandlebarsUtil;
-import org.cobbzilla.util.reflect.ReflectionUtil;
 import org.cobbzilla.wizard.model.HasRelatedEntities;
+import org.cobbzilla.wizard.util.PropertyAccessor;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.*;
+import java.util.stream.Stream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.cobbzilla.util.daemon.ZillaRuntime.die;
 import static org.cobbzilla.util.daemon.ZillaRuntime.empty;
 import static org.cobbzilla.util.reflect.ReflectionUtil.toMap;
 
-@Slf4j
+/**
+ * Writes rows as CSV while they are read, so an export of any size needs memory for about one row, and the
+ * download starts with the first rows. Rows can come from a Collection, an Iterator or a Stream (for example a
+ * database cursor from PgRestServerConfiguration.streamSql); a Stream is closed when writing ends.
+ * The header defaults to the field names, in order.
+ */
+@Slf4j @Accessors(chain=true)
 public class CsvStreamingOutput implements StreamingOutput {
 
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
     private final String[] fields;
-    private final Collection rows;
+    private final Iterator rows;
+    private final AutoCloseable onClose;
     private String[] header;
     private Handlebars handlebars;
 
-    public CsvStreamingOutput(Collection rows, String[] fields, String[] header, Handlebars handlebars) {
+    // flush to the client every this many rows, so a slow export still sends data steadily
+    @Getter @Setter private int flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    public CsvStreamingOutput(Iterator rows, String[] fields, String[] header, Handlebars handlebars, AutoCloseable onClose) {
         this.rows = rows;
         this.fields = fields;
         this.header = header;
         this.handlebars = handlebars;
+        this.onClose = onClose;
+    }
+
+    public CsvStreamingOutput(Stream rows, String[] fields, String[] header, Handlebars handlebars) {
+        this(rows.iterator(), fields, header, handlebars, rows);
+    }
+
+    public CsvStreamingOutput(Collection rows, String[] fields, String[] header, Handlebars handlebars) {
+        this(rows.iterator(), fields, header, handlebars, null);
     }
 
     public CsvStreamingOutput(Collection rows, String[] fields, String[] header) {
@@ -43,45 +71,63 @@ public class CsvStreamingOutput implements StreamingOutput {
     }
 
     @Override public void write(OutputStream out) throws IOException, WebApplicationException {
+        try {
+            writeRows(out);
+        } finally {
+            if (onClose != null) {
+                try { onClose.close(); } catch (Exception e) { log.warn("write: error closing rows: "+e); }
+            }
+        }
+    }
 
-        if (empty(fields)) die("write: no fields specified");
-
-        @Cleanup final CSVWriter writer = new CSVWriter(new OutputStreamWriter(out));
-
-        final List<Map<String, Object>> data = new ArrayList<>();
-        final boolean defaultHeaders = empty(header);
-        final Set<String> columns = defaultHeaders ? new HashSet<>() : null;
-        for (Object row : rows) {
-            final Map<String, Object> map = new HashMap<>();
-            for (String field : fields) {
-                if (field.startsWith("'") && field.endsWith("'")) {
-                    map.put(field, field.substring(1, field.length()-1));
+    private void writeRows(OutputStream out) throws IOException {
 
-                } else if (handlebars != null && field.contains("[[") && field.contains("]]")) {
-                    final Map<String, Object> ctx = toMap(row);
-                    if (row instanceof HasRelatedEntities) ctx.putAll(((HasRelatedEntities) row).getRelated());
-                    map.put(field, HandlebarsUtil.apply(handlebars, field, ctx, '[', ']'));
+        if (empty(fields)) die("write: no fields specified");
 
-                } else {
-                    map.put(field, ReflectionUtil.get(row, field, null));
-                }
+        @Cleanup final CSVWriter writer = new CSVWriter(new BufferedWriter(new OutputStreamWriter(out, UTF_8), BUFFER_SIZE));
+
+        // resolve each field once: a constant, a handlebars template, or a property path
+        final String[] constants = new String[fields.length];
+        final boolean[] templates = new boolean[fields.length];
+        final PropertyAccessor[] accessors = new PropertyAccessor[fields.length];
+        boolean anyTemplates = false;
+        for (int i=0; i<fields.length; i++) {
+            final String field = fields[i];
+            if (field.startsWith("'") && field.endsWith("'")) {
+                constants[i] = field.substring(1, field.length()-1);
+            } else if (handlebars != null && field.contains("[[") && field.contains("]]")) {
+                templates[i] = anyTemplates = true;
+            } else {
+                accessors[i] = new PropertyAccessor(field);
             }
-            data.add(map);
-            if (defaultHeaders) columns.addAll(map.keySet());
         }
 
-        if (defaultHeaders) header = columns.toArray(new String[columns.size()]);
-        writer.writeNext(header); // header row
+        writer.writeNext(empty(header) ? fields : header); // header row
 
-        for (Map<String, Object> row : data) {
-            final String[] line = new String[fields.length];
-            for (int i = 0; i < line.length; i++) {
-                final String field = fields[i];
-                final Object value = row.get(field);
+        int count = 0;
+        final String[] line = new String[fields.length];
+        while (rows.hasNext()) {
+            final Object row = rows.next();
+            Map<String, Object> ctx = null;
+            if (anyTemplates) {
+                ctx = toMap(row);
+                if (row instanceof HasRelatedEntities) ctx.putAll(((HasRelatedEntities) row).getRelated());
+            }
+            for (int i=0; i<line.length; i++) {
+                final Object value;
+                if (constants[i] != null) {
+                    value = constants[i];
+                } else if (templates[i]) {
+                    value = HandlebarsUtil.apply(handlebars, fields[i], ctx, '[', ']');
+                } else {
+                    value = accessors[i].get(row);
+                }
                 line[i] = value == null ? "" : String.valueOf(value);
             }
             writer.writeNext(line, false);
+            if (++count % flushInterval == 0) writer.flush();
         }
+        log.debug("write: wrote "+count+" rows");
     }
 
 }
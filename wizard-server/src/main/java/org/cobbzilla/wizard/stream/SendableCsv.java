@@ -8,6 +8,7 @@ import org.cobbzilla.wizard.model.search.SqlViewField;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 public class SendableCsv extends SendableResource {
 
@@ -24,6 +25,11 @@ public class SendableCsv extends SendableResource {
         setName(name);
     }
 
+    public SendableCsv(String name, Stream rows, String[] fields, String[] header, Handlebars handlebars) {
+        super(new CsvStreamingOutput(rows, fields, header, handlebars));
+        setName(name);
+    }
+
     @Override public String getContentType() { return HttpContentTypes.TEXT_CSV; }
     @Override public Boolean getForceDownload() { return true; }
 
@@ -0,0 +1,68 @@
+package org.cobbzilla.wizard.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with fixed buckets, in milliseconds.
+ * Percentiles are approximate: they return the upper bound of the bucket that contains the percentile.
+ */
+public class LatencyHistogram {
+
+    public static final long[] BUCKETS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10_000, 30_000, 60_000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS.length + 1);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    public void record(long millis) {
+        counts.incrementAndGet(bucket(millis));
+        count.incrementAndGet();
+        total.addAndGet(millis);
+        max.accumulateAndGet(millis, Math::max);
+    }
+
+    private int bucket(long millis) {
+        for (int i=0; i<BUCKETS.length; i++) {
+            if (millis <= BUCKETS[i]) return i;
+        }
+        return BUCKETS.length;
+    }
+
+    public long getCount() { return count.get(); }
+    public long getMax() { return max.get(); }
+    public long getMean() { final long c = count.get(); return c == 0 ? 0 : total.get() / c; }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the approximate latency at the given percentile, or 0 if nothing has been recorded
+     */
+    public long percentile(double percentile) {
+        final long c = count.get();
+        if (c == 0) return 0;
+        final long rank = (long) Math.ceil(c * percentile / 100.0d);
+        long seen = 0;
+        for (int i=0; i<counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return i < BUCKETS.length ? BUCKETS[i] : max.get();
+        }
+        return max.get();
+    }
+
+    public Map<String, Long> toMap() {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        map.put("count", getCount());
+        map.put("mean", getMean());
+        map.put("p50", percentile(50));
+        map.put("p95", percentile(95));
+        map.put("p99", percentile(99));
+        map.put("max", getMax());
+        return map;
+    }
+
+    @Override public String toString() { return "LatencyHistogram"+toMap(); }
+
+}
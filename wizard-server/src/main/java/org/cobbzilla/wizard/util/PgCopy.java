@@ -0,0 +1,307 @@
+package org.cobbzilla.wizard.util;
+
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.wizard.server.config.DatabaseConfiguration;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.cobbzilla.util.daemon.DaemonThreadFactory.fixedPool;
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+import static org.cobbzilla.util.daemon.ZillaRuntime.now;
+import static org.cobbzilla.util.io.FileUtil.abs;
+import static org.cobbzilla.util.time.TimeUtil.formatDurationFrom;
+
+/**
+ * Moves table data between Postgres and the client with COPY ... TO STDOUT / FROM STDIN, through the PgJDBC
+ * CopyManager. Unlike a server-side COPY to a path, the files are written where this code runs, so the database
+ * can be on another host. Several tables are copied at once, each on its own connection, up to the threads setting.
+ * Files are named schema.table.csv, with a .gz suffix when gzip is on.
+ * An export of several tables reads them all from one snapshot, as pg_dump does: a coordinator transaction exports
+ * its snapshot, and every worker imports it before its COPY. This needs one more connection than the threads setting.
+ */
+@Accessors(chain=true) @Slf4j
+public class PgCopy {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int BUFFER_SIZE = 64 * 1024;
+    public static final String CSV_SUFFIX = ".csv";
+    public static final String GZIP_SUFFIX = ".gz";
+
+    // same tables that CsvDumpMain's server-side function dumps
+    public static final String SQL_ALL_TABLES
+            = "SELECT (table_schema || '.' || table_name) AS schema_table " +
+            "FROM information_schema.tables t INNER JOIN information_schema.schemata s " +
+            "ON s.schema_name = t.table_schema " +
+            "WHERE t.table_schema NOT IN ('pg_catalog', 'information_schema', 'configuration') " +
+            "AND t.table_type NOT IN ('VIEW') " +
+            "ORDER BY schema_table";
+
+    private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?");
+    private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9A-Fa-f-]+");
+
+    @Getter private final DatabaseConfiguration database;
+
+    @Getter @Setter private int threads = DEFAULT_THREADS;
+    @Getter @Setter private boolean gzip = true;
+    @Getter @Setter private char delimiter = ',';
+    @Getter @Setter private boolean header = true;
+
+    // when importing, skip triggers and foreign key checks, so tables can be loaded in any order. needs superuser.
+    @Getter @Setter private boolean disableTriggers = false;
+
+    public PgCopy(@NonNull DatabaseConfiguration database) { this.database = database; }
+
+    public static String checkTableName(String table) {
+        if (!TABLE_NAME.matcher(table).matches()) die("invalid table name: "+table);
+        return table;
+    }
+
+    public String copyOptions() {
+        return "(FORMAT csv, DELIMITER '"+(delimiter == '\'' ? "''" : delimiter)+"'"+(header ? ", HEADER" : "")+")";
+    }
+
+    public String fileName(String table) { return table + CSV_SUFFIX + (gzip ? GZIP_SUFFIX : ""); }
+
+    public String[] allTables() {
+        try {
+            @Cleanup final Connection conn = database.getConnection();
+            @Cleanup final PreparedStatement ps = conn.prepareStatement(SQL_ALL_TABLES);
+            @Cleanup final ResultSet rs = ps.executeQuery();
+            final List<String> tables = new ArrayList<>();
+            while (rs.next()) tables.add(rs.getString(1));
+            return tables.toArray(new String[0]);
+        } catch (Exception e) {
+            return die("allTables: "+e, e);
+        }
+    }
+
+    /** Writes the rows of a table to out, and returns the number of rows written. out is not closed. */
+    public long copyOut(String table, OutputStream out) { return copyOut(table, out, null); }
+
+    private long copyOut(String table, OutputStream out, String snapshot) {
+        return copyOutSql("COPY "+checkTableName(table)+" TO STDOUT WITH "+copyOptions(), out, snapshot);
+    }
+
+    /** Writes the results of a query to out, for exports of part of a table. The query is trusted SQL. */
+    public long copyOutQuery(String query, OutputStream out) {
+        return copyOutSql("COPY ("+query+") TO STDOUT WITH "+copyOptions(), out, null);
+    }
+
+    private long copyOutSql(String sql, OutputStream out, String snapshot) {
+        final long start = now();
+        try {
+            @Cleanup final Connection conn = database.getConnection();
+            final long rows;
+            if (snapshot == null) {
+                rows = copyManager(conn).copyOut(sql, out);
+            } else {
+                final boolean autoCommit = conn.getAutoCommit();
+                try {
+                    beginRepeatableRead(conn, snapshot);
+                    rows = copyManager(conn).copyOut(sql, out);
+                } finally {
+                    conn.rollback(); // read only, nothing to commit
+                    conn.setAutoCommit(autoCommit);
+                }
+            }
+            if (log.isDebugEnabled()) log.debug("copyOut: "+rows+" rows in "+formatDurationFrom(start)+": "+sql);
+            return rows;
+        } catch (Exception e) {
+            return die("copyOut: "+e, e);
+        }
+    }
+
+    /** Reads rows from in into a table, and returns the number of rows read. in is not closed. */
+    public long copyIn(String table, InputStream in) {
+        final String sql = "COPY "+checkTableName(table)+" FROM STDIN WITH "+copyOptions();
+        final long start = now();
+        try {
+            @Cleanup final Connection conn = database.getConnection();
+            final boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                if (disableTriggers) {
+                    @Cleanup final Statement s = conn.createStatement();
+                    s.execute("SET LOCAL session_replication_role = replica");
+                }
+                final long rows = copyManager(conn).copyIn(sql, in, BUFFER_SIZE);
+                conn.commit();
+                if (log.isDebugEnabled()) log.debug("copyIn: "+rows+" rows in "+formatDurationFrom(start)+": "+sql);
+                return rows;
+            } catch (Exception e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (Exception e) {
+            return die("copyIn("+table+"): "+e, e);
+        }
+    }
+
+    /** A table as a download. Gzipped when gzip is on; set the content type and encoding to match. */
+    public StreamingOutput streamingOutput(String table) {
+        checkTableName(table);
+        return out -> {
+            if (gzip) {
+                final GZIPOutputStream gz = new GZIPOutputStream(out, BUFFER_SIZE);
+                copyOut(table, gz);
+                gz.finish();
+            } else {
+                copyOut(table, out);
+            }
+            out.flush();
+        };
+    }
+
+    public long exportTable(String table, File file) { return exportTable(table, file, null); }
+
+    private long exportTable(String table, File file, String snapshot) {
+        // write to a temp file, then rename, so a failed export never leaves a partial file with the final name
+        final File temp = new File(abs(file) + ".tmp");
+        try {
+            final long rows;
+            try (OutputStream out = openOut(temp)) {
+                rows = copyOut(table, out, snapshot);
+            }
+            if (!temp.renameTo(file)) die("exportTable: error renaming "+abs(temp)+" -> "+abs(file));
+            return rows;
+        } catch (IOException e) {
+            return die("exportTable("+table+"): "+e, e);
+        } finally {
+            if (temp.exists() && !temp.delete()) log.warn("exportTable: error deleting "+abs(temp));
+        }
+    }
+
+    public long importTable(String table, File file) {
+        try (InputStream in = openIn(file)) {
+            return copyIn(table, in);
+        } catch (IOException e) {
+            return die("importTable("+table+"): "+e, e);
+        }
+    }
+
+    /**
+     * Exports tables to files in dir, or all tables when none are given. Returns the row count of each table.
+     * All tables are read from the same snapshot, so rows that reference each other are consistent.
+     */
+    public Map<String, Long> exportTables(File dir, String... tables) {
+        if (!dir.isDirectory() && !dir.mkdirs()) die("exportTables: error creating dir: "+abs(dir));
+        final String[] toExport = tables == null || tables.length == 0 ? allTables() : tables;
+        try {
+            // the snapshot can only be imported while the transaction that exported it is open
+            @Cleanup final Connection coordinator = database.getConnection();
+            final boolean autoCommit = coordinator.getAutoCommit();
+            try {
+                final String snapshot = exportSnapshot(coordinator);
+                return eachTable(toExport, table -> exportTable(table, new File(dir, fileName(table)), snapshot), "exportTables");
+            } finally {
+                coordinator.rollback();
+                coordinator.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            return die("exportTables: "+e, e);
+        }
+    }
+
+    private static String exportSnapshot(Connection conn) throws SQLException {
+        beginRepeatableRead(conn, null);
+        @Cleanup final Statement s = conn.createStatement();
+        @Cleanup final ResultSet rs = s.executeQuery("SELECT pg_export_snapshot()");
+        if (!rs.next()) die("exportSnapshot: no snapshot returned");
+        return rs.getString(1);
+    }
+
+    // must run before anything else in the transaction
+    private static void beginRepeatableRead(Connection conn, String snapshot) throws SQLException {
+        conn.setAutoCommit(false);
+        @Cleanup final Statement s = conn.createStatement();
+        s.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ READ ONLY");
+        if (snapshot != null) {
+            if (!SNAPSHOT_ID.matcher(snapshot).matches()) die("beginRepeatableRead: invalid snapshot id: "+snapshot);
+            s.execute("SET TRANSACTION SNAPSHOT '"+snapshot+"'");
+        }
+    }
+
+    /**
+     * Imports tables from their files in dir, or every table that has a file there when none are given.
+     * With more than one thread, tables load in no particular order: use a single thread (with tables listed in
+     * dependency order), or disableTriggers, when there are foreign keys between them.
+     */
+    public Map<String, Long> importTables(File dir, String... tables) {
+        if (tables == null || tables.length == 0) {
+            final List<String> found = new ArrayList<>();
+            final String suffix = CSV_SUFFIX + (gzip ? GZIP_SUFFIX : "");
+            final String[] files = dir.list();
+            if (files != null) {
+                for (String f : files) if (f.endsWith(suffix)) found.add(f.substring(0, f.length() - suffix.length()));
+            }
+            Collections.sort(found);
+            tables = found.toArray(new String[0]);
+        }
+        return eachTable(tables, table -> importTable(table, new File(dir, fileName(table))), "importTables");
+    }
+
+    private interface TableCopy { long copy(String table); }
+
+    private Map<String, Long> eachTable(String[] tables, TableCopy copy, String op) {
+        final long start = now();
+        final Map<String, Long> counts = new ConcurrentHashMap<>();
+        final ExecutorService pool = fixedPool(Math.max(1, Math.min(threads, tables.length)), "PgCopy."+op);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (String table : tables) {
+                checkTableName(table);
+                futures.add(pool.submit(() -> {
+                    final long tableStart = now();
+                    final long rows = copy.copy(table);
+                    counts.put(table, rows);
+                    log.info(op+": "+table+": "+rows+" rows in "+formatDurationFrom(tableStart));
+                }));
+            }
+            for (Future<?> f : futures) f.get();
+        } catch (Exception e) {
+            return die(op+": "+e, e);
+        } finally {
+            pool.shutdownNow();
+        }
+        log.info(op+": "+tables.length+" tables in "+formatDurationFrom(start));
+        return new TreeMap<>(counts);
+    }
+
+    private OutputStream openOut(File file) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+        return gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+    }
+
+    private InputStream openIn(File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        return gzip ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    // pooled connections are proxies; unwrap to reach the driver's copy API
+    private static CopyManager copyManager(Connection conn) throws Exception {
+        return conn.unwrap(PGConnection.class).getCopyAPI();
+    }
+
+}
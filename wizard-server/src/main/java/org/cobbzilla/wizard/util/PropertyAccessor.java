@@ -0,0 +1,77 @@
+package org.cobbzilla.wizard.util;
+
+import lombok.Getter;
+import org.cobbzilla.util.reflect.ReflectionUtil;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * Reads a dotted property path (like "related.account.name") from objects, with getters looked up once per class and
+ * called through MethodHandles. Maps are read by key. Anything else, or a path that is not a plain dotted name,
+ * falls back to ReflectionUtil.get, so results are the same as before, only faster for the common cases.
+ */
+public class PropertyAccessor {
+
+    private static final Pattern SIMPLE_PATH = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*(\\.[A-Za-z_$][A-Za-z0-9_$]*)*");
+
+    // class name + property -> getter, empty when the class has no usable getter for it
+    private static final Map<String, Optional<MethodHandle>> getters = new ConcurrentHashMap<>();
+
+    @Getter private final String path;
+    private final String[] parts;
+
+    public PropertyAccessor(String path) {
+        this.path = path;
+        this.parts = SIMPLE_PATH.matcher(path).matches() ? path.split("\\.") : null;
+    }
+
+    public Object get(Object target) {
+        if (target == null) return null;
+        if (parts == null) return ReflectionUtil.get(target, path, null);
+        Object current = target;
+        for (String part : parts) {
+            if (current == null) return null;
+            current = getProperty(current, part);
+        }
+        return current;
+    }
+
+    private static Object getProperty(Object target, String property) {
+        if (target instanceof Map) return ((Map) target).get(property);
+        final Optional<MethodHandle> getter = getters.computeIfAbsent(target.getClass().getName()+"/"+property,
+                                                                      k -> findGetter(target.getClass(), property));
+        if (!getter.isPresent()) return ReflectionUtil.get(target, property, null);
+        try {
+            return getter.get().invoke(target);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            return die("getProperty("+target.getClass().getSimpleName()+"."+property+"): "+t);
+        }
+    }
+
+    private static Optional<MethodHandle> findGetter(Class<?> clazz, String property) {
+        final String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (String name : new String[] {"get"+suffix, "is"+suffix}) {
+            try {
+                final Method m = clazz.getMethod(name);
+                if (m.getReturnType() == void.class || Modifier.isStatic(m.getModifiers())) continue;
+                m.setAccessible(true);
+                return Optional.of(MethodHandles.lookup().unreflect(m));
+            } catch (Exception e) {
+                // no such getter, or not accessible: try the next name, then fall back to ReflectionUtil
+            }
+        }
+        return Optional.empty();
+    }
+
+}
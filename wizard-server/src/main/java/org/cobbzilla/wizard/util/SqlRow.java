@@ -0,0 +1,83 @@
+package org.cobbzilla.wizard.util;
+
+import lombok.Getter;
+import org.cobbzilla.util.jdbc.UncheckedSqlException;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * A view of the current row of a ResultSet. One instance is reused for every row, so callers must copy what they
+ * need (or use toMap) before moving to the next row. Column lookups by name use an index built once per query.
+ */
+public class SqlRow {
+
+    private final ResultSet rs;
+    @Getter private final String[] columns;
+    private final Map<String, Integer> columnIndex = new HashMap<>();
+
+    public SqlRow(ResultSet rs) throws SQLException {
+        this.rs = rs;
+        final ResultSetMetaData meta = rs.getMetaData();
+        columns = new String[meta.getColumnCount()];
+        for (int i=0; i<columns.length; i++) {
+            columns[i] = meta.getColumnLabel(i+1);
+            columnIndex.putIfAbsent(columns[i].toLowerCase(), i+1);
+        }
+    }
+
+    public int getColumnCount() { return columns.length; }
+
+    public int column(String name) {
+        final Integer i = columnIndex.get(name.toLowerCase());
+        return i != null ? i : die("column: not found: "+name);
+    }
+
+    public Object get(int column) {
+        try { return rs.getObject(column); } catch (SQLException e) { throw new UncheckedSqlException(e); }
+    }
+    public Object get(String name) { return get(column(name)); }
+
+    public String getString(int column) {
+        try { return rs.getString(column); } catch (SQLException e) { throw new UncheckedSqlException(e); }
+    }
+    public String getString(String name) { return getString(column(name)); }
+
+    public Long getLong(int column) {
+        try {
+            final long val = rs.getLong(column);
+            return rs.wasNull() ? null : val;
+        } catch (SQLException e) { throw new UncheckedSqlException(e); }
+    }
+    public Long getLong(String name) { return getLong(column(name)); }
+
+    public Integer getInt(int column) {
+        try {
+            final int val = rs.getInt(column);
+            return rs.wasNull() ? null : val;
+        } catch (SQLException e) { throw new UncheckedSqlException(e); }
+    }
+    public Integer getInt(String name) { return getInt(column(name)); }
+
+    public Boolean getBoolean(int column) {
+        try {
+            final boolean val = rs.getBoolean(column);
+            return rs.wasNull() ? null : val;
+        } catch (SQLException e) { throw new UncheckedSqlException(e); }
+    }
+    public Boolean getBoolean(String name) { return getBoolean(column(name)); }
+
+    /** @return a copy of the current row, keyed like the rows of a ResultSetBean */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> row = new LinkedHashMap<>(columns.length * 2);
+        for (int i=0; i<columns.length; i++) row.put(columns[i], get(i+1));
+        return row;
+    }
+
+}
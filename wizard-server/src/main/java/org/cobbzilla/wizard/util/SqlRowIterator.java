@@ -0,0 +1,87 @@
+package org.cobbzilla.wizard.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.cobbzilla.util.jdbc.UncheckedSqlException;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import static org.cobbzilla.util.time.TimeUtil.formatDurationFrom;
+
+/**
+ * Iterates over the rows of a query as the database returns them, one fetch at a time, instead of reading the whole
+ * ResultSet into memory. Owns the connection it reads from: it is closed (and its autocommit setting restored) when
+ * the last row has been read, or when close is called. Callers that may stop early must call close.
+ */
+@Slf4j
+public class SqlRowIterator<T> implements Iterator<T>, Closeable {
+
+    private final Connection conn;
+    private final boolean autoCommit;
+    private final PreparedStatement ps;
+    private final ResultSet rs;
+    private final SqlRow row;
+    private final Function<SqlRow, T> mapper;
+    private final String sql;
+    private final long start;
+
+    private Boolean ready = null;
+    private boolean closed = false;
+    private int count = 0;
+
+    public SqlRowIterator(Connection conn, boolean autoCommit, PreparedStatement ps, ResultSet rs,
+                          Function<SqlRow, T> mapper, String sql, long start) throws SQLException {
+        this.conn = conn;
+        this.autoCommit = autoCommit;
+        this.ps = ps;
+        this.rs = rs;
+        this.row = new SqlRow(rs);
+        this.mapper = mapper;
+        this.sql = sql;
+        this.start = start;
+    }
+
+    @Override public boolean hasNext() {
+        if (closed) return false;
+        if (ready == null) {
+            try {
+                ready = rs.next();
+            } catch (SQLException e) {
+                close();
+                throw new UncheckedSqlException(e);
+            }
+            if (!ready) close();
+        }
+        return ready;
+    }
+
+    @Override public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        ready = null;
+        count++;
+        return mapper.apply(row);
+    }
+
+    @Override public void close() {
+        if (closed) return;
+        closed = true;
+        try { rs.close(); } catch (Exception e) { log.warn("close: error closing ResultSet: "+e); }
+        try { ps.close(); } catch (Exception e) { log.warn("close: error closing statement: "+e); }
+        try {
+            // the query ran in a transaction only so the driver would use a cursor; there is nothing to commit
+            conn.rollback();
+            conn.setAutoCommit(autoCommit);
+        } catch (Exception e) {
+            log.warn("close: error ending transaction: "+e);
+        }
+        try { conn.close(); } catch (Exception e) { log.warn("close: error closing connection: "+e); }
+        if (log.isDebugEnabled()) log.debug("close: read "+count+" rows in "+formatDurationFrom(start)+": "+sql);
+    }
+
+}
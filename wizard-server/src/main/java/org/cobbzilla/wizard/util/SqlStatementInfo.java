@@ -0,0 +1,72 @@
+package org.cobbzilla.wizard.util;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cobbzilla.util.daemon.ZillaRuntime.die;
+
+/**
+ * What execSql needs to know about a SQL statement before running it: whether it is a query, and how to bind each
+ * argument, looked up by its class. Nothing is cached by SQL text: callers often put literals in the SQL, so such a
+ * cache would mostly miss. Parsed statements are reused by the c3p0 statement cache instead (maxStatements in
+ * DatabaseConnectionPoolConfiguration), when execSqlFromPool is on.
+ */
+public class SqlStatementInfo {
+
+    @FunctionalInterface
+    public interface ArgBinder {
+        void bind(Connection conn, PreparedStatement ps, int index, Object value, boolean strictStrings) throws SQLException;
+    }
+
+    private static final ArgBinder STRING_BINDER = (conn, ps, i, o, strict) -> {
+        final String s = (String) o;
+        if (!strict && s.equalsIgnoreCase(Boolean.TRUE.toString())) {
+            ps.setBoolean(i, true);
+        } else if (!strict && s.equalsIgnoreCase(Boolean.FALSE.toString())) {
+            ps.setBoolean(i, false);
+        } else {
+            ps.setString(i, s);
+        }
+    };
+    private static final ArgBinder ARRAY_BINDER = (conn, ps, i, o, strict) -> {
+        final Array arrayParam = conn.createArrayOf("varchar", (Object[]) o);
+        ps.setArray(i, arrayParam);
+    };
+
+    private static final Map<Class<?>, ArgBinder> BINDERS = new HashMap<>();
+    static {
+        BINDERS.put(String.class, STRING_BINDER);
+        BINDERS.put(Long.class, (conn, ps, i, o, strict) -> ps.setLong(i, (Long) o));
+        BINDERS.put(Integer.class, (conn, ps, i, o, strict) -> ps.setInt(i, (Integer) o));
+        BINDERS.put(Boolean.class, (conn, ps, i, o, strict) -> ps.setBoolean(i, (Boolean) o));
+        BINDERS.put(Double.class, (conn, ps, i, o, strict) -> ps.setDouble(i, (Double) o));
+        BINDERS.put(BigDecimal.class, (conn, ps, i, o, strict) -> ps.setBigDecimal(i, (BigDecimal) o));
+        BINDERS.put(Timestamp.class, (conn, ps, i, o, strict) -> ps.setTimestamp(i, (Timestamp) o));
+        BINDERS.put(Date.class, (conn, ps, i, o, strict) -> ps.setDate(i, (Date) o));
+    }
+
+    public static ArgBinder binderFor(Class<?> c) {
+        final ArgBinder binder = BINDERS.get(c);
+        if (binder != null) return binder;
+        if (Object[].class.isAssignableFrom(c)) return ARRAY_BINDER;
+        return die("unsupported argument type: " + c.getName());
+    }
+
+    /** @return true if the statement returns rows: a SELECT or EXPLAIN, ignoring case and leading whitespace */
+    public static boolean isQuery(String sql) {
+        int i = 0;
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) i++;
+        return sql.regionMatches(true, i, "select", 0, 6) || sql.regionMatches(true, i, "explain", 0, 7);
+    }
+
+    public static void bind(Connection conn, PreparedStatement ps, String sql, Object[] args, boolean strictStrings) throws SQLException {
+        if (args == null) return;
+        for (int i=0; i<args.length; i++) {
+            if (args[i] == null) die("null arguments not supported. null value at parameter index=" + (i+1) + ", sql=" + sql);
+            binderFor(args[i].getClass()).bind(conn, ps, i+1, args[i], strictStrings);
+        }
+    }
+
+}
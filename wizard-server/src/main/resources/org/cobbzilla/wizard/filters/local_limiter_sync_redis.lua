@@ -0,0 +1,23 @@
+-- adds the counts of LocalRateLimiter to the counters api_limiter_redis.lua uses, and sets their expiry the same way.
+-- KEYS are the counters, ARGV has 4 values per key: (added, limit, interval, block)
+-- returns the total of each counter, in the order of KEYS
+local totals = {}
+for k=1,#KEYS do
+    local a = (k - 1) * 4
+    local added = tonumber(ARGV[a+1])
+    local total
+    if added > 0 then
+        total = redis.call('INCRBY', KEYS[k], added)
+        if total >= tonumber(ARGV[a+2]) then
+            redis.call('PEXPIRE', KEYS[k], tonumber(ARGV[a+4]))
+            -- limit reached: the counter, and so the block, lasts block milliseconds
+        elseif redis.call('PTTL', KEYS[k]) < 0 then
+            redis.call('PEXPIRE', KEYS[k], tonumber(ARGV[a+3]))
+            -- new counter (or one left without an expiry): expire it at the end of the interval
+        end
+    else
+        total = tonumber(redis.call('GET', KEYS[k]) or 0)  -- GET returns false if not found
+    end
+    totals[k] = total
+end
+return totals
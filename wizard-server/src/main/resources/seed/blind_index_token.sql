@@ -0,0 +1,14 @@
+-- Blind index tokens of encrypted search fields, see org.cobbzilla.wizard.model.crypto.BlindIndexer
+--
+-- Applications that put a blind index on an encrypted SqlViewField must create this table,
+-- copy these statements into one of their own migrations
+
+CREATE TABLE blind_index_token (
+  entity_type varchar(100) NOT NULL,
+  entity_uuid varchar(100) NOT NULL,
+  field varchar(100) NOT NULL,
+  token varchar(32) NOT NULL,
+  PRIMARY KEY (entity_type, field, token, entity_uuid)
+);
+
+CREATE INDEX blind_index_token_entity_idx ON blind_index_token (entity_type, entity_uuid);
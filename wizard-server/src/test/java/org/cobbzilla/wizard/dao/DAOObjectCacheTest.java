@@ -0,0 +1,119 @@
+package org.cobbzilla.wizard.dao;
+
+import org.cobbzilla.wizard.model.IdentifiableBase;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static java.util.Arrays.asList;
+import static org.cobbzilla.util.system.Sleep.sleep;
+import static org.cobbzilla.wizard.dao.DAOObjectCache.scopeTag;
+import static org.cobbzilla.wizard.dao.DAOObjectCache.uuidTag;
+import static org.junit.Assert.*;
+
+public class DAOObjectCacheTest {
+
+    public static final long EXPIRATION = TimeUnit.MINUTES.toMillis(5);
+
+    private final AtomicInteger lookups = new AtomicInteger();
+
+    private Function<Object[], Object> lookup(Object result) {
+        return args -> { lookups.incrementAndGet(); return result; };
+    }
+
+    private static Function<Object, Collection<String>> tags(String... tags) { return thing -> asList(tags); }
+
+    @Test public void testHitsAndMisses () {
+        final DAOObjectCache cache = new DAOObjectCache(100, EXPIRATION);
+        assertEquals("one", cache.get("k1", lookup("one"), null, tags("t1")));
+        assertEquals("one", cache.get("k1", lookup("changed"), null, tags("t1")));
+        assertEquals(1, lookups.get());
+
+        // null results are cached too
+        assertNull(cache.get("k2", lookup(null), null, tags("t2")));
+        assertNull(cache.get("k2", lookup("changed"), null, tags("t2")));
+        assertEquals(2, lookups.get());
+
+        assertEquals(2, cache.getStats().getHits());
+        assertEquals(2, cache.getStats().getMisses());
+        assertEquals(0.5d, cache.getStats().getHitRate(), 0.0001d);
+    }
+
+    @Test public void testInvalidateTags () {
+        final DAOObjectCache cache = new DAOObjectCache(100, EXPIRATION);
+        cache.get("k1", lookup("one"), null, tags("shared", "only1"));
+        cache.get("k2", lookup("two"), null, tags("shared"));
+        cache.get("k3", lookup("three"), null, tags("other"));
+        assertEquals(3, lookups.get());
+
+        cache.invalidateTags(asList("only1"));
+        assertEquals(2, cache.size());
+        assertEquals("two", cache.get("k2", lookup("two"), null, tags("shared")));
+        assertEquals(3, lookups.get());
+
+        cache.invalidateTags(asList("shared", "missing"));
+        assertEquals(1, cache.size());
+        assertEquals("three", cache.get("k3", lookup("three"), null, tags("other")));
+        assertEquals(3, lookups.get());
+    }
+
+    @Test public void testReplacedEntryKeepsItsTags () {
+        final long expiration = 50;
+        final DAOObjectCache cache = new DAOObjectCache(100, expiration);
+        cache.get("k1", lookup("old"), null, tags("t1"));
+        sleep(expiration * 3);
+
+        // the expired entry is replaced; its removal must not unindex the new entry
+        assertEquals("new", cache.get("k1", lookup("new"), null, tags("t1")));
+        assertEquals(2, lookups.get());
+
+        cache.invalidateTags(asList("t1"));
+        assertEquals("newer", cache.get("k1", lookup("newer"), null, tags("t1")));
+        assertEquals(3, lookups.get());
+    }
+
+    @Test public void testWriteDuringLoadIsNotCached () {
+        final DAOObjectCache cache = new DAOObjectCache(100, EXPIRATION);
+        final Function<Object[], Object> racingLookup = args -> {
+            lookups.incrementAndGet();
+            cache.invalidateTags(asList("unrelated")); // a write somewhere while this lookup runs
+            return "maybe stale";
+        };
+        assertEquals("maybe stale", cache.get("k1", racingLookup, null, tags("t1")));
+        assertEquals("fresh", cache.get("k1", lookup("fresh"), null, tags("t1")));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test public void testInvalidateAll () {
+        final DAOObjectCache cache = new DAOObjectCache(100, EXPIRATION);
+        assertFalse(cache.invalidateAll());
+        cache.get("k1", lookup("one"), null, tags("t1"));
+        assertTrue(cache.invalidateAll());
+        assertEquals(0, cache.size());
+    }
+
+    @Test public void testCollectionsWeighMore () {
+        final DAOObjectCache cache = new DAOObjectCache(10, EXPIRATION);
+        cache.get("list", lookup(asList(1, 2, 3, 4, 5, 6, 7, 8)), null, tags("t")); // weight 9
+        cache.get("a", lookup("a"), null, tags("t"));
+        cache.get("b", lookup("b"), null, tags("t"));
+        assertTrue("cache should have evicted entries to stay under its weight, size="+cache.size(), cache.size() < 3);
+    }
+
+    @Test public void testDefaultTags () {
+        final IdentifiableBase thing = new IdentifiableBase();
+        thing.setUuid("u1");
+        final IdentifiableBase other = new IdentifiableBase();
+        other.setUuid("u2");
+
+        assertEquals(new HashSet<>(asList(uuidTag("u1"))), DAOObjectCache.defaultTags("s", thing));
+        assertEquals(new HashSet<>(asList(scopeTag("s"))), DAOObjectCache.defaultTags("s", null));
+        assertEquals(new HashSet<>(asList(scopeTag("s"), uuidTag("u1"), uuidTag("u2"))),
+                     DAOObjectCache.defaultTags("s", asList(thing, other)));
+        assertEquals(new HashSet<>(asList(scopeTag("s"))), DAOObjectCache.defaultTags("s", 42));
+    }
+
+}
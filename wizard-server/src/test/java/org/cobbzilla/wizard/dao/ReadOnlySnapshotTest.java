@@ -0,0 +1,101 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class ReadOnlySnapshotTest {
+
+    @NoArgsConstructor @Accessors(chain=true)
+    public static class Thing {
+        @Getter @Setter private String name;
+        @Getter @Setter private int count;
+        @Getter @Setter private List<String> tags;
+        @Getter @Setter private Thing child;
+
+        public Thing incrementCount() { count++; return this; }
+        public void addTag(String tag) { tags.add(tag); }
+        public Thing getSelf() { return this; }
+    }
+
+    public static class ConcreteListThing {
+        @Getter @Setter private ArrayList<String> tags = new ArrayList<>();
+    }
+
+    private static Thing thing() {
+        return new Thing().setName("parent").setCount(1).setTags(new ArrayList<>(asList("a", "b")))
+                .setChild(new Thing().setName("child").setTags(new ArrayList<>()));
+    }
+
+    private static void assertReadOnly(Runnable r) {
+        try {
+            r.run();
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {}
+    }
+
+    @Test public void testGettersRead () {
+        final Thing snapshot = ReadOnlySnapshot.freeze(thing());
+        assertTrue(snapshot instanceof ReadOnlySnapshot);
+        assertEquals("parent", snapshot.getName());
+        assertEquals(1, snapshot.getCount());
+        assertEquals(asList("a", "b"), snapshot.getTags());
+        assertEquals("child", snapshot.getChild().getName());
+        assertTrue(snapshot.getChild() instanceof ReadOnlySnapshot);
+        assertNotNull(snapshot.toString());
+        assertEquals(snapshot.hashCode(), snapshot.hashCode());
+    }
+
+    @Test public void testOnlyReadersCanBeCalled () {
+        final Thing snapshot = ReadOnlySnapshot.freeze(thing());
+        assertReadOnly(() -> snapshot.setName("changed"));
+        assertReadOnly(snapshot::incrementCount);
+        assertReadOnly(() -> snapshot.addTag("c"));
+        assertReadOnly(() -> snapshot.getTags().add("c"));
+        assertReadOnly(() -> snapshot.getChild().setName("changed"));
+        assertEquals("parent", snapshot.getName());
+        assertEquals(1, snapshot.getCount());
+        assertEquals(asList("a", "b"), snapshot.getTags());
+    }
+
+    @Test public void testMethodReturningThisReturnsTheSnapshot () {
+        final Thing snapshot = ReadOnlySnapshot.freeze(thing());
+        assertSame(snapshot, snapshot.getSelf());
+    }
+
+    @Test public void testFreezeCopiesTheOriginal () {
+        final Thing original = thing();
+        final Thing snapshot = ReadOnlySnapshot.freeze(original);
+        original.setName("changed");
+        original.getTags().add("c");
+        assertEquals("parent", snapshot.getName());
+        assertEquals(asList("a", "b"), snapshot.getTags());
+    }
+
+    @Test public void testThaw () {
+        final Thing snapshot = ReadOnlySnapshot.freeze(thing());
+        final Thing copy = (Thing) ((ReadOnlySnapshot) snapshot).thaw();
+        assertFalse(copy instanceof ReadOnlySnapshot);
+        assertFalse(copy.getChild() instanceof ReadOnlySnapshot);
+
+        copy.setName("changed");
+        copy.addTag("c");
+        copy.getChild().setName("changed");
+        assertEquals("parent", snapshot.getName());
+        assertEquals(asList("a", "b"), snapshot.getTags());
+        assertEquals("child", snapshot.getChild().getName());
+    }
+
+    @Test public void testConcreteCollectionFieldCannotBeFrozen () {
+        assertNull(ReadOnlySnapshot.tryFreeze(new ConcreteListThing()));
+    }
+
+}
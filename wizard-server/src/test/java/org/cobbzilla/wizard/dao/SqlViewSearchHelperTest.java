@@ -0,0 +1,167 @@
+package org.cobbzilla.wizard.dao;
+
+import lombok.Getter;
+import org.cobbzilla.wizard.dao.SqlViewSearchHelper.KeysetColumn;
+import org.cobbzilla.wizard.model.RelatedEntities;
+import org.cobbzilla.wizard.model.crypto.BlindIndexer;
+import org.cobbzilla.wizard.model.search.BlindIndexType;
+import org.cobbzilla.wizard.model.search.SearchQuery;
+import org.cobbzilla.wizard.model.search.SearchResults;
+import org.cobbzilla.wizard.model.search.SqlViewField;
+import org.cobbzilla.wizard.model.search.SqlViewSearchResult;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static java.util.Arrays.asList;
+import static org.cobbzilla.wizard.model.search.SortOrder.ASC;
+import static org.cobbzilla.wizard.model.search.SortOrder.DESC;
+import static org.junit.Assert.*;
+
+public class SqlViewSearchHelperTest {
+
+    @Test public void testKeysetPredicate () {
+        final List<KeysetColumn> columns = asList(
+                new KeysetColumn("name", "lower", ASC),
+                new KeysetColumn("ctime", null, DESC),
+                new KeysetColumn("uuid", null, ASC));
+        final List<Object> params = new ArrayList<>();
+        final String predicate = SqlViewSearchHelper.keysetPredicate(columns, new Object[] {"bob", 42L, "u1"}, params);
+
+        assertEquals("((lower(name) > lower(?) OR lower(name) IS NULL))"
+                + " OR (lower(name) = lower(?) AND ctime < ?)"
+                + " OR (lower(name) = lower(?) AND ctime = ? AND uuid > ?)", predicate);
+        assertEquals(asList("bob", "bob", 42L, "bob", 42L, "u1"), params);
+    }
+
+    @Test public void testKeysetPredicateSingleColumn () {
+        final List<Object> params = new ArrayList<>();
+        assertEquals("(uuid > ?)", SqlViewSearchHelper.keysetPredicate(asList(new KeysetColumn("uuid", null, ASC)), new Object[] {"u1"}, params));
+        assertEquals(asList("u1"), params);
+    }
+
+    @Test public void testKeysetPredicateNullValues () {
+        final List<KeysetColumn> columns = asList(
+                new KeysetColumn("name", null, ASC),
+                new KeysetColumn("ctime", null, DESC),
+                new KeysetColumn("uuid", null, ASC));
+
+        // ascending: after a null name come only other rows with a null name
+        List<Object> params = new ArrayList<>();
+        assertEquals("(name IS NULL AND ctime < ?)"
+                + " OR (name IS NULL AND ctime = ? AND uuid > ?)",
+                SqlViewSearchHelper.keysetPredicate(columns, new Object[] {null, 42L, "u1"}, params));
+        assertEquals(asList(42L, 42L, "u1"), params);
+
+        // descending: nulls come first, so every non-null ctime is after a null one
+        params = new ArrayList<>();
+        assertEquals("((name > ? OR name IS NULL))"
+                + " OR (name = ? AND ctime IS NOT NULL)"
+                + " OR (name = ? AND ctime IS NULL AND uuid > ?)",
+                SqlViewSearchHelper.keysetPredicate(columns, new Object[] {"bob", null, "u1"}, params));
+        assertEquals(asList("bob", "bob", "bob", "u1"), params);
+    }
+
+    @Test public void testCursorRoundTrip () {
+        final Timestamp ts = Timestamp.valueOf("2020-02-29 13:14:15.123456789");
+        final Object[] values = {
+                "some name", 42, 1234567890123L, true,
+                ts, Date.valueOf("2021-12-31"), new BigDecimal("12345.678900"), 0.1d, "uuid-1"
+        };
+        final Object[] decoded = SqlViewSearchHelper.decodeCursor(SqlViewSearchHelper.encodeCursor(values), values.length);
+
+        assertArrayEquals(values, decoded);
+        for (int i=0; i<values.length; i++) assertEquals("type of value #"+i, values[i].getClass(), decoded[i].getClass());
+        assertEquals("nanos are kept", ts.getNanos(), ((Timestamp) decoded[4]).getNanos());
+    }
+
+    @Test public void testCursorWithNulls () {
+        final Object[] values = {null, 42L, "u1"};
+        assertArrayEquals(values, SqlViewSearchHelper.decodeCursor(SqlViewSearchHelper.encodeCursor(values), values.length));
+    }
+
+    @Test public void testCursorWidensShortAndFloat () {
+        final Object[] decoded = SqlViewSearchHelper.decodeCursor(SqlViewSearchHelper.encodeCursor(new Object[] {(short) 7, 1.5f}), 2);
+        assertEquals(7, decoded[0]);
+        assertEquals(1.5d, decoded[1]);
+    }
+
+    @Test(expected=RuntimeException.class) public void testCursorRejectsUnsupportedType () {
+        SqlViewSearchHelper.encodeCursor(new Object[] {"a", new Object()});
+    }
+
+    public static final String[] INVALID_CURSORS = {
+            "",
+            "not base64 !",
+            encode("not json"),
+            encode("{\"a\": 1}"),
+            encode("[\"a\"]"),                      // one value, the sort has two columns
+            encode("[\"a\", \"b\", \"c\"]"),
+            encode("[\"a\", [1, 2]]"),
+            encode("[\"a\", {\"xyz\": \"1\"}]"),    // unknown type
+            encode("[\"a\", {\"ts\": \"yesterday\"}]"),
+            encode("[\"a\", {\"dec\": 12}]"),
+            encode("[\"a\", {\"ts\": \"2020-01-01 00:00:00\", \"dec\": \"1\"}]"),
+    };
+
+    @Test public void testInvalidCursors () {
+        for (String cursor : INVALID_CURSORS) {
+            try {
+                SqlViewSearchHelper.decodeCursor(cursor, 2);
+                fail("expected invalid cursor to be rejected: "+cursor);
+            } catch (RuntimeException expected) {}
+        }
+    }
+
+    public static class NameResult implements SqlViewSearchResult {
+        @Getter private String name;
+        @Getter private final RelatedEntities related = new RelatedEntities();
+        @Override public RelatedEntities related() { return related; }
+    }
+
+    private static final SqlViewField[] NAME_FIELDS = { new SqlViewField("name").encrypted().filter() };
+
+    private static SearchResults<NameResult> matchingPage(SearchQuery query, String... names) {
+        final List<Map<String, Object>> rows = Arrays.stream(names)
+                .map(n -> Collections.<String, Object>singletonMap("name", n))
+                .collect(Collectors.toList());
+        return SqlViewSearchHelper.matchingPage(rows.iterator(), row -> {
+            final NameResult r = new NameResult();
+            r.name = (String) row.get("name");
+            return r;
+        }, NAME_FIELDS, query);
+    }
+
+    @Test public void testNgramCandidateThatDoesNotMatchIsDropped () {
+        // "abcxbcd" has both trigrams of "abcd", so the blind index returns it, but "abcd" is not in it
+        final BlindIndexer indexer = new BlindIndexer("test-secret");
+        assertTrue(indexer.indexTokens(BlindIndexType.ngram, "name", "abcxbcd")
+                .containsAll(indexer.queryTokens(BlindIndexType.ngram, "name", "abcd")));
+
+        final SearchResults<NameResult> results = matchingPage(new SearchQuery(1, 10, null, ASC, "abcd"), "xabcdx", "abcxbcd", "ABCD");
+        assertEquals(2, (int) results.getTotalCount());
+        assertEquals(asList("xabcdx", "ABCD"), results.getResults().stream().map(NameResult::getName).collect(Collectors.toList()));
+    }
+
+    @Test public void testMatchingPageCountsAllMatches () {
+        final SearchResults<NameResult> results = matchingPage(new SearchQuery(2, 2, null, ASC, "abc"),
+                "abc1", "nope", "abc2", "abc3", "abxc", "abc4", "abc5");
+        assertEquals(5, (int) results.getTotalCount());
+        assertEquals(asList("abc3", "abc4"), results.getResults().stream().map(NameResult::getName).collect(Collectors.toList()));
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
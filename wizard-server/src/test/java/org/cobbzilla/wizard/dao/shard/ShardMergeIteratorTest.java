@@ -0,0 +1,105 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import org.cobbzilla.wizard.dao.shard.task.ShardCursorTask;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class ShardMergeIteratorTest {
+
+    public static final Comparator<Integer> ASCENDING = Comparator.naturalOrder();
+
+    @Test public void testMergesInOrder () {
+        final List<ShardCursorTask> cursors = cursors(asList(1, 4, 7, 10), asList(2, 5, 8), Collections.<Integer>emptyList(), asList(3, 6, 9, 11, 12));
+        assertEquals(asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12), readAll(new ShardMergeIterator<>(cursors, ASCENDING, 100, null)));
+        assertAllCancelled(cursors);
+    }
+
+    @Test public void testDescendingWithDuplicates () {
+        final List<ShardCursorTask> cursors = cursors(asList(9, 5, 5, 1), asList(8, 5, 2));
+        assertEquals(asList(9, 8, 5, 5, 5, 2, 1), readAll(new ShardMergeIterator<>(cursors, ASCENDING.reversed(), 100, null)));
+    }
+
+    @Test public void testStopsAtMaxResults () {
+        final List<ShardCursorTask> cursors = cursors(asList(1, 3, 5, 7), asList(2, 4, 6, 8));
+        assertEquals(asList(1, 2, 3), readAll(new ShardMergeIterator<>(cursors, ASCENDING, 3, null)));
+        assertAllCancelled(cursors);
+
+        // the last row returned (3) does not pull another row from its shard
+        assertEquals(2, ((ListCursor) cursors.get(0)).reads);
+        assertEquals(2, ((ListCursor) cursors.get(1)).reads);
+    }
+
+    @Test public void testNoCursors () {
+        assertFalse(new ShardMergeIterator<>(new ArrayList<>(), ASCENDING, 10, null).hasNext());
+    }
+
+    @Test public void testCloseCancels () {
+        final List<ShardCursorTask> cursors = cursors(asList(1, 2), asList(3, 4));
+        final ShardMergeIterator<Integer> merge = new ShardMergeIterator<>(cursors, ASCENDING, 100, null);
+        assertEquals(1, (int) merge.next());
+        merge.close();
+        assertAllCancelled(cursors);
+        assertFalse(merge.hasNext());
+    }
+
+    @Test public void testShardFailure () {
+        final ListCursor failing = new ListCursor(asList(2));
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException("shard query failed"));
+        failing.setFuture(future);
+        final List<ShardCursorTask> cursors = asList(new ListCursor(asList(1, 3, 5)), failing);
+
+        final ShardMergeIterator<Integer> merge = new ShardMergeIterator<>(cursors, ASCENDING, 100, null);
+        assertEquals(1, (int) merge.next());
+        try {
+            merge.next(); // 2, then the failing shard sends END and its future throws
+            readAll(merge);
+            fail("expected the failure of the shard task to be rethrown");
+        } catch (RuntimeException expected) {}
+        assertAllCancelled(cursors);
+    }
+
+    private static List<ShardCursorTask> cursors(List<Integer>... rows) {
+        final List<ShardCursorTask> cursors = new ArrayList<>();
+        for (List<Integer> r : rows) cursors.add(new ListCursor(r));
+        return cursors;
+    }
+
+    private static List<Integer> readAll(Iterator<Integer> iter) {
+        final List<Integer> results = new ArrayList<>();
+        while (iter.hasNext()) results.add(iter.next());
+        return results;
+    }
+
+    private static void assertAllCancelled(List<ShardCursorTask> cursors) {
+        for (ShardCursorTask c : cursors) assertTrue(((ListCursor) c).closed);
+    }
+
+    // a shard whose rows are already in memory
+    private static class ListCursor extends ShardCursorTask {
+        private final Iterator<Integer> rows;
+        private int reads = 0;
+        private boolean closed = false; // not "cancelled", ShardTask has a field with that name
+
+        ListCursor(List<Integer> rows) {
+            super(null, null, null, rows.size(), 1, Long.MAX_VALUE);
+            this.rows = rows.iterator();
+        }
+
+        @Override public Object next() {
+            reads++;
+            return rows.hasNext() ? rows.next() : END;
+        }
+
+        @Override public void cancel() {
+            super.cancel();
+            closed = true;
+        }
+    }
+
+}
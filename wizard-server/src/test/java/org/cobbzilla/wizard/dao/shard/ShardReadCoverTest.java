@@ -0,0 +1,94 @@
+package org.cobbzilla.wizard.dao.shard;
+
+import org.cobbzilla.wizard.model.shard.ShardMap;
+import org.cobbzilla.wizard.model.shard.ShardRange;
+import org.junit.Test;
+
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class ShardReadCoverTest {
+
+    public static final int TRIES = 50;
+
+    private final Random random = new Random(1);
+
+    @Test public void testOneReplicaPerRange () {
+        final List<ShardMap> shards = asList(map(0, 50, "db1"), map(0, 50, "db2"), map(50, 100, "db3"));
+        for (int i=0; i<TRIES; i++) {
+            final List<ShardMap> picked = ShardReadCover.pick(shards, random);
+            assertEquals(2, picked.size());
+            assertTrue(urls(picked).contains("db3"));
+        }
+    }
+
+    @Test public void testSharedReplicaIsNotReadTwice () {
+        // db2 has both ranges: reading A from db1 or db2 and B from db2 or db3 independently could read A's rows twice
+        final List<ShardMap> shards = asList(map(0, 50, "db1"), map(0, 50, "db2"), map(50, 100, "db2"), map(50, 100, "db3"));
+        final Set<Set<String>> seen = new HashSet<>();
+        for (int i=0; i<TRIES; i++) {
+            final Set<String> urls = urls(ShardReadCover.pick(shards, random));
+            assertTrue("read a range twice: "+urls, urls.equals(set("db2")) || urls.equals(set("db1", "db3")));
+            seen.add(urls);
+        }
+        assertEquals("both covers should be picked", 2, seen.size());
+    }
+
+    @Test public void testSplitSourceIsReadOnce () {
+        // both halves of a source split by ShardRebalancer.retire are in one database
+        final List<ShardMap> shards = asList(map(0, 25, "src"), map(50, 100, "src"), map(25, 50, "target"));
+        for (int i=0; i<TRIES; i++) {
+            final List<ShardMap> picked = ShardReadCover.pick(shards, random);
+            assertEquals(2, picked.size());
+            assertEquals(set("src", "target"), urls(picked));
+        }
+    }
+
+    @Test public void testInnerRangeIsReadFromWiderRange () {
+        // a rebalance target that is open for reads before the source is retired
+        final List<ShardMap> shards = asList(map(0, 100, "src"), map(25, 50, "target"));
+        for (int i=0; i<TRIES; i++) {
+            assertEquals(set("src"), urls(ShardReadCover.pick(shards, random)));
+        }
+    }
+
+    @Test public void testDatabaseWithPartOfARangeIsNotPicked () {
+        // db2 is a replica of B, and also has rows of A through an inner range: picking it would read those twice
+        final List<ShardMap> shards = asList(map(0, 50, "db1"), map(10, 20, "db2"), map(50, 100, "db2"), map(50, 100, "db3"));
+        for (int i=0; i<TRIES; i++) {
+            assertEquals(set("db1", "db3"), urls(ShardReadCover.pick(shards, random)));
+        }
+    }
+
+    @Test public void testNoExactCover () {
+        // every database has two of three ranges: every range is still read
+        final List<ShardMap> shards = asList(map(0, 10, "db1"), map(0, 10, "db2"),
+                                             map(10, 20, "db2"), map(10, 20, "db3"),
+                                             map(20, 30, "db3"), map(20, 30, "db1"));
+        final Set<ShardRange> ranges = new HashSet<>();
+        for (ShardMap m : ShardReadCover.pick(shards, random)) {
+            for (ShardMap s : shards) if (s.getUrl().equals(m.getUrl())) ranges.add(s.getRange());
+        }
+        assertEquals(3, ranges.size());
+    }
+
+    private static ShardMap map(int start, int end, String url) {
+        final ShardMap map = new ShardMap();
+        map.setShardSet("test");
+        map.setRange(new ShardRange(start, end));
+        map.setUrl(url);
+        map.setAllowRead(true);
+        return map;
+    }
+
+    private static Set<String> urls(List<ShardMap> maps) {
+        final Set<String> urls = new HashSet<>();
+        for (ShardMap m : maps) assertTrue("database read twice: "+maps, urls.add(m.getUrl()));
+        return urls;
+    }
+
+    private static Set<String> set(String... values) { return new HashSet<>(asList(values)); }
+
+}
@@ -0,0 +1,80 @@
+package org.cobbzilla.wizard.dao.shard.hash;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class ShardHasherTest {
+
+    // published MurmurHash3 x86_32 test vectors: input, seed, hash
+    public static final Object[][] MURMUR3_VECTORS = {
+            { "",                                            0,    0x00000000 },
+            { "",                                            1,    0x514e28b7 },
+            { "hello",                                       0,    0x248bfa47 },
+            { "Hello, world!",                               1234, 0xfaf6cdb3 },
+            { "The quick brown fox jumps over the lazy dog", 0,    0x2e4ff723 },
+    };
+
+    // every tail length (0-3 bytes after the last 4-byte block)
+    public static final Object[][] MURMUR3_TAILS = {
+            { "a",    0x3c2569b2 },
+            { "ab",   0x9bbfd75f },
+            { "abc",  0xb3dd93fa },
+            { "abcd", 0x43ed676a },
+    };
+
+    public static final int[] LOGICAL_SHARDS = { 1, 2, 3, 7, 64, 1000, 1 << 20 };
+
+    @Test public void testMurmur3Vectors () {
+        for (Object[] test : MURMUR3_VECTORS) {
+            final byte[] data = test[0].toString().getBytes(StandardCharsets.UTF_8);
+            assertEquals("hash of '"+test[0]+"' with seed "+test[1], (int) test[2], Murmur3ShardHasher.hash(data, (int) test[1]));
+        }
+        for (Object[] test : MURMUR3_TAILS) {
+            final byte[] data = test[0].toString().getBytes(StandardCharsets.UTF_8);
+            assertEquals("hash of '"+test[0]+"'", (int) test[1], Murmur3ShardHasher.hash(data, Murmur3ShardHasher.DEFAULT_SEED));
+        }
+    }
+
+    @Test public void testMurmur3LogicalShardInRange () {
+        final Murmur3ShardHasher hasher = new Murmur3ShardHasher();
+        for (int i=0; i<1000; i++) {
+            final String id = UUID.randomUUID().toString();
+            for (int shards : LOGICAL_SHARDS) {
+                final int shard = hasher.logicalShard(id, shards);
+                assertTrue("shard "+shard+" out of range for "+shards+" shards", shard >= 0 && shard < shards);
+                assertEquals(shard, hasher.logicalShard(id, shards));
+            }
+        }
+        // hashes are negative about half of the time, those must still map into range
+        final int hash = Murmur3ShardHasher.hash("hello".getBytes(StandardCharsets.UTF_8), 0);
+        assertEquals(Math.floorMod(hash, 7), hasher.logicalShard("hello", 7));
+    }
+
+    @Test public void testSha256ReadsFirst28Bits () {
+        // sha256("a") = ca978112..., the first 7 hex digits are 0xca97811
+        final int moreThan28Bits = 1 << 30;
+        assertEquals(0xca97811, new Sha256ShardHasher().logicalShard("a", moreThan28Bits));
+        assertEquals(0xca97811 % 1000, new Sha256ShardHasher().logicalShard("a", 1000));
+    }
+
+    @Test public void testSha256MatchesLegacy () {
+        final Sha256ShardHasher hasher = new Sha256ShardHasher();
+        for (int i=0; i<1000; i++) {
+            final String id = UUID.randomUUID().toString();
+            for (int shards : LOGICAL_SHARDS) {
+                assertEquals("id="+id+", shards="+shards,
+                             Sha256ShardHasher.legacyLogicalShard(id, shards), hasher.logicalShard(id, shards));
+            }
+        }
+    }
+
+    @Test public void testHashTypes () {
+        assertSame(ShardHashType.sha256, ShardHashType.fromString("SHA256"));
+        assertTrue(ShardHashType.murmur3.getHasher() instanceof Murmur3ShardHasher);
+    }
+
+}
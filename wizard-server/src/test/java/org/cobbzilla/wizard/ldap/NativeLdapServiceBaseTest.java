@@ -0,0 +1,130 @@
+package org.cobbzilla.wizard.ldap;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import org.cobbzilla.wizard.model.ldap.LdapBindException;
+import org.cobbzilla.wizard.model.search.SearchQuery;
+import org.cobbzilla.wizard.model.search.SearchSort;
+import org.cobbzilla.wizard.model.search.SortOrder;
+import org.cobbzilla.wizard.server.config.LdapConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NativeLdapServiceBaseTest {
+
+    public static final String BASE_DN = "dc=example,dc=com";
+    public static final String ADMIN_DN = "cn=Directory Manager";
+    public static final String ADMIN_PASSWORD = "admin-password";
+    public static final String USER_PASSWORD = "user-password";
+
+    // three users, so a page size of 2 needs two pages
+    public static final String[][] USERS = {
+            // uid,    sn
+            { "alice", "Baker" },
+            { "bob",   "Cooper" },
+            { "carol", "Archer" },
+    };
+
+    private InMemoryDirectoryServer server;
+    private LdapConfiguration config;
+    private NativeLdapServiceBase ldap;
+
+    @Before public void startServer () throws Exception {
+        final InMemoryDirectoryServerConfig serverConfig = new InMemoryDirectoryServerConfig(BASE_DN);
+        serverConfig.addAdditionalBindCredentials(ADMIN_DN, ADMIN_PASSWORD);
+        serverConfig.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("default", 0));
+        server = new InMemoryDirectoryServer(serverConfig);
+        server.startListening();
+
+        config = new LdapConfiguration();
+        config.setJson("{\"server\": \"ldap://127.0.0.1:"+server.getListenPort()+"\", "
+                + "\"domain\": \"example.com\", \"admin_dn\": \""+ADMIN_DN+"\", \"page_size\": \"2\"}");
+        config.setPassword(ADMIN_PASSWORD);
+        ldap = new TestLdapService(config);
+
+        final StringBuilder ldif = new StringBuilder()
+                .append("dn: ").append(BASE_DN).append("\nobjectClass: top\nobjectClass: domain\ndc: example\n\n")
+                .append("dn: ").append(config.getUser_dn()).append("\nobjectClass: top\nobjectClass: organizationalUnit\nou: ").append(config.getUsers()).append("\n");
+        for (String[] user : USERS) {
+            ldif.append("\ndn: ").append(config.userDN(user[0]))
+                    .append("\nobjectClass: inetOrgPerson\nuid: ").append(user[0])
+                    .append("\ncn: ").append(user[0]).append("\nsn: ").append(user[1])
+                    .append("\nuserPassword: ").append(USER_PASSWORD).append("\n");
+        }
+        assertEquals(0, ldap.ldapadd(ldif.toString()).getExitStatus());
+    }
+
+    @After public void stopServer () { if (server != null) server.shutDown(true); }
+
+    @Test public void testSearchPagesAndSorts () {
+        final SearchQuery query = new SearchQuery();
+        query.setFilter("people");
+        query.addSort(new SearchSort("sn", SortOrder.DESC));
+
+        final List<SearchResultEntry> entries = ldap.rootsearchEntries(query);
+        assertEquals(USERS.length, entries.size());
+        assertEquals("bob", entries.get(0).getAttributeValue("uid"));
+        assertEquals("alice", entries.get(1).getAttributeValue("uid"));
+        assertEquals("carol", entries.get(2).getAttributeValue("uid"));
+    }
+
+    @Test public void testSearchByDn () {
+        final List<SearchResultEntry> found = ldap.rootsearchEntries(config.userDN("alice"));
+        assertEquals(1, found.size());
+        assertEquals("Baker", found.get(0).getAttributeValue("sn"));
+
+        assertTrue(ldap.rootsearchEntries(config.userDN("nobody")).isEmpty());
+    }
+
+    @Test public void testSearchAsUser () {
+        final SearchQuery query = new SearchQuery();
+        query.setFilter("people");
+        assertEquals(USERS.length, ldap.searchEntries(config.userDN("alice"), USER_PASSWORD, query).size());
+    }
+
+    @Test public void testBindFailure () {
+        try {
+            ldap.searchEntries(config.userDN("alice"), "wrong-password", new SearchQuery());
+            fail("expected LdapBindException for a wrong password");
+        } catch (LdapBindException expected) {}
+
+        try {
+            ldap.searchEntries(config.userDN("nobody"), USER_PASSWORD, new SearchQuery());
+            fail("expected LdapBindException for an unknown user");
+        } catch (LdapBindException expected) {}
+
+        // the connection went back to the pool bound as the admin again
+        assertEquals(1, ldap.rootsearchEntries(config.userDN("bob")).size());
+    }
+
+    @Test public void testApplyLdif () {
+        final String dn = config.userDN("alice");
+        assertEquals(0, ldap.ldapmodify("dn: "+dn+"\nchangetype: modify\nreplace: sn\nsn: Smith\n").getExitStatus());
+        assertEquals("Smith", ldap.rootsearchEntries(dn).get(0).getAttributeValue("sn"));
+
+        assertEquals(0, ldap.ldapdelete(dn).getExitStatus());
+        assertTrue(ldap.rootsearchEntries(dn).isEmpty());
+    }
+
+    private static class TestLdapService extends NativeLdapServiceBase {
+        private final LdapConfiguration config;
+        TestLdapService(LdapConfiguration config) { this.config = config; }
+
+        @Override public LdapConfiguration getConfiguration() { return config; }
+
+        @Override protected String ldapFilter(String base, String filter, Map<String, String> bounds) {
+            return "(objectClass=inetOrgPerson)";
+        }
+
+        @Override protected String ldapField(String base, String javaName) { return javaName; }
+    }
+
+}
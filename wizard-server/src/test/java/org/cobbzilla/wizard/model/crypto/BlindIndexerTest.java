@@ -0,0 +1,80 @@
+package org.cobbzilla.wizard.model.crypto;
+
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.cobbzilla.wizard.model.search.BlindIndexType.*;
+import static org.junit.Assert.*;
+
+public class BlindIndexerTest {
+
+    public static final String SECRET = "test-secret";
+
+    private final BlindIndexer indexer = new BlindIndexer(SECRET);
+
+    @Test public void testTokens () {
+        final String token = indexer.token("name", 'e', "bob");
+        assertEquals(22, token.length()); // 16 bytes, base64 without padding
+        assertEquals(token, new BlindIndexer(SECRET).token("name", 'e', "bob"));
+        assertNotEquals(token, new BlindIndexer("other-secret").token("name", 'e', "bob"));
+        assertNotEquals(token, indexer.token("email", 'e', "bob"));
+        assertNotEquals(token, indexer.token("name", 'p', "bob"));
+    }
+
+    @Test public void testNormalize () {
+        assertEquals(indexer.indexTokens(exact, "name", "bob"), indexer.indexTokens(exact, "name", "  BoB "));
+        assertEquals(indexer.indexTokens(exact, "name", "bob"), indexer.queryTokens(exact, "name", "BOB"));
+        assertTrue(indexer.indexTokens(exact, "name", null).isEmpty());
+        assertTrue(indexer.indexTokens(exact, "name", "   ").isEmpty());
+        assertTrue(indexer.indexTokens(none, "name", "bob").isEmpty());
+        assertTrue(indexer.queryTokens(exact, "name", "").isEmpty());
+    }
+
+    @Test public void testPrefix () {
+        final Set<String> tokens = indexer.indexTokens(prefix, "name", "robert");
+        assertEquals("robert".length(), tokens.size());
+        for (String filter : new String[] {"r", "Rob", "robert"}) {
+            assertTrue(filter, tokens.containsAll(indexer.queryTokens(prefix, "name", filter)));
+        }
+        assertFalse(tokens.containsAll(indexer.queryTokens(prefix, "name", "bert")));
+
+        final StringBuilder longValue = new StringBuilder();
+        for (int i=0; i<BlindIndexer.MAX_PREFIX_LENGTH*2; i++) longValue.append((char) ('a' + i % 26));
+        assertEquals(BlindIndexer.MAX_PREFIX_LENGTH, indexer.indexTokens(prefix, "name", longValue).size());
+        assertTrue(indexer.indexTokens(prefix, "name", longValue).containsAll(indexer.queryTokens(prefix, "name", longValue.toString())));
+    }
+
+    @Test public void testNgramOnlyIndexesTrigrams () {
+        assertEquals("robert".length() - 2, indexer.indexTokens(ngram, "name", "robert").size());
+        assertEquals(1, indexer.indexTokens(ngram, "name", "bob").size());
+        assertTrue(indexer.indexTokens(ngram, "name", "bo").isEmpty());
+        assertTrue(indexer.indexTokens(ngram, "name", "b").isEmpty());
+    }
+
+    @Test public void testNgramQuery () {
+        final Set<String> tokens = indexer.indexTokens(ngram, "name", "Robert Smith");
+        for (String filter : new String[] {"rob", "BERT", "t sm", "robert smith"}) {
+            assertTrue(filter, tokens.containsAll(indexer.queryTokens(ngram, "name", filter)));
+        }
+        assertFalse(tokens.containsAll(indexer.queryTokens(ngram, "name", "bob")));
+    }
+
+    @Test public void testIndexable () {
+        assertFalse(indexer.indexable(ngram, "a"));
+        assertFalse(indexer.indexable(ngram, " ab "));
+        assertTrue(indexer.indexable(ngram, "abc"));
+        assertTrue(indexer.indexable(ngram, ""));
+        assertTrue(indexer.indexable(exact, "a"));
+        assertTrue(indexer.indexable(prefix, "a"));
+    }
+
+    @Test(expected=RuntimeException.class) public void testShortNgramQueryFails () {
+        indexer.queryTokens(ngram, "name", "ab");
+    }
+
+    @Test(expected=RuntimeException.class) public void testNoSecret () {
+        new BlindIndexer("");
+    }
+
+}